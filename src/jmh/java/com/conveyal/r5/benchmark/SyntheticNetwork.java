@@ -0,0 +1,288 @@
+package com.conveyal.r5.benchmark;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.model.Agency;
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.FeedInfo;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.EdgeStore;
+import com.conveyal.r5.streets.StreetLayer;
+import com.conveyal.r5.transit.TransferFinder;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.mapdb.Fun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Builds a TransportNetwork entirely in memory, with no OSM or GTFS input files, so benchmarks can run offline and
+ * always measure the same network. The streets are a square grid of two-way streets open to all modes. Bus lines run
+ * in both directions along every few streets in each direction, with stops at regular intervals along each line.
+ * Stops are offset slightly from the streets so linking them splits street edges, as it would in a real network.
+ *
+ * The size of the network can be changed through the public fields before calling build(). The defaults give a
+ * region about 20km on a side with about ten thousand intersections and several hundred stops, which builds in a few
+ * seconds but is large enough that routing and propagation times are dominated by the inner loops being measured.
+ */
+public class SyntheticNetwork {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticNetwork.class);
+
+    private static final double METERS_PER_DEGREE_LATITUDE = 111_111;
+
+    /** The latitude and longitude of the southwest corner of the street grid. */
+    public double originLat = 45.5;
+    public double originLon = -122.7;
+
+    /** Number of streets running in each direction (north-south and east-west). */
+    public int streetsPerSide = 100;
+
+    /** Distance between adjacent parallel streets. */
+    public int blockLengthMeters = 200;
+
+    /** A bidirectional bus line runs along every nth street in each direction. */
+    public int blocksBetweenLines = 8;
+
+    /** Number of blocks between consecutive stops on each bus line. */
+    public int blocksBetweenStops = 2;
+
+    /** Time between consecutive departures on every bus line. */
+    public int headwaySeconds = 10 * 60;
+
+    /** Time for a bus to travel one block, including dwell time at stops. */
+    public int secondsPerBlock = 30;
+
+    /** Buses run from the first until the last departure time, in seconds after midnight. */
+    public int firstDepartureSeconds = 6 * 60 * 60;
+    public int lastDepartureSeconds = 10 * 60 * 60;
+
+    /** The day of service for which tasks are created. Buses run every day. */
+    public LocalDate date = LocalDate.of(2020, 1, 15);
+
+    /** Also build the linked full-extent grid and its egress cost tables for these modes. */
+    public EnumSet<StreetMode> linkedGridModes = EnumSet.of(StreetMode.WALK);
+
+    private double degreesLatPerBlock () {
+        return blockLengthMeters / METERS_PER_DEGREE_LATITUDE;
+    }
+
+    private double degreesLonPerBlock () {
+        return degreesLatPerBlock() / Math.cos(Math.toRadians(originLat));
+    }
+
+    public double centerLat () {
+        return originLat + degreesLatPerBlock() * (streetsPerSide - 1) / 2;
+    }
+
+    public double centerLon () {
+        return originLon + degreesLonPerBlock() * (streetsPerSide - 1) / 2;
+    }
+
+    /**
+     * Build the street and transit layers and everything derived from them, following the same steps as
+     * TransportNetwork.fromFiles().
+     */
+    public TransportNetwork build () {
+        LOG.info("Building synthetic network with {} streets on each side.", streetsPerSide);
+        TransportNetwork network = new TransportNetwork();
+
+        StreetLayer streetLayer = new StreetLayer(new TNBuilderConfig());
+        network.streetLayer = streetLayer;
+        streetLayer.parentNetwork = network;
+        buildStreetGrid(streetLayer);
+        streetLayer.indexStreets();
+
+        TransitLayer transitLayer = new TransitLayer();
+        GTFSFeed feed = buildFeed();
+        try {
+            transitLayer.loadFromGtfs(feed);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not load synthetic GTFS feed.", e);
+        } finally {
+            feed.close();
+        }
+        network.transitLayer = transitLayer;
+        transitLayer.parentNetwork = network;
+
+        streetLayer.associateStops(transitLayer);
+        streetLayer.buildEdgeLists();
+        transitLayer.rebuildTransientIndexes();
+        new TransferFinder(network).findTransfers();
+        transitLayer.buildDistanceTables(null);
+        if (!linkedGridModes.isEmpty()) {
+            network.rebuildLinkedGridPointSet(linkedGridModes.toArray(new StreetMode[0]));
+        }
+        network.scenarioId = "synthetic";
+        LOG.info("Done building synthetic network with {} vertices, {} edges and {} stops.",
+                streetLayer.vertexStore.getVertexCount(), streetLayer.edgeStore.nEdges(), transitLayer.getStopCount());
+        return network;
+    }
+
+    private void buildStreetGrid (StreetLayer streetLayer) {
+        int[][] vertexForIntersection = new int[streetsPerSide][streetsPerSide];
+        for (int y = 0; y < streetsPerSide; y++) {
+            for (int x = 0; x < streetsPerSide; x++) {
+                double lat = originLat + y * degreesLatPerBlock();
+                double lon = originLon + x * degreesLonPerBlock();
+                vertexForIntersection[y][x] = streetLayer.vertexStore.addVertex(lat, lon);
+                streetLayer.envelope.expandToInclude(lon, lat);
+            }
+        }
+        final int lengthMillimeters = blockLengthMeters * 1000;
+        long wayId = 0;
+        for (int y = 0; y < streetsPerSide; y++) {
+            for (int x = 0; x < streetsPerSide; x++) {
+                if (x + 1 < streetsPerSide) {
+                    addStreet(streetLayer, vertexForIntersection[y][x], vertexForIntersection[y][x + 1],
+                            lengthMillimeters, wayId++);
+                }
+                if (y + 1 < streetsPerSide) {
+                    addStreet(streetLayer, vertexForIntersection[y][x], vertexForIntersection[y + 1][x],
+                            lengthMillimeters, wayId++);
+                }
+            }
+        }
+    }
+
+    private static void addStreet (StreetLayer streetLayer, int fromVertex, int toVertex, int lengthMm, long wayId) {
+        EdgeStore.Edge edge = streetLayer.edgeStore.addStreetPair(fromVertex, toVertex, lengthMm, wayId);
+        // Set the same flags on the forward and backward edge of the pair.
+        for (int i = 0; i < 2; i++) {
+            edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN);
+            edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_BIKE);
+            edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_CAR);
+            edge.setFlag(EdgeStore.EdgeFlag.ALLOWS_WHEELCHAIR);
+            edge.setFlag(EdgeStore.EdgeFlag.LINKABLE);
+            edge.setFlag(EdgeStore.EdgeFlag.BIKE_LTS_2);
+            edge.advance();
+        }
+    }
+
+    /**
+     * Make a GTFS feed with one route along every few streets in each direction, and trips in both directions on
+     * each route.
+     */
+    private GTFSFeed buildFeed () {
+        GTFSFeed feed = new GTFSFeed();
+        feed.feedId = "synthetic";
+        FeedInfo feedInfo = new FeedInfo();
+        feedInfo.feed_id = feed.feedId;
+        feed.feedInfo.put("NONE", feedInfo);
+
+        Agency agency = new Agency();
+        agency.agency_id = "agency";
+        agency.agency_name = "Synthetic Transit";
+        agency.agency_timezone = "America/Los_Angeles";
+        try {
+            agency.agency_url = new URL("http://www.example.com");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        feed.agency.put(agency.agency_id, agency);
+
+        Service service = new Service("daily");
+        service.calendar = new Calendar();
+        service.calendar.service_id = service.service_id;
+        service.calendar.monday = service.calendar.tuesday = service.calendar.wednesday = service.calendar.thursday =
+                service.calendar.friday = service.calendar.saturday = service.calendar.sunday = 1;
+        service.calendar.start_date = 19991231;
+        service.calendar.end_date = 21001231;
+        feed.services.put(service.service_id, service);
+
+        for (int line = 0; line < streetsPerSide; line += blocksBetweenLines) {
+            // An east-west line along the street at this row, and a north-south line along the street at this column.
+            addLine(feed, agency, service, "ew" + line, line, true);
+            addLine(feed, agency, service, "ns" + line, line, false);
+        }
+        return feed;
+    }
+
+    private void addLine (GTFSFeed feed, Agency agency, Service service, String routeId, int street, boolean eastWest) {
+        Route route = new Route();
+        route.route_id = routeId;
+        route.route_short_name = routeId;
+        route.route_type = Route.BUS;
+        route.agency_id = agency.agency_id;
+        feed.routes.put(route.route_id, route);
+
+        // Stops are placed a few meters to the side of the street so that linking them must split street edges.
+        final double offsetDegrees = 10 / METERS_PER_DEGREE_LATITUDE;
+        List<String> stopIds = new ArrayList<>();
+        for (int block = 0; block < streetsPerSide; block += blocksBetweenStops) {
+            Stop stop = new Stop();
+            stop.stop_id = stop.stop_name = String.join("_", routeId, Integer.toString(block));
+            stop.feed_id = feed.feedId;
+            if (eastWest) {
+                stop.stop_lat = originLat + street * degreesLatPerBlock() + offsetDegrees;
+                stop.stop_lon = originLon + block * degreesLonPerBlock() + offsetDegrees;
+            } else {
+                stop.stop_lat = originLat + block * degreesLatPerBlock() + offsetDegrees;
+                stop.stop_lon = originLon + street * degreesLonPerBlock() + offsetDegrees;
+            }
+            feed.stops.put(stop.stop_id, stop);
+            stopIds.add(stop.stop_id);
+        }
+
+        for (int departure = firstDepartureSeconds; departure <= lastDepartureSeconds; departure += headwaySeconds) {
+            for (int direction = 0; direction < 2; direction++) {
+                Trip trip = new Trip();
+                trip.trip_id = String.join("_", routeId, Integer.toString(direction), Integer.toString(departure));
+                trip.route_id = route.route_id;
+                trip.service_id = service.service_id;
+                trip.direction_id = direction;
+                feed.trips.put(trip.trip_id, trip);
+                for (int s = 0; s < stopIds.size(); s++) {
+                    StopTime stopTime = new StopTime();
+                    stopTime.trip_id = trip.trip_id;
+                    stopTime.stop_id = stopIds.get(direction == 0 ? s : stopIds.size() - 1 - s);
+                    stopTime.stop_sequence = s;
+                    stopTime.arrival_time = stopTime.departure_time =
+                            departure + s * blocksBetweenStops * secondsPerBlock;
+                    feed.stop_times.put(new Fun.Tuple2(stopTime.trip_id, stopTime.stop_sequence), stopTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a single-point task with an origin at the center of the network, with destinations on the full extent
+     * grid of the network. The departure time window falls within the hours of bus service.
+     */
+    public TravelTimeSurfaceTask createTask (TransportNetwork network) {
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.fromLat = centerLat();
+        task.fromLon = centerLon();
+        task.date = date;
+        task.fromTime = firstDepartureSeconds + 60 * 60;
+        task.toTime = task.fromTime + 60 * 60;
+        task.accessModes = EnumSet.of(LegMode.WALK);
+        task.egressModes = EnumSet.of(LegMode.WALK);
+        task.directModes = EnumSet.of(LegMode.WALK);
+        task.transitModes = EnumSet.allOf(TransitModes.class);
+        task.monteCarloDraws = 200;
+        task.maxTripDurationMinutes = 120;
+        task.percentiles = new int[] {5, 25, 50, 75, 95};
+        task.zoom = network.fullExtentGridPointSet.zoom;
+        task.west = network.fullExtentGridPointSet.west;
+        task.north = network.fullExtentGridPointSet.north;
+        task.width = network.fullExtentGridPointSet.width;
+        task.height = network.fullExtentGridPointSet.height;
+        return task;
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.conveyal.r5.benchmark;
+
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH state holding a synthetic network and a single-point task on that network. The network is built once per
+ * trial and shared by all benchmark threads, which must treat it as read-only. Benchmark methods receive this state
+ * by declaring it as a parameter.
+ */
+@State(Scope.Benchmark)
+public class SyntheticNetworkState {
+
+    public SyntheticNetwork generator;
+
+    public TransportNetwork network;
+
+    public TravelTimeSurfaceTask task;
+
+    @Setup(Level.Trial)
+    public void buildNetwork () {
+        generator = new SyntheticNetwork();
+        network = generator.build();
+        task = generator.createTask(network);
+    }
+
+}
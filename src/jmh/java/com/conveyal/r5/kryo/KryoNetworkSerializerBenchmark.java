@@ -0,0 +1,58 @@
+package com.conveyal.r5.kryo;
+
+import com.conveyal.r5.benchmark.SyntheticNetworkState;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing the synthetic network to a file and reading it back, which bounds how quickly a worker can start
+ * up once it has downloaded a network. Reading includes rebuilding the transient indexes and linkages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KryoNetworkSerializerBenchmark {
+
+    private File networkFile;
+
+    @Setup(Level.Trial)
+    public void writeNetwork (SyntheticNetworkState state) throws IOException {
+        networkFile = File.createTempFile("r5-benchmark-network-", ".dat");
+        KryoNetworkSerializer.write(state.network, networkFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteNetwork () {
+        networkFile.delete();
+    }
+
+    @Benchmark
+    public File write (SyntheticNetworkState state) throws IOException {
+        KryoNetworkSerializer.write(state.network, networkFile);
+        return networkFile;
+    }
+
+    @Benchmark
+    public TransportNetwork read () throws Exception {
+        return KryoNetworkSerializer.read(networkFile);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.benchmark.SyntheticNetworkState;
+import com.conveyal.r5.streets.StreetRouter;
+import gnu.trove.map.TIntIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete range-RAPTOR search with Monte Carlo draws over a one hour departure window on the synthetic
+ * network, from the stops reached by walking from the center of the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FastRaptorWorkerBenchmark {
+
+    /** The number of slices of the departure window to route in parallel (see FastRaptorWorker.parallelSlices). */
+    @Param({"1", "4"})
+    public int parallelSlices;
+
+    private TIntIntMap accessTimes;
+
+    @Setup(Level.Trial)
+    public void findAccessStops (SyntheticNetworkState state) {
+        accessTimes = findAccessTimes(state);
+    }
+
+    @Benchmark
+    public int[] route (SyntheticNetworkState state) {
+        FastRaptorWorker worker = new FastRaptorWorker(state.network.transitLayer, state.task, accessTimes);
+        worker.parallelSlices = parallelSlices;
+        return worker.route();
+    }
+
+    /** Perform the walk access search from the task origin, as TravelTimeComputer does. */
+    static TIntIntMap findAccessTimes (SyntheticNetworkState state) {
+        StreetRouter streetRouter = new StreetRouter(state.network.streetLayer);
+        streetRouter.profileRequest = state.task;
+        streetRouter.streetMode = StreetMode.WALK;
+        streetRouter.timeLimitSeconds = state.task.getMaxTimeSeconds(StreetMode.WALK);
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+        if (!streetRouter.setOrigin(state.task.fromLat, state.task.fromLon)) {
+            throw new IllegalStateException("Benchmark origin could not be linked to the synthetic network.");
+        }
+        streetRouter.route();
+        return streetRouter.getReachedStops();
+    }
+
+}
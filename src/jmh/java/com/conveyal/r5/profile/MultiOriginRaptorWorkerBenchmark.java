@@ -0,0 +1,66 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.benchmark.SyntheticNetworkState;
+import gnu.trove.map.TIntIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares routing a block of neighboring origins one at a time with FastRaptorWorker against routing them all at once
+ * with MultiOriginRaptorWorker, as is done for blocks of regional analysis tasks. The origins are spaced one block
+ * apart eastward from the center of the synthetic network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MultiOriginRaptorWorkerBenchmark {
+
+    @Param({"8"})
+    public int nOrigins;
+
+    private List<TIntIntMap> accessTimes;
+
+    @Setup(Level.Trial)
+    public void findAccessStops (SyntheticNetworkState state) {
+        double lonStep = state.generator.blockLengthMeters / 111_111.0 / Math.cos(Math.toRadians(state.task.fromLat));
+        double centerLon = state.task.fromLon;
+        accessTimes = new ArrayList<>();
+        for (int o = 0; o < nOrigins; o++) {
+            state.task.fromLon = centerLon + o * lonStep;
+            accessTimes.add(FastRaptorWorkerBenchmark.findAccessTimes(state));
+        }
+        state.task.fromLon = centerLon;
+    }
+
+    @Benchmark
+    public int[][] oneAtATime (SyntheticNetworkState state) {
+        int[][] travelTimes = new int[nOrigins][];
+        for (int o = 0; o < nOrigins; o++) {
+            travelTimes[o] = new FastRaptorWorker(state.network.transitLayer, state.task, accessTimes.get(o)).route();
+        }
+        return travelTimes;
+    }
+
+    @Benchmark
+    public int[][] allAtOnce (SyntheticNetworkState state) {
+        return new MultiOriginRaptorWorker(state.network.transitLayer, state.task, accessTimes).route();
+    }
+
+}
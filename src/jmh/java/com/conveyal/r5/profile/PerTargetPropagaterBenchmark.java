@@ -0,0 +1,75 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.TravelTimeReducer;
+import com.conveyal.r5.benchmark.SyntheticNetworkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Measures propagation of travel times from all stops out to every cell of the full extent grid of the synthetic
+ * network, including summarizing the travel time percentiles at each cell. Travel times to stops are computed once
+ * per trial with FastRaptorWorker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PerTargetPropagaterBenchmark {
+
+    /** Whether to propagate to tiles of targets in parallel (see PerTargetPropagater.parallelTiles). */
+    @Param({"false", "true"})
+    public boolean parallelTiles;
+
+    private int[] travelTimesToStops;
+
+    private int nIterations;
+
+    private int[] nonTransitTravelTimesToTargets;
+
+    @Setup(Level.Trial)
+    public void routeToStops (SyntheticNetworkState state) {
+        FastRaptorWorker worker = new FastRaptorWorker(state.network.transitLayer, state.task,
+                FastRaptorWorkerBenchmark.findAccessTimes(state));
+        travelTimesToStops = worker.route();
+        nIterations = worker.nIterations;
+        // Measure only transit propagation, with all targets unreachable on foot from the origin.
+        nonTransitTravelTimesToTargets = new int[state.network.fullExtentGridPointSet.featureCount()];
+        Arrays.fill(nonTransitTravelTimesToTargets, UNREACHED);
+    }
+
+    @Benchmark
+    public OneOriginResult propagate (SyntheticNetworkState state) {
+        PerTargetPropagater propagater = new PerTargetPropagater(
+                state.network.fullExtentGridPointSet,
+                state.network.streetLayer,
+                EnumSet.of(StreetMode.WALK),
+                state.task,
+                travelTimesToStops,
+                nIterations,
+                nonTransitTravelTimesToTargets
+        );
+        propagater.travelTimeReducer = new TravelTimeReducer(state.task);
+        propagater.parallelTiles = parallelTiles;
+        return propagater.propagate();
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.conveyal.r5.profile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Compares the conventional and branch-free forms of the innermost propagation loop in PerTargetPropagater, which
+ * applies the egress time from one stop to the travel times at that stop for every iteration (departure minute and
+ * Monte Carlo draw) and keeps the minimum at the target.
+ *
+ * Travel times to stops are random, with a configurable fraction UNREACHED. The branchy loop does best when almost all
+ * iterations can be skipped, and worst when the outcome of its comparisons is unpredictable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropagationKernelBenchmark {
+
+    /** Number of stops linked to the target. A typical walk egress reaches tens of stops. */
+    private static final int N_STOPS = 64;
+
+    private static final int MAX_TRAVEL_TIME_SECONDS = 120 * 60;
+
+    /** 120 departure minutes with Monte Carlo draws, as in a typical regional analysis. */
+    @Param({"120", "1200"})
+    public int nIterations;
+
+    /** Fraction of stop travel times that are UNREACHED. */
+    @Param({"0.1", "0.5", "0.9"})
+    public double fractionUnreached;
+
+    private int[] travelTimesToStops;
+
+    private int[] secondsFromStopToTarget;
+
+    private int[] perIterationTravelTimes;
+
+    @Setup(Level.Trial)
+    public void setUpTrial () {
+        Random random = new Random(42);
+        travelTimesToStops = new int[N_STOPS * nIterations];
+        for (int i = 0; i < travelTimesToStops.length; i++) {
+            travelTimesToStops[i] = random.nextDouble() < fractionUnreached
+                    ? UNREACHED
+                    : random.nextInt(MAX_TRAVEL_TIME_SECONDS);
+        }
+        secondsFromStopToTarget = new int[N_STOPS];
+        for (int s = 0; s < N_STOPS; s++) {
+            secondsFromStopToTarget[s] = random.nextInt(20 * 60);
+        }
+        perIterationTravelTimes = new int[nIterations];
+    }
+
+    /** Each invocation propagates to a single target, which starts out unreached at every iteration. */
+    @Setup(Level.Invocation)
+    public void resetTarget () {
+        Arrays.fill(perIterationTravelTimes, UNREACHED);
+    }
+
+    @Benchmark
+    public int[] conventional () {
+        for (int s = 0; s < N_STOPS; s++) {
+            PerTargetPropagater.propagateStop(travelTimesToStops, s * nIterations, secondsFromStopToTarget[s],
+                    MAX_TRAVEL_TIME_SECONDS, perIterationTravelTimes);
+        }
+        return perIterationTravelTimes;
+    }
+
+    @Benchmark
+    public int[] branchFree () {
+        for (int s = 0; s < N_STOPS; s++) {
+            PerTargetPropagater.propagateStopBranchFree(travelTimesToStops, s * nIterations,
+                    secondsFromStopToTarget[s], MAX_TRAVEL_TIME_SECONDS, perIterationTravelTimes);
+        }
+        return perIterationTravelTimes;
+    }
+
+}
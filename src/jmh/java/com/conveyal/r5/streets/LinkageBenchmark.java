@@ -0,0 +1,50 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.progress.NoopProgressListener;
+import com.conveyal.r5.benchmark.SyntheticNetworkState;
+import com.conveyal.r5.profile.StreetMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the two steps of preparing a grid of destinations for analysis: linking each grid cell to the nearest
+ * street edge, and building the tables of distances from each transit stop to the linked grid cells around it.
+ * Neither step uses or updates the linkage cache on the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LinkageBenchmark {
+
+    private LinkedPointSet linkage;
+
+    @Setup(Level.Trial)
+    public void linkGrid (SyntheticNetworkState state) {
+        linkage = linkPointSet(state);
+    }
+
+    @Benchmark
+    public LinkedPointSet linkPointSet (SyntheticNetworkState state) {
+        return new LinkedPointSet(state.network.fullExtentGridPointSet, state.network.streetLayer, StreetMode.WALK, null);
+    }
+
+    @Benchmark
+    public EgressCostTable buildEgressCostTable () {
+        return new EgressCostTable(linkage, new NoopProgressListener());
+    }
+
+}
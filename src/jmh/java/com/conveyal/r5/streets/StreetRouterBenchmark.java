@@ -0,0 +1,48 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.benchmark.SyntheticNetworkState;
+import com.conveyal.r5.profile.StreetMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a street search from the center of the synthetic network, limited by time as in an access search.
+ * The time limit is the same for all modes, so faster modes explore more of the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StreetRouterBenchmark {
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public StreetMode streetMode;
+
+    @Param({"20"})
+    public int timeLimitMinutes;
+
+    @Benchmark
+    public StreetRouter route (SyntheticNetworkState state) {
+        StreetRouter streetRouter = new StreetRouter(state.network.streetLayer);
+        streetRouter.profileRequest = state.task;
+        streetRouter.streetMode = streetMode;
+        streetRouter.timeLimitSeconds = timeLimitMinutes * 60;
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+        streetRouter.setOrigin(state.task.fromLat, state.task.fromLon);
+        streetRouter.route();
+        return streetRouter;
+    }
+
+}
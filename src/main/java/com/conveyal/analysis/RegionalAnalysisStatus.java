@@ -16,6 +16,6 @@ public final class RegionalAnalysisStatus implements Serializable {
 
     public RegionalAnalysisStatus(MultiOriginAssembler assembler) {
         total = assembler.nOriginsTotal;
-        complete = assembler.nComplete;
+        complete = assembler.nComplete.get();
     }
 }
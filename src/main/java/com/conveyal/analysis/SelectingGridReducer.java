@@ -1,6 +1,7 @@
 package com.conveyal.analysis;
 
 import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.cluster.AccessGridValueReader;
 import com.google.common.io.LittleEndianDataInputStream;
 
 import java.io.IOException;
@@ -24,9 +25,6 @@ import java.util.zip.GZIPInputStream;
  */
 public class SelectingGridReducer {
 
-    /** Version of the access grid format we read */
-    private static final int ACCESS_GRID_VERSION = 0;
-
     public final int index;
 
     /** Initialize with the index to extract */
@@ -46,11 +44,9 @@ public class SelectingGridReducer {
             throw new IllegalArgumentException("Input not in access grid format!");
         }
 
+        // Both the fixed-width (0) and variable-width (1) versions of the format can be read.
         int version = input.readInt();
-
-        if (version != ACCESS_GRID_VERSION) {
-            throw new IllegalArgumentException(String.format("Version mismatch of access grids, expected %s, found %s", ACCESS_GRID_VERSION, version));
-        }
+        AccessGridValueReader valueReader = new AccessGridValueReader(input, version);
 
         int zoom = input.readInt();
         int west = input.readInt();
@@ -69,10 +65,10 @@ public class SelectingGridReducer {
 
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                // input values are delta-coded per origin, so use val to keep track of current value
-                for (int iteration = 0, val = 0; iteration < nSamples; iteration++) {
-                    val += input.readInt();
-                    valuesThisOrigin[iteration] = val;
+                // input values are delta-coded per origin
+                valueReader.restartDeltas();
+                for (int iteration = 0; iteration < nSamples; iteration++) {
+                    valuesThisOrigin[iteration] = valueReader.read();
                 }
                 // compute percentiles
                 outputGrid.grid[x][y] = valuesThisOrigin[index];
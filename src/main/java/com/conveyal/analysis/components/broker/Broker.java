@@ -17,8 +17,6 @@ import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
 import com.conveyal.r5.analyst.cluster.WorkerStatus;
 import com.conveyal.r5.analyst.scenario.Scenario;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
 import gnu.trove.TCollections;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.TObjectLongMap;
@@ -31,9 +29,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent.State.CANCELED;
 import static com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent.State.COMPLETED;
@@ -71,10 +70,11 @@ import static com.conveyal.analysis.components.eventbus.WorkerEvent.Role.SINGLE_
  * is serviced, it is taken out of the queue and put at its end. Jobs that have not been serviced
  * float to the top.
  * <p>
- * Most methods on this class are synchronized, because they can be called from many HTTP handler
- * threads at once.
- *
- * TODO evaluate whether synchronizing all methods to make this threadsafe is a performance issue.
+ * Methods on this class can be called from many HTTP handler threads at once. With hundreds of workers
+ * polling and returning results, a single lock on the broker becomes a bottleneck, so the methods on
+ * the paths used by workers (getSomeWork, handleRegionalWorkResult and markTaskCompleted) do not lock
+ * the broker. Jobs are kept in concurrent maps, and each Job tracks task delivery and completion with
+ * atomic operations. Only infrequent operations like enqueueing jobs remain synchronized.
  */
 public class Broker {
 
@@ -96,10 +96,16 @@ public class Broker {
     private final EventBus eventBus;
     private final WorkerLauncher workerLauncher;
 
-    private final ListMultimap<WorkerCategory, Job> jobs =
-            MultimapBuilder.hashKeys().arrayListValues().build();
+    /**
+     * Active jobs for each worker category, in the order they were enqueued. Jobs are added and removed rarely
+     * but these lists are iterated on every poll, so copy-on-write lists are appropriate.
+     */
+    private final Map<WorkerCategory, List<Job>> jobsByCategory = new ConcurrentHashMap<>();
+
+    /** All active jobs, by job ID. Removing a job from this map is what decides which thread finishes the job. */
+    private final Map<String, Job> jobsById = new ConcurrentHashMap<>();
 
-    /** The most tasks to deliver to a worker at a time. */
+    /** The most tasks (or blocks of tasks, see WorkerStatus.originsPerBlock) to deliver to a worker at a time. */
     public final int MAX_TASKS_PER_WORKER = 16;
 
     /**
@@ -132,7 +138,7 @@ public class Broker {
      * These objects piece together results received from workers into one regional analysis result
      * file per job.
      */
-    private static Map<String, MultiOriginAssembler> resultAssemblers = new HashMap<>();
+    private static Map<String, MultiOriginAssembler> resultAssemblers = new ConcurrentHashMap<>();
 
     /**
      * keep track of which graphs we have launched workers on and how long ago we launched them, so
@@ -165,14 +171,15 @@ public class Broker {
         }
         WorkerTags workerTags = WorkerTags.fromRegionalAnalysis(regionalAnalysis);
         Job job = new Job(templateTask, workerTags);
-        jobs.put(job.workerCategory, job);
 
         // Register the regional job so results received from multiple workers can be assembled into one file.
         // TODO encapsulate MultiOriginAssemblers in a new Component
         MultiOriginAssembler assembler =
                 new MultiOriginAssembler(regionalAnalysis, job, config.resultsBucket(), fileStorage);
 
+        // Register the assembler before the job becomes visible to polling workers, so no results arrive without it.
         resultAssemblers.put(templateTask.jobId, assembler);
+        addJob(job);
 
         if (config.testTaskRedelivery()) {
             // This is a fake job for testing, don't confuse the worker startup code below with null graph ID.
@@ -289,16 +296,27 @@ public class Broker {
     /**
      * Attempt to find some tasks that match what a worker is requesting.
      * Always returns a list, which may be empty if there is nothing to deliver.
+     * This is not synchronized: concurrent calls on the same job will receive different tasks.
+     * @param maxTasksRequested the most tasks the worker wants, or null if it did not specify a limit.
+     * @param originsPerBlock the number of origins the worker computes together, or null if it did not specify.
      */
-    public synchronized List<RegionalTask> getSomeWork (WorkerCategory workerCategory) {
+    public List<RegionalTask> getSomeWork (
+            WorkerCategory workerCategory,
+            Integer maxTasksRequested,
+            Integer originsPerBlock
+    ) {
+        int maxTasks = maxTasksToDeliver(maxTasksRequested, originsPerBlock);
+        if (maxTasks <= 0) {
+            return Collections.EMPTY_LIST;
+        }
         Job job;
         if (config.offline()) {
             // Working in offline mode; get tasks from the first job that has any tasks to deliver.
-            job = jobs.values().stream()
+            job = jobsByCategory.values().stream().flatMap(List::stream)
                     .filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
         } else {
             // This worker has a preferred network, get tasks from a job on that network.
-            job = jobs.get(workerCategory).stream()
+            job = jobsByCategory.getOrDefault(workerCategory, Collections.emptyList()).stream()
                     .filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
         }
         if (job == null) {
@@ -306,7 +324,22 @@ public class Broker {
             return Collections.EMPTY_LIST;
         }
         // Return up to N tasks that are waiting to be processed.
-        return job.generateSomeTasksToDeliver(MAX_TASKS_PER_WORKER);
+        return job.generateSomeTasksToDeliver(maxTasks);
+    }
+
+    /**
+     * @return the most tasks to deliver in response to one poll, see getSomeWork(). The same number of blocks is
+     *         delivered to workers that compute several consecutive origins together, within any limit they request.
+     */
+    int maxTasksToDeliver (Integer maxTasksRequested, Integer originsPerBlock) {
+        int maxTasks = MAX_TASKS_PER_WORKER;
+        if (originsPerBlock != null && originsPerBlock > 1) {
+            maxTasks *= originsPerBlock;
+        }
+        if (maxTasksRequested != null) {
+            maxTasks = Math.min(maxTasks, maxTasksRequested);
+        }
+        return maxTasks;
     }
 
     /**
@@ -317,9 +350,10 @@ public class Broker {
      *      synchronization requirements. This would also allow returning errors as JSON and the
      *      grid result separately.
      *
-     * @return whether the task was found and removed.
+     * This is not synchronized, and may be called concurrently for the same job. Exactly one caller will see the job
+     * become complete and remove it.
      */
-    public synchronized void markTaskCompleted (String jobId, int taskId) {
+    public void markTaskCompleted (String jobId, int taskId) {
         Job job = findJob(jobId);
         if (job == null) {
             LOG.error("Could not find a job with ID {} and therefore could not mark the task as completed.", jobId);
@@ -330,9 +364,8 @@ public class Broker {
         }
         // Once the last task is marked as completed, the job is finished.
         // Purge it from the list to free memory.
-        if (job.isComplete()) {
+        if (job.isComplete() && removeJob(job)) {
             job.verifyComplete();
-            jobs.remove(job.workerCategory, job);
             // This method is called after the regional work results are handled, finishing and closing the local file.
             // So we can harmlessly remove the MultiOriginAssembler now that the job is removed.
             resultAssemblers.remove(jobId);
@@ -344,10 +377,10 @@ public class Broker {
      * Simple method for querying all current job statuses.
      * @return List of JobStatuses
      */
-    public synchronized Collection<JobStatus> getAllJobStatuses () {
+    public Collection<JobStatus> getAllJobStatuses () {
         TObjectIntMap<String> workersPerJob = workerCatalog.activeWorkersPerJob();
         Collection<JobStatus> jobStatuses = new ArrayList<>();
-        for (Job job : jobs.values()) {
+        for (Job job : jobsById.values()) {
             JobStatus jobStatus = new JobStatus(job);
             jobStatus.activeWorkers = workersPerJob.get(job.jobId);
             jobStatuses.add(jobStatus);
@@ -356,21 +389,50 @@ public class Broker {
     }
 
     /** Find the job for the given jobId, returning null if that job does not exist. */
-    public synchronized Job findJob (String jobId) {
-        return jobs.values().stream()
-                .filter(job -> job.jobId.equals(jobId))
-                .findFirst()
-                .orElse(null);
+    public Job findJob (String jobId) {
+        return jobsById.get(jobId);
+    }
+
+    /**
+     * Start distributing the tasks of the given job to workers. This may be called concurrently with removeJob() for
+     * other jobs in the same category, as those jobs complete.
+     */
+    void addJob (Job job) {
+        jobsById.put(job.jobId, job);
+        // Add the job within compute() rather than to the list returned by computeIfAbsent(): removeJob() may be
+        // dropping that list from the map concurrently, which would leave the job in a list no poll ever sees.
+        jobsByCategory.compute(job.workerCategory, (category, categoryJobs) -> {
+            if (categoryJobs == null) {
+                categoryJobs = new CopyOnWriteArrayList<>();
+            }
+            categoryJobs.add(job);
+            return categoryJobs;
+        });
+    }
+
+    /**
+     * Stop distributing the tasks of the given job to workers.
+     * @return true if this call removed the job, false if it had already been removed by another thread.
+     */
+    private boolean removeJob (Job job) {
+        if (!jobsById.remove(job.jobId, job)) {
+            return false;
+        }
+        jobsByCategory.computeIfPresent(job.workerCategory, (category, categoryJobs) -> {
+            categoryJobs.remove(job);
+            return categoryJobs.isEmpty() ? null : categoryJobs;
+        });
+        return true;
     }
 
     /**
      * Delete the job with the given ID.
      */
-    public synchronized boolean deleteJob (String jobId) {
+    public boolean deleteJob (String jobId) {
         // Remove the job from the broker so we stop distributing its tasks to workers.
         Job job = findJob(jobId);
-        if (job == null) return false;
-        boolean success = jobs.remove(job.workerCategory, job);
+        if (job == null || !removeJob(job)) return false;
+        boolean success = true;
         // Shut down the object used for assembling results, removing its associated temporary disk file.
         // TODO just put the assembler in the Job object
         MultiOriginAssembler assembler = resultAssemblers.remove(jobId);
@@ -392,7 +454,7 @@ public class Broker {
      * Given a worker commit ID and transport network, return the IP or DNS name of a worker that has that software
      * and network already loaded. If none exist, return null and try to start one.
      */
-    public synchronized String getWorkerAddress(WorkerCategory workerCategory) {
+    public String getWorkerAddress(WorkerCategory workerCategory) {
         if (config.offline()) {
             return "localhost";
         }
@@ -411,7 +473,7 @@ public class Broker {
         return workerCatalog.getAllWorkerObservations();
     }
 
-    public synchronized void unregisterSinglePointWorker (WorkerCategory category) {
+    public void unregisterSinglePointWorker (WorkerCategory category) {
         workerCatalog.tryToReassignSinglePointWork(category);
     }
 
@@ -433,16 +495,11 @@ public class Broker {
      *                   sent by a worker.
      */
     public void handleRegionalWorkResult(RegionalWorkResult workResult) {
-        // Retrieving the job and assembler from their maps is not threadsafe, so we do so in a
-        // synchronized block here. Once the job is retrieved, it can be used to
-        // requestExtraWorkers below without synchronization, because that method only uses final
+        // The job and assembler are held in concurrent maps, so they can be retrieved without locking. The job
+        // can be used to requestExtraWorkers below without synchronization, because that method only uses final
         // fields of the job.
-        Job job;
-        MultiOriginAssembler assembler;
-        synchronized (this) {
-            job = findJob(workResult.jobId);
-            assembler = resultAssemblers.get(workResult.jobId);
-        }
+        Job job = findJob(workResult.jobId);
+        MultiOriginAssembler assembler = resultAssemblers.get(workResult.jobId);
 
         if (assembler == null) {
             LOG.error("Received result for unrecognized job ID {}, discarding.", workResult.jobId);
@@ -500,14 +557,14 @@ public class Broker {
     }
 
     public boolean anyJobsActive () {
-        for (Job job : jobs.values()) {
+        for (Job job : jobsById.values()) {
             if (!job.isComplete()) return true;
         }
         return false;
     }
 
     public void logJobStatus() {
-        for (Job job : jobs.values()) {
+        for (Job job : jobsById.values()) {
             LOG.info(job.toString());
         }
     }
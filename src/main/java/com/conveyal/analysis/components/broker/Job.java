@@ -5,16 +5,21 @@ import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.PointSetCache;
 import com.conveyal.r5.analyst.WorkerCategory;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.util.ConcurrentBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Job is a collection of tasks that represent all the origins in a regional analysis. All the
  * tasks in a Job must have the same network ID and be run against the same R5 version on the workers.
+ * <p>
+ * Many HTTP handler threads deliver tasks from and mark tasks completed on the same Job at once, so its state is
+ * held in atomic counters and a concurrent bitset rather than protected by a lock. Only the rare transition to a
+ * new redelivery pass synchronizes on the Job.
  */
 public class Job {
 
@@ -37,7 +42,8 @@ public class Job {
     // On the other hand, working on tasks from the same geographic area might be more efficient because
     // they probably use all the same transit lines and roads, which will already be in cache.
     // So let's just keep track of where we're at in the sequence.
-    private int nextTaskToDeliver;
+    // Threads claim disjoint ranges of task numbers by atomically advancing this cursor, so it may overshoot nTasksTotal.
+    private final AtomicInteger nextTaskToDeliver = new AtomicInteger();
 
     /** A unique identifier for this job, we use random UUIDs. */
     public final String jobId;
@@ -52,19 +58,19 @@ public class Job {
      * Each task will be checked off when it a result is returned by the worker.
      * Once the worker has returned a result, the task will never be redelivered.
      */
-    private final BitSet completedTasks;
+    private final ConcurrentBitSet completedTasks;
 
     /**
      * The number of remaining tasks can be derived from the deliveredTasks BitSet, but as an
      * optimization we keep a separate counter to avoid constantly scanning over that whole bitset.
      */
-    protected int nTasksCompleted;
+    protected final AtomicInteger nTasksCompleted = new AtomicInteger();
 
     /**
      * The total number of task deliveries that have occurred. A task may be counted more than
      * once if it is redelivered.
      */
-    protected int nTasksDelivered;
+    protected final AtomicInteger nTasksDelivered = new AtomicInteger();
 
     /** Every task in this job will be based on this template task, but have its origin coordinates changed. */
     public final RegionalTask templateTask;
@@ -119,20 +125,18 @@ public class Job {
      * the epoch. Enables a quiet period after all tasks have been delivered, before we attempt any
      * re-delivery.
      */
-    long lastDeliveryTime = 0;
+    volatile long lastDeliveryTime = 0;
 
     /**
      * How many times we have started over delivering tasks, working through those that were not
      * marked complete.
      */
-    public int deliveryPass = 0;
+    public volatile int deliveryPass = 0;
 
     public Job (RegionalTask templateTask, WorkerTags workerTags) {
         this.jobId = templateTask.jobId;
         this.templateTask = templateTask;
         this.workerCategory = new WorkerCategory(templateTask.graphId, templateTask.workerVersion);
-        this.nTasksCompleted = 0;
-        this.nextTaskToDeliver = 0;
 
         if (templateTask.originPointSetKey != null) {
             // If an originPointSetKey is specified, get it from S3 and set the number of origins
@@ -145,48 +149,58 @@ public class Job {
             this.nTasksTotal = templateTask.width * templateTask.height;
         }
 
-        this.completedTasks = new BitSet(nTasksTotal);
+        this.completedTasks = new ConcurrentBitSet(nTasksTotal);
         this.workerTags = workerTags;
 
     }
 
+    /**
+     * Check off the given task. This may be called by several threads at once, even for the same task.
+     * @return true if this call marked the task completed, false if it was invalid or already completed.
+     */
     public boolean markTaskCompleted(int taskId) {
-        // Don't allow negative or huge task numbers to avoid exceptions or expanding the bitset to
-        // a huge size.
-        if (taskId < 0 || taskId > nTasksTotal) {
+        // Don't allow negative or huge task numbers to avoid exceptions.
+        if (taskId < 0 || taskId >= nTasksTotal) {
             return false;
         }
-        if (completedTasks.get(taskId)) {
-            return false;
-        } else {
-            completedTasks.set(taskId);
-            nTasksCompleted += 1;
+        if (completedTasks.set(taskId)) {
+            nTasksCompleted.incrementAndGet();
             return true;
+        } else {
+            return false;
         }
     }
 
     public boolean isComplete() {
-        return nTasksCompleted == nTasksTotal;
+        return nTasksCompleted.get() == nTasksTotal;
     }
 
     /**
+     * This may be called by several threads at once, which will each receive different tasks.
      * @param maxTasks the maximum number of tasks to return.
      * @return some tasks that are not yet marked as completed and have not yet been delivered in
      *         this delivery pass.
      */
     public List<RegionalTask> generateSomeTasksToDeliver (int maxTasks) {
         List<RegionalTask> tasks = new ArrayList<>(maxTasks);
-        // TODO use special bitset iteration syntax.
-        while (nextTaskToDeliver < nTasksTotal && tasks.size() < maxTasks) {
-            if (!completedTasks.get(nextTaskToDeliver)) {
-                tasks.add(makeOneTask(nextTaskToDeliver));
+        // Claim a range of task numbers, skipping any that are already completed. During redelivery passes most
+        // tasks in a range may be completed, so keep claiming ranges until we have something or reach the end.
+        while (tasks.isEmpty()) {
+            int begin = nextTaskToDeliver.getAndAdd(maxTasks);
+            if (begin >= nTasksTotal) {
+                break;
+            }
+            int end = Math.min(begin + maxTasks, nTasksTotal);
+            for (int taskId = begin; taskId < end; taskId++) {
+                if (!completedTasks.get(taskId)) {
+                    tasks.add(makeOneTask(taskId));
+                }
             }
-            nextTaskToDeliver += 1;
         }
         if (!tasks.isEmpty()) {
             this.lastDeliveryTime = System.currentTimeMillis();
         }
-        nTasksDelivered += tasks.size();
+        nTasksDelivered.addAndGet(tasks.size());
         return tasks;
     }
 
@@ -194,25 +208,40 @@ public class Job {
         if (this.isComplete()) {
             return false;
         }
-        if (nextTaskToDeliver < nTasksTotal) {
+        if (nextTaskToDeliver.get() < nTasksTotal) {
             return true;
         }
         // Check whether we should start redelivering tasks - this will be triggered by workers polling.
         // The method that generates more tasks to deliver knows to skip already completed tasks.
         if (System.currentTimeMillis() >= lastDeliveryTime + (REDELIVERY_WAIT_SEC * 1000)) {
-            if (deliveryPass >= MAX_DELIVERY_PASSES) {
-                LOG.error("Job {} has been delivered {} times and it's still not finished. Not redelivering.", jobId, deliveryPass);
-                return false;
-            }
-            nextTaskToDeliver = 0;
-            deliveryPass += 1;
-            LOG.warn("Delivered all tasks for job {}, but {} seconds later {} results have not been received. Starting redelivery pass {}.",
-                    jobId, REDELIVERY_WAIT_SEC, nTasksTotal - nTasksCompleted, deliveryPass);
-            return true;
+            return startRedeliveryPass();
         }
         return false;
     }
 
+    /**
+     * Start over at the beginning of the job, so tasks that were delivered but never marked completed will be
+     * delivered again. This is synchronized so that when several workers poll at once, only one new pass is started.
+     */
+    private synchronized boolean startRedeliveryPass () {
+        if (nextTaskToDeliver.get() < nTasksTotal) {
+            // Another thread already started a new pass while this one was waiting.
+            return true;
+        }
+        if (System.currentTimeMillis() < lastDeliveryTime + (REDELIVERY_WAIT_SEC * 1000)) {
+            return false;
+        }
+        if (deliveryPass >= MAX_DELIVERY_PASSES) {
+            LOG.error("Job {} has been delivered {} times and it's still not finished. Not redelivering.", jobId, deliveryPass);
+            return false;
+        }
+        deliveryPass += 1;
+        nextTaskToDeliver.set(0);
+        LOG.warn("Delivered all tasks for job {}, but {} seconds later {} results have not been received. Starting redelivery pass {}.",
+                jobId, REDELIVERY_WAIT_SEC, nTasksTotal - nTasksCompleted.get(), deliveryPass);
+        return true;
+    }
+
     /**
      * Just as a failsafe, when our counter indicates that the job is complete, actually check how
      * many bits are set.
@@ -228,7 +257,7 @@ public class Job {
         return "Job{" +
                 "jobId='" + jobId + '\'' +
                 ", nTasksTotal=" + nTasksTotal +
-                ", nTasksCompleted=" + nTasksCompleted +
+                ", nTasksCompleted=" + nTasksCompleted.get() +
                 ", deliveryPass=" + deliveryPass +
                 '}';
     }
@@ -27,14 +27,16 @@ import com.conveyal.r5.common.JsonUtilities;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.ByteStreams;
 import com.mongodb.QueryBuilder;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.SocketConfig;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.mongojack.DBCursor;
 import org.mongojack.DBProjection;
@@ -43,6 +45,10 @@ import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
@@ -50,6 +56,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static com.conveyal.r5.common.Util.notNullOrEmpty;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -87,11 +94,42 @@ public class BrokerController implements HttpController {
         this.eventBus = eventBus;
     }
 
+    /** The most simultaneous single-point requests that will be proxied to any one worker. */
+    private static final int MAX_CONNECTIONS_PER_WORKER = 50;
+
+    /** The most simultaneous single-point requests that will be proxied to all workers combined. */
+    private static final int MAX_CONNECTIONS_TOTAL = 500;
+
+    /** The Accept header value with which clients request single-point results as a cropped, variable-width grid. */
+    public static final String CROPPED_GRID_MEDIA_TYPE = "application/x-analysis-time-grid-v1";
+
+    /** The size of the buffer used to copy each worker response through to the client. */
+    private static final int PROXY_BUFFER_SIZE_BYTES = 64 * 1024;
+
     /**
      * This HTTP client contacts workers to send them single-point tasks for immediate processing.
      * TODO we should eventually switch to the new Java standard HttpClient.
      */
-    private static HttpClient httpClient = AnalysisWorker.makeHttpClient();
+    private static HttpClient httpClient = makeSinglePointHttpClient();
+
+    /**
+     * Unlike the client used by workers, this one keeps a larger pool of connections to each worker address, because
+     * many users may be making requests against the same network. It also does not decompress responses, so that the
+     * gzipped travel time surface produced by the worker can be passed straight through to the client.
+     */
+    private static HttpClient makeSinglePointHttpClient () {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_WORKER);
+        connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoTimeout(AnalysisWorker.HTTP_CLIENT_TIMEOUT_SEC * 1000)
+                .build());
+        return HttpClients.custom()
+                .disableAutomaticRetries()
+                .disableContentCompression()
+                .setConnectionManager(connectionManager)
+                .build();
+    }
 
     /**
      * Spark handler functions return Objects.
@@ -121,7 +159,8 @@ public class BrokerController implements HttpController {
      * we forward the request to a worker), but since Spark wraps the internal Jetty request/response objects, we
      * don't gain much. We should probably switch to the Jetty HTTP client some day when we get rid of Spark.
      * There is also a Jetty proxy module that may be too simple for what we're doing here.
-     * @return whatever the worker responds, usually an input stream. Spark serializer chain can properly handle streams.
+     * The worker's response is streamed through to the client as it arrives, without buffering it all in memory.
+     * @return an empty string once the worker response has been copied to the client, or a JSON error message.
      */
     private Object singlePoint(Request request, Response response) {
         // Deserialize the task in the request body so we can see what kind of worker it wants.
@@ -163,6 +202,9 @@ public class BrokerController implements HttpController {
             // If the client requested a Geotiff using HTTP headers (for exporting results to GIS),
             // signal this using a field on the request sent to the worker.
             task.setFormat(TravelTimeSurfaceTask.Format.GEOTIFF);
+        } else if (request.headers("Accept").equals(CROPPED_GRID_MEDIA_TYPE)) {
+            // Clients that can read version 1 of the grid format can request this smaller representation.
+            task.setFormat(TravelTimeSurfaceTask.Format.CROPPED_GRID);
         } else {
             // The default response format is our own compact grid representation.
             task.setFormat(TravelTimeSurfaceTask.Format.GRID);
@@ -185,36 +227,27 @@ public class BrokerController implements HttpController {
         LOG.info("Re-issuing HTTP request from UI to worker at {}", workerUrl);
         HttpPost httpPost = new HttpPost(workerUrl);
         // httpPost.setHeader("Accept", "application/x-analysis-time-grid");
-        // TODO Explore: is this unzipping and re-zipping the result from the worker?
+        // The response is not decompressed by our HTTP client, so it can be passed through to the client still gzipped.
         httpPost.setHeader("Accept-Encoding", "gzip");
         HttpEntity entity = null;
         try {
             // Serialize and send the R5-specific task (not the original one the broker received from the UI)
             httpPost.setEntity(new ByteArrayEntity(JsonUtil.objectMapper.writeValueAsBytes(task)));
             HttpResponse workerResponse = httpClient.execute(httpPost);
-            // Mimic the status code sent by the worker.
-            response.status(workerResponse.getStatusLine().getStatusCode());
-            // Mimic headers sent by the worker. We're mostly interested in Content-Type, maybe Content-Encoding.
-            // We do not want to mimic all headers like Date, Server etc.
-            Header contentTypeHeader = workerResponse.getFirstHeader(Headers.CONTENT_TYPE);
-            response.header(contentTypeHeader.getName(), contentTypeHeader.getValue());
-            LOG.info("Returning worker response to UI with status code {} and content type {}",
-                    workerResponse.getStatusLine(), contentTypeHeader.getValue());
-            // This header will cause the Spark Framework to gzip the data automatically if requested by the client.
-            response.header("Content-Encoding", "gzip");
             entity = workerResponse.getEntity();
+            LOG.info("Returning worker response to UI with status {}", workerResponse.getStatusLine());
             // Only record activity on successful requests, to avoid polling noise.
             // All other eventbus usage is in Broker, a sign that most of this method should be factored out of the controller.
-            if (response.status() == 200) {
+            if (workerResponse.getStatusLine().getStatusCode() == 200) {
                 int durationMsec = (int) (System.currentTimeMillis() - startTimeMsec);
                 eventBus.send(new SinglePointEvent(task.scenarioId, durationMsec).forUser(userEmail, accessGroup));
             }
             // If you return a stream to the Spark Framework, its SerializerChain will copy that stream out to the
             // client, but does not then close the stream. HttpClient waits for the stream to be closed to return the
-            // connection to the pool. In order to be able to close the stream in code we control, we buffer the
-            // response in a byte buffer before resending it. NOTE: The fact that we're buffering before re-sending
-            // probably degrades the perceived responsiveness of single-point requests.
-            return ByteStreams.toByteArray(entity.getContent());
+            // connection to the pool. So we copy the stream to the raw client output stream ourselves, close it below,
+            // and return null so Spark does not write anything more.
+            proxyWorkerResponse(workerResponse, request.headers("Accept-Encoding"), response.raw());
+            return null;
         } catch (SocketTimeoutException ste) {
             LOG.info("Timeout waiting for response from worker.");
             // Aborting the request might help release resources - we had problems with exhausting connection pools here.
@@ -230,6 +263,8 @@ public class BrokerController implements HttpController {
             broker.unregisterSinglePointWorker(workerCategory);
             return jsonResponse(response, HttpStatus.ACCEPTED_202, "Switching routing server");
         } catch (Exception e) {
+            // Do not return a connection to the pool with part of a response still unread.
+            httpPost.abort();
             throw AnalysisServerException.unknown(e);
         } finally {
             // If the HTTP response entity is non-null close the associated input stream, which causes the HttpClient
@@ -238,6 +273,45 @@ public class BrokerController implements HttpController {
         }
     }
 
+    /**
+     * Pass a worker response through to the client: the status code, the content type, and the body, which is copied
+     * through a fixed-size buffer. The worker normally gzips its response, and this is passed through unchanged when
+     * the client accepts gzip, which all browsers do. Otherwise it is decompressed on the fly. We do not want to mimic
+     * all headers like Date, Server etc.
+     */
+    static void proxyWorkerResponse (
+            HttpResponse workerResponse,
+            String acceptEncoding,
+            HttpServletResponse rawResponse
+    ) throws IOException {
+        rawResponse.setStatus(workerResponse.getStatusLine().getStatusCode());
+        Header contentTypeHeader = workerResponse.getFirstHeader(Headers.CONTENT_TYPE);
+        if (contentTypeHeader != null) {
+            rawResponse.setHeader(contentTypeHeader.getName(), contentTypeHeader.getValue());
+        }
+        HttpEntity entity = workerResponse.getEntity();
+        InputStream workerStream = entity.getContent();
+        Header contentEncoding = entity.getContentEncoding();
+        boolean gzipped = contentEncoding != null && contentEncoding.getValue().contains("gzip");
+        boolean clientAcceptsGzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzipped && !clientAcceptsGzip) {
+            workerStream = new GZIPInputStream(workerStream, PROXY_BUFFER_SIZE_BYTES);
+        } else {
+            if (gzipped) {
+                rawResponse.setHeader(contentEncoding.getName(), contentEncoding.getValue());
+            }
+            if (entity.getContentLength() >= 0) {
+                rawResponse.setContentLengthLong(entity.getContentLength());
+            }
+        }
+        OutputStream clientStream = rawResponse.getOutputStream();
+        byte[] buffer = new byte[PROXY_BUFFER_SIZE_BYTES];
+        int nBytes;
+        while ((nBytes = workerStream.read(buffer)) != -1) {
+            clientStream.write(buffer, 0, nBytes);
+        }
+    }
+
     /**
      * TODO respond to HEAD requests. For some reason we needed to implement HEAD, for proxies or caches?
      */
@@ -341,7 +415,8 @@ public class BrokerController implements HttpController {
         broker.recordWorkerObservation(workerStatus);
         WorkerCategory workerCategory = workerStatus.getWorkerCategory();
         // See if any appropriate tasks exist for this worker.
-        List<RegionalTask> tasks = broker.getSomeWork(workerCategory);
+        List<RegionalTask> tasks = broker.getSomeWork(workerCategory, workerStatus.maxTasksRequested,
+                workerStatus.originsPerBlock);
         // If there is no work for the worker, signal this clearly with a "no content" code,
         // so the worker can sleep a while before the next polling attempt.
         if (tasks.isEmpty()) {
@@ -35,6 +35,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.zip.ZipFile;
 
@@ -141,7 +144,7 @@ public class BundleController implements HttpController {
 
         Persistence.bundles.create(bundle);
 
-        // Process OSM first, then each feed sequentially. Asynchronous so we can respond to the HTTP API call.
+        // Process OSM first, then the feeds in parallel. Asynchronous so we can respond to the HTTP API call.
         taskScheduler.enqueueHeavyTask(() -> {
             try {
                 if (bundle.osmId == null) {
@@ -170,45 +173,36 @@ public class BundleController implements HttpController {
                     bundle.feeds = new ArrayList<>();
                     bundle.totalFeeds = files.get("feedGroup").size();
 
-                    for (FileItem fileItem : files.get("feedGroup")) {
-                        File feedFile = ((DiskFileItem) fileItem).getStoreLocation();
-                        ZipFile zipFile = new ZipFile(feedFile);
-                        File tempDbFile = FileUtils.createScratchFile("db");
-                        File tempDbpFile = new File(tempDbFile.getAbsolutePath() + ".p");
-
-                        GTFSFeed feed = new GTFSFeed(tempDbFile);
-                        feed.loadFromFile(zipFile, new ObjectId().toString());
-                        feed.findPatterns();
-
-                        // Populate the metadata while the feed is open
-                        Bundle.FeedSummary feedSummary = new Bundle.FeedSummary(feed, bundle.feedGroupId);
-                        bundle.feeds.add(feedSummary);
-
-                        for (Stop s : feed.stops.values()) {
-                            bundleBounds.expandToInclude(s.stop_lon, s.stop_lat);
+                    // Feeds are processed concurrently, but their summaries are added to the bundle in upload order.
+                    List<FileItem> feedItems = files.get("feedGroup");
+                    int nThreads = Math.min(feedItems.size(),
+                            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+                    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+                    try {
+                        List<Future<Bundle.FeedSummary>> feedSummaries = new ArrayList<>();
+                        List<Envelope> feedBounds = new ArrayList<>();
+                        for (FileItem fileItem : feedItems) {
+                            Envelope bounds = new Envelope();
+                            feedBounds.add(bounds);
+                            feedSummaries.add(executor.submit(() -> processFeed(bundle, (DiskFileItem) fileItem, bounds)));
                         }
-
-                        if (bundle.serviceStart.isAfter(feedSummary.serviceStart)) {
-                            bundle.serviceStart = feedSummary.serviceStart;
+                        // Wait for all feeds before updating the bundle, which the tasks persist as they finish.
+                        for (Future<Bundle.FeedSummary> feedSummary : feedSummaries) {
+                            feedSummary.get();
                         }
-
-                        if (bundle.serviceEnd.isBefore(feedSummary.serviceEnd)) {
-                            bundle.serviceEnd = feedSummary.serviceEnd;
+                        for (int i = 0; i < feedItems.size(); i++) {
+                            Bundle.FeedSummary feedSummary = feedSummaries.get(i).get();
+                            bundle.feeds.add(feedSummary);
+                            bundleBounds.expandToInclude(feedBounds.get(i));
+                            if (bundle.serviceStart.isAfter(feedSummary.serviceStart)) {
+                                bundle.serviceStart = feedSummary.serviceStart;
+                            }
+                            if (bundle.serviceEnd.isBefore(feedSummary.serviceEnd)) {
+                                bundle.serviceEnd = feedSummary.serviceEnd;
+                            }
                         }
-
-                        // Flush db files to disk
-                        feed.close();
-
-                        // Ensure all files have been stored.
-                        fileStorage.moveIntoStorage(gtfsCache.getFileKey(feedSummary.bundleScopedFeedId, "db"), tempDbFile);
-                        fileStorage.moveIntoStorage(gtfsCache.getFileKey(feedSummary.bundleScopedFeedId, "db.p"), tempDbpFile);
-                        fileStorage.moveIntoStorage(gtfsCache.getFileKey(feedSummary.bundleScopedFeedId, "zip"), feedFile);
-
-                        // Increment feeds complete for the progress handler
-                        bundle.feedsComplete += 1;
-
-                        // Done in a loop the nonce and updatedAt would be changed repeatedly
-                        Persistence.bundles.modifiyWithoutUpdatingLock(bundle);
+                    } finally {
+                        executor.shutdown();
                     }
 
                     // TODO Handle crossing the antimeridian
@@ -237,6 +231,45 @@ public class BundleController implements HttpController {
         return bundle;
     }
 
+    /**
+     * Load one uploaded GTFS feed into a MapDB, summarize it and move its files into storage. Several feeds in the same
+     * bundle may be processed at once.
+     *
+     * @param bounds will be expanded to include all stops in the feed.
+     */
+    private Bundle.FeedSummary processFeed (Bundle bundle, DiskFileItem fileItem, Envelope bounds) throws Exception {
+        File feedFile = fileItem.getStoreLocation();
+        ZipFile zipFile = new ZipFile(feedFile);
+        File tempDbFile = FileUtils.createScratchFile("db");
+        File tempDbpFile = new File(tempDbFile.getAbsolutePath() + ".p");
+
+        GTFSFeed feed = new GTFSFeed(tempDbFile);
+        feed.loadFromFile(zipFile, new ObjectId().toString());
+        feed.findPatterns();
+
+        // Populate the metadata while the feed is open
+        Bundle.FeedSummary feedSummary = new Bundle.FeedSummary(feed, bundle.feedGroupId);
+
+        for (Stop s : feed.stops.values()) {
+            bounds.expandToInclude(s.stop_lon, s.stop_lat);
+        }
+
+        // Flush db files to disk
+        feed.close();
+
+        // Ensure all files have been stored.
+        fileStorage.moveIntoStorage(gtfsCache.getFileKey(feedSummary.bundleScopedFeedId, "db"), tempDbFile);
+        fileStorage.moveIntoStorage(gtfsCache.getFileKey(feedSummary.bundleScopedFeedId, "db.p"), tempDbpFile);
+        fileStorage.moveIntoStorage(gtfsCache.getFileKey(feedSummary.bundleScopedFeedId, "zip"), feedFile);
+
+        // Increment feeds complete for the progress handler. Other feeds may be finishing at the same time.
+        synchronized (bundle) {
+            bundle.feedsComplete += 1;
+            Persistence.bundles.modifiyWithoutUpdatingLock(bundle);
+        }
+        return feedSummary;
+    }
+
     private void writeManifestToCache (Bundle bundle) throws IOException {
         BundleManifest manifest = new BundleManifest();
         manifest.osmId = bundle.osmId;
@@ -1,7 +1,6 @@
 package com.conveyal.analysis.controllers;
 
 import com.conveyal.analysis.AnalysisServerException;
-import com.conveyal.analysis.SelectingGridReducer;
 import com.conveyal.analysis.components.broker.Broker;
 import com.conveyal.analysis.components.broker.JobStatus;
 import com.conveyal.analysis.models.AnalysisRequest;
@@ -9,12 +8,11 @@ import com.conveyal.analysis.models.OpportunityDataset;
 import com.conveyal.analysis.models.Project;
 import com.conveyal.analysis.models.RegionalAnalysis;
 import com.conveyal.analysis.persistence.Persistence;
+import com.conveyal.analysis.results.RegionalResultsCache;
 import com.conveyal.analysis.util.JsonUtil;
 import com.conveyal.file.FileStorage;
 import com.conveyal.file.FileStorageFormat;
 import com.conveyal.file.FileStorageKey;
-import com.conveyal.file.FileUtils;
-import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.google.common.primitives.Ints;
 import com.mongodb.QueryBuilder;
@@ -29,14 +27,11 @@ import spark.Response;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import static com.conveyal.analysis.util.JsonUtil.toJson;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -63,16 +58,23 @@ public class RegionalAnalysisController implements HttpController {
     private final Broker broker;
     private final FileStorage fileStorage;
     private final Config config;
+    private final RegionalResultsCache regionalResultsCache;
 
     public interface Config {
         String resultsBucket ();
         String bundleBucket ();
+        String localCacheDirectory ();
     }
 
     public RegionalAnalysisController (Broker broker, FileStorage fileStorage, Config config) {
         this.broker = broker;
         this.fileStorage = fileStorage;
         this.config = config;
+        this.regionalResultsCache = new RegionalResultsCache(
+                fileStorage,
+                config.resultsBucket(),
+                new File(config.localCacheDirectory(), "tiles")
+        );
     }
 
     private Collection<RegionalAnalysis> getRegionalAnalysesForRegion(String regionId, String accessGroup) {
@@ -160,18 +162,9 @@ public class RegionalAnalysisController implements HttpController {
     }
 
     /**
-     * This used to extract a particular percentile of a regional analysis as a grid file.
-     * Now it just gets the single percentile that exists for any one analysis, either from the local buffer file
-     * for an analysis still in progress, or from S3 for a completed analysis.
+     * Find the regional analysis whose results are requested, if it exists and the user has permission to see it.
      */
-    private Object getRegionalResults (Request req, Response res) throws IOException {
-
-        // Get some path parameters out of the URL.
-        // The UUID of the regional analysis for which we want the output data
-        final String regionalAnalysisId = req.params("_id");
-        // The response file format: PNG, TIFF, or GRID
-        final String fileFormatExtension = req.params("format");
-
+    private RegionalAnalysis getAnalysisForResults (Request req) {
         RegionalAnalysis analysis = Persistence.regionalAnalyses.findPermitted(
                 QueryBuilder.start("_id").is(req.params("_id")).get(),
                 DBProjection.exclude("request.scenario.modifications"),
@@ -181,6 +174,15 @@ public class RegionalAnalysisController implements HttpController {
         if (analysis == null || analysis.deleted) {
             throw AnalysisServerException.notFound("The specified regional analysis in unknown or has been deleted.");
         }
+        return analysis;
+    }
+
+    /**
+     * Determine which single-cutoff result of a regional analysis is requested, from the cutoff, percentile, and
+     * destinationPointSetId query parameters, and which stored multi-cutoff file it can be extracted from.
+     */
+    private RegionalResultsCache.Result selectResult (Request req, RegionalAnalysis analysis) {
+        final String regionalAnalysisId = analysis._id;
 
         // Which channel to extract from results with multiple values per origin (for different travel time cutoffs)
         // and multiple output files per analysis (for different percentiles of travel time and/or different
@@ -232,6 +234,46 @@ public class RegionalAnalysisController implements HttpController {
                     String.join(",", analysis.destinationPointSetIds));
         }
 
+        // Analysis grids now have the percentile and cutoff in their S3 key, because there can be many of each.
+        // We do this even for results generated by older workers, so they will be re-extracted with the new name.
+        // These grids are reasonably small, we may be able to just send all cutoffs to the UI instead of selecting.
+        String singleCutoffName =
+                String.format("%s_%s_P%d_C%d", regionalAnalysisId, destinationPointSetId, percentile, cutoffMinutes);
+
+        // Older regional analyses may not have arrays allowing multiple cutoffs, percentiles, or destination
+        // pointsets. The filenames of such regional accessibility results will not have a percentile or pointset ID.
+        String multiCutoffKey;
+        if (analysis.travelTimePercentiles == null) {
+            // Oldest form of results, single-percentile, single grid.
+            multiCutoffKey = regionalAnalysisId + ".access";
+        } else {
+            if (analysis.destinationPointSetIds == null) {
+                // Newer form of regional results: multi-percentile, single grid.
+                multiCutoffKey = String.format("%s_P%d.access", regionalAnalysisId, percentile);
+            } else {
+                // Newest form of regional results: multi-percentile, multi-grid.
+                multiCutoffKey = String.format("%s_%s_P%d.access", regionalAnalysisId, destinationPointSetId, percentile);
+            }
+        }
+        return new RegionalResultsCache.Result(singleCutoffName, multiCutoffKey, cutoffIndex);
+    }
+
+    /**
+     * This used to extract a particular percentile of a regional analysis as a grid file.
+     * Now it just gets the single percentile that exists for any one analysis, either from the local buffer file
+     * for an analysis still in progress, or from S3 for a completed analysis.
+     */
+    private Object getRegionalResults (Request req, Response res) throws IOException {
+
+        // Get some path parameters out of the URL.
+        // The UUID of the regional analysis for which we want the output data
+        final String regionalAnalysisId = req.params("_id");
+        // The response file format: PNG, TIFF, or GRID
+        final String fileFormatExtension = req.params("format");
+
+        RegionalAnalysis analysis = getAnalysisForResults(req);
+        RegionalResultsCache.Result result = selectResult(req, analysis);
+
         // It seems like you would check regionalAnalysis.complete to choose between redirecting to s3 and fetching
         // the partially completed local file. But this field is never set to true - it's on a UI model object that
         // isn't readily accessible to the internal Job-tracking mechanism of the back end. Instead, just try to fetch
@@ -264,62 +306,16 @@ public class RegionalAnalysisController implements HttpController {
             }
         } else {
             // The analysis has already completed, results should be stored and retrieved from S3 via redirects.
-            LOG.info("Returning {} minute accessibility to pointset {} (percentile {}) for regional analysis {}.",
-                    cutoffMinutes, destinationPointSetId, percentile, regionalAnalysisId);
+            LOG.info("Returning accessibility result {} for regional analysis {}.", result.name, regionalAnalysisId);
             FileStorageFormat format = FileStorageFormat.valueOf(fileFormatExtension.toUpperCase());
             if (!FileStorageFormat.GRID.equals(format) && !FileStorageFormat.PNG.equals(format) && !FileStorageFormat.TIFF.equals(format)) {
                 throw AnalysisServerException.badRequest("Format \"" + format + "\" is invalid. Request format must be \"grid\", \"png\", or \"tiff\".");
             }
 
-            // Analysis grids now have the percentile and cutoff in their S3 key, because there can be many of each.
-            // We do this even for results generated by older workers, so they will be re-extracted with the new name.
-            // These grids are reasonably small, we may be able to just send all cutoffs to the UI instead of selecting.
-            String singleCutoffKey =
-                    String.format("%s_%s_P%d_C%d.%s", regionalAnalysisId, destinationPointSetId, percentile, cutoffMinutes, fileFormatExtension);
-
             // A lot of overhead here - UI contacts backend, backend calls S3, backend responds to UI, UI contacts S3.
-            FileStorageKey singleCutoffFileStorageKey = new FileStorageKey(config.resultsBucket(), singleCutoffKey);
-            if (!fileStorage.exists(singleCutoffFileStorageKey)) {
-                // An accessibility grid for this particular cutoff has apparently never been extracted from the
-                // regional results file before. Extract one and save it for future reuse. Older regional analyses
-                // may not have arrays allowing multiple cutoffs, percentiles, or destination pointsets. The
-                // filenames of such regional accessibility results will not have a percentile or pointset ID.
-                String multiCutoffKey;
-                if (analysis.travelTimePercentiles == null) {
-                    // Oldest form of results, single-percentile, single grid.
-                    multiCutoffKey = regionalAnalysisId + ".access";
-                } else {
-                    if (analysis.destinationPointSetIds == null) {
-                        // Newer form of regional results: multi-percentile, single grid.
-                        multiCutoffKey = String.format("%s_P%d.access", regionalAnalysisId, percentile);
-                    } else {
-                        // Newest form of regional results: multi-percentile, multi-grid.
-                        multiCutoffKey = String.format("%s_%s_P%d.access", regionalAnalysisId, destinationPointSetId, percentile);
-                    }
-                }
-                LOG.info("Single-cutoff grid {} not found on S3, deriving it from {}.", singleCutoffKey, multiCutoffKey);
-                FileStorageKey multiCutoffFileStorageKey = new FileStorageKey(config.resultsBucket(), multiCutoffKey);
-
-                InputStream multiCutoffInputStream = new FileInputStream(fileStorage.getFile(multiCutoffFileStorageKey));
-                Grid grid = new SelectingGridReducer(cutoffIndex).compute(multiCutoffInputStream);
-
-                File localFile = FileUtils.createScratchFile(format.toString());
-                FileOutputStream fos = new FileOutputStream(localFile);
-
-                switch (format) {
-                    case GRID:
-                        grid.write(new GZIPOutputStream(fos));
-                        break;
-                    case PNG:
-                        grid.writePng(fos);
-                        break;
-                    case TIFF:
-                        grid.writeGeotiff(fos);
-                        break;
-                }
-
-                fileStorage.moveIntoStorage(singleCutoffFileStorageKey, localFile);
-            }
+            // The results cache at least avoids repeatedly checking S3 for files it has already stored or found there.
+            FileStorageKey singleCutoffFileStorageKey =
+                    regionalResultsCache.getStoredFile(result, format, fileFormatExtension);
 
             JSONObject json = new JSONObject();
             json.put("url", fileStorage.getURL(singleCutoffFileStorageKey));
@@ -327,6 +323,23 @@ public class RegionalAnalysisController implements HttpController {
         }
     }
 
+    /**
+     * Return one web Mercator map tile of a completed regional analysis as a PNG image, selecting the result with the
+     * same query parameters as getRegionalResults. Tiles are rendered once and then served from the local cache.
+     */
+    private Object getRegionalResultsTile (Request req, Response res) throws IOException {
+        RegionalAnalysis analysis = getAnalysisForResults(req);
+        RegionalResultsCache.Result result = selectResult(req, analysis);
+        if (broker.getPartialRegionalAnalysisResults(analysis._id) != null) {
+            throw AnalysisServerException.badRequest("Map tiles are only available for completed regional analyses.");
+        }
+        int zoom = Integer.parseInt(req.params("z"));
+        int x = Integer.parseInt(req.params("x"));
+        int y = Integer.parseInt(req.params("y"));
+        res.type(FileStorageFormat.PNG.mimeType);
+        return regionalResultsCache.getTile(result, zoom, x, y);
+    }
+
     /**
      * Deserialize a description of a new regional analysis (an AnalysisRequest object) POSTed as JSON over the HTTP API.
      * Derive an internal RegionalAnalysis object, which is enqueued in the broker and also returned to the caller
@@ -499,6 +512,7 @@ public class RegionalAnalysisController implements HttpController {
             // For grids, no transformer is supplied: render raw bytes or input stream rather than transforming to JSON.
             sparkService.get("/:_id", this::getRegionalAnalysis);
             sparkService.get("/:_id/grid/:format", this::getRegionalResults);
+            sparkService.get("/:_id/tiles/:z/:x/:y", this::getRegionalResultsTile);
             sparkService.delete("/:_id", this::deleteRegionalAnalysis, toJson);
             sparkService.post("", this::createRegionalAnalysis, toJson);
             sparkService.put("/:_id", this::updateRegionalAnalysis, toJson);
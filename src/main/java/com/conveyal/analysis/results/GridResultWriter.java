@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.conveyal.r5.common.Util.human;
 
@@ -34,11 +36,28 @@ import static com.conveyal.r5.common.Util.human;
  * <li>(4 byte int) number of values (channels) per pixel</li>
  * <li>(repeated 4-byte int) values of each pixel in row-major order: axis order (row, column, channel).</li>
  * </ol>
+ * <p>
+ * Results for different origins occupy disjoint regions of the file, so they are written with positioned writes on a
+ * FileChannel, which may be performed by many threads at once without locking.
  */
 public class GridResultWriter extends ResultWriter {
 
+    /**
+     * If greater than zero, force the buffer file's contents to the storage device after every N origins are written.
+     * By default we rely on the operating system to write back its page cache, which does not slow ingestion of results
+     * and still allows partial results to be read from the buffer file at any time. Forcing writes only improves the
+     * chances of the buffer file surviving a machine crash, which we do not currently recover from anyway.
+     */
+    public static int FORCE_EVERY_N_ORIGINS = 0;
+
     private RandomAccessFile randomAccessFile;
 
+    /** Positioned writes on this channel are threadsafe, and do not block one another when they do not overlap. */
+    private FileChannel fileChannel;
+
+    /** The number of origins written so far, used to decide when to force writes to disk. */
+    private final AtomicInteger nOriginsWritten = new AtomicInteger();
+
     /** The version of the access grids we produce */
     private static final int ACCESS_GRID_VERSION = 0;
 
@@ -63,7 +82,7 @@ public class GridResultWriter extends ResultWriter {
             height,
             channels
         );
-        long outputFileSizeBytes = width * height * channels  * Integer.BYTES;
+        long outputFileSizeBytes = HEADER_LENGTH_BYTES + ((long) width) * height * channels * Integer.BYTES;
         super.prepare(task.jobId, outputBucket);
 
         // Write the access grid file header to the temporary file.
@@ -86,7 +105,8 @@ public class GridResultWriter extends ResultWriter {
         // the IOPS budget on cloud servers with network storage. That then causes the server to fall behind in
         // processing incoming results.
         this.randomAccessFile = new RandomAccessFile(bufferFile, "rw");
-        randomAccessFile.setLength(outputFileSizeBytes); //TODO check if this should include header length
+        randomAccessFile.setLength(outputFileSizeBytes);
+        this.fileChannel = randomAccessFile.getChannel();
         LOG.info("Created temporary file to accumulate results from workers, size is {}.",
                 human(randomAccessFile.length(), "B"));
     }
@@ -98,38 +118,31 @@ public class GridResultWriter extends ResultWriter {
         randomAccessFile.close();
     }
 
-    /**
-     * TODO is this inefficient? Would it be reasonable to just store the regional results in memory
-     *      in a byte buffer instead of writing mini byte buffers into files? We should also be able
-     *      to use a filechannel with native order.
-     */
-    private static byte[] intToLittleEndianByteArray (int i) {
-        final ByteBuffer byteBuffer = ByteBuffer.allocate(Integer.BYTES);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        byteBuffer.putInt(i);
-        return byteBuffer.array();
-    }
-
     /**
      * Write all channels at once to the proper subregion of the buffer for this origin. The origins we receive have 2d
      * coordinates. Flatten them to compute file offsets and for the origin checklist.
+     * This is not synchronized: several threads may write different origins at the same time.
      */
-    synchronized void writeOneOrigin (int taskNumber, int[] values) throws IOException {
+    void writeOneOrigin (int taskNumber, int[] values) throws IOException {
         if (values.length != channels) {
             throw new IllegalArgumentException("Number of channels to be written does not match this writer.");
         }
-        long offset = HEADER_LENGTH_BYTES + (taskNumber * channels * Integer.BYTES);
-        // RandomAccessFile is not threadsafe and multiple threads may call this, so synchronize.
-        // TODO why is the method also synchronized then?
-        synchronized (this) {
-            randomAccessFile.seek(offset);
-            // FIXME should this be delta-coded? The Selecting grid reducer seems to expect it to be.
-            int lastValue = 0;
-            for (int value : values) {
-                int delta = value - lastValue;
-                randomAccessFile.write(intToLittleEndianByteArray(delta));
-                lastValue = value;
-            }
+        long offset = HEADER_LENGTH_BYTES + ((long) taskNumber) * channels * Integer.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(channels * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        // FIXME should this be delta-coded? The Selecting grid reducer seems to expect it to be.
+        int lastValue = 0;
+        for (int value : values) {
+            int delta = value - lastValue;
+            buffer.putInt(delta);
+            lastValue = value;
+        }
+        buffer.flip();
+        // A positioned write may in principle write fewer bytes than requested, so loop until the buffer is empty.
+        while (buffer.hasRemaining()) {
+            offset += fileChannel.write(buffer, offset);
+        }
+        if (FORCE_EVERY_N_ORIGINS > 0 && nOriginsWritten.incrementAndGet() % FORCE_EVERY_N_ORIGINS == 0) {
+            fileChannel.force(false);
         }
     }
 
@@ -8,17 +8,25 @@ import com.conveyal.file.FileStorageFormat;
 import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.PointSetCache;
 import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import com.conveyal.r5.util.ConcurrentBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This assembles regional results arriving from workers into one or more files per regional analysis on
  * the backend. This is not a singleton component: one MultiOriginAssembler instance is created per currently active
  * job awaiting results from workers. It delegates to ResultWriters to actually slot results into different file formats.
+ * <p>
+ * Results arrive from many HTTP handler threads at once. Each result is written independently of the others (grid
+ * results with positioned writes at the offset for the origin), so many results can be handled concurrently.
+ * Finishing or terminating the assembler must not overlap with any writes, so result handling holds the shared side of
+ * a read-write lock, and finishing and terminating hold the exclusive side.
  */
 public class MultiOriginAssembler {
 
@@ -64,25 +72,28 @@ public class MultiOriginAssembler {
 
     private boolean writeAccessibilityCsv = false;
 
-    private boolean error = false;
+    private volatile boolean error = false;
+
+    /** Held in shared mode while handling results, and in exclusive mode while finishing or terminating. */
+    private final ReadWriteLock writersLock = new ReentrantReadWriteLock();
 
     /**
      * The number of distinct origin points for which we've received at least one result. If for
      * whatever reason we receive two or more results for the same origin this should only be
-     * incremented once). It's incremented in a synchronized block to avoid race conditions.
+     * incremented once). It's only incremented by the thread that marks an origin in originsReceived.
      */
-    public int nComplete = 0;
+    public final AtomicInteger nComplete = new AtomicInteger();
 
     /**
      * We need to keep track of which specific origins are completed, to avoid double counting if we
-     * receive more than one result for the same origin. As with nComplete, access must be
-     * synchronized to avoid race conditions. The nComplete field could be derived from this BitSet,
+     * receive more than one result for the same origin. This bitset can be set concurrently, and reports which
+     * thread was the first to set each bit. The nComplete field could be derived from this BitSet,
      * but nComplete can be read in constant time whereas counting true bits in a BitSet takes
      * linear time.
      * FIXME it doesn't seem like both the Job and the MultiOriginAssembler should be tracking job progress.
      *       Might be preferable to track this only in the job, and have it close the assembler when the job finishes.
      */
-    private final BitSet originsReceived;
+    private final ConcurrentBitSet originsReceived;
 
     /**
      * Total number of origin points for which we're expecting results. Note that the total
@@ -126,7 +137,7 @@ public class MultiOriginAssembler {
         this.nDestinationPointSets = job.templateTask.makeTauiSite ? 0 :
                 job.templateTask.destinationPointSetKeys.length;
         this.nOriginsTotal = job.nTasksTotal;
-        this.originsReceived = new BitSet(job.nTasksTotal);
+        this.originsReceived = new ConcurrentBitSet(job.nTasksTotal);
         this.originPointSet = job.originPointSet;
         try {
             if (job.templateTask.recordAccessibility) {
@@ -177,10 +188,11 @@ public class MultiOriginAssembler {
     }
 
     /**
-     * Gzip the output files and persist them to cloud storage.
+     * Gzip the output files and persist them to cloud storage. This waits for any results still being written.
      */
-    private synchronized void finish() {
+    private void finish() {
         LOG.info("Finished receiving data for multi-origin analysis {}", job.jobId);
+        writersLock.writeLock().lock();
         try {
             if (writeAccessibilityGrid) {
                 for (int d = 0; d < nDestinationPointSets; d++) {
@@ -201,18 +213,19 @@ public class MultiOriginAssembler {
             }
         } catch (Exception e) {
             LOG.error("Error uploading results of multi-origin analysis {}", job.jobId, e);
+        } finally {
+            writersLock.writeLock().unlock();
         }
     }
 
     /**
-     * There is a bit of logic in this method that wouldn't strictly need to be synchronized (the
-     * dimension checks) but those should take a trivial amount of time. For safety and simplicity
-     * we will synchronize the whole method. The downside is that this prevents one thread from
-     * writing accessibility while another was writing travel time CSV, but this should not be
-     * assumed to have any impact on performance unless measured. The writeOneValue methods are also
-     * synchronized for good measure. There should be no cost to retaining the lock.
+     * This method is not synchronized and may be called by many threads at once. Grid results for different origins
+     * are written concurrently, while the CSV writers serialize their own writes internally. The thread that receives
+     * the last distinct origin finishes the assembler, after all other writes in progress have completed.
      */
-    public synchronized void handleMessage (RegionalWorkResult workResult) {
+    public void handleMessage (RegionalWorkResult workResult) {
+        boolean lastOrigin = false;
+        writersLock.readLock().lock();
         try {
             if (writeAccessibilityGrid || writeAccessibilityCsv) {
                 // Sanity check the shape of the work result we received against expectations.
@@ -257,18 +270,20 @@ public class MultiOriginAssembler {
                 }
             }
 
-            // Don't double-count origins if we receive them more than once. Atomic get-and-increment requires
-            // synchronization, currently achieved by synchronizing this entire method.
-            if (!originsReceived.get(workResult.taskId)) {
-                originsReceived.set(workResult.taskId);
-                nComplete += 1;
-            }
-            if (nComplete == nOriginsTotal && !error) {
-                finish();
+            // Don't double-count origins if we receive them more than once. Exactly one thread will succeed in
+            // setting each bit, and only that thread counts the origin.
+            if (originsReceived.set(workResult.taskId)) {
+                lastOrigin = nComplete.incrementAndGet() == nOriginsTotal;
             }
         } catch (Exception e) {
             error = true;
             LOG.error("Error assembling results for query {}", job.jobId, e);
+        } finally {
+            writersLock.readLock().unlock();
+        }
+        // The exclusive lock cannot be acquired while holding the shared one, so finish after releasing it.
+        if (lastOrigin && !error) {
+            finish();
         }
     }
 
@@ -301,19 +316,24 @@ public class MultiOriginAssembler {
     }
 
     /** Clean up and cancel this grid assembler, typically when a job is canceled while still being processed. */
-    public synchronized void terminate () throws IOException {
-        if (writeAccessibilityGrid) {
-            for (GridResultWriter[] writers : accessibilityGridWriters) {
-                for (GridResultWriter writer : writers) {
-                    writer.terminate();
+    public void terminate () throws IOException {
+        writersLock.writeLock().lock();
+        try {
+            if (writeAccessibilityGrid) {
+                for (GridResultWriter[] writers : accessibilityGridWriters) {
+                    for (GridResultWriter writer : writers) {
+                        writer.terminate();
+                    }
                 }
             }
-        }
-        if (writeAccessibilityCsv) {
-            accessibilityCsvWriter.terminate();
-        }
-        if (writeTimeCsv) {
-            timeCsvWriter.terminate();
+            if (writeAccessibilityCsv) {
+                accessibilityCsvWriter.terminate();
+            }
+            if (writeTimeCsv) {
+                timeCsvWriter.terminate();
+            }
+        } finally {
+            writersLock.writeLock().unlock();
         }
     }
 
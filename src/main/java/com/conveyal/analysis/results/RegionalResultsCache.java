@@ -0,0 +1,335 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.analysis.SelectingGridReducer;
+import com.conveyal.file.FileStorage;
+import com.conveyal.file.FileStorageFormat;
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.FileUtils;
+import com.conveyal.r5.analyst.Grid;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Results derived from the stored output of completed regional analyses. A regional analysis stores one multi-cutoff
+ * access grid per percentile and destination pointset, but the UI asks for one cutoff at a time, as a grid, an image
+ * or a GeoTIFF. Each such single-cutoff result is extracted from the multi-cutoff file at most once per backend: the
+ * extracted grid is kept in memory, so the different file formats and map tiles of the same result share one pass
+ * over the multi-cutoff file, and concurrent requests for the same result wait for a single extraction.
+ *
+ * The files in each format are saved to FileStorage as before, so they survive restarts and can be handed to the UI as
+ * URLs. Once a file is known to be in storage, repeated requests for it do not need to check storage again.
+ *
+ * Map tiles of each result are rendered into a local directory. The first request for a tile of a result renders all
+ * tiles from the zoom level of the results grid down through PRE_RENDERED_ZOOM_LEVELS coarser levels, as these cover
+ * the whole region with few tiles. Tiles at finer zoom levels, which just enlarge grid cells, are rendered on demand
+ * and saved alongside them. All results are immutable once the analysis is complete, so nothing here is invalidated.
+ */
+public class RegionalResultsCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RegionalResultsCache.class);
+
+    /** Width and height of map tiles in pixels. */
+    public static final int TILE_SIZE = 256;
+
+    /** Tiles are pre-rendered at the zoom level of the results grid and this many coarser zoom levels. */
+    public static final int PRE_RENDERED_ZOOM_LEVELS = 4;
+
+    /** Tiles may be requested at up to this many zoom levels finer than the results grid. */
+    public static final int MAX_OVERZOOM = 3;
+
+    /** Extracted grids are 8 bytes per cell. This allows for several dozen results covering large regions. */
+    private static final long MAX_GRID_CACHE_BYTES = 512 * 1024 * 1024;
+
+    /** A marker file showing that all pre-rendered tiles of a result were written to the tile directory. */
+    private static final String PYRAMID_COMPLETE_FILE = "complete";
+
+    /** Shared response for tiles that do not overlap the results grid. */
+    private static final byte[] EMPTY_TILE = pngBytes(new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB));
+
+    private final FileStorage fileStorage;
+
+    private final String resultsBucket;
+
+    private final File tileDirectory;
+
+    /** Single-cutoff grids extracted from the multi-cutoff results files, keyed on the name of the result. */
+    private final Cache<String, Grid> grids = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_GRID_CACHE_BYTES)
+            .weigher((String name, Grid grid) -> grid.width * grid.height * Double.BYTES)
+            .build();
+
+    /** The derived files already known to exist in FileStorage, keyed on their FileStorage path. */
+    private final Cache<String, FileStorageKey> storedFiles = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .build();
+
+    /** Results whose pre-rendered tiles are already in the tile directory, keyed on the name of the result. */
+    private final Cache<String, TileSet> tileSets = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
+    /**
+     * Identifies a single-cutoff result within a regional analysis, and where to find the values it is extracted from.
+     */
+    public static class Result {
+
+        /** Unique name for the result, used as the base name of files derived from it. */
+        public final String name;
+
+        /** The FileStorage key (within the results bucket) of the multi-cutoff file holding this result. */
+        public final String multiCutoffKey;
+
+        /** The position of this result's cutoff among the values stored for each origin in the multi-cutoff file. */
+        public final int cutoffIndex;
+
+        public Result (String name, String multiCutoffKey, int cutoffIndex) {
+            this.name = name;
+            this.multiCutoffKey = multiCutoffKey;
+            this.cutoffIndex = cutoffIndex;
+        }
+    }
+
+    private static class TileSet {
+        final File directory;
+        /** All tiles are scaled to the same maximum value so they join seamlessly. */
+        final double maxValue;
+
+        TileSet (File directory, double maxValue) {
+            this.directory = directory;
+            this.maxValue = maxValue;
+        }
+    }
+
+    public RegionalResultsCache (FileStorage fileStorage, String resultsBucket, File tileDirectory) {
+        this.fileStorage = fileStorage;
+        this.resultsBucket = resultsBucket;
+        this.tileDirectory = tileDirectory;
+    }
+
+    /**
+     * Make sure the given result is in FileStorage in the given format, extracting it if necessary.
+     * @param extension the file name extension to use, as requested by the caller.
+     * @return the key under which the result is stored.
+     */
+    public FileStorageKey getStoredFile (Result result, FileStorageFormat format, String extension) {
+        String path = String.format("%s.%s", result.name, extension);
+        return getCached(storedFiles, path, () -> {
+            FileStorageKey key = new FileStorageKey(resultsBucket, path);
+            if (!fileStorage.exists(key)) {
+                LOG.info("Single-cutoff result {} not found in storage, deriving it.", path);
+                Grid grid = getGrid(result);
+                File localFile = FileUtils.createScratchFile(format.toString());
+                FileOutputStream fos = new FileOutputStream(localFile);
+                switch (format) {
+                    case GRID:
+                        grid.write(new GZIPOutputStream(fos));
+                        break;
+                    case PNG:
+                        grid.writePng(fos);
+                        break;
+                    case TIFF:
+                        grid.writeGeotiff(fos);
+                        break;
+                    default:
+                        fos.close();
+                        throw new IllegalArgumentException("Cannot derive regional results in format " + format);
+                }
+                fileStorage.moveIntoStorage(key, localFile);
+            }
+            return key;
+        });
+    }
+
+    /** @return the single-cutoff grid for the given result, extracting it from the multi-cutoff file if necessary. */
+    public Grid getGrid (Result result) {
+        return getCached(grids, result.name, () -> {
+            LOG.info("Extracting cutoff {} from {} for result {}.", result.cutoffIndex, result.multiCutoffKey, result.name);
+            File multiCutoffFile = fileStorage.getFile(new FileStorageKey(resultsBucket, result.multiCutoffKey));
+            try (InputStream multiCutoffInputStream = new FileInputStream(multiCutoffFile)) {
+                return new SelectingGridReducer(result.cutoffIndex).compute(multiCutoffInputStream);
+            }
+        });
+    }
+
+    /**
+     * @return the PNG bytes of the given web Mercator tile of the result, rendering it if necessary.
+     * @throws IllegalArgumentException if the zoom level is too far from the zoom level of the results grid.
+     */
+    public byte[] getTile (Result result, int zoom, int x, int y) throws IOException {
+        Grid grid = getGrid(result);
+        int minZoom = grid.zoom - PRE_RENDERED_ZOOM_LEVELS;
+        int maxZoom = grid.zoom + MAX_OVERZOOM;
+        if (zoom < minZoom || zoom > maxZoom) {
+            throw new IllegalArgumentException(String.format(
+                    "Tiles for this result are only available at zoom levels %d through %d.", minZoom, maxZoom));
+        }
+        if (!tileOverlapsGrid(grid, zoom, x, y)) {
+            return EMPTY_TILE;
+        }
+        TileSet tileSet = getCached(tileSets, result.name, () -> renderPyramid(result.name, grid));
+        File tileFile = tileFile(tileSet.directory, zoom, x, y);
+        if (!tileFile.exists()) {
+            // Only tiles finer than the grid are missing after the pyramid is rendered. Concurrent requests may render
+            // the same tile, but each moves a complete file into place.
+            writeTile(renderTile(grid, tileSet.maxValue, zoom, x, y), tileFile);
+        }
+        return Files.readAllBytes(tileFile.toPath());
+    }
+
+    /** Render the tiles of the result at all pre-rendered zoom levels, unless a previous backend already did so. */
+    private TileSet renderPyramid (String name, Grid grid) throws IOException {
+        File directory = new File(tileDirectory, name);
+        double maxValue = maxValue(grid);
+        File completeFile = new File(directory, PYRAMID_COMPLETE_FILE);
+        if (!completeFile.exists()) {
+            long startTime = System.currentTimeMillis();
+            int nTiles = 0;
+            for (int zoom = grid.zoom - PRE_RENDERED_ZOOM_LEVELS; zoom <= grid.zoom; zoom++) {
+                int shift = grid.zoom - zoom;
+                int minX = (grid.west >> shift) / TILE_SIZE;
+                int maxX = ((grid.west + grid.width - 1) >> shift) / TILE_SIZE;
+                int minY = (grid.north >> shift) / TILE_SIZE;
+                int maxY = ((grid.north + grid.height - 1) >> shift) / TILE_SIZE;
+                for (int x = minX; x <= maxX; x++) {
+                    for (int y = minY; y <= maxY; y++) {
+                        writeTile(renderTile(grid, maxValue, zoom, x, y), tileFile(directory, zoom, x, y));
+                        nTiles += 1;
+                    }
+                }
+            }
+            completeFile.createNewFile();
+            LOG.info("Pre-rendered {} tiles for result {} in {} msec.", nTiles, name,
+                    System.currentTimeMillis() - startTime);
+        }
+        return new TileSet(directory, maxValue);
+    }
+
+    private static File tileFile (File directory, int zoom, int x, int y) {
+        return new File(directory, String.format("%d/%d/%d.png", zoom, x, y));
+    }
+
+    private static boolean tileOverlapsGrid (Grid grid, int zoom, int x, int y) {
+        int[] xRange = cellRange(zoom, x * TILE_SIZE, (x + 1) * TILE_SIZE, grid.zoom, grid.west, grid.width);
+        int[] yRange = cellRange(zoom, y * TILE_SIZE, (y + 1) * TILE_SIZE, grid.zoom, grid.north, grid.height);
+        return xRange[0] < xRange[1] && yRange[0] < yRange[1];
+    }
+
+    /**
+     * Find the cells of a grid covering a span of pixels at another zoom level, along either axis.
+     * @return the first cell and one past the last cell, relative to the grid and clipped to its extents.
+     */
+    private static int[] cellRange (int zoom, int minPixel, int maxPixel, int gridZoom, int gridMin, int gridSize) {
+        long minCell;
+        long maxCell;
+        if (zoom <= gridZoom) {
+            minCell = (long) minPixel << (gridZoom - zoom);
+            maxCell = (long) maxPixel << (gridZoom - zoom);
+        } else {
+            // Round outward to the cells partly covered by the span.
+            int shift = zoom - gridZoom;
+            minCell = minPixel >> shift;
+            maxCell = ((maxPixel - 1) >> shift) + 1;
+        }
+        minCell = Math.max(minCell - gridMin, 0);
+        maxCell = Math.min(maxCell - gridMin, gridSize);
+        return new int[] {(int) minCell, (int) maxCell};
+    }
+
+    /**
+     * Render one tile in greyscale, scaled to the maximum value of the grid like Grid.writePng. Each pixel is the mean
+     * of the grid cells it covers, and pixels that do not cover any cells are transparent.
+     */
+    static BufferedImage renderTile (Grid grid, double maxValue, int zoom, int x, int y) {
+        BufferedImage img = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        int[][] xRanges = new int[TILE_SIZE][];
+        for (int px = 0; px < TILE_SIZE; px++) {
+            int pixel = x * TILE_SIZE + px;
+            xRanges[px] = cellRange(zoom, pixel, pixel + 1, grid.zoom, grid.west, grid.width);
+        }
+        for (int py = 0; py < TILE_SIZE; py++) {
+            int pixel = y * TILE_SIZE + py;
+            int[] yRange = cellRange(zoom, pixel, pixel + 1, grid.zoom, grid.north, grid.height);
+            if (yRange[0] >= yRange[1]) continue;
+            for (int px = 0; px < TILE_SIZE; px++) {
+                int[] xRange = xRanges[px];
+                if (xRange[0] >= xRange[1]) continue;
+                double sum = 0;
+                for (int gx = xRange[0]; gx < xRange[1]; gx++) {
+                    for (int gy = yRange[0]; gy < yRange[1]; gy++) {
+                        sum += grid.grid[gx][gy];
+                    }
+                }
+                double mean = sum / ((xRange[1] - xRange[0]) * (yRange[1] - yRange[0]));
+                int grey = maxValue > 0 ? (int) (mean * 255 / maxValue) : 0;
+                img.setRGB(px, py, 0xFF000000 | grey << 16 | grey << 8 | grey);
+            }
+        }
+        return img;
+    }
+
+    private static double maxValue (Grid grid) {
+        double maxValue = 0;
+        for (double[] column : grid.grid) {
+            for (double value : column) {
+                if (value > maxValue) maxValue = value;
+            }
+        }
+        return maxValue;
+    }
+
+    /** Write the tile to a temporary file and move it into place, so readers never see a partially written tile. */
+    private static void writeTile (BufferedImage img, File tileFile) throws IOException {
+        tileFile.getParentFile().mkdirs();
+        File tempFile = File.createTempFile("tile", ".png", tileFile.getParentFile());
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            ImageIO.write(img, "png", out);
+        }
+        Files.move(tempFile.toPath(), tileFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] pngBytes (BufferedImage img) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Get a value from one of the caches, computing it at most once even when requested concurrently, and unwrapping
+     * any exception thrown while computing it.
+     */
+    private static <T> T getCached (Cache<String, T> cache, String key, Callable<T> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+}
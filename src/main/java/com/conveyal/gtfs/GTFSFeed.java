@@ -19,6 +19,7 @@ import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Transfer;
 import com.conveyal.gtfs.model.Trip;
+import com.conveyal.gtfs.util.Deduplicator;
 import com.conveyal.gtfs.validator.service.GeoUtils;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
@@ -63,6 +64,10 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import java.util.zip.ZipEntry;
@@ -132,14 +137,18 @@ public class GTFSFeed implements Cloneable, Closeable {
      */
     public long checksum;
 
-    /** Map from 2-tuples of (shape_id, shape_pt_sequence) to ShapePoint entities. */
-    public final ConcurrentNavigableMap<Tuple2<String, Integer>, ShapePoint> shape_points;
+    /**
+     * Map from 2-tuples of (shape_id, shape_pt_sequence) to ShapePoint entities. This is not final because the map is
+     * replaced with one built in bulk when the shapes table is loaded, see SortedLoader.
+     */
+    public ConcurrentNavigableMap<Tuple2<String, Integer>, ShapePoint> shape_points;
 
     /**
      * Map from 2-tuples of (trip_id, stop_sequence) to StopTime entities. Tuple2's parameter types are not specified
-     * because a later function call requires passing Fun.HI (an Object) as a parameter.
+     * because a later function call requires passing Fun.HI (an Object) as a parameter. This is not final because the
+     * map is replaced with one built in bulk when the stop_times table is loaded, see SortedLoader.
      */
-    public final BTreeMap<Tuple2, StopTime> stop_times;
+    public BTreeMap<Tuple2, StopTime> stop_times;
 
     /** A fare is a fare_attribute and all fare_rules that reference that fare_attribute. TODO what is the path? */
     public final Map<String, Fare> fares;
@@ -164,6 +173,12 @@ public class GTFSFeed implements Cloneable, Closeable {
     /** Map from each trip_id to ID of trip pattern containing that trip. */
     public final Map<String, String> patternForTrip;
 
+    /**
+     * Deduplicates Strings as this feed is loaded. Each feed has its own so that several feeds can be loaded at once,
+     * and the Strings it holds can be released once loading is finished.
+     */
+    public final Deduplicator deduplicator = new Deduplicator();
+
     /** Once a GTFSFeed has one feed loaded into it, we set this to true to block loading any additional feeds. */
     private boolean loaded = false;
 
@@ -242,6 +257,7 @@ public class GTFSFeed implements Cloneable, Closeable {
         }
 
         zip.close();
+        deduplicator.reset();
 
         // Prevent loading additional feeds into this MapDB.
         loaded = true;
@@ -303,6 +319,61 @@ public class GTFSFeed implements Cloneable, Closeable {
         }
     }
 
+    /**
+     * Load several GTFS files at once, each into its own temporary MapDB. Loading a single large feed is largely
+     * sequential, so this makes good use of the available processors when a bundle contains several feeds.
+     * If any of the feeds fails to load, all of them are closed and an exception is thrown.
+     *
+     * @return the loaded feeds, in the same order as the files.
+     */
+    public static List<GTFSFeed> fromFiles(List<String> files) {
+        if (files.size() <= 1) {
+            return files.stream().map(GTFSFeed::fromFile).collect(Collectors.toList());
+        }
+        // Each load keeps a second thread busy sorting and writing stop_times, so don't start one per processor.
+        int nThreads = Math.min(files.size(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        LOG.info("Loading {} GTFS feeds with {} threads.", files.size(), nThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<GTFSFeed>> futures = new ArrayList<>();
+            for (String file : files) {
+                futures.add(executor.submit(() -> fromFile(file)));
+            }
+            List<GTFSFeed> feeds = new ArrayList<>();
+            Exception failure = null;
+            for (Future<GTFSFeed> future : futures) {
+                try {
+                    feeds.add(future.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) {
+                feeds.forEach(GTFSFeed::close);
+                throw new RuntimeException("Error loading GTFS feeds.", failure);
+            }
+            return feeds;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Build one of this feed's tables with the MapDB data pump, replacing the empty map created when this feed was
+     * constructed. Building the tree from a stream of sorted entries is much faster than inserting them one by one.
+     *
+     * @param descendingEntries (key, value) tuples sorted in descending order of key, with no duplicate keys.
+     */
+    public <K, V> BTreeMap<K, V> pumpTreeMap(String name, Iterator<Tuple2<K, V>> descendingEntries) {
+        db.delete(name);
+        return db.createTreeMap(name).pumpSource(descendingEntries).make();
+    }
+
+    /** @return the serializer this feed's MapDB uses for entities, e.g. to spill them to disk while sorting. */
+    public Serializer<?> getDefaultSerializer() {
+        return db.getDefaultSerializer();
+    }
+
     /**
      * For the given trip ID, fetch all the stop times in order of increasing stop_sequence.
      * This is an efficient iteration over a tree map.
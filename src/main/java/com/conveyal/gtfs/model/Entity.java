@@ -13,7 +13,6 @@ import com.conveyal.gtfs.error.ReferentialIntegrityError;
 import com.conveyal.gtfs.error.TableInSubdirectoryError;
 import com.conveyal.gtfs.error.TimeParseError;
 import com.conveyal.gtfs.error.URLParseError;
-import com.conveyal.gtfs.util.Deduplicator;
 import com.csvreader.CsvReader;
 import com.csvreader.CsvWriter;
 import org.apache.commons.io.input.BOMInputStream;
@@ -73,7 +72,6 @@ public abstract class Entity implements Serializable {
     public static abstract class Loader<E extends Entity> {
 
         private static final Logger LOG = LoggerFactory.getLogger(Loader.class);
-        private static final Deduplicator deduplicator = new Deduplicator();
 
         protected final GTFSFeed feed;    // the feed into which we are loading the entities
         protected final String tableName; // name of corresponding table without .txt
@@ -124,7 +122,7 @@ public abstract class Entity implements Serializable {
         /** @return the given column from the current row as a deduplicated String. */
         protected String getStringField(String column, boolean required) throws IOException {
             String str = getFieldCheckRequired(column, required);
-            str = deduplicator.deduplicateString(str);
+            str = feed.deduplicator.deduplicateString(str);
             return str;
         }
 
@@ -252,6 +250,18 @@ public abstract class Entity implements Serializable {
          * @param zip the zip file from which to read a table
          */
         public void loadTable(ZipFile zip) throws IOException {
+            if (openTable(zip)) {
+                readRows();
+            }
+        }
+
+        /**
+         * Find this loader's table in the given zip file and prepare to read its rows, recording an error if the table
+         * is missing or empty.
+         *
+         * @return whether the table was found.
+         */
+        protected boolean openTable(ZipFile zip) throws IOException {
             ZipEntry entry = zip.getEntry(tableName + ".txt");
             if (entry == null) {
                 Enumeration<? extends ZipEntry> entries = zip.entries();
@@ -270,7 +280,7 @@ public abstract class Entity implements Serializable {
                     LOG.info("Table {} was missing but it is not required.", tableName);
                 }
 
-                if (entry == null) return;
+                if (entry == null) return false;
             }
             LOG.info("Loading GTFS table {} from {}", tableName, entry);
             InputStream zis = zip.getInputStream(entry);
@@ -283,6 +293,11 @@ public abstract class Entity implements Serializable {
             if (!hasHeaders) {
                 feed.errors.add(new EmptyTableError(tableName));
             }
+            return true;
+        }
+
+        /** Call loadOneRow() on each row of the table opened by openTable(). */
+        protected void readRows() throws IOException {
             while (reader.readRecord()) {
                 // reader.getCurrentRecord() is zero-based and does not include the header line, keep our own row count
                 if (++row % 500000 == 0) {
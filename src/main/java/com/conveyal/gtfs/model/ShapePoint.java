@@ -1,6 +1,7 @@
 package com.conveyal.gtfs.model;
 
 import com.conveyal.gtfs.GTFSFeed;
+import org.mapdb.BTreeMap;
 import org.mapdb.Fun.Tuple2;
 
 import java.io.IOException;
@@ -26,10 +27,20 @@ public class ShapePoint extends Entity {
         this.shape_dist_traveled = shape_dist_traveled;
     }
 
-    public static class Loader extends Entity.Loader<ShapePoint> {
+    @Override
+    public String getId() {
+        return shape_id;
+    }
+
+    @Override
+    public Integer getSequenceNumber() {
+        return shape_pt_sequence; // Compound key of ShapePoint is (shape_id, shape_pt_sequence)
+    }
+
+    public static class Loader extends SortedLoader<Tuple2<String, Integer>, ShapePoint> {
 
         public Loader(GTFSFeed feed) {
-            super(feed, "shapes");
+            super(feed, "shapes", "shape_points");
         }
 
         @Override
@@ -38,16 +49,24 @@ public class ShapePoint extends Entity {
         }
 
         @Override
-        public void loadOneRow() throws IOException {
+        protected ShapePoint parseOneRow() throws IOException {
             String shape_id = getStringField("shape_id", true);
             double shape_pt_lat = getDoubleField("shape_pt_lat", true, -90D, 90D);
             double shape_pt_lon = getDoubleField("shape_pt_lon", true, -180D, 180D);
             int shape_pt_sequence = getIntField("shape_pt_sequence", true, 0, Integer.MAX_VALUE);
             double shape_dist_traveled = getDoubleField("shape_dist_traveled", false, 0D, Double.MAX_VALUE);
 
-            ShapePoint s = new ShapePoint(shape_id, shape_pt_lat, shape_pt_lon, shape_pt_sequence, shape_dist_traveled);
-            s.sourceFileLine = row + 1; // offset line number by 1 to account for 0-based row index
-            feed.shape_points.put(new Tuple2<String, Integer>(s.shape_id, s.shape_pt_sequence), s);
+            return new ShapePoint(shape_id, shape_pt_lat, shape_pt_lon, shape_pt_sequence, shape_dist_traveled);
+        }
+
+        @Override
+        protected Tuple2<String, Integer> makeKey(String id, Integer sequenceNumber) {
+            return new Tuple2<>(id, sequenceNumber);
+        }
+
+        @Override
+        protected void setTable(BTreeMap<Tuple2<String, Integer>, ShapePoint> table) {
+            feed.shape_points = table;
         }
     }
 
@@ -0,0 +1,217 @@
+package com.conveyal.gtfs.model;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.error.DuplicateKeyError;
+import org.mapdb.BTreeMap;
+import org.mapdb.Fun.Tuple2;
+import org.mapdb.Pump;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import static com.conveyal.gtfs.util.Util.human;
+
+/**
+ * A Loader for the very large tables whose rows are keyed on an (id, sequence number) pair, i.e. stop_times and shapes.
+ * Inserting tens of millions of rows one by one into a MapDB BTreeMap is slow, because they arrive in file order and
+ * land all over the tree. Instead, rows are handed off in batches as they are parsed to a second thread, which sorts
+ * them (spilling to temporary files when there are too many to hold in memory) and feeds the sorted stream to the
+ * MapDB data pump, which builds the tree bottom-up in a single pass. CSV parsing and referential integrity checks
+ * therefore proceed concurrently with sorting and writing.
+ *
+ * As with inserting the rows into a map, when several rows have the same key the last one in the file is retained.
+ * A DuplicateKeyError is recorded for each of the others.
+ *
+ * @param <K> the type of the keys of the feed's table, which are always (id, sequence number) tuples but may be
+ *            declared with or without type parameters, see GTFSFeed.stop_times.
+ */
+public abstract class SortedLoader<K, E extends Entity> extends Entity.Loader<E> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SortedLoader.class);
+
+    /** The number of parsed rows handed to the sorting thread at once. */
+    private static final int HANDOFF_BATCH_SIZE = 10_000;
+
+    /** The number of handoff batches that can be waiting for the sorting thread before the parser blocks. */
+    private static final int HANDOFF_QUEUE_LENGTH = 16;
+
+    /** The number of rows sorted in memory before they are spilled to a temporary file. */
+    private static final int SORT_BATCH_SIZE = 500_000;
+
+
+    /**
+     * Sorts rows in descending order of key as required by the MapDB data pump, and rows with the same key in
+     * descending order of their line in the file, so the first one seen for each key is the last one in the file.
+     */
+    private static final Comparator<Entity> DESCENDING_KEY_ORDER = (e1, e2) -> {
+        int result = key(e2).compareTo(key(e1));
+        return (result != 0) ? result : Integer.compare(e2.sourceFileLine, e1.sourceFileLine);
+    };
+
+    /** The name of the table within the feed's MapDB, which is not always the same as the GTFS table name. */
+    private final String mapName;
+
+    /**
+     * Signals the end of the table to the sorting thread. It is recognized by identity: batches of rows are always
+     * new ArrayLists, so they can never be this instance.
+     */
+    private final List<E> endOfTable = Collections.emptyList();
+
+    private BlockingQueue<List<E>> handoffQueue;
+
+    private FutureTask<BTreeMap<K, E>> pumpTask;
+
+    private List<E> batch;
+
+    public SortedLoader (GTFSFeed feed, String tableName, String mapName) {
+        super(feed, tableName);
+        this.mapName = mapName;
+    }
+
+    /** Implemented by subclasses to produce one GTFS entity from the current row. */
+    protected abstract E parseOneRow() throws IOException;
+
+    /** Implemented by subclasses to make the key of an entity in the feed's table, from its id and sequence number. */
+    protected abstract K makeKey(String id, Integer sequenceNumber);
+
+    /** Implemented by subclasses to replace the feed's (empty) table with the newly built one. */
+    protected abstract void setTable(BTreeMap<K, E> table);
+
+    @Override
+    public void loadTable(ZipFile zip) throws IOException {
+        if (!openTable(zip)) return;
+        handoffQueue = new ArrayBlockingQueue<>(HANDOFF_QUEUE_LENGTH);
+        pumpTask = new FutureTask<>(() -> feed.pumpTreeMap(mapName, sortedEntries()));
+        Thread pumpThread = new Thread(pumpTask, "gtfs-pump-" + mapName);
+        pumpThread.setDaemon(true);
+        pumpThread.start();
+        batch = new ArrayList<>(HANDOFF_BATCH_SIZE);
+        try {
+            readRows();
+            handOff(batch);
+            handOff(endOfTable);
+        } catch (IOException | RuntimeException e) {
+            // Do not let the sorting thread build a table from part of the file. Stop it, and wait for it to release
+            // its temporary files and the feed's MapDB before reporting the failure.
+            pumpTask.cancel(true);
+            try {
+                pumpThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            throw e;
+        } finally {
+            batch = null;
+        }
+        try {
+            setTable(pumpTask.get());
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Failed to build table " + mapName, e);
+        }
+        LOG.info("Built table {} with {} rows.", mapName, human(row));
+    }
+
+    @Override
+    protected final void loadOneRow() throws IOException {
+        E entity = parseOneRow();
+        entity.sourceFileLine = row + 1; // offset line number by 1 to account for 0-based row index
+        batch.add(entity);
+        if (batch.size() == HANDOFF_BATCH_SIZE) {
+            handOff(batch);
+            batch = new ArrayList<>(HANDOFF_BATCH_SIZE);
+        }
+    }
+
+    /** Pass a batch of rows to the sorting thread, unless that thread has already failed. */
+    private void handOff (List<E> rows) throws IOException {
+        try {
+            while (!handoffQueue.offer(rows, 1, TimeUnit.SECONDS)) {
+                if (pumpTask.isDone()) return;
+            }
+        } catch (InterruptedException e) {
+            pumpTask.cancel(true);
+            throw new IOException("Interrupted while loading table " + mapName, e);
+        }
+    }
+
+    /** @return the rows in the order required by the MapDB data pump, as (key, entity) tuples without duplicate keys. */
+    private Iterator<Tuple2<K, E>> sortedEntries () {
+        Iterator<E> sorted = Pump.sort(new HandoffIterator(), false, SORT_BATCH_SIZE, DESCENDING_KEY_ORDER,
+                feed.getDefaultSerializer());
+        return new Iterator<Tuple2<K, E>>() {
+            E next = sorted.hasNext() ? sorted.next() : null;
+
+            @Override
+            public boolean hasNext () {
+                return next != null;
+            }
+
+            @Override
+            public Tuple2<K, E> next () {
+                if (next == null) throw new NoSuchElementException();
+                E entity = next;
+                Tuple2<String, Integer> key = key(entity);
+                next = null;
+                while (sorted.hasNext()) {
+                    E candidate = sorted.next();
+                    if (key(candidate).equals(key)) {
+                        feed.errors.add(new DuplicateKeyError(tableName, candidate.sourceFileLine, null));
+                    } else {
+                        next = candidate;
+                        break;
+                    }
+                }
+                return new Tuple2<>(makeKey(key.a, key.b), entity);
+            }
+        };
+    }
+
+    private static Tuple2<String, Integer> key (Entity entity) {
+        return new Tuple2<>(entity.getId(), entity.getSequenceNumber());
+    }
+
+    /** Iterates over the rows passed to the sorting thread, in the order they appear in the file. */
+    private class HandoffIterator implements Iterator<E> {
+
+        private Iterator<E> current = endOfTable.iterator();
+
+        private boolean ended = false;
+
+        @Override
+        public boolean hasNext () {
+            while (!current.hasNext() && !ended) {
+                try {
+                    List<E> rows = handoffQueue.take();
+                    if (rows == endOfTable) {
+                        ended = true;
+                    } else {
+                        current = rows.iterator();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public E next () {
+            if (!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.conveyal.gtfs.model;
 
 import com.conveyal.gtfs.GTFSFeed;
+import org.mapdb.BTreeMap;
 import org.mapdb.Fun;
 
 import java.io.IOException;
@@ -36,10 +37,12 @@ public class StopTime extends Entity implements Cloneable, Serializable {
         return stop_sequence; // Compound key of StopTime is (trip_id, stop_sequence)
     }
 
-    public static class Loader extends Entity.Loader<StopTime> {
+    /** Keyed on raw Tuple2s like GTFSFeed.stop_times itself, so that the table can be queried with Fun.HI. */
+    @SuppressWarnings("rawtypes")
+    public static class Loader extends SortedLoader<Fun.Tuple2, StopTime> {
 
         public Loader(GTFSFeed feed) {
-            super(feed, "stop_times");
+            super(feed, "stop_times", "stop_times");
         }
 
         @Override
@@ -48,9 +51,8 @@ public class StopTime extends Entity implements Cloneable, Serializable {
         }
 
         @Override
-        public void loadOneRow() throws IOException {
+        protected StopTime parseOneRow() throws IOException {
             StopTime st = new StopTime();
-            st.sourceFileLine = row + 1; // offset line number by 1 to account for 0-based row index
             st.trip_id        = getStringField("trip_id", true);
             // TODO: arrival_time and departure time are not required, but if one is present the other should be
             // also, if this is the first or last stop, they are both required
@@ -63,7 +65,6 @@ public class StopTime extends Entity implements Cloneable, Serializable {
             st.drop_off_type  = getIntField("drop_off_type", false, 0, 3);
             st.shape_dist_traveled = getDoubleField("shape_dist_traveled", false, 0D, Double.MAX_VALUE); // FIXME using both 0 and NaN for "missing", define DOUBLE_MISSING
             st.timepoint      = getIntField("timepoint", false, 0, 1, INT_MISSING);
-            feed.stop_times.put(new Fun.Tuple2(st.trip_id, st.stop_sequence), st);
 
             /*
               Check referential integrity without storing references. StopTime cannot directly reference Trips or
@@ -71,6 +72,17 @@ public class StopTime extends Entity implements Cloneable, Serializable {
              */
             getRefField("trip_id", true, feed.trips);
             getRefField("stop_id", true, feed.stops);
+            return st;
+        }
+
+        @Override
+        protected Fun.Tuple2 makeKey(String id, Integer sequenceNumber) {
+            return new Fun.Tuple2<>(id, sequenceNumber);
+        }
+
+        @Override
+        protected void setTable(BTreeMap<Fun.Tuple2, StopTime> table) {
+            feed.stop_times = table;
         }
 
     }
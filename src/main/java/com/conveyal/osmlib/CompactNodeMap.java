@@ -0,0 +1,149 @@
+package com.conveyal.osmlib;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from OSM node IDs to nodes that keeps only the coordinates of untagged nodes, in an off-heap
+ * NodeCoordinateStore. The vast majority of nodes have no tags and are used only to give the shape of ways, so this
+ * is much smaller and faster than storing every node in a MapDB tree. Full Node objects are still stored in a
+ * separate map for nodes that carry tags, and for any nodes that are not supplied in increasing order of ID.
+ *
+ * Untagged Node objects are reconstructed each time they are fetched, so modifying them has no effect on the map.
+ * Entries are iterated over in increasing order of ID. This class is not threadsafe.
+ */
+class CompactNodeMap extends AbstractMap<Long, Node> {
+
+    private final NodeCoordinateStore coordinates = new NodeCoordinateStore();
+
+    /** Tagged and out-of-order nodes, which must be sorted by ID for iteration. */
+    private final NavigableMap<Long, Node> otherNodes;
+
+    /** The highest ID ever put in this map. Nodes with higher IDs are known not to be present yet. */
+    private long maxId = -1;
+
+    /** @param otherNodes an empty sorted map, e.g. in a MapDB, in which to store nodes that carry tags. */
+    CompactNodeMap (NavigableMap<Long, Node> otherNodes) {
+        this.otherNodes = otherNodes;
+    }
+
+    @Override
+    public Node put (Long id, Node node) {
+        boolean tagged = !node.hasNoTags();
+        if (id > maxId) {
+            // The common case when loading a PBF file: a node that is known not to exist yet.
+            maxId = id;
+            if (tagged) {
+                otherNodes.put(id, node);
+            } else {
+                coordinates.append(id, node.fixedLat, node.fixedLon);
+            }
+            return null;
+        }
+        int slot = coordinates.find(id);
+        if (slot == -1) {
+            return otherNodes.put(id, node);
+        }
+        Node previous = makeNode(slot);
+        if (tagged) {
+            coordinates.remove(slot);
+            otherNodes.put(id, node);
+        } else {
+            coordinates.set(slot, node.fixedLat, node.fixedLon);
+        }
+        return previous;
+    }
+
+    @Override
+    public Node get (Object key) {
+        if (!(key instanceof Long)) return null;
+        int slot = coordinates.find((Long) key);
+        if (slot != -1) {
+            return makeNode(slot);
+        }
+        return otherNodes.get(key);
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        if (!(key instanceof Long)) return false;
+        return coordinates.find((Long) key) != -1 || otherNodes.containsKey(key);
+    }
+
+    @Override
+    public Node remove (Object key) {
+        if (!(key instanceof Long)) return null;
+        int slot = coordinates.find((Long) key);
+        if (slot != -1) {
+            Node previous = makeNode(slot);
+            coordinates.remove(slot);
+            return previous;
+        }
+        return otherNodes.remove(key);
+    }
+
+    @Override
+    public int size () {
+        return coordinates.size() + otherNodes.size();
+    }
+
+    @Override
+    public Set<Entry<Long, Node>> entrySet () {
+        return new AbstractSet<Entry<Long, Node>>() {
+            @Override
+            public Iterator<Entry<Long, Node>> iterator () {
+                return new MergingIterator();
+            }
+
+            @Override
+            public int size () {
+                return CompactNodeMap.this.size();
+            }
+        };
+    }
+
+    /** Release the off-heap storage. The map must not be used after it is closed. */
+    void close () {
+        coordinates.close();
+    }
+
+    private Node makeNode (int slot) {
+        Node node = new Node();
+        node.fixedLat = coordinates.fixedLat(slot);
+        node.fixedLon = coordinates.fixedLon(slot);
+        return node;
+    }
+
+    /** Merges the nodes in the coordinate store and the other map, which are both sorted by ID. */
+    private class MergingIterator implements Iterator<Entry<Long, Node>> {
+
+        private int slot = coordinates.nextSlot(0);
+
+        private final Iterator<Entry<Long, Node>> otherIterator = otherNodes.entrySet().iterator();
+
+        private Entry<Long, Node> nextOther = otherIterator.hasNext() ? otherIterator.next() : null;
+
+        @Override
+        public boolean hasNext () {
+            return slot != -1 || nextOther != null;
+        }
+
+        @Override
+        public Entry<Long, Node> next () {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (nextOther == null || (slot != -1 && coordinates.id(slot) < nextOther.getKey())) {
+                Entry<Long, Node> entry = new SimpleImmutableEntry<>(coordinates.id(slot), makeNode(slot));
+                slot = coordinates.nextSlot(slot + 1);
+                return entry;
+            }
+            Entry<Long, Node> entry = nextOther;
+            nextOther = otherIterator.hasNext() ? otherIterator.next() : null;
+            return entry;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.conveyal.osmlib;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the fixed-point coordinates of a large number of OSM nodes outside the Java heap, in a memory-mapped
+ * temporary file. Nodes must be appended in increasing order of ID, which is the order in which they appear in PBF
+ * files. IDs are then found by binary search over a dense sorted array, which is a few memory accesses rather than a
+ * B-tree traversal with deserialization of its nodes. Each node takes 16 bytes, and the operating system can page
+ * these out as needed, so very large regions can be loaded on machines with little memory.
+ *
+ * The file is divided into fixed-size chunks, each holding the IDs, latitudes and longitudes of CHUNK_SIZE nodes in
+ * three consecutive columns. Nodes can be overwritten or removed after they are appended, but not inserted out of
+ * order. This class is not threadsafe.
+ */
+class NodeCoordinateStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeCoordinateStore.class);
+
+    private static final int CHUNK_SHIFT = 20;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /** Bytes per chunk: an 8-byte ID and two 4-byte coordinates per node. */
+    private static final long CHUNK_BYTES = CHUNK_SIZE * 16L;
+
+    /** A latitude value marking removed nodes. Valid fixed-point latitudes are within +/- 900 million. */
+    private static final int REMOVED = Integer.MIN_VALUE;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final List<LongBuffer> idChunks = new ArrayList<>();
+
+    private final List<IntBuffer> latChunks = new ArrayList<>();
+
+    private final List<IntBuffer> lonChunks = new ArrayList<>();
+
+    /** The number of slots used, including those of removed nodes. */
+    private int nSlots = 0;
+
+    /** The number of nodes that have not been removed. */
+    private int size = 0;
+
+    NodeCoordinateStore () {
+        try {
+            file = File.createTempFile("osm-nodes", ".bin");
+            file.deleteOnExit();
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create temporary file for OSM node coordinates.", e);
+        }
+    }
+
+    /** @return the highest ID stored so far (even if that node was later removed), or -1 if the store is empty. */
+    long lastId () {
+        return nSlots == 0 ? -1 : id(nSlots - 1);
+    }
+
+    int size () {
+        return size;
+    }
+
+    /** Add a node whose ID is higher than that of any node already stored. */
+    void append (long id, int fixedLat, int fixedLon) {
+        if (id <= lastId()) {
+            throw new IllegalArgumentException("Nodes must be appended in increasing order of ID.");
+        }
+        int chunk = nSlots >>> CHUNK_SHIFT;
+        if (chunk == idChunks.size()) {
+            addChunk();
+        }
+        int offset = nSlots & (CHUNK_SIZE - 1);
+        idChunks.get(chunk).put(offset, id);
+        latChunks.get(chunk).put(offset, fixedLat);
+        lonChunks.get(chunk).put(offset, fixedLon);
+        nSlots += 1;
+        size += 1;
+    }
+
+    /** @return the slot holding the node with the given ID, or -1 if there is no such node. */
+    int find (long id) {
+        if (nSlots == 0 || id > lastId()) return -1;
+        int low = 0;
+        int high = nSlots - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = id(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return isRemoved(mid) ? -1 : mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Replace the coordinates of the node in the given slot. */
+    void set (int slot, int fixedLat, int fixedLon) {
+        latChunks.get(slot >>> CHUNK_SHIFT).put(slot & (CHUNK_SIZE - 1), fixedLat);
+        lonChunks.get(slot >>> CHUNK_SHIFT).put(slot & (CHUNK_SIZE - 1), fixedLon);
+    }
+
+    /** Remove the node in the given slot. Its slot remains, so that IDs stay sorted. */
+    void remove (int slot) {
+        latChunks.get(slot >>> CHUNK_SHIFT).put(slot & (CHUNK_SIZE - 1), REMOVED);
+        size -= 1;
+    }
+
+    long id (int slot) {
+        return idChunks.get(slot >>> CHUNK_SHIFT).get(slot & (CHUNK_SIZE - 1));
+    }
+
+    int fixedLat (int slot) {
+        return latChunks.get(slot >>> CHUNK_SHIFT).get(slot & (CHUNK_SIZE - 1));
+    }
+
+    int fixedLon (int slot) {
+        return lonChunks.get(slot >>> CHUNK_SHIFT).get(slot & (CHUNK_SIZE - 1));
+    }
+
+    private boolean isRemoved (int slot) {
+        return fixedLat(slot) == REMOVED;
+    }
+
+    /** @return the first slot at or after the given one that holds a node which has not been removed, or -1. */
+    int nextSlot (int slot) {
+        while (slot < nSlots && isRemoved(slot)) slot++;
+        return slot < nSlots ? slot : -1;
+    }
+
+    private void addChunk () {
+        try {
+            long position = idChunks.size() * CHUNK_BYTES;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_BYTES);
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.limit(CHUNK_SIZE * 8).position(0);
+            idChunks.add(buffer.slice().order(ByteOrder.nativeOrder()).asLongBuffer());
+            buffer.limit(CHUNK_SIZE * 12).position(CHUNK_SIZE * 8);
+            latChunks.add(buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer());
+            buffer.limit(CHUNK_SIZE * 16).position(CHUNK_SIZE * 12);
+            lonChunks.add(buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not extend temporary file for OSM node coordinates.", e);
+        }
+    }
+
+    /** Release the temporary file. The store must not be used after it is closed. */
+    void close () {
+        idChunks.clear();
+        latChunks.clear();
+        lonChunks.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close temporary file for OSM node coordinates.", e);
+        }
+        file.delete();
+    }
+
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NavigableSet;
 
 /**
@@ -69,9 +70,19 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /* If true, track which nodes are referenced by more than one way. */
     public boolean intersectionDetection = false;
 
+    /**
+     * If true, store the coordinates of untagged nodes in a compact off-heap array instead of the nodes table. This
+     * is much faster to load and look up, but only takes effect when this OSM is stored in a temporary file or in
+     * memory, because the coordinates are not saved in the MapDB file.
+     */
+    public boolean compactNodeStorage = false;
+
     /** If true we are reading already filled OSM mapdv **/
     private boolean reading = false;
 
+    /** If true the MapDB is saved in a file that will outlive this object, and may be read back in later. */
+    private boolean persistent = false;
+
     /**
      * Construct a new MapDB-based random-access OSM data store.
      * If diskPath is null, OSM will be loaded into a temporary file and deleted on shutdown.
@@ -91,6 +102,7 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
                 dbMaker = DBMaker.newMemoryDirectDB(); 
             } else {
                 File dp = new File(diskPath);
+                persistent = true;
                 reading = (diskPath.endsWith(".mapdb") || diskPath.endsWith(".db")) && dp.exists();
                 if (reading) {
                     LOG.info("Reading OSM DB from: {}", diskPath);
@@ -337,6 +349,13 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
         if ( ! (nodes.isEmpty() && ways.isEmpty() && relations.isEmpty())) {
             throw new RuntimeException("Database is already populated.");
         }
+        if (compactNodeStorage) {
+            if (persistent) {
+                LOG.warn("Compact node storage is not saved to disk, storing nodes in the MapDB file instead.");
+            } else {
+                nodes = new CompactNodeMap((NavigableMap<Long, Node>) nodes);
+            }
+        }
     }
 
     @Override
@@ -386,6 +405,9 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
 
     /** Close the database file to ensure clean shutdown and avoid leaving the async write thread running. */
     public void close() {
+        if (nodes instanceof CompactNodeMap) {
+            ((CompactNodeMap) nodes).close();
+        }
         db.close();
     }
 
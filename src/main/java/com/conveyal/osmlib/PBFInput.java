@@ -3,96 +3,306 @@ package com.conveyal.osmlib;
  * This program is free software: you can redistribute it and/or modify it under the terms of the
  * GNU Lesser General Public License as published by the Free Software Foundation, either version 3
  * of the License, or (at your option) any later version.
- * 
+ *
  * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
  * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
  * General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License along with this program. If
  * not, see <http://www.gnu.org/licenses/>.
  */
 
 import com.conveyal.osmlib.OSMEntity.Type;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
 import org.openstreetmap.osmosis.osmbinary.BinaryParser;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
-import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
- * An OpenStreetMap entity source that reads from the PBF Format. This class implements callbacks for
- * the crosby.binary OSMPBF library. It loads OSM data into the osm-lib model classes, then sends those
- * objects through to the specified OSM entity sink.
+ * An OpenStreetMap entity source that reads from the PBF Format. It loads OSM data into the osm-lib model classes, then
+ * sends those objects through to the specified OSM entity sink.
+ *
+ * Each block in a PBF file is compressed separately, and inflating and decoding the blocks is what limits the speed
+ * of reading large files. So the blocks are read from the input stream on the calling thread but inflated and decoded
+ * on a pool of worker threads. The decoded entities are then passed on to the entity sink on the calling thread, in
+ * the order of the blocks in the file. The sink therefore sees exactly the same sequence of calls as it would if the
+ * file were read on a single thread, and does not need to be threadsafe.
  */
-public class PBFInput extends BinaryParser implements OSMEntitySource {
+public class PBFInput implements OSMEntitySource {
 
     protected static final Logger LOG = LoggerFactory.getLogger(PBFInput.class);
 
+    /** Blocks larger than this are not allowed by the PBF specification. */
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    /** The default number of worker threads inflating and decoding blocks. */
+    private static final int N_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The maximum number of blocks per worker thread that can be read ahead of the one being written to the entity
+     * sink. Each decoded block holds about 8000 entities, so this limits the memory used by blocks waiting their turn.
+     */
+    private static final int MAX_BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
     private long nodeCount = 0;
     private long wayCount = 0;
     private long relationCount = 0;
     private InputStream inputStream;
     private OSMEntitySink entitySink;
-
-    private static final String[] retainKeys = new String[] {
-        "highway", "parking", "bicycle", "name"
-    };
+    private final int nThreads;
 
     public PBFInput(InputStream inputStream) {
-        this.inputStream = inputStream;
+        this(inputStream, N_THREADS);
     }
 
-    // Accepting all tags increases size by about 15 percent when storing all elements.
-    // Not storing elements that lack interesting tags reduces size by 80%.
-    // return true; DEBUG
-    private boolean retainTag(String key) {
-        return true;
-//        for (String s : retainKeys) {
-//            if (s.equals(key)) return true;
-//        }
-//        return false;
+    /**
+     * @param nThreads the number of worker threads decoding blocks. With only one, each block is decoded on the
+     *                 calling thread just before it is written to the entity sink, without any worker threads.
+     */
+    PBFInput(InputStream inputStream, int nThreads) {
+        this.inputStream = inputStream;
+        this.nThreads = nThreads;
     }
 
-    /** Note that in many PBF files this function is never called because all nodes are dense. */
     @Override
-    protected void parseNodes(List<Osmformat.Node> nodes) {
+    public void copyTo(OSMEntitySink sink) throws IOException {
+        entitySink = sink;
+        entitySink.writeBegin();
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        if (nThreads <= 1) {
+            Fileformat.BlobHeader header;
+            while ((header = readBlobHeader(dataInputStream)) != null) {
+                byte[] blob = new byte[checkSize(header.getDatasize(), MAX_BLOB_SIZE)];
+                dataInputStream.readFully(blob);
+                write(decode(header.getType(), blob));
+            }
+        } else {
+            copyToInParallel(dataInputStream);
+        }
+        LOG.info("Done parsing PBF.");
+        LOG.info("Read {} nodes, {} ways, {} relations.", nodeCount, wayCount, relationCount);
+        entitySink.writeEnd();
+    }
+
+    /** Read blocks on the calling thread, decode them on worker threads, and write them out in their original order. */
+    private void copyToInParallel (DataInputStream dataInputStream) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread thread = new Thread(runnable, "pbf-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
-            for (Osmformat.Node n : nodes) {
-                if (nodeCount++ % 10000000 == 0) {
+            Deque<Future<DecodedBlock>> blocksInFlight = new ArrayDeque<>();
+            Fileformat.BlobHeader header;
+            while ((header = readBlobHeader(dataInputStream)) != null) {
+                byte[] blob = new byte[checkSize(header.getDatasize(), MAX_BLOB_SIZE)];
+                dataInputStream.readFully(blob);
+                String type = header.getType();
+                blocksInFlight.add(executor.submit(() -> decode(type, blob)));
+                if (blocksInFlight.size() >= nThreads * MAX_BLOCKS_IN_FLIGHT_PER_THREAD) {
+                    write(blocksInFlight.remove());
+                }
+            }
+            while (!blocksInFlight.isEmpty()) {
+                write(blocksInFlight.remove());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** @return the header of the next block in the file, or null if the end of the file has been reached. */
+    private static Fileformat.BlobHeader readBlobHeader (DataInputStream dataInputStream) throws IOException {
+        int headerSize;
+        try {
+            headerSize = dataInputStream.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] header = new byte[checkSize(headerSize, MAX_BLOB_HEADER_SIZE)];
+        dataInputStream.readFully(header);
+        return Fileformat.BlobHeader.parseFrom(header);
+    }
+
+    private static int checkSize (int size, int maxSize) throws IOException {
+        if (size < 0 || size > maxSize) {
+            throw new IOException("PBF block size " + size + " is invalid or exceeds the maximum of " + maxSize);
+        }
+        return size;
+    }
+
+    /** Called on a worker thread to inflate and decode one block. */
+    private static DecodedBlock decode (String type, byte[] serializedBlob) throws IOException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(serializedBlob);
+        byte[] data;
+        if (blob.hasRaw()) {
+            data = blob.getRaw().toByteArray();
+        } else if (blob.hasZlibData()) {
+            data = new byte[blob.getRawSize()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(blob.getZlibData().toByteArray());
+                inflater.inflate(data);
+                if (!inflater.finished()) {
+                    throw new IOException("PBF block did not inflate to its declared size.");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("PBF block could not be inflated.", e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException("PBF block uses an unsupported compression method.");
+        }
+        BlockDecoder decoder = new BlockDecoder();
+        if (type.equals("OSMHeader")) {
+            decoder.parse(Osmformat.HeaderBlock.parseFrom(data));
+        } else if (type.equals("OSMData")) {
+            decoder.parse(Osmformat.PrimitiveBlock.parseFrom(data));
+        } else {
+            LOG.warn("Skipping PBF block of unknown type {}", type);
+        }
+        return decoder.block;
+    }
+
+    /** Wait for the next block in the file to be decoded on a worker thread, then write it to the entity sink. */
+    private void write (Future<DecodedBlock> future) throws IOException {
+        try {
+            write(future.get());
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Failed to decode PBF block.", e);
+        }
+    }
+
+    /** Called on the calling thread to pass the entities in the next block in the file on to the entity sink. */
+    private void write (DecodedBlock block) throws IOException {
+        if (block.header != null) {
+            checkHeader(block.header);
+        }
+        for (int i = 0; i < block.entities.size(); i++) {
+            long id = block.ids.get(i);
+            OSMEntity entity = block.entities.get(i);
+            switch (entity.getType()) {
+            case NODE:
+                if (nodeCount++ % 5000000 == 0) {
                     LOG.info("node {}", human(nodeCount));
                 }
+                entitySink.writeNode(id, (Node) entity);
+                break;
+            case WAY:
+                if (wayCount++ % 1000000 == 0) {
+                    LOG.info("way {}", human(wayCount));
+                }
+                entitySink.writeWay(id, (Way) entity);
+                break;
+            case RELATION:
+                if (relationCount++ % 100000 == 0) {
+                    LOG.info("relation {}", human(relationCount));
+                }
+                entitySink.writeRelation(id, (Relation) entity);
+                break;
+            }
+        }
+    }
+
+    private void checkHeader (Osmformat.HeaderBlock block) {
+        for (String s : block.getRequiredFeaturesList()) {
+            if (s.equals("OsmSchema-V0.6")) {
+                continue; // We can parse this.
+            }
+            if (s.equals("DenseNodes")) {
+                continue; // We can parse this.
+            }
+            throw new IllegalStateException("File requires unknown feature: " + s);
+        }
+        if (block.hasOsmosisReplicationTimestamp()) {
+            long timestamp = block.getOsmosisReplicationTimestamp();
+            LOG.info("PBF file has a replication timestamp of {}", Instant.ofEpochSecond(timestamp));
+            entitySink.setReplicationTimestamp(timestamp);
+        } else {
+            LOG.info("PBF file has no replication timestamp.");
+        }
+    }
+
+    private static String human(long n) {
+        if (n > 1000000)
+            return String.format("%.1fM", n / 1000000.0);
+        if (n > 1000)
+            return String.format("%dk", n / 1000);
+        else
+            return String.format("%d", n);
+    }
+
+    /** The header or the entities decoded from one PBF block, with the entities in the order they appear. */
+    private static class DecodedBlock {
+        Osmformat.HeaderBlock header;
+        final TLongList ids = new TLongArrayList();
+        final List<OSMEntity> entities = new ArrayList<>();
+
+        void add (long id, OSMEntity entity) {
+            ids.add(id);
+            entities.add(entity);
+        }
+    }
+
+    /**
+     * Implements callbacks for the crosby.binary OSMPBF library to decode a single block. A new instance is used for
+     * each block, since the string table and coordinate offsets held by BinaryParser are specific to one block.
+     */
+    private static class BlockDecoder extends BinaryParser {
+
+        private final DecodedBlock block = new DecodedBlock();
+
+        // Accepting all tags increases size by about 15 percent when storing all elements.
+        // Not storing elements that lack interesting tags reduces size by 80%.
+        // return true; DEBUG
+        private boolean retainTag(String key) {
+            return true;
+        }
+
+        /** Note that in many PBF files this function is never called because all nodes are dense. */
+        @Override
+        protected void parseNodes(List<Osmformat.Node> nodes) {
+            for (Osmformat.Node n : nodes) {
                 Node node = new Node(parseLat(n.getLat()), parseLon(n.getLon()));
                 for (int k = 0; k < n.getKeysCount(); k++) {
                     String key = getStringById(n.getKeys(k));
                     String val = getStringById(n.getVals(k));
                     if (retainTag(key)) node.addTag(key, val);
                 }
-                entitySink.writeNode(n.getId(), node);
+                block.add(n.getId(), node);
             }
-        } catch (IOException ex) {
-            LOG.error("An I/O exception occurred in the OSM entity sink.");
-            ex.printStackTrace();
         }
-    }
 
-    /**
-     * Nodes are usually stored this way. Dense nodes use parallel arrays (a column store) to defeat typical
-     * Protobuf message structure.
-     */
-    @Override
-    protected void parseDense(Osmformat.DenseNodes nodes) {
-        long lastId = 0, lastLat = 0, lastLon = 0;
-        int kv = 0; // index into the keysvals array
-        try {
+        /**
+         * Nodes are usually stored this way. Dense nodes use parallel arrays (a column store) to defeat typical
+         * Protobuf message structure.
+         */
+        @Override
+        protected void parseDense(Osmformat.DenseNodes nodes) {
+            long lastId = 0, lastLat = 0, lastLon = 0;
+            int kv = 0; // index into the keysvals array
             for (int n = 0; n < nodes.getIdCount(); n++) {
-                if (nodeCount++ % 5000000 == 0) {
-                    LOG.info("node {}", human(nodeCount));
-                }
                 Node node = new Node();
                 long id = nodes.getId(n) + lastId;
                 long lat = nodes.getLat(n) + lastLat;
@@ -112,21 +322,13 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     }
                     kv++; // Skip over the '0' delimiter.
                 }
-                entitySink.writeNode(id, node);
+                block.add(id, node);
             }
-        } catch (IOException ex) {
-            LOG.error("An I/O exception occurred in the OSM entity sink.");
-            ex.printStackTrace();
         }
-    }
 
-    @Override
-    protected void parseWays(List<Osmformat.Way> ways) {
-        try {
+        @Override
+        protected void parseWays(List<Osmformat.Way> ways) {
             for (Osmformat.Way w : ways) {
-                if (wayCount++ % 1000000 == 0) {
-                    LOG.info("way {}", human(wayCount));
-                }
                 Way way = new Way();
                 /* Handle tags */
                 for (int k = 0; k < w.getKeysCount(); k++) {
@@ -143,21 +345,13 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     nodes[n] = ref;
                 }
                 way.nodes = nodes;
-                entitySink.writeWay(w.getId(), way);
+                block.add(w.getId(), way);
             }
-        } catch (IOException ex) {
-            LOG.error("An I/O exception occurred in the OSM entity sink.");
-            ex.printStackTrace();
         }
-    }
 
-    @Override
-    protected void parseRelations(List<Osmformat.Relation> rels) {
-        try {
+        @Override
+        protected void parseRelations(List<Osmformat.Relation> rels) {
             for (Osmformat.Relation r : rels) {
-                if (relationCount++ % 100000 == 0) {
-                    LOG.info("relation {}", human(relationCount));
-                }
                 Relation rel = new Relation();
                 /* Handle Tags */
                 for (int k = 0; k < r.getKeysCount(); k++) {
@@ -187,55 +381,20 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     }
                     rel.members.add(member);
                 }
-                entitySink.writeRelation(r.getId(), rel);
+                block.add(r.getId(), rel);
             }
-        } catch (IOException ex) {
-            LOG.error("An I/O exception occurred in the OSM entity sink.");
-            ex.printStackTrace();
         }
-    }
 
-    @Override
-    public void parse(Osmformat.HeaderBlock block) {
-        for (String s : block.getRequiredFeaturesList()) {
-            if (s.equals("OsmSchema-V0.6")) {
-                continue; // We can parse this.
-            }
-            if (s.equals("DenseNodes")) {
-                continue; // We can parse this.
-            }
-            throw new IllegalStateException("File requires unknown feature: " + s);
+        @Override
+        public void parse(Osmformat.HeaderBlock header) {
+            // The header is checked on the calling thread, where it can be passed on to the entity sink in order.
+            block.header = header;
         }
-        if (block.hasOsmosisReplicationTimestamp()) {
-            long timestamp = block.getOsmosisReplicationTimestamp();
-            LOG.info("PBF file has a replication timestamp of {}", Instant.ofEpochSecond(timestamp));
-            entitySink.setReplicationTimestamp(timestamp);
-        } else {
-            LOG.info("PBF file has no replication timestamp.");
-        }
-    }
-
-    @Override
-    public void complete() {
-        LOG.info("Done parsing PBF.");
-        LOG.info("Read {} nodes, {} ways, {} relations.", nodeCount, wayCount, relationCount);
-    }
 
-    private static String human(long n) {
-        if (n > 1000000)
-            return String.format("%.1fM", n / 1000000.0);
-        if (n > 1000)
-            return String.format("%dk", n / 1000);
-        else
-            return String.format("%d", n);
-    }
-
-    @Override
-    public void copyTo(OSMEntitySink sink) throws IOException {
-        entitySink = sink;
-        entitySink.writeBegin();
-        new BlockInputStream(inputStream, this).process();
-        entitySink.writeEnd();
+        @Override
+        public void complete() {
+            // Not used, the end of the file is detected by PBFInput.
+        }
     }
 
 }
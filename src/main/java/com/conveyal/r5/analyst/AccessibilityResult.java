@@ -27,6 +27,23 @@ public class AccessibilityResult {
         cumulativeOpportunities = new double[nPointSets][nPercentiles][nCutoffs];
     }
 
+    /** Construct an empty AccessibilityResult with the given dimensions. */
+    private AccessibilityResult (int nPointSets, int nPercentiles, int nCutoffs) {
+        this.nPointSets = nPointSets;
+        this.nPercentiles = nPercentiles;
+        this.nCutoffs = nCutoffs;
+        cumulativeOpportunities = new double[nPointSets][nPercentiles][nCutoffs];
+    }
+
+    /**
+     * @return a new AccessibilityResult with the same dimensions as this one, and all indicator values set to zero.
+     * This allows accumulating accessibility for a subset of the destinations on a separate thread, before adding it
+     * into this result with the add method.
+     */
+    public AccessibilityResult emptyCopy () {
+        return new AccessibilityResult(nPointSets, nPercentiles, nCutoffs);
+    }
+
     /** Constructor for empty results, for use in testing only. */
     public AccessibilityResult () {
         this.nPointSets = 0;
@@ -44,6 +61,23 @@ public class AccessibilityResult {
         cumulativeOpportunities[gridIndex][percentileIndex][cutoffIndex] += amount;
     }
 
+    /**
+     * Add all the indicator values from another AccessibilityResult with the same dimensions into this one.
+     * This is synchronized so partial results computed on several threads can be merged into a single result.
+     */
+    public synchronized void add (AccessibilityResult other) {
+        if (other.nPointSets != nPointSets || other.nPercentiles != nPercentiles || other.nCutoffs != nCutoffs) {
+            throw new IllegalArgumentException("Accessibility results must have the same dimensions to be added.");
+        }
+        for (int d = 0; d < nPointSets; d++) {
+            for (int p = 0; p < nPercentiles; p++) {
+                for (int c = 0; c < nCutoffs; c++) {
+                    cumulativeOpportunities[d][p][c] += other.cumulativeOpportunities[d][p][c];
+                }
+            }
+        }
+    }
+
     /**
      * As travel time cutoff increases, accessibility should increase.
      * As percentile increases, travel time should decrease, and accessibility should decrease.
@@ -64,6 +98,11 @@ public class AccessibilityResult {
         }
     }
 
+    /** @return the accumulated value of one indicator, before rounding to a whole number of opportunities. */
+    public double getValue (int gridIndex, int percentileIndex, int cutoffIndex) {
+        return cumulativeOpportunities[gridIndex][percentileIndex][cutoffIndex];
+    }
+
     /**
      * Opportunity counts may be fractional because they were disaggregated from polygons, or because a weighting or
      * rolloff function was applied to them. After accumulating many such potentially fractional opportunity counts,
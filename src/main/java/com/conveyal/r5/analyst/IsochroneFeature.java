@@ -3,6 +3,12 @@ package com.conveyal.r5.analyst;
 import com.conveyal.r5.common.GeometryUtils;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.MultiPolygon;
@@ -21,6 +27,9 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
 
 /**
  * This is similar to the IsochroneData class in OTP, and in fact for compatibility can be serialized to JSON and
@@ -45,242 +54,26 @@ public class IsochroneFeature implements Serializable {
 
     public IsochroneFeature () { /* deserialization */ }
 
+    /** When generating isochrones in parallel, the number of rows of grid cells swept by each task. */
+    private static final int ROWS_PER_BAND = 32;
+
+    /** The offsets of the top left, top right, bottom right and bottom left corners of a grid cell (+y is down). */
+    private static final int[] CORNER_DX = {0, 1, 1, 0};
+    private static final int[] CORNER_DY = {0, 0, 1, 1};
+
     /**
      * Create an isochrone for the given cutoff, using a Marching Squares algorithm.
      * https://en.wikipedia.org/wiki/Marching_squares
      */
     public IsochroneFeature (int cutoffSec, WebMercatorGridPointSet points, int[] times) {
-        // slightly hacky, but simple: set all of the times around the edges of the pointset to MAX_VALUE so that
-        // the isochrone never runs off the edge of the display.
-        // first, protective copy
-        times = Arrays.copyOf(times, times.length);
-
-        for (int x = 0; x < points.width; x++) {
-            times[x] = Integer.MAX_VALUE;
-            times[(int) ((points.height - 1) * points.width) + x] = Integer.MAX_VALUE;
-        }
-
-        for (int y = 0; y < points.height; y++) {
-            times[(int) points.width * y] = Integer.MAX_VALUE;
-            times[(int) points.width * (y + 1) - 1] = Integer.MAX_VALUE;
-        }
-
-        LOG.debug("Making isochrone for {}sec", cutoffSec);
+        IsochroneFeature isochrone = createIsochrones(new int[] {cutoffSec}, points, times, false).get(0);
         this.cutoffSec = cutoffSec;
-        // make contouring grid
-        byte[][] contour = new byte[(int) points.width - 1][(int) points.height - 1];
-        for (int y = 0; y < points.height - 1; y++) {
-            for (int x = 0; x < points.width - 1; x++) {
-                boolean topLeft = times[(int) (points.width * y + x)] < cutoffSec;
-                boolean topRight = times[(int) (points.width * y + x + 1)] < cutoffSec;
-                boolean botLeft = times[(int) (points.width * (y + 1) + x)] < cutoffSec;
-                boolean botRight = times[(int) (points.width * (y + 1) + x + 1)] < cutoffSec;
-
-                byte idx = 0;
-
-                // TODO saddle points. Do we care?
-
-                if (topLeft) idx |= 1 << 3;
-                if (topRight) idx |= 1 << 2;
-                if (botRight) idx |= 1 << 1;
-                if (botLeft) idx |= 1;
-
-                contour[x][y] = idx;
-            }
-        }
-
-        // create a geometry. For now not doing linear interpolation. Find a cell a line crosses through and
-        // follow that line.
-        List<LinearRing> outerRings = new ArrayList<>();
-        List<LinearRing> innerRings = new ArrayList<>();
-        boolean[][] found = new boolean[(int) points.width - 1][(int) points.height - 1];
-
-        for (int origy = 0; origy < points.height - 1; origy++) {
-            for (int origx = 0; origx < points.width - 1; origx++) {
-                int x = origx;
-                int y = origy;
-
-                if (found[x][y]) continue;
-
-                byte idx = contour[x][y];
-
-                // can't start at a saddle we don't know which way it goes
-                if (idx == 0 || idx == 5 || idx == 10 || idx == 15) continue;
-
-                byte prevIdx = -1;
-
-                List<Coordinate> ring = new ArrayList<>();
-
-                // keep track of clockwise/counterclockwise orientation, see http://stackoverflow.com/questions/1165647
-                int direction = 0;
-                // skip empty cells
-                int prevy = 0, prevx = 0;
-                Coordinate prevCoord = null;
-                CELLS:
-                while (true) {
-                    idx = contour[x][y];
-
-                    // check for intersecting rings, but know that saddles are supposed to self-intersect.
-                    if (found[x][y] && idx != 5 && idx != 10) {
-                        LOG.error("Ring crosses another ring (possibly itself). This cell has index {}, the previous cell has index {}.", idx, prevIdx);
-                        break CELLS;
-                    }
-
-                    found[x][y] = true;
-
-                    // follow line, keeping unfilled area to the left, which determines a direction
-                    // this also means that we'll be able to figure out if something is a hole by
-                    // the winding direction.
-                    if (ring.size() >= MAX_RING_SIZE) {
-                        LOG.error("Ring is too large, bailing");
-                        break CELLS;
-                    }
-
-                    // save x values here, the next iteration may need to know what they were before we messed with them
-                    // NB no bounds checking is performed below, but the next iteration of the loop will try to access contour[x][y] which
-                    // will serve as a bounds check.
-                    int startx = x;
-                    int starty = y;
-                    switch (idx) {
-                        case 0:
-                            LOG.error("Ran off outside of ring");
-                            break CELLS;
-                        case 1:
-                            x--;
-                            break;
-                        // NB: +y is down
-                        case 2:
-                            y++;
-                            break;
-                        case 3:
-                            x--;
-                            break;
-                        case 4:
-                            x++;
-                            break;
-                        case 5:
-                            if (prevy > y)
-                                // came from bottom
-                                x++;
-                            else if (prevy < y)
-                                // came from top
-                                x--;
-                            else
-                                LOG.error("Entered case 5 saddle point from wrong direction!");
-                            break;
-                        case 6:
-                            y++;
-                            break;
-                        case 7:
-                            x--;
-                            break;
-                        case 8:
-                            y--;
-                            break;
-                        case 9:
-                            y--;
-                            break;
-                        case 10:
-                            if (prevx < x)
-                                // came from left
-                                y++;
-                            else if (prevx > x)
-                                // came from right
-                                y--;
-                            else {
-                                LOG.error("Entered case 10 saddle point from wrong direction.");
-                            }
-                            break;
-                        case 11:
-                            y--;
-                            break;
-                        case 12:
-                            x++;
-                            break;
-                        case 13:
-                            x++;
-                            break;
-                        case 14:
-                            y++;
-                            break;
-                        case 15:
-                            LOG.error("Ran off inside of ring");
-                            break CELLS;
-                    }
-
-                    // figure out from whence we came
-                    int topLeftTime = times[(int) points.width * y + x];
-                    int botLeftTime = times[(int) points.width * (y + 1) + x];
-                    int topRightTime = times[(int) points.width * y + x + 1];
-                    int botRightTime = times[(int) points.width * (y + 1) + x + 1];
-
-                    double lat, lon;
-
-                    if (startx < x) {
-                        // came from left
-                        // will always be positive, if numerator is negative denominator will be as well.
-                        double frac = (cutoffSec - topLeftTime) / (double) (botLeftTime - topLeftTime);
-                        lat = points.pixelToLat(points.north + y + frac);
-                        lon = points.pixelToLon(points.west + x);
-                    }
-                    else if (startx > x) {
-                        // came from right
-                        double frac = (cutoffSec - topRightTime) / (double) (botRightTime - topRightTime);
-                        lat = points.pixelToLat(points.north + y + frac);
-                        lon = points.pixelToLon(points.west + x + 1);
-                    }
-                    else if (starty < y) {
-                        // came from top
-                        double frac = (cutoffSec - topLeftTime) / (double) (topRightTime - topLeftTime);
-                        lat = points.pixelToLat(points.north + y);
-                        lon = points.pixelToLon(points.west + x + frac);
-                    }
-                    else {
-                        // came from bottom
-                        double frac = (cutoffSec - botLeftTime) / (botRightTime - botLeftTime);
-                        lat = points.pixelToLat(points.north + y + 1);
-                        lon = points.pixelToLon(points.west + x + frac);
-                    }
-
-                    // keep track of winding direction
-                    // http://stackoverflow.com/questions/1165647
-                    direction += (x - startx) * (y + starty);
-
-                    prevCoord = new Coordinate(lon, lat);
-                    ring.add(prevCoord);
-
-                    // this shouldn't happen
-                    if (x == startx && y == starty) {
-                        LOG.error("Ring position did not update");
-                        break CELLS;
-                    }
+        this.geometry = isochrone.geometry;
+    }
 
-                    // pass previous values to next iteration
-                    prevIdx = idx;
-                    prevx = startx;
-                    prevy = starty;
-
-                    if (x == origx && y == origy) {
-                        Coordinate end = ring.get(0);
-                        ring.add(end);
-
-                        if (ring.size() > MIN_RING_SIZE) {
-                            LinearRing lr = GeometryUtils.geometryFactory.createLinearRing(ring.toArray(new Coordinate[ring.size()]));
-                            // direction less than 0 means clockwise (NB the y-axis is backwards), since value is to left it is an outer ring
-                            if (direction > 0) {
-                                // simplify so point in polygon test is tractable
-                                lr = (LinearRing) TopologyPreservingSimplifier.simplify(lr, 1e-3);
-                                outerRings.add(lr);
-                            } else {
-                                innerRings.add(lr);
-                            }
-                        }
-
-                        break CELLS;
-                    }
-                }
-            }
-        }
+    /** Create an isochrone from the rings traced for one cutoff, matching each hole to the shell containing it. */
+    private IsochroneFeature (int cutoffSec, List<LinearRing> outerRings, List<LinearRing> innerRings) {
+        this.cutoffSec = cutoffSec;
 
         LOG.debug("{} components", outerRings.size());
 
@@ -335,6 +128,241 @@ public class IsochroneFeature implements Serializable {
         LOG.debug("Done.");
     }
 
+    /**
+     * Create isochrones for several cutoffs at once, using a Marching Squares algorithm
+     * (https://en.wikipedia.org/wiki/Marching_squares). The travel time grid is swept only once: each cell between
+     * four neighboring points produces contour segments only for the cutoffs that fall between the travel times at
+     * its corners. Crossing points are linearly interpolated along the cell edges. At saddle points, where diagonally
+     * opposite corners are on the same side of the cutoff, the average of the four corners decides whether the
+     * reached corners are connected through the middle of the cell. The segments for each cutoff are then linked into
+     * rings using the cell edges they cross.
+     *
+     * Each isochrone covers the points with travel times strictly below its cutoff, so the isochrones for increasing
+     * cutoffs are nested. Points outside the grid are treated as unreached, so all rings are closed.
+     *
+     * @param cutoffsSec the cutoffs in seconds, in any order.
+     * @param times the travel time in seconds to each point of the grid, or UNREACHED.
+     * @param parallel whether to sweep horizontal bands of the grid on several threads at once.
+     * @return one isochrone for each cutoff, in the same order as the cutoffs.
+     */
+    public static List<IsochroneFeature> createIsochrones (
+            int[] cutoffsSec,
+            WebMercatorGridPointSet points,
+            int[] times,
+            boolean parallel
+    ) {
+        if (times.length != points.width * points.height) {
+            throw new IllegalArgumentException("There must be exactly one travel time per grid point.");
+        }
+        final int[] sortedCutoffs = IntStream.of(cutoffsSec).sorted().distinct().toArray();
+        // Cells are numbered from -1 so that the cells straddling the edges of the grid close the rings.
+        final int nCellRows = points.height + 1;
+        IntStream bands = IntStream.range(0, (nCellRows + ROWS_PER_BAND - 1) / ROWS_PER_BAND);
+        if (parallel) {
+            bands = bands.parallel();
+        }
+        List<ContourSegments[]> segmentsForBands = bands.mapToObj(band -> {
+            ContourSegments[] segmentsForCutoffs = new ContourSegments[sortedCutoffs.length];
+            for (int c = 0; c < sortedCutoffs.length; c++) {
+                segmentsForCutoffs[c] = new ContourSegments();
+            }
+            int[] cornerTimes = new int[4];
+            int minY = band * ROWS_PER_BAND - 1;
+            int maxY = Math.min(minY + ROWS_PER_BAND, points.height);
+            for (int y = minY; y < maxY; y++) {
+                for (int x = -1; x < points.width; x++) {
+                    contourCell(x, y, points, times, sortedCutoffs, cornerTimes, segmentsForCutoffs);
+                }
+            }
+            return segmentsForCutoffs;
+        }).collect(Collectors.toList());
+
+        IsochroneFeature[] isochrones = new IsochroneFeature[sortedCutoffs.length];
+        IntStream cutoffIndexes = IntStream.range(0, sortedCutoffs.length);
+        if (parallel) {
+            cutoffIndexes = cutoffIndexes.parallel();
+        }
+        cutoffIndexes.forEach(c -> {
+            ContourSegments segments = new ContourSegments();
+            for (ContourSegments[] segmentsForCutoffs : segmentsForBands) {
+                segments.addAll(segmentsForCutoffs[c]);
+            }
+            isochrones[c] = segments.traceRings(sortedCutoffs[c], points);
+        });
+        return IntStream.of(cutoffsSec)
+                .mapToObj(cutoff -> isochrones[Arrays.binarySearch(sortedCutoffs, cutoff)])
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Add the contour segments crossing the cell whose top left corner is at the given point to the segments for each
+     * cutoff. The segments are oriented so that the area below the cutoff is always to their left.
+     */
+    private static void contourCell (
+            int x,
+            int y,
+            WebMercatorGridPointSet points,
+            int[] times,
+            int[] sortedCutoffs,
+            int[] cornerTimes,
+            ContourSegments[] segmentsForCutoffs
+    ) {
+        int minTime = Integer.MAX_VALUE;
+        int maxTime = Integer.MIN_VALUE;
+        long sumTimes = 0;
+        for (int corner = 0; corner < 4; corner++) {
+            int cornerX = x + CORNER_DX[corner];
+            int cornerY = y + CORNER_DY[corner];
+            boolean inGrid = cornerX >= 0 && cornerX < points.width && cornerY >= 0 && cornerY < points.height;
+            int time = inGrid ? times[cornerY * points.width + cornerX] : UNREACHED;
+            cornerTimes[corner] = time;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            sumTimes += time;
+        }
+        // Only cutoffs above some corners and at or below others produce segments in this cell.
+        int c = firstCutoffAbove(sortedCutoffs, minTime);
+        for (; c < sortedCutoffs.length && sortedCutoffs[c] <= maxTime; c++) {
+            int cutoff = sortedCutoffs[c];
+            int insideCorners = 0;
+            for (int corner = 0; corner < 4; corner++) {
+                if (cornerTimes[corner] < cutoff) {
+                    insideCorners |= 1 << corner;
+                }
+            }
+            // At saddle points, the inside corners are joined across the middle of the cell if its average is inside.
+            boolean saddle = insideCorners == 0b0101 || insideCorners == 0b1010;
+            boolean joined = sumTimes / 4.0 < cutoff;
+            // Edge e runs from corner e to the next corner counterclockwise. A segment starts on each edge that leaves
+            // the inside area, and ends on the next edge that enters it (the previous one at a split saddle).
+            for (int edge = 0; edge < 4; edge++) {
+                if (!leavesInside(insideCorners, edge)) continue;
+                int endEdge = edge;
+                do {
+                    endEdge = (saddle && !joined) ? (endEdge + 3) % 4 : (endEdge + 1) % 4;
+                } while (!leavesInside(insideCorners ^ 0b1111, endEdge));
+                int fromTime = cornerTimes[edge];
+                int toTime = cornerTimes[(edge + 1) % 4];
+                double frac = (fromTime == UNREACHED || toTime == UNREACHED)
+                        ? 0.5 : (cutoff - fromTime) / (double) (toTime - fromTime);
+                double edgeX = x + CORNER_DX[edge] + frac * (CORNER_DX[(edge + 1) % 4] - CORNER_DX[edge]);
+                double edgeY = y + CORNER_DY[edge] + frac * (CORNER_DY[(edge + 1) % 4] - CORNER_DY[edge]);
+                segmentsForCutoffs[c].add(edgeKey(x, y, edge, points), edgeX, edgeY, edgeKey(x, y, endEdge, points));
+            }
+        }
+    }
+
+    /** @return whether the given edge of a cell runs from a corner in the given set to a corner not in that set. */
+    private static boolean leavesInside (int insideCorners, int edge) {
+        return (insideCorners & (1 << edge)) != 0 && (insideCorners & (1 << ((edge + 1) % 4))) == 0;
+    }
+
+    /** @return the index of the first cutoff strictly greater than the given time, or the number of cutoffs. */
+    private static int firstCutoffAbove (int[] sortedCutoffs, int time) {
+        int low = 0;
+        int high = sortedCutoffs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedCutoffs[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return a number identifying the given edge of the cell with the given top left corner, which is the same for
+     *         the two cells sharing that edge.
+     */
+    private static long edgeKey (int x, int y, int edge, WebMercatorGridPointSet points) {
+        // Identify the edge by its top or left end, and whether it is vertical.
+        int edgeX = (edge == 1) ? x + 1 : x;
+        int edgeY = (edge == 2) ? y + 1 : y;
+        boolean vertical = (edge % 2) == 1;
+        return (((long) (edgeY + 1) * (points.width + 2) + (edgeX + 1)) << 1) | (vertical ? 1 : 0);
+    }
+
+    /**
+     * The contour segments for a single cutoff. Each segment is identified by the cell edge on which it starts, and
+     * records that starting point in pixels relative to the grid, and the edge on which it ends.
+     */
+    private static class ContourSegments {
+
+        private final TLongList startEdges = new TLongArrayList();
+        private final TLongList endEdges = new TLongArrayList();
+        private final TDoubleList xs = new TDoubleArrayList();
+        private final TDoubleList ys = new TDoubleArrayList();
+
+        void add (long startEdge, double x, double y, long endEdge) {
+            startEdges.add(startEdge);
+            xs.add(x);
+            ys.add(y);
+            endEdges.add(endEdge);
+        }
+
+        void addAll (ContourSegments other) {
+            startEdges.addAll(other.startEdges);
+            xs.addAll(other.xs);
+            ys.addAll(other.ys);
+            endEdges.addAll(other.endEdges);
+        }
+
+        /**
+         * Link the segments into closed rings, by following each segment to the one starting where it ends. Since the
+         * area below the cutoff is always to the left, shells wind counterclockwise and holes clockwise (in pixel
+         * coordinates).
+         */
+        IsochroneFeature traceRings (int cutoffSec, WebMercatorGridPointSet points) {
+            int nSegments = startEdges.size();
+            TLongIntMap segmentForStartEdge = new TLongIntHashMap(nSegments * 2, 0.5f, -1, -1);
+            for (int s = 0; s < nSegments; s++) {
+                segmentForStartEdge.put(startEdges.get(s), s);
+            }
+            List<LinearRing> outerRings = new ArrayList<>();
+            List<LinearRing> innerRings = new ArrayList<>();
+            boolean[] traced = new boolean[nSegments];
+            for (int first = 0; first < nSegments; first++) {
+                if (traced[first]) continue;
+                List<Coordinate> ring = new ArrayList<>();
+                // Twice the signed area of the ring in pixels, positive for counterclockwise rings.
+                double doubleArea = 0;
+                int segment = first;
+                do {
+                    traced[segment] = true;
+                    int next = segmentForStartEdge.get(endEdges.get(segment));
+                    if (next == -1) {
+                        LOG.error("Contour segment does not connect to any other, dropping ring.");
+                        ring = null;
+                        break;
+                    }
+                    ring.add(new Coordinate(
+                            points.pixelToLon(points.west + xs.get(segment)),
+                            points.pixelToLat(points.north + ys.get(segment))
+                    ));
+                    doubleArea += xs.get(segment) * ys.get(next) - xs.get(next) * ys.get(segment);
+                    segment = next;
+                } while (segment != first);
+                if (ring == null || ring.size() > MAX_RING_SIZE) {
+                    continue;
+                }
+                ring.add(ring.get(0));
+                if (ring.size() > MIN_RING_SIZE) {
+                    LinearRing lr = GeometryUtils.geometryFactory.createLinearRing(ring.toArray(new Coordinate[0]));
+                    if (doubleArea > 0) {
+                        // simplify so point in polygon test is tractable
+                        lr = (LinearRing) TopologyPreservingSimplifier.simplify(lr, 1e-3);
+                        outerRings.add(lr);
+                    } else {
+                        innerRings.add(lr);
+                    }
+                }
+            }
+            return new IsochroneFeature(cutoffSec, outerRings, innerRings);
+        }
+    }
+
     /**
      * Debug code to draw an ascii-art isochrone.
      */
@@ -0,0 +1,131 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.OneOriginResult;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * The travel times from one origin to every target at every iteration (departure minute and Monte Carlo draw),
+ * retained after propagation so that they can be summarized again by a TravelTimeReducer with different percentiles,
+ * cutoffs, decay function or opportunities, without repeating the street, transit and propagation steps.
+ *
+ * The reducer only looks at the travel times to each target in sorted order, so the times are stored sorted. Each
+ * target's times are delta coded and then written as unsigned variable-length integers (seven bits per byte, high
+ * bit set on all but the last byte), so the many small differences between successive sorted times usually take a
+ * single byte. Targets that are never reached are stored as null.
+ *
+ * Times for different targets may be recorded concurrently, as long as each target is recorded by only one thread.
+ */
+public class IterationTravelTimes {
+
+    /** When reducing in parallel, the number of consecutive targets handled by each reducer. */
+    private static final int TARGETS_PER_TILE = 4096;
+
+    public final int nIterations;
+
+    private final byte[][] encodedTimesPerTarget;
+
+    public IterationTravelTimes (int nTargets, int nIterations) {
+        this.nIterations = nIterations;
+        this.encodedTimesPerTarget = new byte[nTargets][];
+    }
+
+    /**
+     * Retain the travel times to one target.
+     * @param sortedTimesSeconds the travel times at every iteration, sorted in ascending order.
+     */
+    public void recordSortedTimes (int target, int[] sortedTimesSeconds) {
+        if (sortedTimesSeconds.length != nIterations) {
+            throw new IllegalArgumentException("Must supply exactly one travel time per iteration.");
+        }
+        if (sortedTimesSeconds[0] == UNREACHED) {
+            encodedTimesPerTarget[target] = null;
+            return;
+        }
+        // Each time takes at most five bytes.
+        byte[] buffer = new byte[nIterations * 5];
+        int length = 0;
+        int previous = 0;
+        for (int time : sortedTimesSeconds) {
+            int delta = time - previous;
+            if (delta < 0) {
+                throw new IllegalArgumentException("Travel times must be sorted.");
+            }
+            previous = time;
+            while ((delta & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            buffer[length++] = (byte) delta;
+        }
+        encodedTimesPerTarget[target] = Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decode the travel times to one target into the supplied array, which must have one element per iteration.
+     * They will be in ascending order.
+     */
+    public void getSortedTimes (int target, int[] sortedTimesSeconds) {
+        byte[] encoded = encodedTimesPerTarget[target];
+        if (encoded == null) {
+            Arrays.fill(sortedTimesSeconds, UNREACHED);
+            return;
+        }
+        int position = 0;
+        int time = 0;
+        for (int i = 0; i < nIterations; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            time += delta;
+            sortedTimesSeconds[i] = time;
+        }
+    }
+
+    /**
+     * Pass the travel times to every reached target through the given reducer, using several threads, and return the
+     * reducer's result. Targets that were never reached are skipped, since the reducer's results start out unreached.
+     */
+    public OneOriginResult reduce (TravelTimeReducer travelTimeReducer) {
+        int nTargets = encodedTimesPerTarget.length;
+        int nTiles = (nTargets + TARGETS_PER_TILE - 1) / TARGETS_PER_TILE;
+        List<TravelTimeReducer> tileReducers = IntStream.range(0, nTiles).parallel().mapToObj(tile -> {
+            int[] sortedTimesSeconds = new int[nIterations];
+            TravelTimeReducer tileReducer = travelTimeReducer.createTileReducer();
+            int maxTarget = Math.min((tile + 1) * TARGETS_PER_TILE, nTargets);
+            for (int target = tile * TARGETS_PER_TILE; target < maxTarget; target++) {
+                if (encodedTimesPerTarget[target] != null) {
+                    getSortedTimes(target, sortedTimesSeconds);
+                    tileReducer.extractTravelTimePercentilesAndRecord(target, sortedTimesSeconds);
+                }
+            }
+            return tileReducer;
+        }).collect(Collectors.toList());
+        // Merge in tile order so accessibility sums are identical from one run to the next.
+        travelTimeReducer.mergeTileReducers(tileReducers);
+        return travelTimeReducer.finish();
+    }
+
+    /** @return the approximate number of bytes of memory used to store these travel times. */
+    public long sizeBytes () {
+        // Account for the array of references and the header of each array.
+        long size = 16L + encodedTimesPerTarget.length * 8L;
+        for (byte[] encoded : encodedTimesPerTarget) {
+            if (encoded != null) {
+                size += 16 + encoded.length;
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.common.JsonUtilities;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * A size-bounded cache of the per-iteration travel times from recent single-point origins (see IterationTravelTimes).
+ * In the UI, users often change only the travel time cutoff, the percentile, or the opportunity dataset. These only
+ * affect how the travel times are summarized by the TravelTimeReducer, so when a request differs from an earlier one
+ * only in those parameters, its result can be produced from the retained travel times without any routing.
+ *
+ * Entries are keyed on the JSON representation of the task with the reducer-only fields removed. This includes the
+ * network and scenario IDs (or the scenario itself), the origin, the destination grid extents and all routing
+ * parameters, so any change to those will cause a cache miss.
+ */
+public class IterationTravelTimesCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IterationTravelTimesCache.class);
+
+    /**
+     * Task fields that are only used by the TravelTimeReducer or when serializing results, not in routing or
+     * propagation. Note that when opportunities are supplied, the worker fixes the cutoffs and the maximum trip
+     * duration itself, so adding or removing opportunities does change the routing parameters.
+     */
+    private static final String[] REDUCER_ONLY_FIELDS = new String[] {
+            "percentiles", "cutoffsMinutes", "decayFunction", "destinationPointSetKeys", "format", "logRequest"
+    };
+
+    private final Cache<String, IterationTravelTimes> cache;
+
+    private final long maxBytes;
+
+    public IterationTravelTimesCache (long maxBytes) {
+        this.maxBytes = maxBytes;
+        // Guava divides the maximum weight evenly between its segments, evicting any entry heavier than a segment's
+        // share. A single segment allows entries up to the limit enforced in put().
+        this.cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxBytes)
+                .weigher((String key, IterationTravelTimes times) -> (int) Math.min(times.sizeBytes(), Integer.MAX_VALUE))
+                .build();
+    }
+
+    /**
+     * @return the key under which the travel times for this task are cached, or null if they should not be cached.
+     *         Only single-point tasks are cached, and not those that record paths, which requires routing.
+     */
+    public static String key (AnalysisWorkerTask task) {
+        if (!(task instanceof TravelTimeSurfaceTask) || task.computePaths || task.computeTravelTimeBreakdown) {
+            return null;
+        }
+        try {
+            ObjectNode json = JsonUtilities.objectMapper.valueToTree(task);
+            json.remove(Arrays.asList(REDUCER_ONLY_FIELDS));
+            return json.toString();
+        } catch (Exception e) {
+            LOG.warn("Could not make a cache key for single-point task, travel times will not be cached.", e);
+            return null;
+        }
+    }
+
+    /** @return the travel times cached under the given key, or null if there are none. */
+    public IterationTravelTimes get (String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /** Retain the given travel times, unless they would take up most of the cache by themselves. */
+    public void put (String key, IterationTravelTimes times) {
+        long sizeBytes = times.sizeBytes();
+        if (sizeBytes > maxBytes / 2) {
+            LOG.info("Not caching {} MB of single-point travel times, which exceeds half the cache size.",
+                    sizeBytes / 1024 / 1024);
+            return;
+        }
+        cache.put(key, times);
+    }
+
+}
@@ -4,6 +4,7 @@ import com.conveyal.r5.OneOriginResult;
 import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
 import com.conveyal.r5.analyst.cluster.PathWriter;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
 import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
 import com.conveyal.r5.analyst.scenario.PickupWaitTimes;
 import com.conveyal.r5.api.util.LegMode;
@@ -12,20 +13,28 @@ import com.conveyal.r5.profile.DominatingList;
 import com.conveyal.r5.profile.FareDominatingList;
 import com.conveyal.r5.profile.FastRaptorWorker;
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
+import com.conveyal.r5.profile.MultiOriginRaptorWorker;
 import com.conveyal.r5.profile.PerTargetPropagater;
+import com.conveyal.r5.profile.RaptorStateBuffers;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.LinkedPointSet;
 import com.conveyal.r5.streets.PointSetTimes;
 import com.conveyal.r5.streets.Split;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.function.IntFunction;
+import java.util.stream.Collectors;
 
 import static com.conveyal.r5.analyst.scenario.PickupWaitTimes.NO_SERVICE_HERE;
 import static com.conveyal.r5.analyst.scenario.PickupWaitTimes.NO_WAIT_ALL_STOPS;
@@ -47,6 +56,45 @@ public class TravelTimeComputer {
     private final AnalysisWorkerTask request;
     private final TransportNetwork network;
 
+    // The intermediate results of each step below, which are kept in fields so that the transit routing step can be
+    // performed for several origins at once (see computeTravelTimes(List, TransportNetwork, RaptorStateBuffers)).
+
+    /** Accumulates travel times at each destination, simplifying them into percentiles. */
+    private TravelTimeReducer travelTimeReducer;
+
+    /** The destinations of this travel time calculation, not yet linked to the street network. */
+    private PointSet destinations;
+
+    /** A map from transit stop vertex indices to the travel time it takes to reach those vertices in seconds. */
+    private TIntIntMap accessTimes;
+
+    /** Travel times in seconds to each destination point without using transit. */
+    private PointSetTimes nonTransitTravelTimesToDestinations;
+
+    /** Travel times to every transit stop at every iteration, see FastRaptorWorker.route(). */
+    private int[] transitTravelTimesToStops;
+
+    /** The number of iterations (departure minutes and Monte Carlo draws) in transitTravelTimesToStops. */
+    private int nIterations;
+
+    /** The worker that routed on transit, retained for its paths when they were requested. */
+    private FastRaptorWorker worker;
+
+    /** If non-null, the travel times at every iteration to each destination are retained in this object. */
+    private IterationTravelTimes iterationTravelTimes;
+
+    /**
+     * If this is set, the per-iteration travel times of single-point requests will be retained in this cache, and a
+     * request that differs from a cached one only in its reducer parameters will be answered without routing.
+     */
+    public IterationTravelTimesCache iterationTravelTimesCache;
+
+    /**
+     * If this is set, the transit search keeps its states in these buffers, reusing them from the previous search by
+     * the same thread. See FastRaptorWorker.reusedStateBuffers.
+     */
+    public RaptorStateBuffers raptorStateBuffers;
+
     /** Constructor. */
     public TravelTimeComputer (AnalysisWorkerTask request, TransportNetwork network) {
         this.request = request;
@@ -55,9 +103,101 @@ public class TravelTimeComputer {
 
     /**
      * The TravelTimeComputer can make travel time grids, accessibility indicators, or (eventually) both depending
-     * on what's in the task it's given. TODO factor out each major step of this process into private methods.
+     * on what's in the task it's given.
      */
     public OneOriginResult computeTravelTimes() {
+        String cacheKey = iterationTravelTimesCache == null ? null : IterationTravelTimesCache.key(request);
+        if (cacheKey != null) {
+            IterationTravelTimes cachedTimes = iterationTravelTimesCache.get(cacheKey);
+            if (cachedTimes != null) {
+                LOG.info("Only the travel time summary parameters have changed, reducing cached travel times.");
+                findDestinations();
+                return cachedTimes.reduce(travelTimeReducer);
+            }
+        }
+        OneOriginResult nonTransitResult = findAccess();
+        if (nonTransitResult != null) {
+            return nonTransitResult;
+        }
+        routeTransit();
+        if (cacheKey != null) {
+            iterationTravelTimes = new IterationTravelTimes(destinations.featureCount(), nIterations);
+        }
+        OneOriginResult result = propagate();
+        if (cacheKey != null) {
+            iterationTravelTimesCache.put(cacheKey, iterationTravelTimes);
+        }
+        return result;
+    }
+
+    /**
+     * Compute travel times from each origin in a block of regional tasks, which must be from the same job and so differ
+     * only in their origin. When possible, the transit searches for the origins that reach transit are performed
+     * together by a MultiOriginRaptorWorker, sharing work between them, in groups no larger than its memory budget
+     * allows (see MultiOriginRaptorWorker.maxOrigins()). Otherwise each origin is routed separately, exactly as
+     * computeTravelTimes() does.
+     *
+     * @param raptorStateBuffers reused by each search for an origin routed on its own, see raptorStateBuffers field.
+     * @return one result for each task, in the same order as the tasks.
+     */
+    public static List<OneOriginResult> computeTravelTimes (
+            List<RegionalTask> tasks,
+            TransportNetwork network,
+            RaptorStateBuffers raptorStateBuffers
+    ) {
+        OneOriginResult[] results = new OneOriginResult[tasks.size()];
+        List<TravelTimeComputer> transitComputers = new ArrayList<>();
+        TIntList transitTaskIndexes = new TIntArrayList();
+        for (int i = 0; i < tasks.size(); i++) {
+            TravelTimeComputer computer = new TravelTimeComputer(tasks.get(i), network);
+            computer.raptorStateBuffers = raptorStateBuffers;
+            results[i] = computer.findAccess();
+            if (results[i] == null) {
+                transitComputers.add(computer);
+                transitTaskIndexes.add(i);
+            }
+        }
+        RegionalTask firstTask = tasks.get(0);
+        boolean batchable = MultiOriginRaptorWorker.supports(network.transitLayer)
+                && firstTask.inRoutingFareCalculator == null
+                && !firstTask.computePaths
+                && !firstTask.computeTravelTimeBreakdown;
+        // Route the origins in groups whose travel times fit in the memory budget, or one at a time if a single origin
+        // does not leave room for another. Each group's travel times are propagated and released before the next group
+        // is routed, so that only one group's travel times are held in memory at once.
+        int originsPerSearch = batchable ? MultiOriginRaptorWorker.maxOrigins(network.transitLayer, firstTask) : 1;
+        originsPerSearch = Math.max(originsPerSearch, 1);
+        for (int start = 0; start < transitComputers.size(); start += originsPerSearch) {
+            int end = Math.min(start + originsPerSearch, transitComputers.size());
+            List<TravelTimeComputer> group = transitComputers.subList(start, end);
+            if (group.size() > 1) {
+                List<TIntIntMap> accessTimes = group.stream().map(c -> c.accessTimes).collect(Collectors.toList());
+                MultiOriginRaptorWorker multiOriginWorker =
+                        new MultiOriginRaptorWorker(network.transitLayer, firstTask, accessTimes);
+                int[][] travelTimesToStops = multiOriginWorker.route();
+                for (int c = 0; c < group.size(); c++) {
+                    group.get(c).transitTravelTimesToStops = travelTimesToStops[c];
+                    group.get(c).nIterations = multiOriginWorker.nIterations;
+                }
+            } else {
+                group.get(0).routeTransit();
+            }
+            for (int c = start; c < end; c++) {
+                TravelTimeComputer computer = transitComputers.get(c);
+                results[transitTaskIndexes.get(c)] = computer.propagate();
+                computer.transitTravelTimesToStops = null;
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Perform the street searches from the origin, finding the transit stops reached and the travel times to the
+     * destinations without transit.
+     *
+     * @return the final result if no transit routing is needed, or null if routeTransit() and propagate() should follow.
+     */
+    private OneOriginResult findAccess () {
 
         // 0. Preliminary range checking and setup =====================================================================
         if (!request.directModes.equals(request.accessModes)) {
@@ -73,39 +213,17 @@ public class TravelTimeComputer {
         // Convert from floating point meters per second (in request) to integer millimeters per second (internal).
         int walkSpeedMillimetersPerSecond = (int) (request.walkSpeed * MM_PER_METER);
 
-        // Create an object that accumulates travel times at each destination, simplifying them into percentiles.
-        // TODO Create and encapsulate this object within the propagator.
-        TravelTimeReducer travelTimeReducer = new TravelTimeReducer(request);
-
-        // Find the set of destinations for a travel time calculation, not yet linked to the street network, and with
-        // no associated opportunities. By finding the extents and destinations up front, we ensure the exact same
-        // destination pointset is used for all steps below.
-        // This reuses the logic for finding the appropriate grid size and linking, which is now in the NetworkPreloader.
-        // We could change the preloader to retain these values in a compound return type, to avoid repetition here.
-        PointSet destinations;
-
-        if (request instanceof  RegionalTask
-                && !request.makeTauiSite
-                && ((RegionalTask) request).destinationPointSets[0] instanceof FreeFormPointSet) {
-            // Freeform; destination pointset was set by handleOneRequest in the main AnalystWorker
-            destinations = ((RegionalTask) request).destinationPointSets[0];
-        } else {
-            WebMercatorExtents destinationGridExtents = request.getWebMercatorExtents();
-            // Destination points can be inferred from a regular grid (WebMercatorGridPointSet)
-            destinations = AnalysisWorkerTask.gridPointSetCache.get(destinationGridExtents, network.fullExtentGridPointSet);
-            travelTimeReducer.checkOpportunityExtents(destinations);
-        }
+        findDestinations();
 
         // I. Access to transit (or direct non-transit travel to destination) ==========================================
         // Use one or more modes to access transit stops, retaining the reached transit stops as well as the travel
         // times to the destination points using those access modes.
 
-        // A map from transit stop vertex indices to the travel time it takes to reach those vertices in seconds.
-        TIntIntMap accessTimes = new TIntIntHashMap();
+        accessTimes = new TIntIntHashMap();
 
         // Travel times in seconds to each destination point (or MAX_INT for unreachable points?)
         // Starts out as null but will be updated when any access leg search succeeds.
-        PointSetTimes nonTransitTravelTimesToDestinations = null;
+        nonTransitTravelTimesToDestinations = null;
 
         // We will try to find a starting point in the street network and perform an access search with each street mode.
         // This tracks whether any of those searches (for any mode) were successfully connected to the street network.
@@ -193,9 +311,9 @@ public class TravelTimeComputer {
                     accessMode
             );
 
-            // This is iterating over every cell in the (possibly huge) destination grid just to get the access times
-            // around the origin. If this is measured to be inefficient, we could construct a sub-grid that's an
-            // envelope around sr.originSplit's lat/lon, then iterate over the points in that sub-grid.
+            // Rather than iterating over every cell in the (possibly huge) destination grid just to get the access
+            // times around the origin, only evaluate the cells that could be linked to the part of the street network
+            // reached by this search.
 
             Split origin = sr.getOriginSplit();
 
@@ -203,7 +321,8 @@ public class TravelTimeComputer {
                     sr::getTravelTimeToVertex,
                     streetSpeedMillimetersPerSecond,
                     walkSpeedMillimetersPerSecond,
-                    origin
+                    origin,
+                    sr.getReachedEnvelopeFixed()
             );
 
             if (accessService != NO_WAIT_ALL_STOPS) {
@@ -266,23 +385,60 @@ public class TravelTimeComputer {
             }
             return travelTimeReducer.finish();
         }
+        return null;
+    }
+
+    /**
+     * Create the reducer that will summarize the travel times, and find the set of destinations to which they will be
+     * calculated.
+     */
+    private void findDestinations () {
+        // Create an object that accumulates travel times at each destination, simplifying them into percentiles.
+        // TODO Create and encapsulate this object within the propagator.
+        travelTimeReducer = new TravelTimeReducer(request);
+
+        // Find the set of destinations for a travel time calculation, not yet linked to the street network, and with
+        // no associated opportunities. By finding the extents and destinations up front, we ensure the exact same
+        // destination pointset is used for all steps below.
+        // This reuses the logic for finding the appropriate grid size and linking, which is now in the NetworkPreloader.
+        // We could change the preloader to retain these values in a compound return type, to avoid repetition here.
+        if (request instanceof  RegionalTask
+                && !request.makeTauiSite
+                && ((RegionalTask) request).destinationPointSets[0] instanceof FreeFormPointSet) {
+            // Freeform; destination pointset was set by handleOneRequest in the main AnalystWorker
+            destinations = ((RegionalTask) request).destinationPointSets[0];
+        } else {
+            WebMercatorExtents destinationGridExtents = request.getWebMercatorExtents();
+            // Destination points can be inferred from a regular grid (WebMercatorGridPointSet)
+            destinations = AnalysisWorkerTask.gridPointSetCache.get(destinationGridExtents, network.fullExtentGridPointSet);
+            travelTimeReducer.checkOpportunityExtents(destinations);
+        }
+    }
 
+    /**
+     * Transit stops were reached. Perform transit routing from those stops to all other reachable stops. The result
+     * is a travel time in seconds for each iteration (departure time x monte carlo draw), for each transit stop.
+     * These are stored in a single flattened stop-major array, see FastRaptorWorker.route().
+     */
+    private void routeTransit () {
         // II. Transit Routing ========================================================================================
-        // Transit stops were reached. Perform transit routing from those stops to all other reachable stops. The result
-        // is a travel time in seconds for each iteration (departure time x monte carlo draw), for each transit stop.
-        int[][] transitTravelTimesToStops;
-        FastRaptorWorker worker = null;
         if (request.inRoutingFareCalculator == null) {
             worker = new FastRaptorWorker(network.transitLayer, request, accessTimes);
+            worker.reusedStateBuffers = raptorStateBuffers;
             if (request.computePaths || request.computeTravelTimeBreakdown) {
                 // By default, this is false and intermediate results (e.g. paths) are discarded.
                 // TODO do we really need to save all states just to get the travel time breakdown?
                 worker.retainPaths = true;
+            } else if (request instanceof TravelTimeSurfaceTask) {
+                // Route slices of a single-point request's departure window concurrently, on the worker's dedicated
+                // slice pool. Regional tasks are already parallelized across origins.
+                worker.parallelSlices = Runtime.getRuntime().availableProcessors();
             }
             // Run the main RAPTOR algorithm to find paths and travel times to all stops in the network.
-            // Returns the total travel times as a 2D array of [searchIteration][destinationStopIndex].
+            // Returns the total travel times as a flattened stop-major array, all iterations for each stop together.
             // Additional detailed path information is retained in the FastRaptorWorker after routing.
             transitTravelTimesToStops = worker.route();
+            nIterations = worker.nIterations;
         } else {
             // TODO maxClockTime could provide a tighter bound, as it could be based on the actual departure time, not the last possible
             IntFunction<DominatingList> listSupplier =
@@ -293,9 +449,14 @@ public class TravelTimeComputer {
             McRaptorSuboptimalPathProfileRouter mcRaptorWorker = new McRaptorSuboptimalPathProfileRouter(network,
                     request, null, null, listSupplier, InRoutingFareCalculator.getCollator(request));
             mcRaptorWorker.route();
-            transitTravelTimesToStops = mcRaptorWorker.getBestTimes();
+            int[][] bestTimes = mcRaptorWorker.getBestTimes();
+            transitTravelTimesToStops = PerTargetPropagater.transposeToStopMajor(bestTimes);
+            nIterations = bestTimes.length;
         }
+    }
 
+    /** Propagate the transit travel times out to the destinations, and combine them with the non-transit times. */
+    private OneOriginResult propagate () {
         // III. Egress Propagation ======================================================================================
         // Propagate these travel times for every iteration at every stop out to the destination points, via streets.
 
@@ -309,6 +470,7 @@ public class TravelTimeComputer {
                 egressStreetModes,
                 request,
                 transitTravelTimesToStops,
+                nIterations,
                 nonTransitTravelTimesToDestinations.travelTimes
         );
 
@@ -316,6 +478,10 @@ public class TravelTimeComputer {
         // because in the non-transit case we call the reducer directly (see above).
         perTargetPropagater.travelTimeReducer = travelTimeReducer;
 
+        // A single-point request has the whole machine to itself, so propagate to tiles of destinations concurrently.
+        perTargetPropagater.parallelTiles = request instanceof TravelTimeSurfaceTask;
+        perTargetPropagater.iterationTravelTimes = iterationTravelTimes;
+
         // When building a static site, perform some additional initialization causing the propagator to do extra work.
         if (request.computePaths || request.computeTravelTimeBreakdown) {
             perTargetPropagater.pathsToStopsForIteration = worker.pathsPerIteration;
@@ -323,7 +489,6 @@ public class TravelTimeComputer {
         }
 
         return perTargetPropagater.propagate();
-
     }
 
 
@@ -11,6 +11,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static com.conveyal.r5.common.Util.notNullOrEmpty;
 import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
@@ -159,6 +160,53 @@ public class TravelTimeReducer {
     }
 
 
+    /**
+     * Make a reducer for one subset (tile) of the destinations, to be used by a single thread while other threads handle
+     * other tiles. See createTileReducer().
+     */
+    private TravelTimeReducer (TravelTimeReducer parent) {
+        this.calculateAccessibility = parent.calculateAccessibility;
+        this.calculateTravelTimes = parent.calculateTravelTimes;
+        this.destinationPointSets = parent.destinationPointSets;
+        this.percentileIndexes = parent.percentileIndexes;
+        this.nPercentiles = parent.nPercentiles;
+        this.cutoffsSeconds = parent.cutoffsSeconds;
+        this.nCutoffs = parent.nCutoffs;
+        this.zeroPointsForCutoffs = parent.zeroPointsForCutoffs;
+        this.timesPerDestination = parent.timesPerDestination;
+        this.decayFunction = parent.decayFunction;
+        // Each target is written by exactly one tile, so tiles can safely write travel times into the shared result.
+        this.travelTimeResult = parent.travelTimeResult;
+        // Accessibility sums values over all targets, so each tile accumulates into its own result.
+        if (calculateAccessibility) {
+            this.accessibilityResult = parent.accessibilityResult.emptyCopy();
+        }
+    }
+
+    /**
+     * Create a reducer that can be used on another thread to record results for a subset of the destinations (a tile),
+     * concurrently with other such reducers handling disjoint subsets of destinations. Travel times are written
+     * straight into this reducer's result, while accessibility is accumulated separately and must be added back into
+     * this reducer by calling mergeTileReducers once all tiles are complete. Each target must be recorded by only one
+     * tile reducer.
+     */
+    public TravelTimeReducer createTileReducer () {
+        return new TravelTimeReducer(this);
+    }
+
+    /**
+     * Add the accessibility values accumulated by tile reducers (see createTileReducer) into this reducer's results.
+     * The tiles are added in the order given rather than the order in which they finish, because floating point
+     * addition is not associative: the same request must always produce exactly the same accessibility values.
+     */
+    public void mergeTileReducers (List<TravelTimeReducer> tileReducers) {
+        if (calculateAccessibility) {
+            for (TravelTimeReducer tileReducer : tileReducers) {
+                accessibilityResult.add(tileReducer.accessibilityResult);
+            }
+        }
+    }
+
     /**
      * Compute the index into a sorted list of N elements at which a particular percentile will be found. Our
      * method does not interpolate, it always reports a value actually appearing in the list of elements. That is
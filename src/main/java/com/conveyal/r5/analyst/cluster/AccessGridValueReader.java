@@ -0,0 +1,69 @@
+package com.conveyal.r5.analyst.cluster;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import static com.conveyal.r5.analyst.cluster.AccessGridValueWriter.FIXED_WIDTH_VERSION;
+import static com.conveyal.r5.analyst.cluster.AccessGridValueWriter.VARINT_VERSION;
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Reads the values following the header of an access grid file, in either version of the format. See
+ * AccessGridValueWriter for a description of the encodings.
+ */
+public class AccessGridValueReader {
+
+    private final DataInput input;
+
+    private final int version;
+
+    private int previousValue = 0;
+
+    private long remainingUnreached = 0;
+
+    public AccessGridValueReader (DataInput input, int version) {
+        if (version != FIXED_WIDTH_VERSION && version != VARINT_VERSION) {
+            throw new IllegalArgumentException("Unsupported access grid version " + version);
+        }
+        this.input = input;
+        this.version = version;
+    }
+
+    /** Decode the next value as a delta from zero, at the same points where the writer restarted delta coding. */
+    public void restartDeltas () {
+        previousValue = 0;
+    }
+
+    public int read () throws IOException {
+        if (version == FIXED_WIDTH_VERSION) {
+            previousValue += input.readInt();
+            return previousValue;
+        }
+        if (remainingUnreached > 0) {
+            remainingUnreached -= 1;
+            return UNREACHED;
+        }
+        long token = readVarint();
+        if ((token & 1) == 1) {
+            remainingUnreached = (token >>> 1) - 1;
+            return UNREACHED;
+        }
+        long zigzag = token >>> 1;
+        int delta = (int) (zigzag >>> 1) ^ -(int) (zigzag & 1);
+        previousValue += delta;
+        return previousValue;
+    }
+
+    private long readVarint () throws IOException {
+        long token = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = input.readByte();
+            token |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return token;
+    }
+
+}
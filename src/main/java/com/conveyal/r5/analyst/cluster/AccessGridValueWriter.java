@@ -0,0 +1,86 @@
+package com.conveyal.r5.analyst.cluster;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Writes the values following the header of an access grid file (see TimeGridWriter) in either version of the format.
+ * The order of the values is decided by the caller, and is not affected by the version.
+ *
+ * In version 0, each value is written as a 4-byte integer, delta coded against the previous value.
+ *
+ * In version 1, values are written as tokens, each of which is an unsigned variable-length integer (seven bits per
+ * byte, least significant group first, high bit set on all but the last byte). If the lowest bit of a token is zero,
+ * the rest of the token is a zigzag-coded delta from the previous value that was not UNREACHED. If it is one, the
+ * rest of the token is the length of a run of UNREACHED values. UNREACHED values are not delta coded, so the deltas
+ * across large unreachable areas stay small, and most tokens fit in a single byte.
+ *
+ * In both versions, the writer and reader must restart delta coding at the same points (see restartDeltas()).
+ */
+public class AccessGridValueWriter {
+
+    /** Fixed-width 4-byte values, covering the full extents of the task. */
+    public static final int FIXED_WIDTH_VERSION = 0;
+
+    /** Variable-width values with run-length coded unreached areas, cropped to the reached cells. */
+    public static final int VARINT_VERSION = 1;
+
+    private final DataOutput output;
+
+    private final int version;
+
+    private int previousValue = 0;
+
+    private long unreachedRunLength = 0;
+
+    public AccessGridValueWriter (DataOutput output, int version) {
+        if (version != FIXED_WIDTH_VERSION && version != VARINT_VERSION) {
+            throw new IllegalArgumentException("Unsupported access grid version " + version);
+        }
+        this.output = output;
+        this.version = version;
+    }
+
+    /** Code the next value as a delta from zero, e.g. at the start of each channel or origin. */
+    public void restartDeltas () {
+        previousValue = 0;
+    }
+
+    public void write (int value) throws IOException {
+        if (version == FIXED_WIDTH_VERSION) {
+            output.writeInt(value - previousValue);
+            previousValue = value;
+        } else if (value == UNREACHED) {
+            unreachedRunLength += 1;
+        } else {
+            writeUnreachedRun();
+            int delta = value - previousValue;
+            long zigzag = ((delta << 1) ^ (delta >> 31)) & 0xFFFFFFFFL;
+            writeVarint(zigzag << 1);
+            previousValue = value;
+        }
+    }
+
+    /** Write out any values still pending. This must be called after the last value is written. */
+    public void finish () throws IOException {
+        writeUnreachedRun();
+    }
+
+    private void writeUnreachedRun () throws IOException {
+        if (unreachedRunLength > 0) {
+            writeVarint((unreachedRunLength << 1) | 1);
+            unreachedRunLength = 0;
+        }
+    }
+
+    private void writeVarint (long token) throws IOException {
+        while ((token & ~0x7FL) != 0) {
+            output.writeByte((int) ((token & 0x7F) | 0x80));
+            token >>>= 7;
+        }
+        output.writeByte((int) token);
+    }
+
+}
@@ -9,6 +9,7 @@ import com.conveyal.gtfs.GTFSCache;
 import com.conveyal.r5.OneOriginResult;
 import com.conveyal.r5.analyst.AccessibilityResult;
 import com.conveyal.r5.analyst.FilePersistence;
+import com.conveyal.r5.analyst.IterationTravelTimesCache;
 import com.conveyal.r5.analyst.NetworkPreloader;
 import com.conveyal.r5.analyst.PersistenceBuffer;
 import com.conveyal.r5.analyst.PointSetCache;
@@ -17,6 +18,7 @@ import com.conveyal.r5.analyst.TravelTimeComputer;
 import com.conveyal.r5.analyst.error.ScenarioApplicationException;
 import com.conveyal.r5.analyst.error.TaskError;
 import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.r5.profile.RaptorStateBuffers;
 import com.conveyal.r5.streets.OSMCache;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.transit.TransportNetworkCache;
@@ -46,15 +48,16 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import static com.conveyal.r5.common.Util.notNullOrEmpty;
@@ -100,6 +103,26 @@ public class AnalysisWorker implements Runnable {
 
     public static final int POLL_MAX_RANDOM_WAIT = 5;
 
+    /**
+     * How long the polling thread waits between checks on the state of the regional pipeline when it has nothing to
+     * fetch or upload. This is much shorter than POLL_WAIT_SECONDS, which only applies when the worker is entirely idle.
+     */
+    private static final int PIPELINE_CHECK_MILLISECONDS = 200;
+
+    /** Upload regional results as soon as this many have accumulated, even if no new tasks are needed. */
+    private static final int RESULT_BATCH_SIZE = 64;
+
+    /** Never hold completed regional results for longer than this before uploading them to the broker. */
+    private static final int RESULT_MAX_DELAY_SECONDS = 2;
+
+    /**
+     * The maximum number of consecutive origins from the same regional job that are computed together, sharing one
+     * transit search (see TravelTimeComputer.computeTravelTimes(List, TransportNetwork, RaptorStateBuffers)). Blocks
+     * are routed in smaller groups when the travel times for all their origins would not fit in memory. The broker is
+     * told about this so that it can deliver proportionally more tasks in response to each poll.
+     */
+    public static final int ORIGINS_PER_BLOCK = 8;
+
     /** The port on which the worker will listen for single point tasks forwarded from the backend. */
     public static final int WORKER_LISTEN_PORT = 7080;
 
@@ -155,14 +178,14 @@ public class AnalysisWorker implements Runnable {
      * Preparing networks or linking grids will take longer, but those cases are now handled with
      * WorkerNotReadyException.
      */
-    private static final int HTTP_CLIENT_TIMEOUT_SEC = 55;
+    public static final int HTTP_CLIENT_TIMEOUT_SEC = 55;
 
     /**
-     * The results of finished work accumulate here, and will be sent in batches back to the broker.
-     * All access to this field should be synchronized since it will is written to by multiple threads.
-     * We don't want to just wrap it in a SynchronizedList because we need an atomic copy-and-empty operation.
+     * The results of finished work accumulate here, and will be sent in batches back to the broker. This queue is
+     * written to by all the compute threads and drained by the polling thread, which uses drainTo() as an atomic
+     * copy-and-empty operation that does not block the compute threads.
      */
-    private List<RegionalWorkResult> workResults = new ArrayList<>();
+    final BlockingQueue<RegionalWorkResult> workResults = new LinkedBlockingQueue<>();
 
     /** The last time (in milliseconds since the epoch) that we polled for work. */
     private long lastPollingTime;
@@ -199,6 +222,12 @@ public class AnalysisWorker implements Runnable {
      */
     PointSetCache pointSetCache;
 
+    /**
+     * Retains the per-iteration travel times of recent single-point requests, so that changing only the cutoff,
+     * percentile or opportunity dataset in the UI does not require routing again.
+     */
+    IterationTravelTimesCache iterationTravelTimesCache;
+
     /** The transport network this worker already has loaded, and therefore prefers to work on. */
     String networkId = null;
 
@@ -209,12 +238,23 @@ public class AnalysisWorker implements Runnable {
     private boolean workOffline;
 
     /**
-     * A queue to hold a backlog of regional analysis tasks.
-     * This avoids "slow joiner" syndrome where we wait to poll for more work until all N fetched tasks have finished,
-     * but one of the tasks takes much longer than all the rest.
-     * This should be long enough to hold all that have come in - we don't need to block on polling the manager.
+     * A bounded queue holding a backlog of regional analysis tasks, between the polling thread that fetches them
+     * and the compute threads that take them off the queue one block at a time. Each block holds up to
+     * ORIGINS_PER_BLOCK consecutive tasks from the same job. This avoids "slow joiner" syndrome where we
+     * wait to poll for more work until all N fetched tasks have finished, but one of the tasks takes much longer than
+     * all the rest. Because the polling thread blocks when adding tasks to a full queue, it can never fetch more work
+     * than the compute threads are able to absorb.
+     */
+    private BlockingQueue<List<RegionalTask>> regionalTaskQueue;
+
+    /**
+     * The number of regional tasks that have been fetched from the broker but whose results have not yet been added
+     * to workResults. This includes tasks waiting in the queue and tasks being computed.
      */
-    private ThreadPoolExecutor regionalTaskExecutor;
+    private final AtomicInteger nRegionalTasksOutstanding = new AtomicInteger();
+
+    /** The threads that take tasks off the regionalTaskQueue and compute them. */
+    private ExecutorService regionalTaskExecutor;
 
     /** The HTTP server that receives single-point requests. */
     private spark.Service sparkHttpService;
@@ -274,6 +314,8 @@ public class AnalysisWorker implements Runnable {
         this.networkId = config.getProperty("initial-graph-id");
 
         this.pointSetCache = new PointSetCache(fileStore, config.getProperty("pointsets-bucket"));
+        long singlePointCacheMegabytes = Long.parseLong(config.getProperty("single-point-cache-mb", "512"));
+        this.iterationTravelTimesCache = new IterationTravelTimesCache(singlePointCacheMegabytes * 1024 * 1024);
         this.networkPreloader = new NetworkPreloader(transportNetworkCache);
         this.autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown", "false"));
         this.listenForSinglePointRequests = Boolean.parseBoolean(config.getProperty("listen-for-single-point", "true"));
@@ -327,16 +369,21 @@ public class AnalysisWorker implements Runnable {
     @Override
     public void run() {
 
-        // Create executors with up to one thread per processor.
-        // The default task rejection policy is "Abort".
-        // The executor's queue is rather long because some tasks complete very fast and we poll max once per second.
+        // Create one compute thread per processor, each of which repeatedly takes a task from the shared queue.
+        // The queue is rather long because some tasks complete very fast, and we want to fetch the next batch of
+        // tasks well before the current one drains. This shared queue is enough to balance load across the threads
+        // since regional tasks are independent and are not split into subtasks.
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         LOG.info("Java reports the number of available processors is: {}", availableProcessors);
         int maxThreads = availableProcessors;
-        int taskQueueLength = availableProcessors * 6;
-        LOG.info("Maximum number of regional processing threads is {}, length of task queue is {}.", maxThreads, taskQueueLength);
-        BlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<>(taskQueueLength);
-        regionalTaskExecutor = new ThreadPoolExecutor(1, maxThreads, 60, TimeUnit.SECONDS, taskQueue);
+        int taskQueueLength = availableProcessors * 2;
+        LOG.info("Maximum number of regional processing threads is {}, task queue holds {} blocks of up to {} origins.",
+                maxThreads, taskQueueLength, ORIGINS_PER_BLOCK);
+        regionalTaskQueue = new LinkedBlockingQueue<>(taskQueueLength);
+        regionalTaskExecutor = Executors.newFixedThreadPool(maxThreads);
+        for (int t = 0; t < maxThreads; t++) {
+            regionalTaskExecutor.execute(this::computeRegionalTasks);
+        }
 
         // Before we go into an endless loop polling for regional tasks that can be computed asynchronously, start a
         // single-endpoint web server on this worker to receive single-point requests that must be handled immediately.
@@ -355,45 +402,127 @@ public class AnalysisWorker implements Runnable {
             sparkHttpService.post("/single", new AnalysisWorkerController(this)::handleSinglePoint);
         }
 
-        // Main polling loop to fill the regional work queue.
-        // You'd think the ThreadPoolExecutor could just block when the blocking queue is full, but apparently
-        // people all over the world have been jumping through hoops to try to achieve this simple behavior
-        // with no real success, at least without writing bug and deadlock-prone custom executor services.
-        // Two alternative approaches are trying to keep the queue full and waiting for the queue to be almost empty.
-        // To keep the queue full, we repeatedly try to add each task to the queue, pausing and retrying when
-        // it's full. To wait until it's almost empty, we could use wait() in a loop and notify() as tasks are handled.
-        // see https://stackoverflow.com/a/15185004/778449
-        // A simpler approach might be to spin-wait checking whether the queue is low and sleeping briefly,
-        // then fetch more work only when the queue is getting empty.
+        // Main polling loop, which fetches tasks to fill the regional work queue and returns results to the broker.
+        // Fetching, computing and uploading results are separate stages: this loop fetches and uploads, while the
+        // compute threads started above take tasks from the queue and put their results on another queue.
+        // We prefetch the next batch of tasks as soon as the queue drops to a low-water mark rather than waiting for
+        // it to drain, and block on the full queue rather than over-fetching. Results are uploaded in batches, either
+        // along with a request for more tasks or on their own when they have been waiting long enough.
+        int lowWaterMark = taskQueueLength / 2;
+        long noMoreWorkBefore = 0;
         while (true) {
-            List<RegionalTask> tasks = getSomeWork();
-            if (tasks == null || tasks.isEmpty()) {
-                // Either there was no work, or some kind of error occurred.
-                // Sleep for a while before polling again, adding a random component to spread out the polling load.
-                if (autoShutdown) {considerShuttingDown();}
-                int randomWait = random.nextInt(POLL_MAX_RANDOM_WAIT);
-                LOG.info("Polling the broker did not yield any regional tasks. Sleeping {} + {} sec.", POLL_WAIT_SECONDS, randomWait);
-                sleepSeconds(POLL_WAIT_SECONDS + randomWait);
+            long now = System.currentTimeMillis();
+            boolean wantTasks = regionalTaskQueue.size() <= lowWaterMark && now >= noMoreWorkBefore;
+            boolean resultsDue = workResults.size() >= RESULT_BATCH_SIZE || (!workResults.isEmpty() &&
+                    now - lastPollingTime >= RESULT_MAX_DELAY_SECONDS * 1000);
+            if (!wantTasks && !resultsDue) {
+                sleepMilliseconds(PIPELINE_CHECK_MILLISECONDS);
                 continue;
             }
-            for (RegionalTask task : tasks) {
-                while (true) {
+            // Never ask for more tasks than the queue can hold, so enqueueing them below blocks only briefly if at all.
+            int maxTasks = wantTasks ? maxTasksToRequest(regionalTaskQueue) : 0;
+            List<RegionalTask> tasks = getSomeWork(maxTasks);
+            if (tasks == null) {
+                // Polling failed, for example because the broker is unreachable, and any results were put back to be
+                // sent again. Back off before retrying: the results still pending would otherwise make every pass
+                // through this loop poll again immediately for as long as the broker stays down.
+                int randomWait = random.nextInt(POLL_MAX_RANDOM_WAIT);
+                LOG.warn("Polling the broker failed. Sleeping {} + {} sec before retrying.", POLL_WAIT_SECONDS, randomWait);
+                sleepSeconds(POLL_WAIT_SECONDS + randomWait);
+            } else if (!tasks.isEmpty()) {
+                for (List<RegionalTask> block : groupIntoBlocks(tasks)) {
+                    nRegionalTasksOutstanding.addAndGet(block.size());
                     try {
-                        // TODO define non-anonymous runnable class to instantiate here, specifically for async regional tasks.
-                        regionalTaskExecutor.execute(() -> this.handleOneRegionalTask(task));
-                        break;
-                    } catch (RejectedExecutionException e) {
-                        // Queue is full, wait a bit and try to feed it more tasks.
-                        // FIXME if we burn through the internal queue in less than 1 second this is a speed bottleneck.
-                        // This happens with regions unconnected to transit and with very small travel time cutoffs.
-                        // FIXME this is really using the list of fetched tasks as a secondary queue, it's awkward.
-                        sleepSeconds(1);
+                        // Block when the queue is full, applying backpressure to polling.
+                        regionalTaskQueue.put(block);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
+            } else if (wantTasks) {
+                // The broker has no work for this worker.
+                if (nRegionalTasksOutstanding.get() == 0 && workResults.isEmpty()) {
+                    // This worker is entirely idle. Sleep for a while before polling again, adding a random component
+                    // to spread out the polling load.
+                    if (autoShutdown) {considerShuttingDown();}
+                    int randomWait = random.nextInt(POLL_MAX_RANDOM_WAIT);
+                    LOG.info("Polling the broker did not yield any regional tasks. Sleeping {} + {} sec.", POLL_WAIT_SECONDS, randomWait);
+                    sleepSeconds(POLL_WAIT_SECONDS + randomWait);
+                } else {
+                    // Tasks are still being computed. Keep returning their results promptly as they finish, but don't
+                    // ask the broker for more work on every one of those polls.
+                    noMoreWorkBefore = now + POLL_MAX_RANDOM_WAIT * 1000;
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of tasks to request from the broker so that, once grouped into blocks, they will fill the remaining
+     * capacity of the regional task queue. The broker delivers tasks from only one job per poll, so they will form
+     * full blocks except perhaps the last one.
+     */
+    static int maxTasksToRequest (BlockingQueue<List<RegionalTask>> taskQueue) {
+        return taskQueue.remainingCapacity() * ORIGINS_PER_BLOCK;
+    }
+
+    /**
+     * Split the tasks received from the broker into blocks of up to ORIGINS_PER_BLOCK tasks to be computed together.
+     * The broker delivers consecutive origins from a single job, which are usually close to each other, so the tasks
+     * are kept in order and a new block is only started when the current one is full or the job changes.
+     */
+    static List<List<RegionalTask>> groupIntoBlocks (List<RegionalTask> tasks) {
+        List<List<RegionalTask>> blocks = new ArrayList<>();
+        List<RegionalTask> block = null;
+        for (RegionalTask task : tasks) {
+            if (block == null || block.size() == ORIGINS_PER_BLOCK || !block.get(0).jobId.equals(task.jobId)) {
+                block = new ArrayList<>(ORIGINS_PER_BLOCK);
+                blocks.add(block);
+            }
+            block.add(task);
+        }
+        return blocks;
+    }
+
+    /**
+     * Each regional compute thread runs this method, which takes blocks of tasks from the regional task queue and
+     * handles them one block at a time until the thread is interrupted. Results are accumulated in workResults.
+     */
+    private void computeRegionalTasks () {
+        // The transit searches for all the origins handled on this thread reuse the same states, which are sized for
+        // the network currently being routed. They are only held by the regional compute threads.
+        RaptorStateBuffers raptorStateBuffers = new RaptorStateBuffers();
+        while (!Thread.currentThread().isInterrupted()) {
+            List<RegionalTask> block;
+            try {
+                block = regionalTaskQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                handleRegionalTasks(block, raptorStateBuffers);
+            } catch (Throwable t) {
+                // Never let an exception kill the compute thread, which would reduce the size of the pool.
+                LOG.error("Unhandled error in regional compute thread: {}", ExceptionUtils.asString(t));
+            } finally {
+                nRegionalTasksOutstanding.addAndGet(-block.size());
             }
         }
     }
 
+    /**
+     * Bypass idiotic java checked exceptions.
+     */
+    public static void sleepMilliseconds (int milliseconds) {
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Bypass idiotic java checked exceptions.
      */
@@ -448,6 +577,7 @@ public class AnalysisWorker implements Runnable {
 
         // Perform the core travel time computations.
         TravelTimeComputer computer = new TravelTimeComputer(task, transportNetwork);
+        computer.iterationTravelTimesCache = iterationTravelTimesCache;
         OneOriginResult oneOriginResult = computer.computeTravelTimes();
 
         // Prepare the travel time grid which will be written back to the client. We gzip the data before sending
@@ -465,7 +595,10 @@ public class AnalysisWorker implements Runnable {
             // Return raw byte array representing grid to caller, for return to client over HTTP.
             // TODO eventually reuse same code path as static site time grid saving
             // TODO move the JSON writing code into the grid writer, it's essentially part of the grid format
-            timeGridWriter.writeToDataOutput(new LittleEndianDataOutputStream(byteArrayOutputStream));
+            int version = task.getFormat() == TravelTimeSurfaceTask.Format.CROPPED_GRID
+                    ? AccessGridValueWriter.VARINT_VERSION
+                    : AccessGridValueWriter.FIXED_WIDTH_VERSION;
+            timeGridWriter.writeToDataOutput(new LittleEndianDataOutputStream(byteArrayOutputStream), version);
             addJsonToGrid(
                     byteArrayOutputStream,
                     oneOriginResult.accessibility,
@@ -481,13 +614,46 @@ public class AnalysisWorker implements Runnable {
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * Handle a block of tasks representing consecutive origins within the same regional analysis. Where possible,
+     * their transit searches are performed together, otherwise this is equivalent to handling each task in turn.
+     * @param raptorStateBuffers states to be reused by the transit searches, owned by the calling thread.
+     */
+    protected void handleRegionalTasks (List<RegionalTask> tasks, RaptorStateBuffers raptorStateBuffers) {
+        // Static site tasks compute paths and write their results individually, so are never computed together.
+        if (tasks.size() == 1 || testTaskRedelivery || tasks.get(0).makeTauiSite) {
+            for (RegionalTask task : tasks) {
+                handleOneRegionalTask(task, raptorStateBuffers);
+            }
+            return;
+        }
+        LOG.info("Handling {} regional tasks together, from {} to {}", tasks.size(), tasks.get(0),
+                tasks.get(tasks.size() - 1));
+        try {
+            TransportNetwork transportNetwork = null;
+            for (RegionalTask task : tasks) {
+                transportNetwork = prepareRegionalTask(task);
+            }
+            adjustShutdownClock(REGIONAL_KEEPALIVE_MINUTES);
+            List<OneOriginResult> results =
+                    TravelTimeComputer.computeTravelTimes(tasks, transportNetwork, raptorStateBuffers);
+            for (int i = 0; i < tasks.size(); i++) {
+                workResults.add(new RegionalWorkResult(results.get(i), tasks.get(i)));
+                throughputTracker.recordTaskCompletion(tasks.get(i).jobId);
+            }
+        } catch (Exception ex) {
+            LOG.error("An error occurred while handling a block of regional tasks: {}", ExceptionUtils.asString(ex));
+        }
+    }
+
     /**
      * Handle one task representing one of many origins within a regional analysis.
      * This method is generally being executed asynchronously, handling a large number of tasks on a pool of worker
      * threads. It stockpiles results as they are produced, so they can be returned to the backend in batches when the
      * worker polls the backend.
+     * @param raptorStateBuffers states to be reused by the transit search, owned by the calling thread.
      */
-    protected void handleOneRegionalTask(RegionalTask task) {
+    protected void handleOneRegionalTask(RegionalTask task, RaptorStateBuffers raptorStateBuffers) {
 
         LOG.info("Handling regional task {}", task.toString());
 
@@ -498,52 +664,8 @@ public class AnalysisWorker implements Runnable {
             return;
         }
 
-        // Ensure we don't try to calculate accessibility to missing opportunity data points.
-        // This is a worker-side temporary stopgap until our new backend version is rolled out.
-        if (task.makeTauiSite) {
-            task.recordAccessibility = false;
-        }
-
-        // Bump the max trip duration up to find opportunities past the cutoff when using wide decay functions.
-        // Save the existing hard-cutoff value which is used when saving travel times.
-        // TODO this needs to happen for both regional and single point tasks when calculating accessibility on the worker
-        {
-            task.decayFunction.prepare();
-            int maxCutoffMinutes = Arrays.stream(task.cutoffsMinutes).max().getAsInt();
-            int maxTripDurationSeconds = task.decayFunction.reachesZeroAt(maxCutoffMinutes * SECONDS_PER_MINUTE);
-            int maxTripDurationMinutes = (int)(Math.ceil(maxTripDurationSeconds / 60D));
-            checkState(maxTripDurationMinutes <= 120, "Distance decay function must reach zero at or before 120 minutes.");
-            task.maxTripDurationMinutes = maxTripDurationMinutes;
-            LOG.info("Maximum cutoff was {} minutes, limiting trip duration to {} minutes based on decay function {}.",
-                    maxCutoffMinutes, maxTripDurationMinutes, task.decayFunction.getClass().getSimpleName());
-        }
-
         try {
-            // TODO (re)validate multi-percentile and multi-cutoff parameters. Validation currently in TravelTimeReducer.
-            //  This version should require both arrays to be present, and single values to be missing.
-            // Using a newer backend, the task should have been normalized to use arrays not single values.
-            checkNotNull(task.cutoffsMinutes, "This worker requires an array of cutoffs (rather than a single value).");
-            checkNotNull(task.percentiles, "This worker requires an array of percentiles (rather than a single one).");
-            checkElementIndex(0, task.cutoffsMinutes.length, "Regional task must specify at least one cutoff.");
-            checkElementIndex(0, task.percentiles.length, "Regional task must specify at least one percentile.");
-
-            // Get the graph object for the ID given in the task, fetching inputs and building as needed.
-            // All requests handled together are for the same graph, and this call is synchronized so the graph will
-            // only be built once.
-            // Record the currently loaded network ID so we "stick" to this same graph on subsequent polls.
-            networkId = task.graphId;
-            // Note we're completely bypassing the async loader here and relying on the older nested LoadingCaches.
-            // If those are ever removed, the async loader will need a synchronous mode with per-path blocking (kind of
-            // reinventing the wheel of LoadingCache) or we'll need to make preparation for regional tasks async.
-            TransportNetwork transportNetwork = networkPreloader.transportNetworkCache.getNetworkForScenario(task
-                    .graphId, task.scenarioId);
-
-            // Static site tasks do not specify destinations, but all other regional tasks should.
-            // Load the PointSets based on the IDs (actually, full storage keys including IDs) in the task.
-            // The presence of these grids in the task will then trigger the computation of accessibility values.
-            if (!task.makeTauiSite) {
-                task.loadAndValidateDestinationPointSets(pointSetCache);
-            }
+            TransportNetwork transportNetwork = prepareRegionalTask(task);
 
             // If we are generating a static site, there must be a single metadata file for an entire batch of results.
             // Arbitrarily we create this metadata as part of the first task in the job.
@@ -557,6 +679,7 @@ public class AnalysisWorker implements Runnable {
 
             // Perform the core travel time and accessibility computations.
             TravelTimeComputer computer = new TravelTimeComputer(task, transportNetwork);
+            computer.raptorStateBuffers = raptorStateBuffers;
             OneOriginResult oneOriginResult = computer.computeTravelTimes();
 
             if (task.makeTauiSite) {
@@ -583,9 +706,7 @@ public class AnalysisWorker implements Runnable {
             // For most regional analyses, this is an accessibility indicator value for one of many origins,
             // but for static sites the indicator value is not known, it is computed in the UI. We still want to return
             // dummy (zero) accessibility results so the backend is aware of progress through the list of origins.
-            synchronized (workResults) {
-                workResults.add(new RegionalWorkResult(oneOriginResult, task));
-            }
+            workResults.add(new RegionalWorkResult(oneOriginResult, task));
             throughputTracker.recordTaskCompletion(task.jobId);
         } catch (Exception ex) {
             LOG.error("An error occurred while handling a regional task: {}", ExceptionUtils.asString(ex));
@@ -593,6 +714,59 @@ public class AnalysisWorker implements Runnable {
         }
     }
 
+    /**
+     * Validate and complete the parameters of a regional task, and load the network and destinations it requires.
+     * @return the transport network for the task, with its scenario applied.
+     */
+    private TransportNetwork prepareRegionalTask (RegionalTask task) {
+        // Ensure we don't try to calculate accessibility to missing opportunity data points.
+        // This is a worker-side temporary stopgap until our new backend version is rolled out.
+        if (task.makeTauiSite) {
+            task.recordAccessibility = false;
+        }
+
+        // Bump the max trip duration up to find opportunities past the cutoff when using wide decay functions.
+        // Save the existing hard-cutoff value which is used when saving travel times.
+        // TODO this needs to happen for both regional and single point tasks when calculating accessibility on the worker
+        {
+            task.decayFunction.prepare();
+            int maxCutoffMinutes = Arrays.stream(task.cutoffsMinutes).max().getAsInt();
+            int maxTripDurationSeconds = task.decayFunction.reachesZeroAt(maxCutoffMinutes * SECONDS_PER_MINUTE);
+            int maxTripDurationMinutes = (int)(Math.ceil(maxTripDurationSeconds / 60D));
+            checkState(maxTripDurationMinutes <= 120, "Distance decay function must reach zero at or before 120 minutes.");
+            task.maxTripDurationMinutes = maxTripDurationMinutes;
+            LOG.info("Maximum cutoff was {} minutes, limiting trip duration to {} minutes based on decay function {}.",
+                    maxCutoffMinutes, maxTripDurationMinutes, task.decayFunction.getClass().getSimpleName());
+        }
+
+        // TODO (re)validate multi-percentile and multi-cutoff parameters. Validation currently in TravelTimeReducer.
+        //  This version should require both arrays to be present, and single values to be missing.
+        // Using a newer backend, the task should have been normalized to use arrays not single values.
+        checkNotNull(task.cutoffsMinutes, "This worker requires an array of cutoffs (rather than a single value).");
+        checkNotNull(task.percentiles, "This worker requires an array of percentiles (rather than a single one).");
+        checkElementIndex(0, task.cutoffsMinutes.length, "Regional task must specify at least one cutoff.");
+        checkElementIndex(0, task.percentiles.length, "Regional task must specify at least one percentile.");
+
+        // Get the graph object for the ID given in the task, fetching inputs and building as needed.
+        // All requests handled together are for the same graph, and this call is synchronized so the graph will
+        // only be built once.
+        // Record the currently loaded network ID so we "stick" to this same graph on subsequent polls.
+        networkId = task.graphId;
+        // Note we're completely bypassing the async loader here and relying on the older nested LoadingCaches.
+        // If those are ever removed, the async loader will need a synchronous mode with per-path blocking (kind of
+        // reinventing the wheel of LoadingCache) or we'll need to make preparation for regional tasks async.
+        TransportNetwork transportNetwork = networkPreloader.transportNetworkCache.getNetworkForScenario(task
+                .graphId, task.scenarioId);
+
+        // Static site tasks do not specify destinations, but all other regional tasks should.
+        // Load the PointSets based on the IDs (actually, full storage keys including IDs) in the task.
+        // The presence of these grids in the task will then trigger the computation of accessibility values.
+        if (!task.makeTauiSite) {
+            task.loadAndValidateDestinationPointSets(pointSetCache);
+        }
+        return transportNetwork;
+    }
+
     /**
      * Used in tests of the task redelivery mechanism. Report work as completed without actually doing anything,
      * but fail to report results a certain percentage of the time.
@@ -606,9 +780,7 @@ public class AnalysisWorker implements Runnable {
         }
         if (random.nextInt(100) >= TESTING_FAILURE_RATE_PERCENT) {
             OneOriginResult emptyContainer = new OneOriginResult(null, new AccessibilityResult());
-            synchronized (workResults) {
-                workResults.add(new RegionalWorkResult(emptyContainer, task));
-            }
+            workResults.add(new RegionalWorkResult(emptyContainer, task));
         } else {
             LOG.info("Intentionally failing to complete task {} for testing purposes.", task.taskId);
         }
@@ -677,18 +849,20 @@ public class AnalysisWorker implements Runnable {
      * Ask the backend if it has any work for this worker, considering its software version and loaded networks.
      * Also report the worker status to the backend, serving as a heartbeat so the backend knows this worker is alive.
      * Also returns any accumulated work results to the backend.
-     * @return a list of work tasks, or null if there was no work to do, or if no work could be fetched.
+     * @param maxTasks the maximum number of tasks the broker should return. This may be zero when the poll is only
+     *                 being made to return results.
+     * @return a list of work tasks, which is empty if there was no work to do, or null if polling the broker failed.
      */
-    public List<RegionalTask> getSomeWork () {
+    public List<RegionalTask> getSomeWork (int maxTasks) {
         String url = brokerBaseUrl + "/poll";
         HttpPost httpPost = new HttpPost(url);
         WorkerStatus workerStatus = new WorkerStatus(this);
+        workerStatus.maxTasksRequested = maxTasks;
+        workerStatus.originsPerBlock = ORIGINS_PER_BLOCK;
         // Include all completed work results when polling the backend.
-        // Atomically copy and clear the accumulated work results, while blocking writes from other threads.
-        synchronized (workResults) {
-            workerStatus.results = new ArrayList<>(workResults);
-            workResults.clear();
-        }
+        // Atomically move the accumulated work results, without blocking writes from other threads.
+        workerStatus.results = new ArrayList<>();
+        workResults.drainTo(workerStatus.results);
 
         // Compute throughput in tasks per minute and include it in the worker status report.
         // We poll too frequently to compute throughput just since the last poll operation.
@@ -707,7 +881,7 @@ public class AnalysisWorker implements Runnable {
             responseEntity = response.getEntity();
             if (response.getStatusLine().getStatusCode() == 204) {
                 // Broker said there's no work to do.
-                return null;
+                return Collections.emptyList();
             }
             if (response.getStatusLine().getStatusCode() == 200 && responseEntity != null) {
                 // Broker returned some work. Use the lenient object mapper to decode it in case the broker is a
@@ -726,10 +900,8 @@ public class AnalysisWorker implements Runnable {
         }
         // If we did not return yet, something went wrong and the results were not delivered. Put them back on the list
         // for later re-delivery, safely interleaving with new results that may be coming from other worker threads.
-        synchronized (workResults) {
-            // TODO check here that results are not piling up too much?
-            workResults.addAll(workerStatus.results);
-        }
+        // TODO check here that results are not piling up too much?
+        workResults.addAll(workerStatus.results);
         return null;
     }
 
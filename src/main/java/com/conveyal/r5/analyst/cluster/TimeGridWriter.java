@@ -36,7 +36,6 @@ import java.io.OutputStream;
  * TODO Unify this class with GridResultWriter in the backend, as they both write the same format now.
  *      We should be able to remove GridResultWriter from the backend and use this class imported from R5.
  *      We may eventually also be able to store opportunities in the same format.
- *      Prefiltering could aid compression (delta coding, skipping over or not delta coding UNREACHED values).
  *
  * Time grids look like this:
  * <ol>
@@ -49,10 +48,14 @@ import java.io.OutputStream;
  * <li>(4 byte int) width of the grid in pixels</li>
  * <li>(4 byte int) height of the grid in pixels</li>
  * <li>(4 byte int) number of values (channels) per pixel</li>
- * <li>(repeated 4-byte int) values of each pixel in row-major order: axis order (row, column, channel).
- *     Values are not delta-coded.</li>
+ * <li>values of each channel in turn, with the values of each pixel in row-major order: axis order (channel, row,
+ *     column). Values are delta coded, starting again from zero at the beginning of each channel.</li>
  * </ol>
- * NOTE: All integers are little-endian and the same width, to facilitate reading grids as Javascript typed arrays.
+ * In version 0, the grid covers the full extents of the task and each value is a 4-byte int. In version 1, the grid
+ * is cropped to the bounding box of the cells reached in any channel (or is empty if no cell is reached), and values
+ * are variable-width, see AccessGridValueWriter. Version 1 grids are usually several times smaller before gzip.
+ * NOTE: All integers in the header are little-endian and the same width, to facilitate reading grids as Javascript
+ * typed arrays. The same is true of the values in version 0.
  */
 public class TimeGridWriter {
 
@@ -64,8 +67,6 @@ public class TimeGridWriter {
     /** The offset to get to the data section of the access grid file. The gridType string amounts to 2 ints. */
     public static final int HEADER_SIZE = 7 * Integer.BYTES + gridType.getBytes().length;
 
-    private static final int version = 0;
-
     private final TravelTimeResult travelTimeResult;
 
     private final AnalysisWorkerTask analysisWorkerTask;
@@ -95,36 +96,69 @@ public class TimeGridWriter {
     }
 
     /**
-     * Write the grid to an object implementing the DataOutput interface. Note that the endianness of the integers
-     * in the output will be dependent on the DataOutput implementation supplied. To fit our file format
-     * specification the DataOutput should be little-endian.
-     *
-     * TODO maybe shrink the dimensions of the resulting timeGrid to contain only the reached cells.
+     * Write the grid to an object implementing the DataOutput interface, in version 0 of the format. Note that the
+     * endianness of the integers in the output will be dependent on the DataOutput implementation supplied. To fit
+     * our file format specification the DataOutput should be little-endian.
      */
     public void writeToDataOutput(DataOutput dataOutput) {
-        LOG.info("Writing travel time surface with uncompressed size {} kiB", nBytesInOutput / 1024);
+        writeToDataOutput(dataOutput, AccessGridValueWriter.FIXED_WIDTH_VERSION);
+    }
+
+    /**
+     * Write the grid to an object implementing the DataOutput interface, in the given version of the format.
+     * To fit our file format specification the DataOutput should be little-endian.
+     */
+    public void writeToDataOutput(DataOutput dataOutput, int version) {
+        // The range of cells to write, in the coordinates of the full extents.
+        int minX = 0, minY = 0, maxX = extents.width, maxY = extents.height;
+        if (version == AccessGridValueWriter.FIXED_WIDTH_VERSION) {
+            LOG.info("Writing travel time surface with uncompressed size {} kiB", nBytesInOutput / 1024);
+        } else {
+            // Shrink the range to the bounding box of the reached cells. If there are none, leave it empty.
+            minX = extents.width;
+            minY = extents.height;
+            maxX = 0;
+            maxY = 0;
+            for (int[] channel : travelTimeResult.values) {
+                for (int y = 0; y < extents.height; y++) {
+                    for (int x = 0; x < extents.width; x++) {
+                        if (channel[y * extents.width + x] != FastRaptorWorker.UNREACHED) {
+                            minX = Math.min(minX, x);
+                            minY = Math.min(minY, y);
+                            maxX = Math.max(maxX, x + 1);
+                            maxY = Math.max(maxY, y + 1);
+                        }
+                    }
+                }
+            }
+            if (maxX == 0) {
+                minX = 0;
+                minY = 0;
+            }
+            LOG.info("Writing travel time surface cropped from {}x{} to {}x{} cells.",
+                    extents.width, extents.height, maxX - minX, maxY - minY);
+        }
         try {
             // Write header
             dataOutput.write(gridType.getBytes());
             dataOutput.writeInt(version);
             dataOutput.writeInt(extents.zoom);
-            dataOutput.writeInt(extents.west);
-            dataOutput.writeInt(extents.north);
-            dataOutput.writeInt(extents.width);
-            dataOutput.writeInt(extents.height);
+            dataOutput.writeInt(extents.west + minX);
+            dataOutput.writeInt(extents.north + minY);
+            dataOutput.writeInt(maxX - minX);
+            dataOutput.writeInt(maxY - minY);
             dataOutput.writeInt(travelTimeResult.nSamplesPerPoint);
-            // Write values, delta coded
+            // Write values, delta coded within each percentile grid
+            AccessGridValueWriter valueWriter = new AccessGridValueWriter(dataOutput, version);
             for (int i = 0; i < travelTimeResult.nSamplesPerPoint; i++) {
-                int prev = 0; // delta code within each percentile grid
-                for (int j = 0; j < travelTimeResult.nPoints; j++) {
-                    int curr = travelTimeResult.values[i][j];
-                    // TODO try not delta-coding the "unreachable" value, and retaining the previous value across
-                    //  unreachable areas of the grid.
-                    int delta = curr - prev;
-                    dataOutput.writeInt(delta);
-                    prev = curr;
+                valueWriter.restartDeltas();
+                for (int y = minY; y < maxY; y++) {
+                    for (int x = minX; x < maxX; x++) {
+                        valueWriter.write(travelTimeResult.values[i][y * extents.width + x]);
+                    }
                 }
             }
+            valueWriter.finish();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
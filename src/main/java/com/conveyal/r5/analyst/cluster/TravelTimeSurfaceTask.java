@@ -24,6 +24,8 @@ public class TravelTimeSurfaceTask extends AnalysisWorkerTask {
     public enum Format {
         /** Flat binary grid format */
         GRID,
+        /** Flat binary grid format cropped to the reached cells, with variable-width values (version 1) */
+        CROPPED_GRID,
         /** GeoTIFF file for download and use in GIS */
         GEOTIFF
     }
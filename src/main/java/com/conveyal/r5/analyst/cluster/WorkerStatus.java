@@ -50,6 +50,18 @@ public class WorkerStatus {
     public String ipAddress;
     public List<RegionalWorkResult> results;
 
+    /**
+     * The maximum number of regional tasks the worker wants in response to this poll, which may be zero if it is only
+     * returning results. Null means the worker does not specify a limit (older workers do not send this field).
+     */
+    public Integer maxTasksRequested;
+
+    /**
+     * The number of consecutive origins the worker computes together. The broker delivers up to this many times more
+     * tasks per poll than it would to a worker computing one origin at a time. Null for older workers.
+     */
+    public Integer originsPerBlock;
+
     /** No-arg constructor used when deserializing. */
     public WorkerStatus() { }
 
@@ -4,8 +4,12 @@ import com.conveyal.analysis.BackendVersion;
 import com.conveyal.kryo.InstanceCountingClassResolver;
 import com.conveyal.kryo.TIntArrayListSerializer;
 import com.conveyal.kryo.TIntIntHashMapSerializer;
+import com.conveyal.r5.streets.EdgeStore;
+import com.conveyal.r5.streets.VertexStore;
 import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.trove.TIntBufferList;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ExternalizableSerializer;
@@ -13,6 +17,7 @@ import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import com.esotericsoftware.kryo.util.DefaultStreamFactory;
 import com.esotericsoftware.kryo.util.MapReferenceResolver;
 import gnu.trove.impl.hash.TPrimitiveHash;
+import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntIntHashMap;
 import org.objenesis.strategy.SerializingInstantiatorStrategy;
@@ -23,12 +28,34 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * This class groups the static methods for saving and loading TransportNetworks.
  *
+ * Networks can be saved in two formats. The original format is a single Kryo stream containing the entire network,
+ * all of which must be decoded onto the heap when the network is loaded. In the memory-mapped format, the largest
+ * primitive columns of the street layer are instead written as raw little-endian ints at the beginning of the file,
+ * followed by a Kryo stream for everything else in which those columns are replaced by references to the raw
+ * sections. When loading, the raw sections are memory-mapped and used directly as read-only lists, so they never
+ * need to be decoded or copied onto the heap, and several worker JVMs on one machine share a single copy of them in
+ * the operating system's page cache. Both formats are recognized by their header when reading.
+ *
  * Each serialization or deserialization operation creates a completely new Kryo instance, so there should be no
  * issues with thread safety, as long as the object being serialized is not being changed simultaneously.
  *
@@ -40,6 +67,21 @@ public abstract class KryoNetworkSerializer {
 
     public static final byte[] HEADER = "R5NETWORK".getBytes();
 
+    /** Header of the memory-mapped format. It has the same length as the original header so either can be detected. */
+    public static final byte[] MAPPED_HEADER = "R5NETMMAP".getBytes();
+
+    /** Set this to false to write networks in the original format by default, with no memory-mapped columns. */
+    private static final boolean WRITE_MAPPED_COLUMNS = true;
+
+    /** Byte order of the raw columns in the memory-mapped format, matching the native order of common hardware. */
+    private static final ByteOrder COLUMN_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** Raw columns begin at multiples of this many bytes from the start of the file. */
+    private static final int COLUMN_ALIGNMENT_BYTES = 64;
+
+    /** Size of the buffers used when copying columns to the file, and when reading the Kryo section of the file. */
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
     /** Set this to true to count instances and print a report including which serializer is handling each class. */
     private static final boolean COUNT_CLASS_INSTANCES = false;
 
@@ -85,9 +127,21 @@ public abstract class KryoNetworkSerializer {
     }
 
     /**
-     * Serialize the supplied network using Kryo, storing the result in a file.
+     * Serialize the supplied network using Kryo, storing the result in a file in the default format.
      */
     public static void write (TransportNetwork network, File file) throws IOException {
+        write(network, file, WRITE_MAPPED_COLUMNS);
+    }
+
+    /**
+     * Serialize the supplied network using Kryo, storing the result in a file.
+     * @param mapColumns if true, use the memory-mapped format, otherwise the original single Kryo stream.
+     */
+    public static void write (TransportNetwork network, File file, boolean mapColumns) throws IOException {
+        if (mapColumns) {
+            writeMapped(network, file);
+            return;
+        }
         LOG.info("Writing transport network...");
         Output output = new Output(new FileOutputStream(file));
         Kryo kryo = makeKryo();
@@ -103,18 +157,106 @@ public abstract class KryoNetworkSerializer {
     }
 
     /**
-     * Read the given file and decode with Kryo into a new R5 TransportNetwork object.
+     * Serialize the supplied network in the memory-mapped format described in the class Javadoc. The file begins with
+     * the header, a table giving the position and length of each raw column, and the position of the Kryo section.
+     */
+    private static void writeMapped (TransportNetwork network, File file) throws IOException {
+        LOG.info("Writing transport network with memory-mappable columns...");
+        List<TIntList> columns = findMappableColumns(network);
+        try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(MAPPED_HEADER.length + Integer.BYTES
+                    + columns.size() * (Long.BYTES + Integer.BYTES) + Long.BYTES).order(COLUMN_BYTE_ORDER);
+            header.put(MAPPED_HEADER);
+            header.putInt(columns.size());
+            long position = alignColumnPosition(header.capacity());
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(COLUMN_BYTE_ORDER);
+            for (TIntList column : columns) {
+                header.putLong(position);
+                header.putInt(column.size());
+                channel.position(position);
+                for (int i = 0; i < column.size(); i++) {
+                    if (buffer.remaining() < Integer.BYTES) {
+                        writeFully(channel, buffer);
+                    }
+                    buffer.putInt(column.get(i));
+                }
+                writeFully(channel, buffer);
+                position = alignColumnPosition(position + (long) column.size() * Integer.BYTES);
+            }
+            // The Kryo section follows the last column.
+            header.putLong(position);
+            header.flip();
+            channel.write(header, 0);
+            channel.position(position);
+            Output output = new Output(Channels.newOutputStream(channel), BUFFER_BYTES);
+            Kryo kryo = makeKryo();
+            registerColumnSerializer(kryo, new MappedColumnSerializer(columns, null));
+            kryo.writeObject(output, BackendVersion.instance.version);
+            kryo.writeObject(output, BackendVersion.instance.commit);
+            kryo.writeObject(output, network);
+            output.close();
+        }
+        LOG.info("Done writing.");
+    }
+
+    /**
+     * Read the given file and decode with Kryo into a new R5 TransportNetwork object. The file may be in either the
+     * original or the memory-mapped format.
      * Transient fields that were not serialized will be rebuilt (indexes and cached PointSet linkage).
      */
     public static TransportNetwork read (File file) throws Exception {
         LOG.info("Reading transport network...");
-        Input input = new Input(new FileInputStream(file));
-        Kryo kryo = makeKryo();
         byte[] header = new byte[HEADER.length];
-        input.read(header, 0, header.length);
+        try (FileInputStream headerStream = new FileInputStream(file)) {
+            if (headerStream.read(header) != header.length) {
+                throw new RuntimeException("File is too short to be an R5 Kryo network.");
+            }
+        }
+        if (Arrays.equals(MAPPED_HEADER, header)) {
+            return readMapped(file);
+        }
         if (!Arrays.equals(HEADER, header)) {
             throw new RuntimeException("Unrecognized file header. Is this an R5 Kryo network?");
         }
+        Input input = new Input(new FileInputStream(file));
+        input.skip(HEADER.length);
+        return readNetwork(makeKryo(), input, header);
+    }
+
+    /**
+     * Map the raw columns of a network file in the memory-mapped format, then decode the rest of the network from the
+     * Kryo section of the file, substituting read-only views of the mapped columns where they are referenced. The
+     * mappings remain valid after the file is closed.
+     */
+    private static TransportNetwork readMapped (File file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MAPPED_HEADER.length + Integer.BYTES).order(COLUMN_BYTE_ORDER);
+            readFully(channel, header, 0);
+            int nColumns = header.getInt(MAPPED_HEADER.length);
+            ByteBuffer table = ByteBuffer.allocate(nColumns * (Long.BYTES + Integer.BYTES) + Long.BYTES)
+                    .order(COLUMN_BYTE_ORDER);
+            readFully(channel, table, header.capacity());
+            List<IntBuffer> columns = new ArrayList<>(nColumns);
+            for (int c = 0; c < nColumns; c++) {
+                long position = table.getLong();
+                int nInts = table.getInt();
+                columns.add(channel.map(FileChannel.MapMode.READ_ONLY, position, (long) nInts * Integer.BYTES)
+                        .order(COLUMN_BYTE_ORDER).asIntBuffer());
+            }
+            LOG.info("Mapped {} columns of the street layer.", nColumns);
+            channel.position(table.getLong());
+            Input input = new Input(Channels.newInputStream(channel), BUFFER_BYTES);
+            Kryo kryo = makeKryo();
+            registerColumnSerializer(kryo, new MappedColumnSerializer(null, columns));
+            return readNetwork(kryo, input, MAPPED_HEADER);
+        }
+    }
+
+    /**
+     * Decode a network from a Kryo stream positioned just after the file header, checking that it was saved by a
+     * compatible version of R5. The input is closed once the network has been read.
+     */
+    private static TransportNetwork readNetwork (Kryo kryo, Input input, byte[] header) {
         String version = kryo.readObject(input, String.class);
         String commit = kryo.readObject(input, String.class);
         LOG.info("Loading {} file saved by R5 version {} commit {}", new String(header), version, commit);
@@ -132,4 +274,102 @@ public abstract class KryoNetworkSerializer {
         return result;
     }
 
+    /**
+     * The columns of the network that will be written raw and memory-mapped when loaded. These are the largest
+     * columns of the street layer with a TIntList type, which can be replaced by a TIntBufferList. Columns of
+     * scenario networks that have been wrapped to make them extendable are not mapped, as they are not immutable.
+     */
+    private static List<TIntList> findMappableColumns (TransportNetwork network) {
+        List<TIntList> columns = new ArrayList<>();
+        VertexStore vertexStore = network.streetLayer.vertexStore;
+        EdgeStore edgeStore = network.streetLayer.edgeStore;
+        for (TIntList column : Arrays.asList(vertexStore.fixedLats, vertexStore.fixedLons, edgeStore.flags,
+                edgeStore.fromVertices, edgeStore.toVertices, edgeStore.lengths_mm)) {
+            if (column instanceof TIntArrayList || column instanceof TIntBufferList) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    /** Use the given serializer for all lists that may be mapped columns, in place of the default serializer. */
+    private static void registerColumnSerializer (Kryo kryo, MappedColumnSerializer serializer) {
+        kryo.register(TIntArrayList.class, serializer);
+        kryo.register(TIntBufferList.class, serializer);
+    }
+
+    private static long alignColumnPosition (long position) {
+        return (position + COLUMN_ALIGNMENT_BYTES - 1) / COLUMN_ALIGNMENT_BYTES * COLUMN_ALIGNMENT_BYTES;
+    }
+
+    /** Write the contents of the buffer to the channel at its current position, then clear the buffer. */
+    private static void writeFully (FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Fill the buffer from the channel starting at the given position, then rewind the buffer for reading. */
+    private static void readFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of network file.");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Serializes TIntLists in the memory-mapped format. Lists that are mapped columns are written as a reference to
+     * the column's raw section of the file, and read back as a read-only TIntBufferList over that section. All other
+     * lists are written inline, exactly as they are in the original format. Each instance is used for either
+     * writing or reading a single file.
+     */
+    private static class MappedColumnSerializer extends Serializer<TIntList> {
+
+        private final TIntArrayListSerializer inlineSerializer = new TIntArrayListSerializer();
+
+        /** When writing, the index of each column in the file by identity of the list. */
+        private final Map<TIntList, Integer> indexForColumn = new IdentityHashMap<>();
+
+        /** When reading, the mapped contents of each column in the file. */
+        private final List<IntBuffer> mappedColumns;
+
+        MappedColumnSerializer (List<TIntList> columnsToWrite, List<IntBuffer> mappedColumns) {
+            if (columnsToWrite != null) {
+                for (int c = 0; c < columnsToWrite.size(); c++) {
+                    indexForColumn.put(columnsToWrite.get(c), c);
+                }
+            }
+            this.mappedColumns = mappedColumns;
+        }
+
+        @Override
+        public void write (Kryo kryo, Output output, TIntList list) {
+            Integer columnIndex = indexForColumn.get(list);
+            if (columnIndex == null) {
+                // Zero means the list is written inline.
+                output.writeVarInt(0, true);
+                TIntArrayList arrayList = (list instanceof TIntArrayList)
+                        ? (TIntArrayList) list : TIntArrayList.wrap(list.toArray());
+                inlineSerializer.write(kryo, output, arrayList);
+            } else {
+                output.writeVarInt(columnIndex + 1, true);
+            }
+        }
+
+        @Override
+        public TIntList read (Kryo kryo, Input input, Class<TIntList> type) {
+            int columnIndex = input.readVarInt(true) - 1;
+            if (columnIndex < 0) {
+                return inlineSerializer.read(kryo, input, TIntArrayList.class);
+            } else {
+                // Duplicate the buffer so every list has its own position and limit.
+                return new TIntBufferList(mappedColumns.get(columnIndex).duplicate());
+            }
+        }
+    }
+
 }
@@ -3,6 +3,8 @@ package com.conveyal.r5.profile;
 import com.conveyal.r5.api.util.TransitModes;
 import com.conveyal.r5.transit.PickDropType;
 import com.conveyal.r5.transit.RouteInfo;
+import com.conveyal.r5.transit.ScheduledDepartureIndex;
+import com.conveyal.r5.transit.ScheduledDepartureIndex.PatternTimetable;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.transit.TripPattern;
 import com.conveyal.r5.transit.TripSchedule;
@@ -18,6 +20,9 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static com.conveyal.r5.profile.FastRaptorWorker.FrequencyBoardingMode.HALF_HEADWAY;
 import static com.conveyal.r5.profile.FastRaptorWorker.FrequencyBoardingMode.MONTE_CARLO;
@@ -71,13 +76,13 @@ public class FastRaptorWorker {
      * Step for departure times. Use caution when changing this as the functions request.getTimeWindowLengthMinutes
      * and request.getMonteCarloDrawsPerMinute below which assume this value is 1 minute.
      */
-    private static final int DEPARTURE_STEP_SEC = 60;
+    static final int DEPARTURE_STEP_SEC = 60;
 
     /**
      * Minimum wait for boarding to account for schedule variation.
      * FIXME clarify why this is separate from BOARD_SLACK. If it is not, merge the two constants into BOARD_SLACK_SEC.
      */
-    private static final int MINIMUM_BOARD_WAIT_SEC = 60;
+    static final int MINIMUM_BOARD_WAIT_SEC = 60;
 
     // ENABLE_OPTIMIZATION_X flags enable code paths that should affect efficiency but have no effect on output.
 
@@ -85,6 +90,8 @@ public class FastRaptorWorker {
     public static final boolean ENABLE_OPTIMIZATION_FREQ_UPPER_BOUND = true;
     public static final boolean ENABLE_OPTIMIZATION_UPDATED_STOPS = true;
     public static final boolean ENABLE_OPTIMIZATION_CLEAR_LONG_PATHS = true;
+    public static final boolean ENABLE_OPTIMIZATION_REUSE_STATE = true;
+    public static final boolean ENABLE_OPTIMIZATION_DEPARTURE_INDEX = true;
 
     /** The width of the departure time window in minutes. */
     public final int nMinutes;
@@ -98,6 +105,12 @@ public class FastRaptorWorker {
      */
     public final int monteCarloDrawsPerMinute;
 
+    /**
+     * The total number of iterations (departure minute and Monte Carlo draw combinations) for which travel times to
+     * stops will be returned, which is the stride between consecutive stops in the array returned by route().
+     */
+    public final int nIterations;
+
     /** Track the time spent in each part of the Raptor search. */
     public final RaptorTimer raptorTimer = new RaptorTimer();
 
@@ -122,6 +135,9 @@ public class FastRaptorWorker {
     /** Services active on the date of the search */
     private final BitSet servicesActive;
 
+    /** Departures of the scheduled trips running on the date of the search, or null if not in use. */
+    private final ScheduledDepartureIndex departureIndex;
+
     /**
      * The state resulting from the scheduled search at a particular departure minute.
      * This state is reused at each departure minute without re-initializing it (this is the range-raptor optimization).
@@ -129,6 +145,16 @@ public class FastRaptorWorker {
      */
     private RaptorState[] scheduleState;
 
+    /**
+     * If this is set, the states of the search are kept in these buffers and reused from any previous search that
+     * used them, rather than being allocated for this search. The caller must not share them with a concurrent search.
+     * Parallel slices of the departure window (see parallelSlices) each allocate their own states.
+     */
+    public RaptorStateBuffers reusedStateBuffers;
+
+    /** Preallocated states used for the search in progress, see RaptorStateBuffers. */
+    private RaptorStateBuffers stateBuffers;
+
     /**
      * This should be either HALF_HEADWAY or MONTE_CARLO.
      * The other value UPPER_BOUND is only used within a sub-search of MONTE_CARLO.
@@ -141,11 +167,41 @@ public class FastRaptorWorker {
     /** If we're going to store paths to every destination (e.g. for static sites) then they'll be retained here. */
     public List<Path[]> pathsPerIteration;
 
+    /**
+     * The number of contiguous slices of the departure time window to route concurrently. Each slice is handled by a
+     * separate FastRaptorWorker with its own RaptorState, running range-RAPTOR backward over only its own minutes.
+     * The default of 1 routes the whole window on the calling thread. Values above 1 are useful for single-point
+     * requests, where the whole machine is available to one search. Regional tasks are already parallelized across
+     * origins, so slicing them would only add overhead. Slicing is not applied when paths are retained.
+     * The results are identical to an unsliced search with the same randomSeed (range-RAPTOR is a pure optimization),
+     * except that each slice repeats a little work at its latest minute.
+     */
+    public int parallelSlices = 1;
+
+    /**
+     * The seed from which the randomized schedules of all Monte Carlo iterations are derived. Before each iteration
+     * the frequency offsets are reseeded with this value plus the iteration number, so the schedules used in an
+     * iteration do not depend on which iterations were drawn before it on the same worker. All slices of the departure
+     * window share this seed and therefore see the same set of schedules as a sequential search would.
+     */
+    public long randomSeed = new Random().nextLong();
+
+    /**
+     * Slices of the departure window are routed on this dedicated, bounded pool rather than the common pool, which is
+     * also used by propagation and other parallel work. Single-point and regional tasks can run on the same worker at
+     * the same time, and a sliced search would otherwise starve (or be starved by) whatever else is using the common
+     * pool. This pool uses one thread per processor, and regional tasks are still free to compete with it at the OS
+     * level, as they would with a single-point search routed on one thread.
+     */
+    private static final ForkJoinPool SLICE_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     public FastRaptorWorker (TransitLayer transitLayer, ProfileRequest request, TIntIntMap accessStops) {
         this.transit = transitLayer;
         this.request = request;
         this.accessStops = accessStops;
         this.servicesActive  = transit.getActiveServicesForDate(request.date);
+        this.departureIndex = (ENABLE_OPTIMIZATION_DEPARTURE_INDEX && transit.hasSchedules)
+                ? transit.getScheduledDepartureIndex(servicesActive) : null;
 
         offsets = new FrequencyRandomOffsets(transitLayer);
 
@@ -158,64 +214,129 @@ public class FastRaptorWorker {
         // Hidden feature: activate half-headway boarding times by specifying zero Monte Carlo draws.
         // The UI requires one or more draws, so this can only be activated by editing request JSON directly.
         boardingMode = (request.monteCarloDraws == 0) ? HALF_HEADWAY : MONTE_CARLO;
+
+        nIterations = (boardingMode == HALF_HEADWAY) ? nMinutes : monteCarloDrawsPerMinute * nMinutes;
     }
 
     /**
      * For each iteration (minute + MC draw combination), return the minimum travel time to each transit stop in seconds.
-     * Return value dimension order is [searchIteration][transitStopIndex]
+     * The result is a single flattened stop-major array: all iterations for stop 0, then all iterations for stop 1
+     * etc. The travel time to stop s at iteration i is found at index (s * nIterations + i).
+     *
+     * This is the layout used by propagation, which loops over all iterations for each stop near a target. Writing
+     * the results directly in this order avoids keeping a second transposed copy of the whole matrix, and keeps the
+     * matrix in one contiguous block rather than spreading it across thousands of separate heap arrays.
      * TODO Create proper types for return values?
      */
-    public int[][] route () {
+    public int[] route () {
         raptorTimer.fullSearch.start();
         prefilterPatterns();
         // Initialize result storage. Results are one arrival time at each stop, for every raptor iteration.
-        final int nStops = transit.getStopCount();
-        final int nIterations;
         if (boardingMode == HALF_HEADWAY) {
-            nIterations = nMinutes;
             LOG.info("Performing {} scheduled iterations using half-headway for frequency routes.", nMinutes);
         } else {
-            nIterations = monteCarloDrawsPerMinute * nMinutes;
             LOG.info(
                 "Performing {} scheduled iterations each with {} Monte Carlo draws for a total of {} iterations.",
                 nMinutes, monteCarloDrawsPerMinute, nIterations
             );
         }
-        int[][] travelTimesToStopsPerIteration = new int[nIterations][];
+        final long nTravelTimes = (long) transit.getStopCount() * nIterations;
+        checkState(nTravelTimes <= Integer.MAX_VALUE, "Too many stops and iterations to store travel times in one array.");
+        int[] travelTimesToStops = new int[(int) nTravelTimes];
         if (retainPaths) pathsPerIteration = new ArrayList<>();
-
-        // This main outer loop iterates backward over all minutes in the departure times window.
-        // TODO revise this loop so seconds are derived from minute numbers
-        int currentIteration = 0;
-        for (int departureTime = request.toTime - DEPARTURE_STEP_SEC, minute = nMinutes;
-                 departureTime >= request.fromTime;
-                 departureTime -= DEPARTURE_STEP_SEC, minute--
-        ) {
-            if (minute % 15 == 0) LOG.debug("  minute {}", minute);
-
-            // Run the raptor search. For this particular departure time, we receive N arrays of arrival times at all
-            // stops, one for each randomized schedule: resultsForMinute[randScheduleNumber][transitStop]
-            int[][] resultsForDepartureMinute = runRaptorForDepartureMinute(departureTime);
-            // Iterate over the results for different Monte Carlo draws at this departure minute.
-            for (int[] arrivalTimesAtStops : resultsForDepartureMinute) {
-                // Make a protective copy of the arrival times, transforming them into travel times (durations).
-                checkState(arrivalTimesAtStops.length == nStops, "Result should contain one value per stop.");
-                int[] travelTimesToStops = new int[nStops];
-                for (int s = 0; s < nStops; s++) {
-                    int arrivalTime = arrivalTimesAtStops[s];
-                    travelTimesToStops[s] = (arrivalTime == UNREACHED) ? UNREACHED : arrivalTime - departureTime;
-                }
-                // Accumulate the duration-transformed Monte Carlo iterations for the current minute
-                // into one big flattened array representing all iterations at all minutes.
-                travelTimesToStopsPerIteration[currentIteration++] = travelTimesToStops;
-            }
+        final int iterationsPerMinute = (boardingMode == HALF_HEADWAY) ? 1 : monteCarloDrawsPerMinute;
+        final int nSlices = Math.min(parallelSlices, nMinutes);
+        final int currentIteration;
+        if (nSlices > 1 && !retainPaths) {
+            // Departure minutes are numbered backward from the end of the window, matching the order of iterations
+            // in the result. Each slice covers a contiguous block of minutes and writes its own block of iterations.
+            final int minutesPerSlice = (nMinutes + nSlices - 1) / nSlices;
+            LOG.info("Splitting departure window into {} slices of {} minutes routed in parallel.", nSlices, minutesPerSlice);
+            currentIteration = SLICE_POOL.submit(() -> IntStream.range(0, nSlices).parallel().map(slice -> {
+                int firstMinuteInSlice = slice * minutesPerSlice;
+                int nMinutesInSlice = Math.min(minutesPerSlice, nMinutes - firstMinuteInSlice);
+                if (nMinutesInSlice <= 0) return 0;
+                FastRaptorWorker sliceWorker = new FastRaptorWorker(transit, request, accessStops);
+                sliceWorker.randomSeed = randomSeed;
+                sliceWorker.prefilterPatterns();
+                return sliceWorker.routeDepartureMinutes(
+                        request.toTime - DEPARTURE_STEP_SEC * (firstMinuteInSlice + 1),
+                        nMinutesInSlice,
+                        travelTimesToStops,
+                        firstMinuteInSlice * iterationsPerMinute
+                );
+            }).sum()).join();
+        } else {
+            currentIteration = routeDepartureMinutes(
+                    request.toTime - DEPARTURE_STEP_SEC,
+                    nMinutes,
+                    travelTimesToStops,
+                    0
+            );
         }
         checkState(currentIteration == nIterations, "Unexpected number of iterations.");
         raptorTimer.fullSearch.stop();
         raptorTimer.log();
         // For debugging:
-        // dumpAllTimesToFile(travelTimesToStopsPerIteration, 45);
-        return travelTimesToStopsPerIteration;
+        // dumpAllTimesToFile(travelTimesToStops, 45);
+        return travelTimesToStops;
+    }
+
+    /**
+     * Perform range-RAPTOR over a contiguous block of departure minutes, iterating backward in time from the latest
+     * one. The travel times to stops for every iteration (departure minute and Monte Carlo draw) are written into the
+     * supplied stop-major array in the same order, starting at the given iteration index. Each call starts from a
+     * fresh state, so different blocks of minutes may be routed concurrently on different FastRaptorWorker instances.
+     * Concurrent calls write to disjoint iterations, so never to the same array element.
+     *
+     * @param latestDepartureTime the departure time of the first (latest) minute in the block, in seconds.
+     * @param nMinutesInBlock the number of departure minutes to route.
+     * @param travelTimesToStops flattened stop-major output array of travel times, see route().
+     * @param firstIteration the iteration at which the results for the first minute will be stored.
+     * @return the number of iterations written to the output array.
+     */
+    private int routeDepartureMinutes (
+            int latestDepartureTime,
+            int nMinutesInBlock,
+            int[] travelTimesToStops,
+            int firstIteration
+    ) {
+        scheduleState = null;
+        stateBuffers = (ENABLE_OPTIMIZATION_REUSE_STATE && reusedStateBuffers != null)
+                ? reusedStateBuffers : new RaptorStateBuffers();
+        try {
+            // This main outer loop iterates backward over all minutes in the block.
+            int currentIteration = firstIteration;
+            for (int m = 0; m < nMinutesInBlock; m++) {
+                int departureTime = latestDepartureTime - m * DEPARTURE_STEP_SEC;
+                int minute = (departureTime - request.fromTime) / DEPARTURE_STEP_SEC + 1;
+                if (minute % 15 == 0) LOG.debug("  minute {}", minute);
+
+                // Run the raptor search for this particular departure time, which records the results of one or more
+                // randomized schedules as consecutive iterations.
+                currentIteration += runRaptorForDepartureMinute(departureTime, travelTimesToStops, currentIteration);
+            }
+            return currentIteration - firstIteration;
+        } finally {
+            // Do not hold on to the states, which may be reused by the caller's next search.
+            scheduleState = null;
+            stateBuffers = null;
+        }
+    }
+
+    /**
+     * Copy the arrival times at every stop for one iteration into the output, transforming them into travel times
+     * (durations). This accumulates the Monte Carlo iterations for all minutes into one big flattened array, with all
+     * iterations for each stop stored contiguously. The arrival times are copied immediately because the array holding
+     * them will be reused by the next iteration.
+     */
+    private void recordIteration (int[] arrivalTimesAtStops, int departureTime, int[] travelTimesToStops, int iteration) {
+        final int nStops = transit.getStopCount();
+        checkState(arrivalTimesAtStops.length == nStops, "Result should contain one value per stop.");
+        for (int s = 0, index = iteration; s < nStops; s++, index += nIterations) {
+            int arrivalTime = arrivalTimesAtStops[s];
+            travelTimesToStops[index] = (arrivalTime == UNREACHED) ? UNREACHED : arrivalTime - departureTime;
+        }
     }
 
     /**
@@ -224,12 +345,12 @@ public class FastRaptorWorker {
      * times greater than that number (including UNREACHED) will be recorded as "OVER", to facilitate simple comparisons
      * on the command line with diff.
      */
-    private void dumpAllTimesToFile(int[][] arrivalTimesAtStopsPerIteration, int maxDurationMinutes) {
+    private void dumpAllTimesToFile(int[] travelTimesToStops, int maxDurationMinutes) {
+        final int nStops = transit.getStopCount();
         try (PrintWriter pw = new PrintWriter(new BufferedOutputStream(new FileOutputStream("dump.csv")))) {
-            for (int i = 0; i < arrivalTimesAtStopsPerIteration.length; i++) {
-                int[] arrivalTimesForIteration = arrivalTimesAtStopsPerIteration[i];
-                for (int s = 0; s < arrivalTimesForIteration.length; s++) {
-                    int time = arrivalTimesForIteration[s];
+            for (int i = 0; i < nIterations; i++) {
+                for (int s = 0; s < nStops; s++) {
+                    int time = travelTimesToStops[s * nIterations + i];
                     String timeStr = "OVER"; // Including UNREACHED
                     if (time < maxDurationMinutes * 60) {
                         timeStr = Integer.toString(time);
@@ -275,11 +396,10 @@ public class FastRaptorWorker {
      * frequency-based routes within a single round, instead of applying them in two phases.)
      */
     private void initializeScheduleState (int departureTime) {
-        this.scheduleState = new RaptorState[request.maxRides + 1];
-        for (int r = 0; r < scheduleState.length; r++) {
-            scheduleState[r] = new RaptorState(transit.getStopCount(), request.maxTripDurationMinutes * SECONDS_PER_MINUTE);
-            scheduleState[r].departureTime = departureTime;
-            scheduleState[r].previous = (r == 0) ? null : scheduleState[r - 1];
+        this.scheduleState = stateBuffers.getScheduleState(
+                transit.getStopCount(), request.maxRides + 1, request.maxTripDurationMinutes * SECONDS_PER_MINUTE);
+        for (RaptorState state : scheduleState) {
+            state.departureTime = departureTime;
         }
         // Add initial stops reached by the access mode (pre-transit)
         RaptorState initialState = scheduleState[0];
@@ -322,10 +442,11 @@ public class FastRaptorWorker {
      * time at each location at time t + n is an upper bound on the arrival time departing at time t.
      *
      * @param departureTime When this search departs.
-     * @return an array of length iterationsPerMinute, containing the arrival times at each stop for each
-     * iteration (clock times as opposed to durations).
+     * @param travelTimesToStops flattened stop-major output array of travel times, see route().
+     * @param firstIteration the iteration at which the results for the first randomized schedule will be stored.
+     * @return the number of iterations recorded, which is iterationsPerMinute.
      */
-    private int[][] runRaptorForDepartureMinute (int departureTime) {
+    private int runRaptorForDepartureMinute (int departureTime, int[] travelTimesToStops, int firstIteration) {
         if (ENABLE_OPTIMIZATION_RANGE_RAPTOR && scheduleState != null) {
             advanceScheduledSearchToPreviousMinute(departureTime);
         } else {
@@ -381,15 +502,17 @@ public class FastRaptorWorker {
         // times, but not the patterns with randomized schedules.
         if (transit.hasFrequencies) {
             raptorTimer.frequencySearch.start();
-            int[][] result = new int[iterationsPerMinute][];
 
             // In Monte Carlo mode, each iteration is a fresh randomization of frequency route offsets.
             // In half-headway mode, only one iteration will happen and schedules will not be randomized.
             for (int iteration = 0; iteration < iterationsPerMinute; iteration++) {
                 // Make a fresh copy of the upper bound travel times for each new randomized schedule (iteration).
                 // Array contains one state per round we're going to perform with this schedule.
-                RaptorState[] frequencyState = copyMultiRoundState(scheduleState);
+                RaptorState[] frequencyState = ENABLE_OPTIMIZATION_REUSE_STATE
+                        ? stateBuffers.getCopyOfScheduleState(iteration == 0)
+                        : copyMultiRoundState(scheduleState);
                 if (boardingMode == MONTE_CARLO) {
+                    offsets.setSeed(randomSeed + firstIteration + iteration);
                     offsets.randomize();
                 }
                 // Proceed through one round per transit ride; round 0 represents walking to transit stops from origin.
@@ -411,13 +534,14 @@ public class FastRaptorWorker {
                 }
                 // No need to make an additional protective copy, this state is already a copy of the scheduled state.
                 RaptorState finalRoundState = frequencyState[request.maxRides];
-                result[iteration] = finalRoundState.bestNonTransferTimes;
+                recordIteration(finalRoundState.bestNonTransferTimes, departureTime, travelTimesToStops,
+                        firstIteration + iteration);
                 if (retainPaths) {
                     pathsPerIteration.add(pathToEachStop(finalRoundState));
                 }
             }
             raptorTimer.frequencySearch.stop();
-            return result;
+            return iterationsPerMinute;
         } else {
             // If there are no frequency trips, return the result of the scheduled search, but repeated as many times
             // as there are requested MC draws, so that the scheduled search accessibility avoids potential bugs
@@ -427,8 +551,7 @@ public class FastRaptorWorker {
             // It may be somewhat less inefficient than it seems if we make arrays of references all to the same object.
             // TODO check whether we're actually hitting this code with iterationsPerMinute > 1 on scheduled networks.
             //      maybe we should even require that iterationsPerMinute == 1 for non-freq searches in an assertion.
-            //      checkState(iterationsPerMinute == 1); int[][] result = new int[1][];
-            int[][] result = new int[iterationsPerMinute][];
+            //      checkState(iterationsPerMinute == 1);
             RaptorState finalRoundState = scheduleState[request.maxRides];
             // DEBUG print out full path (all rounds) to one stop at one departure minute, when no frequency trips.
             // System.out.printf("Departure time %d %s\n", departureTime, new Path(finalRoundState, 3164));
@@ -437,12 +560,13 @@ public class FastRaptorWorker {
             // protective copies of any information we want to retain.
             Path[] paths = retainPaths ? pathToEachStop(finalRoundState) : null;
             for (int iteration = 0; iteration < iterationsPerMinute; iteration++) {
-                result[iteration] = finalRoundState.bestNonTransferTimes;
+                recordIteration(finalRoundState.bestNonTransferTimes, departureTime, travelTimesToStops,
+                        firstIteration + iteration);
                 if (retainPaths) {
                     pathsPerIteration.add(paths);
                 }
             }
-            return result;
+            return iterationsPerMinute;
         }
     }
 
@@ -490,6 +614,12 @@ public class FastRaptorWorker {
              patternIndex = patternsToExplore.nextSetBit(patternIndex + 1)
         ) {
             TripPattern pattern = transit.tripPatterns.get(patternIndex);
+            // If this pattern has been indexed, use its dense timetable instead of scanning every trip.
+            PatternTimetable timetable = (departureIndex == null) ? null : departureIndex.forPattern(patternIndex);
+            if (timetable != null) {
+                doScheduledSearchForPattern(pattern, patternIndex, timetable, inputState, outputState);
+                continue;
+            }
             int onTrip = -1;
             int waitTime = 0;
             int boardTime = 0;
@@ -564,6 +694,48 @@ public class FastRaptorWorker {
         }
     }
 
+    /**
+     * The equivalent of one iteration of the pattern loop in doScheduledSearchForRound, for a pattern with a dense
+     * timetable of the trips running on the search date. The first boardable trip, or an earlier trip to back up to,
+     * is found by binary search. This gives the same results as scanning the trips one by one, because the departure
+     * times at each stop in such a timetable increase from one trip to the next.
+     */
+    private void doScheduledSearchForPattern (
+            TripPattern pattern,
+            int patternIndex,
+            PatternTimetable timetable,
+            RaptorState inputState,
+            RaptorState outputState
+    ) {
+        // The position of the trip we're on within the timetable (not the pattern's list of trips).
+        int onTrip = -1;
+        int waitTime = 0;
+        int boardTime = 0;
+        int boardStop = -1;
+        for (int stopPositionInPattern = 0; stopPositionInPattern < pattern.stops.length; stopPositionInPattern++) {
+            int stop = pattern.stops[stopPositionInPattern];
+            // Alight before boarding, so that we don't check for alighting where we board.
+            if (onTrip > -1 && pattern.dropoffs[stopPositionInPattern] != PickDropType.NONE) {
+                int alightTime = timetable.arrival(onTrip, stopPositionInPattern);
+                int onVehicleTime = alightTime - boardTime;
+                outputState.setTimeAtStop(stop, alightTime, patternIndex, boardStop, waitTime, onVehicleTime, false);
+            }
+            if (inputState.stopWasUpdated(stop, true) &&
+                pattern.pickups[stopPositionInPattern] != PickDropType.NONE
+            ) {
+                int earliestBoardTime = inputState.bestTimes[stop] + MINIMUM_BOARD_WAIT_SEC;
+                int candidateTrip = timetable.firstTripDepartingAfter(stopPositionInPattern, earliestBoardTime);
+                // Board, or back up to an earlier trip if this stop was reached early enough.
+                if (candidateTrip != -1 && (onTrip == -1 || candidateTrip < onTrip)) {
+                    onTrip = candidateTrip;
+                    boardTime = timetable.departure(onTrip, stopPositionInPattern);
+                    waitTime = boardTime - inputState.bestTimes[stop];
+                    boardStop = stop;
+                }
+            }
+        }
+    }
+
     /**
      * The different ways of determining the wait time before boarding a vehicle for frequency-based routes.
      * Would it be more efficient to pass in a function reference, after defining a new departure search interface?
@@ -843,7 +1015,7 @@ public class FastRaptorWorker {
         // Compute transfers only from stops updated pre-transfer within this departure minute / randomized schedule.
         // These transfers then update the post-transfers bitset to avoid concurrent modification while iterating.
         for (int stop = state.nonTransferStopsUpdated.nextSetBit(0);
-                 stop > 0;
+                 stop >= 0;
                  stop = state.nonTransferStopsUpdated.nextSetBit(stop + 1)
         ) {
             TIntList transfersFromStop = transit.transfersForStop.get(stop);
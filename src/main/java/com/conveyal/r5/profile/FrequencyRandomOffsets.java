@@ -14,8 +14,9 @@ import java.util.Arrays;
   * Generates and stores departure time offsets for every frequency-based set of trips.
   * This holds only one set of offsets at a time. It is re-randomized before each Monte Carlo iteration.
   * Therefore we have no memory of exactly which offsets were used in a particular Monte Carlo search.
+  * The generator can be reseeded before a draw (see setSeed) to make that draw reproducible.
   * It may be preferable to work with reproducible low-discrepancy sets instead of simple random samples, in which case
-  * we'd need to make alternate implementations that pre-generate the entire set or use deterministic seeded generators.
+  * we'd need to make alternate implementations that pre-generate the entire set.
   */
 public class FrequencyRandomOffsets {
     /** map from trip pattern index to a list of offsets for trip i and frequency entry j on that pattern */
@@ -47,6 +48,14 @@ public class FrequencyRandomOffsets {
         }
     }
 
+     /**
+      * Reseed the random number generator, so that the offsets chosen by the next call to randomize() depend only on
+      * this seed and not on any previous draws.
+      */
+    public void setSeed (long seed) {
+        mt.setSeed(seed);
+    }
+
      /**
       * Take a new Monte Carlo draw if requested (i.e. if boarding assumption is not half-headway): for each
       * frequency-based route, choose how long after service starts the first vehicle leaves (the route's "phase").
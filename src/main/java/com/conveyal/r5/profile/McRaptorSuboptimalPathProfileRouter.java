@@ -6,6 +6,8 @@ import com.conveyal.r5.api.util.LegMode;
 import com.conveyal.r5.api.util.TransitModes;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.transit.RouteInfo;
+import com.conveyal.r5.transit.ScheduledDepartureIndex;
+import com.conveyal.r5.transit.ScheduledDepartureIndex.PatternTimetable;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.transit.TripFlag;
@@ -69,6 +71,8 @@ public class McRaptorSuboptimalPathProfileRouter {
     private BitSet touchedPatterns;
     private BitSet patternsNearDestination;
     private BitSet servicesActive;
+    /** Departures of the scheduled trips running on the date of the search, or null if trips must be scanned. */
+    private ScheduledDepartureIndex departureIndex;
     // Used in creating the McRaptorStateBag; the type of list supplied determines the domination rules. Receives the departure time as an argument.
     private IntFunction<DominatingList> listSupplier;
     private MersenneTwister mersenneTwister;
@@ -113,6 +117,10 @@ public class McRaptorSuboptimalPathProfileRouter {
         this.touchedPatterns = new BitSet(network.transitLayer.tripPatterns.size());
         this.patternsNearDestination = new BitSet(network.transitLayer.tripPatterns.size());
         this.servicesActive = network.transitLayer.getActiveServicesForDate(req.date);
+        // The index does not account for wheelchair accessibility, so can't be used when that restricts the trips.
+        if (network.transitLayer.hasSchedules && !req.wheelchair) {
+            this.departureIndex = network.transitLayer.getScheduledDepartureIndex(servicesActive);
+        }
         this.offsets = new FrequencyRandomOffsets(network.transitLayer);
         this.saveFinalStates = saveFinalStates;
         if (saveFinalStates) this.finalStatesByDepartureTime = new TIntObjectHashMap<>();
@@ -391,7 +399,17 @@ public class McRaptorSuboptimalPathProfileRouter {
                         int currentTrip = -1; // first increment lands at zero
 
 
-                        if (pattern.hasSchedules) {
+                        PatternTimetable timetable = (departureIndex != null && pattern.hasSchedules)
+                                ? departureIndex.forPattern(patIdx) : null;
+                        if (timetable != null) {
+                            // Find the same trip as the scan below, using the index. See comments on that scan.
+                            int trip = timetable.firstTripDepartingAfter(stopPositionInPattern, state.time + BOARD_SLACK);
+                            if (trip != -1) {
+                                states.add(state);
+                                tripIndicesInPattern.put(state, timetable.tripIndex(trip));
+                                boardStopPositionInPattern.put(state, stopPositionInPattern);
+                            }
+                        } else if (pattern.hasSchedules) {
                             for (TripSchedule tripSchedule : pattern.tripSchedules) {
                                 currentTrip++;
                                 //Skips trips which don't run on wanted date
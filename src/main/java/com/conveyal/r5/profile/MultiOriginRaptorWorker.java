@@ -0,0 +1,447 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.transit.PickDropType;
+import com.conveyal.r5.transit.RouteInfo;
+import com.conveyal.r5.transit.ScheduledDepartureIndex;
+import com.conveyal.r5.transit.ScheduledDepartureIndex.PatternTimetable;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TripPattern;
+import com.conveyal.r5.transit.TripSchedule;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.map.TIntIntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.DEPARTURE_STEP_SEC;
+import static com.conveyal.r5.profile.FastRaptorWorker.ENABLE_OPTIMIZATION_CLEAR_LONG_PATHS;
+import static com.conveyal.r5.profile.FastRaptorWorker.ENABLE_OPTIMIZATION_DEPARTURE_INDEX;
+import static com.conveyal.r5.profile.FastRaptorWorker.ENABLE_OPTIMIZATION_RANGE_RAPTOR;
+import static com.conveyal.r5.profile.FastRaptorWorker.MINIMUM_BOARD_WAIT_SEC;
+import static com.conveyal.r5.profile.FastRaptorWorker.SECONDS_PER_MINUTE;
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Performs the same range-RAPTOR search as FastRaptorWorker, but from several origins at once. In a regional analysis
+ * every origin is routed with the same parameters over the same departure window, and nearby origins tend to reach
+ * the same transit stops and ride the same patterns. Routing a small batch of origins together means each pattern is
+ * scanned once per round for the whole batch, and the boarding trip found for one origin is reused by any other
+ * origin reaching the same stop at the same time.
+ *
+ * The state for each round holds the arrival times of all origins side by side: the time at stop s for origin o is at
+ * index (s * nOrigins + o). All the origins that can board at a given stop are therefore found in one small block of
+ * memory, as are their arrival times when alighting.
+ *
+ * Only the travel times are tracked, not the paths or the breakdown of travel time into waiting and riding. Only
+ * scheduled service is supported: frequency-based routes require randomized schedules at each departure minute, and
+ * networks containing them must be routed one origin at a time with FastRaptorWorker. For a given origin, the travel
+ * times returned are identical to those from FastRaptorWorker.
+ */
+public class MultiOriginRaptorWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiOriginRaptorWorker.class);
+
+    /** The number of origins routed together. */
+    public final int nOrigins;
+
+    /** The width of the departure time window in minutes. */
+    public final int nMinutes;
+
+    /** The number of iterations for which travel times are returned, with the same meaning as in FastRaptorWorker. */
+    public final int nIterations;
+
+    private final int iterationsPerMinute;
+
+    private final TransitLayer transit;
+
+    private final ProfileRequest request;
+
+    /** Times to access transit stops from each origin using the street network (seconds). */
+    private final List<TIntIntMap> accessStops;
+
+    private final int nStops;
+
+    private final BitSet servicesActive;
+
+    private final ScheduledDepartureIndex departureIndex;
+
+    /** The indexes of the trip patterns running on the search date with scheduled trips of selected modes. */
+    private final BitSet runningScheduledPatterns = new BitSet();
+
+    /** One state per round, reused from one departure minute to the next (the range-raptor optimization). */
+    private State[] states;
+
+    /** For each origin, the trip it is riding on the pattern being scanned, or -1. */
+    private final int[] onTrip;
+
+    /**
+     * @return whether a search on this transit layer can be performed by this class. This only depends on the
+     *         network, but callers must also check that they do not require paths or travel time breakdowns.
+     */
+    public static boolean supports (TransitLayer transit) {
+        return !transit.hasFrequencies;
+    }
+
+    /**
+     * The maximum size in bytes of the travel times returned by one search, which hold a travel time for every stop at
+     * every iteration for each origin. On a large network with many Monte Carlo draws a single origin can need hundreds
+     * of megabytes, and every compute thread performs its own search, so the number of origins routed together must be
+     * limited to keep them within this budget.
+     */
+    public static final long MAX_TRAVEL_TIME_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * @return the largest number of origins whose travel times fit within MAX_TRAVEL_TIME_BYTES for a search with the
+     *         given parameters. When this is less than two, origins should be routed one at a time by FastRaptorWorker.
+     */
+    public static int maxOrigins (TransitLayer transit, ProfileRequest request) {
+        long bytesPerOrigin = (long) transit.getStopCount() * iterationsPerMinute(request) *
+                request.getTimeWindowLengthMinutes() * Integer.BYTES;
+        return (int) Math.min(MAX_TRAVEL_TIME_BYTES / Math.max(bytesPerOrigin, 1), Integer.MAX_VALUE);
+    }
+
+    /** Without frequency routes, the scheduled result is repeated once per requested Monte Carlo draw. */
+    private static int iterationsPerMinute (ProfileRequest request) {
+        return (request.monteCarloDraws == 0) ? 1 : request.getMonteCarloDrawsPerMinute();
+    }
+
+    public MultiOriginRaptorWorker (TransitLayer transit, ProfileRequest request, List<TIntIntMap> accessStops) {
+        checkArgument(supports(transit), "Networks with frequency-based routes must be routed one origin at a time.");
+        checkArgument(accessStops.size() <= maxOrigins(transit, request), "Too many origins to route at once.");
+        this.transit = transit;
+        this.request = request;
+        this.accessStops = accessStops;
+        this.nOrigins = accessStops.size();
+        this.nStops = transit.getStopCount();
+        this.servicesActive = transit.getActiveServicesForDate(request.date);
+        this.departureIndex = (ENABLE_OPTIMIZATION_DEPARTURE_INDEX && transit.hasSchedules)
+                ? transit.getScheduledDepartureIndex(servicesActive) : null;
+        this.onTrip = new int[nOrigins];
+        nMinutes = request.getTimeWindowLengthMinutes();
+        iterationsPerMinute = iterationsPerMinute(request);
+        nIterations = iterationsPerMinute * nMinutes;
+    }
+
+    /**
+     * @return for each origin, the travel time to each transit stop at each iteration in seconds, as a flattened
+     *         stop-major array in the same layout as the one returned by FastRaptorWorker.route().
+     */
+    public int[][] route () {
+        LOG.info("Performing {} scheduled iterations from {} origins at once.", nMinutes, nOrigins);
+        prefilterPatterns();
+        final long nTravelTimes = (long) nStops * nIterations;
+        checkState(nTravelTimes <= Integer.MAX_VALUE, "Too many stops and iterations to store travel times in one array.");
+        checkState(nTravelTimes * nOrigins <= Integer.MAX_VALUE, "Too many origins to route at once.");
+        int[][] travelTimesToStops = new int[nOrigins][(int) nTravelTimes];
+        states = new State[request.maxRides + 1];
+        for (int round = 0; round <= request.maxRides; round++) {
+            states[round] = new State(round == 0 ? null : states[round - 1]);
+        }
+        int iteration = 0;
+        for (int m = 0; m < nMinutes; m++) {
+            int departureTime = request.toTime - DEPARTURE_STEP_SEC * (m + 1);
+            if (ENABLE_OPTIMIZATION_RANGE_RAPTOR && m > 0) {
+                advanceToPreviousMinute(departureTime);
+            } else {
+                initialize(departureTime);
+            }
+            if (transit.hasSchedules) {
+                for (int round = 1; round <= request.maxRides; round++) {
+                    states[round].minMergePrevious();
+                    doScheduledSearchForRound(states[round]);
+                    doTransfers(states[round]);
+                }
+            }
+            State finalRoundState = states[request.maxRides];
+            for (int i = 0; i < iterationsPerMinute; i++) {
+                recordIteration(finalRoundState, travelTimesToStops, iteration++);
+            }
+        }
+        checkState(iteration == nIterations, "Unexpected number of iterations.");
+        states = null;
+        return travelTimesToStops;
+    }
+
+    /** See FastRaptorWorker.prefilterPatterns(), frequency-based patterns are never present here. */
+    private void prefilterPatterns () {
+        for (int patternIndex = 0; patternIndex < transit.tripPatterns.size(); patternIndex++) {
+            TripPattern pattern = transit.tripPatterns.get(patternIndex);
+            RouteInfo routeInfo = transit.routes.get(pattern.routeIndex);
+            TransitModes mode = TransitLayer.getTransitModes(routeInfo.route_type);
+            if (pattern.hasSchedules && pattern.servicesActive.intersects(servicesActive) &&
+                    request.transitModes.contains(mode)) {
+                runningScheduledPatterns.set(patternIndex);
+            }
+        }
+    }
+
+    /** Reset all rounds for a fresh search at the given departure time, and add the access times to round zero. */
+    private void initialize (int departureTime) {
+        int maxDurationSeconds = request.maxTripDurationMinutes * SECONDS_PER_MINUTE;
+        for (State state : states) {
+            state.reset(departureTime, maxDurationSeconds);
+        }
+        for (int origin = 0; origin < nOrigins; origin++) {
+            final int o = origin;
+            accessStops.get(origin).forEachEntry((stop, accessTime) -> {
+                states[0].setTimeAtStop(stop, o, accessTime + departureTime, true);
+                return true;
+            });
+        }
+    }
+
+    /** Step all rounds back by one minute, reusing their times as upper bounds, see FastRaptorWorker. */
+    private void advanceToPreviousMinute (int departureTime) {
+        for (State state : states) {
+            state.setDepartureTime(departureTime);
+        }
+        for (int origin = 0; origin < nOrigins; origin++) {
+            final int o = origin;
+            accessStops.get(origin).forEachEntry((stop, accessTime) -> {
+                boolean updated = states[0].setTimeAtStop(stop, o, accessTime + departureTime, true);
+                checkState(updated, "Stepping departure time back one minute should always update access stops.");
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Scan every pattern serving a stop updated by any origin in the previous round. Each origin boards and rides
+     * independently, exactly as in FastRaptorWorker.doScheduledSearchForRound(), but the loop over stops in the pattern
+     * and the search for a boardable trip are shared.
+     */
+    private void doScheduledSearchForRound (State outputState) {
+        final State inputState = outputState.previous;
+        BitSet patternsToExplore = patternsToExploreInNextRound(inputState);
+        for (int patternIndex = patternsToExplore.nextSetBit(0);
+             patternIndex >= 0;
+             patternIndex = patternsToExplore.nextSetBit(patternIndex + 1)
+        ) {
+            TripPattern pattern = transit.tripPatterns.get(patternIndex);
+            // Trips are identified by their position in the dense timetable when there is one, otherwise by their
+            // index in the pattern's list of trips.
+            PatternTimetable timetable = (departureIndex == null) ? null : departureIndex.forPattern(patternIndex);
+            Arrays.fill(onTrip, -1);
+            boolean anyOnTrip = false;
+            for (int stopPositionInPattern = 0; stopPositionInPattern < pattern.stops.length; stopPositionInPattern++) {
+                final int stop = pattern.stops[stopPositionInPattern];
+                final int firstIndex = stop * nOrigins;
+                // Alight before boarding, so that we don't check for alighting where we board.
+                if (anyOnTrip && pattern.dropoffs[stopPositionInPattern] != PickDropType.NONE) {
+                    for (int o = 0; o < nOrigins; o++) {
+                        if (onTrip[o] == -1) continue;
+                        int alightTime = (timetable == null)
+                                ? pattern.tripSchedules.get(onTrip[o]).arrivals[stopPositionInPattern]
+                                : timetable.arrival(onTrip[o], stopPositionInPattern);
+                        outputState.setTimeAtStop(stop, o, alightTime, false);
+                    }
+                }
+                if (pattern.pickups[stopPositionInPattern] == PickDropType.NONE) continue;
+                // Origins reaching this stop at the same time will board the same trip, so only search once.
+                int lastEarliestBoardTime = -1;
+                int lastCandidateTrip = -1;
+                for (int i = inputState.stopsUpdated.nextSetBit(firstIndex);
+                     i >= 0 && i < firstIndex + nOrigins;
+                     i = inputState.stopsUpdated.nextSetBit(i + 1)
+                ) {
+                    final int o = i - firstIndex;
+                    int earliestBoardTime = inputState.bestTimes[i] + MINIMUM_BOARD_WAIT_SEC;
+                    if (timetable == null) {
+                        onTrip[o] = scanForTrip(pattern, stopPositionInPattern, earliestBoardTime, onTrip[o]);
+                    } else {
+                        if (earliestBoardTime != lastEarliestBoardTime) {
+                            lastCandidateTrip = timetable.firstTripDepartingAfter(stopPositionInPattern, earliestBoardTime);
+                            lastEarliestBoardTime = earliestBoardTime;
+                        }
+                        // Board, or back up to an earlier trip if this stop was reached early enough.
+                        if (lastCandidateTrip != -1 && (onTrip[o] == -1 || lastCandidateTrip < onTrip[o])) {
+                            onTrip[o] = lastCandidateTrip;
+                        }
+                    }
+                    anyOnTrip |= onTrip[o] != -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the trip to ride on a pattern that has no dense timetable, by scanning its trips one by one as in
+     * FastRaptorWorker.doScheduledSearchForRound().
+     * @return the index of the trip to ride after this stop, which may be the one already being ridden, or -1.
+     */
+    private int scanForTrip (TripPattern pattern, int stopPositionInPattern, int earliestBoardTime, int currentTrip) {
+        if (currentTrip == -1) {
+            for (int t = 0; t < pattern.tripSchedules.size(); t++) {
+                TripSchedule schedule = pattern.tripSchedules.get(t);
+                if (!servicesActive.get(schedule.serviceCode) || schedule.headwaySeconds != null) continue;
+                if (earliestBoardTime < schedule.departures[stopPositionInPattern]) return t;
+            }
+            return -1;
+        }
+        // Back up to an earlier trip if this stop was reached early enough.
+        int bestTrip = currentTrip;
+        for (int t = currentTrip - 1; t >= 0; t--) {
+            TripSchedule schedule = pattern.tripSchedules.get(t);
+            if (schedule.headwaySeconds != null || !servicesActive.get(schedule.serviceCode)) continue;
+            if (schedule.departures[stopPositionInPattern] > earliestBoardTime) {
+                bestTrip = t;
+            } else {
+                break;
+            }
+        }
+        return bestTrip;
+    }
+
+    /** Apply transfers from every stop reached by transit in this round, see FastRaptorWorker.doTransfers(). */
+    private void doTransfers (State state) {
+        final int walkSpeedMillimetersPerSecond = (int) (request.walkSpeed * 1000);
+        final int maxWalkMillimeters = walkSpeedMillimetersPerSecond * (request.maxWalkTime * SECONDS_PER_MINUTE);
+        final BitSet updated = state.nonTransferStopsUpdated;
+        for (int i = updated.nextSetBit(0); i >= 0; ) {
+            final int stop = i / nOrigins;
+            final int firstIndex = stop * nOrigins;
+            final int endIndex = firstIndex + nOrigins;
+            TIntList transfersFromStop = transit.transfersForStop.get(stop);
+            if (transfersFromStop != null) {
+                for (int t = 0; t < transfersFromStop.size(); t += 2) {
+                    int targetStop = transfersFromStop.get(t);
+                    int distanceToTargetStopMillimeters = transfersFromStop.get(t + 1);
+                    if (distanceToTargetStopMillimeters < maxWalkMillimeters) {
+                        int walkTimeToTargetStopSeconds = distanceToTargetStopMillimeters / walkSpeedMillimetersPerSecond;
+                        for (int j = i; j >= 0 && j < endIndex; j = updated.nextSetBit(j + 1)) {
+                            int timeAtTargetStop = state.bestNonTransferTimes[j] + walkTimeToTargetStopSeconds;
+                            state.setTimeAtStop(targetStop, j - firstIndex, timeAtTargetStop, true);
+                        }
+                    }
+                }
+            }
+            i = updated.nextSetBit(endIndex);
+        }
+    }
+
+    /** @return the running patterns passing through any stop updated for any origin in the given round. */
+    private BitSet patternsToExploreInNextRound (State state) {
+        BitSet patternsToExplore = new BitSet();
+        for (int i = state.stopsUpdated.nextSetBit(0); i >= 0; ) {
+            final int stop = i / nOrigins;
+            TIntIterator patternsAtStop = transit.patternsForStop.get(stop).iterator();
+            while (patternsAtStop.hasNext()) {
+                int pattern = patternsAtStop.next();
+                if (runningScheduledPatterns.get(pattern)) {
+                    patternsToExplore.set(pattern);
+                }
+            }
+            i = state.stopsUpdated.nextSetBit((stop + 1) * nOrigins);
+        }
+        return patternsToExplore;
+    }
+
+    /** Copy the travel times to every stop from every origin into the per-origin output arrays. */
+    private void recordIteration (State state, int[][] travelTimesToStops, int iteration) {
+        for (int s = 0, i = 0; s < nStops; s++) {
+            int index = s * nIterations + iteration;
+            for (int o = 0; o < nOrigins; o++, i++) {
+                int arrivalTime = state.bestNonTransferTimes[i];
+                travelTimesToStops[o][index] = (arrivalTime == UNREACHED) ? UNREACHED : arrivalTime - state.departureTime;
+            }
+        }
+    }
+
+    /**
+     * The arrival times from all origins for a single round, the equivalent of one RaptorState per origin but without
+     * any path information.
+     */
+    private class State {
+
+        final State previous;
+
+        int departureTime;
+
+        int maxDurationSeconds;
+
+        /** Best clock time at which each origin reaches each stop, by transit or by a transfer. */
+        final int[] bestTimes = new int[nStops * nOrigins];
+
+        /** Best clock time at which each origin reaches each stop directly by transit. */
+        final int[] bestNonTransferTimes = new int[nStops * nOrigins];
+
+        /** The (stop, origin) indexes whose bestTimes were improved in this round at this departure minute. */
+        final BitSet stopsUpdated = new BitSet();
+
+        /** The (stop, origin) indexes whose bestNonTransferTimes were improved in this round at this departure minute. */
+        final BitSet nonTransferStopsUpdated = new BitSet();
+
+        State (State previous) {
+            this.previous = previous;
+        }
+
+        void reset (int departureTime, int maxDurationSeconds) {
+            this.departureTime = departureTime;
+            this.maxDurationSeconds = maxDurationSeconds;
+            Arrays.fill(bestTimes, UNREACHED);
+            Arrays.fill(bestNonTransferTimes, UNREACHED);
+            stopsUpdated.clear();
+            nonTransferStopsUpdated.clear();
+        }
+
+        /** See RaptorState.minMergePrevious(). */
+        void minMergePrevious () {
+            for (int i = 0; i < bestTimes.length; i++) {
+                if (previous.bestTimes[i] < bestTimes[i]) {
+                    bestTimes[i] = previous.bestTimes[i];
+                }
+                if (previous.bestNonTransferTimes[i] < bestNonTransferTimes[i]) {
+                    bestNonTransferTimes[i] = previous.bestNonTransferTimes[i];
+                }
+            }
+        }
+
+        /** See RaptorState.setTimeAtStop(). */
+        boolean setTimeAtStop (int stop, int origin, int time, boolean transfer) {
+            if (time >= departureTime + maxDurationSeconds) {
+                return false;
+            }
+            final int i = stop * nOrigins + origin;
+            boolean optimal = false;
+            if (!transfer && time < bestNonTransferTimes[i]) {
+                bestNonTransferTimes[i] = time;
+                nonTransferStopsUpdated.set(i);
+                optimal = true;
+            }
+            if (time < bestTimes[i]) {
+                bestTimes[i] = time;
+                stopsUpdated.set(i);
+                optimal = true;
+            }
+            return optimal;
+        }
+
+        /** See RaptorState.setDepartureTime(). */
+        void setDepartureTime (int departureTime) {
+            checkState(this.departureTime - departureTime == DEPARTURE_STEP_SEC,
+                    "Departure times may only be decremented by one minute.");
+            this.departureTime = departureTime;
+            stopsUpdated.clear();
+            nonTransferStopsUpdated.clear();
+            if (ENABLE_OPTIMIZATION_CLEAR_LONG_PATHS) {
+                int maxClockTime = departureTime + maxDurationSeconds;
+                for (int i = 0; i < bestTimes.length; i++) {
+                    if (bestTimes[i] >= maxClockTime) {
+                        bestTimes[i] = UNREACHED;
+                    }
+                    if (bestNonTransferTimes[i] >= maxClockTime) {
+                        bestNonTransferTimes[i] = UNREACHED;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -1,9 +1,11 @@
 package com.conveyal.r5.profile;
 
 import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.IterationTravelTimes;
 import com.conveyal.r5.analyst.PathScorer;
 import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.TravelTimeReducer;
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
 import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
 import com.conveyal.r5.analyst.cluster.PathWriter;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
@@ -11,7 +13,6 @@ import com.conveyal.r5.streets.EgressCostTable;
 import com.conveyal.r5.streets.LinkedPointSet;
 import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.StreetRouter;
-import gnu.trove.map.TIntIntMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +21,10 @@ import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
 
 /**
  * Given minimum travel times from a single origin point to all transit stops, this class finds minimum travel times to
@@ -33,7 +38,9 @@ import java.util.Set;
  * huge. To handle one target at a time rather than one stop at a time, we need to invert the table of distances from
  * stops to their nearby targets: we instead use a table of distances to targets from their nearby stops.
  *
- * Note: this class is not threadsafe. It must process one target at a time sequentially in a single thread.
+ * Note: this class is not threadsafe. Unless the parallelTiles option is enabled, it processes one target at a time
+ * sequentially in a single thread. With that option, disjoint tiles of targets are processed concurrently, each
+ * sequentially in its own thread with its own scratch buffers.
  */
 public class PerTargetPropagater {
 
@@ -69,8 +76,11 @@ public class PerTargetPropagater {
     /** Times at targets using the street network */
     private final int[] nonTransitTravelTimesToTargets;
 
-    /** Times at transit stops for each iteration. Plus a transposed version of that same matrix as an optimization. */
-    private int[][] travelTimesToStopsForIteration, travelTimesToStop;
+    /**
+     * Times at transit stops for each iteration, in a single flattened stop-major array: the travel time to stop s at
+     * iteration i is at index (s * nIterations + i). See FastRaptorWorker.route() for details.
+     */
+    private final int[] travelTimesToStops;
 
     /**
      * The number of "iterations" (departure minutes & Monte Carlo schedules) and the number of stops and destination
@@ -93,20 +103,27 @@ public class PerTargetPropagater {
      */
     private final boolean oneToOne;
 
-    // STATE FIELDS WHICH ARE RESET WHEN PROCESSING EACH DESTINATION.
-    // These track the characteristics of the best paths known to the target currently being processed.
+    /**
+     * Whether to split the targets into tiles and propagate to several tiles concurrently. This is useful for
+     * single-point requests, where the whole machine is available to one origin. Regional tasks are already
+     * parallelized across origins. Tiling is not applied when recording paths or in one-to-one tasks.
+     */
+    public boolean parallelTiles = false;
 
     /**
-     * Retains the best known total travel time to the current destination for each iteration of the RAPTOR algorithm.
-     * TODO instead of a long-lived field this could be returned from the propagate function.
+     * If this is non-null, the sorted travel times at every iteration to each target will be retained in it, so they
+     * can be reduced again later with different parameters. This is not supported in one-to-one tasks.
      */
-    private int[] perIterationTravelTimes;
+    public IterationTravelTimes iterationTravelTimes = null;
 
     /**
-     * The transit path that yielded the best known travel time to the current destination for each iteration of the
-     * raptor algorithm. Parallel to perIterationTravelTimes. Reset for each destination that is processed.
+     * Use the branch-free, vectorizable form of the propagation inner loop (see propagateStopBranchFree) when paths
+     * are not being recorded. Like the ENABLE_OPTIMIZATION_X flags in FastRaptorWorker, this affects only speed.
      */
-    private Path[] perIterationPaths;
+    public static final boolean ENABLE_BRANCH_FREE_PROPAGATION = true;
+
+    /** When propagating to tiles in parallel, the width and height of each tile of gridded targets, in cells. */
+    private static final int TILE_SIZE_CELLS = 64;
 
     private final PropagationTimer timer = new PropagationTimer();
 
@@ -118,13 +135,14 @@ public class PerTargetPropagater {
             StreetLayer streetLayer,
             EnumSet<StreetMode> modes,
             AnalysisWorkerTask task,
-            int[][] travelTimesToStopsForIteration,
+            int[] travelTimesToStops,
+            int nIterations,
             int[] nonTransitTravelTimesToTargets
     ) {
         this.targets = targets;
         this.modes = modes;
         this.request = task;
-        this.travelTimesToStopsForIteration = travelTimesToStopsForIteration;
+        this.travelTimesToStops = travelTimesToStops;
         this.nonTransitTravelTimesToTargets = nonTransitTravelTimesToTargets;
 
         // If we're making a static site we'll break travel times down into components and make paths.
@@ -133,14 +151,16 @@ public class PerTargetPropagater {
 
         maxTravelTimeSeconds = task.maxTripDurationMinutes * SECONDS_PER_MINUTE;
         oneToOne = request instanceof RegionalTask && ((RegionalTask) request).oneToOne;
-        nIterations = travelTimesToStopsForIteration.length;
-        nStops = travelTimesToStopsForIteration[0].length;
+        this.nIterations = nIterations;
+        if (nIterations <= 0 || travelTimesToStops.length % nIterations != 0) {
+            throw new IllegalArgumentException("Travel times to stops must contain the same number of iterations for every stop.");
+        }
+        nStops = travelTimesToStops.length / nIterations;
         nTargets = targets.featureCount();
         linkedTargets = new ArrayList<>(modes.size());
 
         timer.fullPropagation.start();
-        timer.transposition.start();
-        invertTravelTimes();
+        timer.linkage.start();
         if (nonTransitTravelTimesToTargets.length != nTargets) {
             throw new IllegalArgumentException("Non-transit travel times must have the same number of entries as there are points.");
         }
@@ -152,7 +172,7 @@ public class PerTargetPropagater {
             linkedTargetsForMode.getEgressCostTable().destructivelyTransposeForPropagationAsNeeded();
             linkedTargets.add(linkedTargetsForMode);
         }
-        timer.transposition.stop();
+        timer.linkage.stop();
         // Prevent top-level timer from counting any intervening actions until caller calls propagate()
         timer.fullPropagation.stop();
     }
@@ -165,64 +185,28 @@ public class PerTargetPropagater {
 
         timer.fullPropagation.start();
 
-        // perIterationTravelTimes and perIterationDetails are reused when processing each target.
-        perIterationTravelTimes = new int[nIterations];
-
-        // Retain additional information about how the target was reached to report travel time breakdown and paths to targets.
-        perIterationPaths = calculateComponents ? new Path[nIterations] : null;
+        if (parallelTiles && !calculateComponents && !oneToOne) {
+            propagateTilesInParallel();
+        } else {
+            // perIterationTravelTimes and perIterationPaths are reused when processing each target.
+            int[] perIterationTravelTimes = new int[nIterations];
 
-        // In most tasks, we want to propagate travel times for each origin out to all the destinations.
-        int startTarget = 0;
-        int endTarget = nTargets;
+            // Retain additional information about how the target was reached to report travel time breakdown and paths to targets.
+            Path[] perIterationPaths = calculateComponents ? new Path[nIterations] : null;
 
-        // However, in one-to-one tasks, each origin in a freeform pointset corresponds to a single destination at
-        // the same position in the destinations pointset. So our target range is restricted to only one target.
-        if (oneToOne) {
-            startTarget = ((RegionalTask) request).taskId;
-            endTarget = startTarget + 1;
-        }
-
-        for (int targetIdx = startTarget; targetIdx < endTarget; targetIdx++) {
-
-            // Initialize the travel times to that achieved without transit (if any).
-            // These travel times do not vary with departure time or MC draw, so they are all the same at a given target.
-            Arrays.fill(perIterationTravelTimes, nonTransitTravelTimesToTargets[targetIdx]);
-
-            // Clear out the Path array if we're building one. These are transit solution details, so they remain
-            // null until we find a good transit solution.
-            if (perIterationPaths != null) {
-                Arrays.fill(perIterationPaths, null);
-            }
+            // In most tasks, we want to propagate travel times for each origin out to all the destinations.
+            int startTarget = 0;
+            int endTarget = nTargets;
 
-            // Improve upon these non-transit travel times based on transit travel times to nearby stops.
-            // This fills in perIterationTravelTimes and perIterationPaths for one particular target.
-            timer.propagation.start();
-            propagateTransit(targetIdx);
-            timer.propagation.stop();
-
-            // Construct the PathScorer before extracting percentiles because the scorer needs to make a copy of
-            // the unsorted complete travel times.
-            PathScorer pathScorer = null;
-            if (calculateComponents) {
-                // TODO optimization: skip this entirely if there is no transit access to the destination.
-                // We know transit access is impossible in the caller when there are no reached stops.
-                pathScorer = new PathScorer(perIterationPaths, perIterationTravelTimes);
+            // However, in one-to-one tasks, each origin in a freeform pointset corresponds to a single destination at
+            // the same position in the destinations pointset. So our target range is restricted to only one target.
+            if (oneToOne) {
+                startTarget = ((RegionalTask) request).taskId;
+                endTarget = startTarget + 1;
             }
 
-            // Extract the requested percentiles and save them (and/or the resulting accessibility indicator values)
-            int targetToWrite = oneToOne ? 0 : targetIdx;
-            timer.reducer.start();
-            travelTimeReducer.extractTravelTimePercentilesAndRecord(targetToWrite, perIterationTravelTimes);
-            timer.reducer.stop();
-
-            if (calculateComponents) {
-                // TODO Somehow report these in-vehicle, wait and walk breakdown values alongside the total travel time.
-                // TODO WalkTime should be calculated per-iteration, as it may not hold for some summary statistics
-                //      that stat(total) = stat(in-vehicle) + stat(wait) + stat(walk).
-                // The perIterationTravelTimes are sorted as a side effect of the above travelTimeReducer call.
-                // NOTE this is currently using only the first (lowest) travel time.
-                Set<Path> selectedPaths = pathScorer.getTopPaths(pathWriter.nPathsPerTarget, perIterationTravelTimes[0]);
-                pathWriter.recordPathsForTarget(selectedPaths);
+            for (int targetIdx = startTarget; targetIdx < endTarget; targetIdx++) {
+                propagateToTarget(targetIdx, perIterationTravelTimes, perIterationPaths, travelTimeReducer, true);
             }
         }
         timer.fullPropagation.stop();
@@ -235,31 +219,134 @@ public class PerTargetPropagater {
     }
 
     /**
-     * Transpose the travel times to stops array in order to provide better memory locality in the tight loop below.
-     * We have confirmed that this provides a significant speedup.
-     * TODO quantify that speedup and record here in comment.
-     *      This takes something like 800msec for a large 6000-iteration search
-     * This speedup is expected because Java represents multidimensional arrays as an array of references to arrays.
-     * This means that each row is stored in a separate chunk of address space, and may not be contiguous with
-     * other rows. The CPU and cache probably can't efficiently predict and prefetch the values we need next.
-     * When we transpose the array, we then have all travel times to a particular stop for all iterations
-     * in a single contiguous array. This means we pull in all the travel times for a particular stop into cache, at
-     * once, rather than unneeded times for the same iteration at other stops. Since we are also looping over the
-     * targets with geographic locality (adjacent cells in the destination grid are geographically adjacent),
-     * it is likely that the stops pulled into cache by handling one target will be reused when handling the next target.
-     * This should not increase memory consumption very much as we're only duplicating the travel times to transit
-     * stops. For example, the Netherlands has about 70,000 stops, if you do 1,000 iterations to 70,000 stops, the
-     * array being transposed and duplicated is 70,000 * 1000 * 4 bytes per int ~= 267 megabytes. It does not seem
-     * worthwhile to change the routing algorithm to output already-transposed data, as that will create memory
-     * locality problems elsewhere (since the pathfinding algorithm solves one iteration for all stops simultaneously).
+     * Split the targets into spatially coherent tiles and propagate to each tile on a separate task in the common
+     * fork-join pool. For gridded targets the tiles are square blocks of grid cells, otherwise they are runs of
+     * consecutive points. Neighboring targets tend to be reached through the same stops, so keeping them in the same
+     * tile preserves the cache locality of the sequential loop. Each tile has its own scratch buffer and its own
+     * reducer (see TravelTimeReducer.createTileReducer()), so tiles share no mutable state except the
+     * travel time results, where each tile writes only to its own targets. The tile reducers are merged in tile order
+     * once all tiles are finished, so accessibility sums do not depend on thread scheduling.
+     */
+    private void propagateTilesInParallel () {
+        final int width, height, tileWidth, tileHeight;
+        if (targets instanceof WebMercatorGridPointSet) {
+            WebMercatorGridPointSet grid = (WebMercatorGridPointSet) targets;
+            width = grid.width;
+            height = grid.height;
+            tileWidth = TILE_SIZE_CELLS;
+            tileHeight = TILE_SIZE_CELLS;
+        } else {
+            width = nTargets;
+            height = 1;
+            tileWidth = TILE_SIZE_CELLS * TILE_SIZE_CELLS;
+            tileHeight = 1;
+        }
+        if ((long) width * height != nTargets) {
+            throw new IllegalStateException("Grid dimensions do not match the number of targets.");
+        }
+        final int nTilesX = (width + tileWidth - 1) / tileWidth;
+        final int nTilesY = (height + tileHeight - 1) / tileHeight;
+        LOG.info("Propagating to {} targets in {} tiles in parallel.", nTargets, nTilesX * nTilesY);
+        timer.propagation.start();
+        List<TravelTimeReducer> tileReducers = IntStream.range(0, nTilesX * nTilesY).parallel().mapToObj(tile -> {
+            int[] perIterationTravelTimes = new int[nIterations];
+            TravelTimeReducer tileReducer = travelTimeReducer.createTileReducer();
+            int minX = (tile % nTilesX) * tileWidth;
+            int minY = (tile / nTilesX) * tileHeight;
+            int maxX = Math.min(minX + tileWidth, width);
+            int maxY = Math.min(minY + tileHeight, height);
+            for (int y = minY; y < maxY; y++) {
+                for (int x = minX; x < maxX; x++) {
+                    propagateToTarget(y * width + x, perIterationTravelTimes, null, tileReducer, false);
+                }
+            }
+            return tileReducer;
+        }).collect(Collectors.toList());
+        travelTimeReducer.mergeTileReducers(tileReducers);
+        timer.propagation.stop();
+    }
+
+    /**
+     * Find the travel times to a single target for every iteration, and pass them to the given reducer.
+     *
+     * @param perIterationTravelTimes scratch buffer with one element per iteration, overwritten for each target.
+     * @param perIterationPaths scratch buffer parallel to perIterationTravelTimes for the transit path that yielded
+     *                          the best known time at each iteration, or null if we are not recording paths.
+     * @param timeSteps whether to accumulate execution time for the individual steps. The timers are not threadsafe,
+     *                  so this must be false when several targets are being handled concurrently.
      */
-    private void invertTravelTimes() {
-        travelTimesToStop = new int[nStops][nIterations];
+    private void propagateToTarget (
+            int targetIdx,
+            int[] perIterationTravelTimes,
+            Path[] perIterationPaths,
+            TravelTimeReducer reducer,
+            boolean timeSteps
+    ) {
+        // Initialize the travel times to that achieved without transit (if any).
+        // These travel times do not vary with departure time or MC draw, so they are all the same at a given target.
+        Arrays.fill(perIterationTravelTimes, nonTransitTravelTimesToTargets[targetIdx]);
+
+        // Clear out the Path array if we're building one. These are transit solution details, so they remain
+        // null until we find a good transit solution.
+        if (perIterationPaths != null) {
+            Arrays.fill(perIterationPaths, null);
+        }
+
+        // Improve upon these non-transit travel times based on transit travel times to nearby stops.
+        // This fills in perIterationTravelTimes and perIterationPaths for one particular target.
+        if (timeSteps) timer.propagation.start();
+        propagateTransit(targetIdx, perIterationTravelTimes, perIterationPaths);
+        if (timeSteps) timer.propagation.stop();
+
+        // Construct the PathScorer before extracting percentiles because the scorer needs to make a copy of
+        // the unsorted complete travel times.
+        PathScorer pathScorer = null;
+        if (calculateComponents) {
+            // TODO optimization: skip this entirely if there is no transit access to the destination.
+            // We know transit access is impossible in the caller when there are no reached stops.
+            pathScorer = new PathScorer(perIterationPaths, perIterationTravelTimes);
+        }
+
+        // Extract the requested percentiles and save them (and/or the resulting accessibility indicator values)
+        int targetToWrite = oneToOne ? 0 : targetIdx;
+        if (timeSteps) timer.reducer.start();
+        reducer.extractTravelTimePercentilesAndRecord(targetToWrite, perIterationTravelTimes);
+        if (timeSteps) timer.reducer.stop();
+        if (iterationTravelTimes != null) {
+            // The perIterationTravelTimes are sorted as a side effect of the above travelTimeReducer call.
+            iterationTravelTimes.recordSortedTimes(targetIdx, perIterationTravelTimes);
+        }
+
+        if (calculateComponents) {
+            // TODO Somehow report these in-vehicle, wait and walk breakdown values alongside the total travel time.
+            // TODO WalkTime should be calculated per-iteration, as it may not hold for some summary statistics
+            //      that stat(total) = stat(in-vehicle) + stat(wait) + stat(walk).
+            // The perIterationTravelTimes are sorted as a side effect of the above travelTimeReducer call.
+            // NOTE this is currently using only the first (lowest) travel time.
+            Set<Path> selectedPaths = pathScorer.getTopPaths(pathWriter.nPathsPerTarget, perIterationTravelTimes[0]);
+            pathWriter.recordPathsForTarget(selectedPaths);
+        }
+    }
+
+    /**
+     * Transpose travel times to stops from the [iteration][stop] layout produced by some routers (e.g. McRaptor)
+     * into the flattened stop-major layout expected by the propagator, with all iterations for each stop stored
+     * contiguously. FastRaptorWorker produces the stop-major layout directly, so this copy is not needed there.
+     * Looping over all iterations at one stop in a single contiguous block gives much better memory locality than
+     * following a reference to a separate row for every iteration. Since we also loop over the targets with geographic
+     * locality, the stops pulled into cache by handling one target are likely to be reused for the next target.
+     */
+    public static int[] transposeToStopMajor (int[][] travelTimesToStopsForIteration) {
+        final int nIterations = travelTimesToStopsForIteration.length;
+        final int nStops = travelTimesToStopsForIteration[0].length;
+        int[] travelTimesToStops = new int[nStops * nIterations];
         for (int iteration = 0; iteration < nIterations; iteration++) {
-            for (int stop = 0; stop < nStops; stop++) {
-                travelTimesToStop[stop][iteration] = travelTimesToStopsForIteration[iteration][stop];
+            int[] travelTimesForIteration = travelTimesToStopsForIteration[iteration];
+            for (int stop = 0, index = iteration; stop < nStops; stop++, index += nIterations) {
+                travelTimesToStops[index] = travelTimesForIteration[stop];
             }
         }
+        return travelTimesToStops;
     }
 
     /**
@@ -272,10 +359,10 @@ public class PerTargetPropagater {
      * It is possible that computation would be faster with the iteration order inverted to (mode, targetIndex) instead
      * of (targetIndex, mode).
      */
-    private void propagateTransit (int targetIndex) {
+    private void propagateTransit (int targetIndex, int[] perIterationTravelTimes, Path[] perIterationPaths) {
         // All linked pointsets are known to be for the same StreetLayer and PointSet, just different modes.
         for (LinkedPointSet linkedPointSet : linkedTargets) {
-            propagateTransit(targetIndex, linkedPointSet);
+            propagateTransit(targetIndex, linkedPointSet, perIterationTravelTimes, perIterationPaths);
         }
     }
 
@@ -283,14 +370,20 @@ public class PerTargetPropagater {
      * For every "iteration" (departure minute and Monte Carlo schedule), find a complete travel time to the specified
      * target from the given nearby stop, and update the best known time for that iteration and target.
      * Also record the best paths if we're going to be saving transit path details.
+     * The best known times and paths are updated in the supplied per-iteration arrays.
      * TODO verify if these are actually travel times (vs. clock times after midnight) and clarify code comments.
      * They appear to be travel times (are compared against cutoffSeconds which is a trip duration).
      */
-    private void propagateTransit (int targetIndex, LinkedPointSet linkedTargets) {
+    private void propagateTransit (
+            int targetIndex,
+            LinkedPointSet linkedTargets,
+            int[] perIterationTravelTimes,
+            Path[] perIterationPaths
+    ) {
 
         // Grab the set of nearby stops for this target, with their distances.
         EgressCostTable egressCostTable = linkedTargets.getEgressCostTable();
-        TIntIntMap pointToStopLinkageCostTable = egressCostTable.getCostTableForPoint(targetIndex);
+        EgressCostTable.StopCostCursor stopCostCursor = egressCostTable.stopsNearPoint(targetIndex);
         StreetRouter.State.RoutingVariable unit = egressCostTable.linkageCostUnit;
 
         /**
@@ -307,67 +400,139 @@ public class PerTargetPropagater {
         // If handling car egress, and car hailing waiting times are defined, initialize with default hail wait time.
         // FIXME ensure this ^ is baked into the PickupDelay class
 
-        // Only try to propagate transit travel times if there are transit stops near this target.
-        // Even if we don't propagate transit travel times, we still need to pass these non-transit times to
-        // the reducer later in the caller, because you can walk even where there is no transit.
-        if (pointToStopLinkageCostTable != null) {
-            // Propagate all iterations from each relevant alighting stop out to this target.
-            pointToStopLinkageCostTable.forEachEntry((stop, linkageCost) -> {
-                int secondsFromStopToTarget;
-                if (unit == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
-                    secondsFromStopToTarget = linkageCost / speedMillimetersPerSecond;
-                } else if (unit == StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
-                    secondsFromStopToTarget = linkageCost;
+        // Propagate all iterations from each relevant alighting stop out to this target. There may be no transit stops
+        // near this target. Even if we don't propagate transit travel times, we still need to pass these non-transit
+        // times to the reducer later in the caller, because you can walk even where there is no transit.
+        while (stopCostCursor.advance()) {
+            int stop = stopCostCursor.stop();
+            int linkageCost = stopCostCursor.cost();
+            int secondsFromStopToTarget;
+            if (unit == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
+                secondsFromStopToTarget = linkageCost / speedMillimetersPerSecond;
+            } else if (unit == StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
+                secondsFromStopToTarget = linkageCost;
+            } else {
+                throw new UnsupportedOperationException("Linkage costs have an unknown unit.");
+            }
+            if (secondsFromStopToTarget >= egressLegTimeLimitSeconds) {
+                continue;
+            }
+
+            // TODO shouldn't all the below egress delays be baked into linkedTargets.getEgressCostTable()
+            //  .stopsNearPoint(targetIndex)? At the end of the EgressCostTable constructor, we can
+            //  see via linkedPointSet.streetLayer.waitTimePolygons (or a new wrapper class
+            //  AccessEgressWaitTimes) whether each stop has an egress delay and add it in to all stops.
+            //  Applying the pickup delay modification creates a new street layer, so a new linkage.
+
+            // Account for any additional delay waiting for pickup at the egress stop. The delay does not depend
+            // on the iteration, so it is applied once per stop rather than inside the loop over iterations.
+            // FIXME This adds delays to regular BICYCLE egress if BICYCLE_RENT egress has previously been
+            //  requested (triggering the building of egressStopDelayTables above, which leads to
+            //  non-null egressStopDelaysSeconds). Maybe this is fine -- as with CAR, the delays should
+            //  be ignored when running a scenario without pickup delay modifications.
+            if ((linkedTargets.streetMode == StreetMode.CAR || linkedTargets.streetMode == StreetMode.BICYCLE)
+                    && linkedTargets.egressStopDelaysSeconds != null) {
+                int delayAtEgress = linkedTargets.egressStopDelaysSeconds[stop];
+                if (delayAtEgress < 0) {
+                    // Pickup for this mode not allowed at this stop, so skip to the next stop.
+                    continue;
+                } else {
+                    secondsFromStopToTarget += delayAtEgress;
+                }
+            }
+
+            // All iterations for this stop are in one contiguous block of the flattened array.
+            final int firstIndexForStop = stop * nIterations;
+            if (!calculateComponents) {
+                if (ENABLE_BRANCH_FREE_PROPAGATION) {
+                    propagateStopBranchFree(travelTimesToStops, firstIndexForStop, secondsFromStopToTarget,
+                            maxTravelTimeSeconds, perIterationTravelTimes);
                 } else {
-                    throw new UnsupportedOperationException("Linkage costs have an unknown unit.");
+                    propagateStop(travelTimesToStops, firstIndexForStop, secondsFromStopToTarget,
+                            maxTravelTimeSeconds, perIterationTravelTimes);
+                }
+                continue;
+            }
+            // We need to know exactly which iterations were improved to record their paths, so use a loop with
+            // an explicit comparison at each iteration.
+            for (int iteration = 0; iteration < nIterations; iteration++) {
+                int timeAtStop = travelTimesToStops[firstIndexForStop + iteration];
+                if (timeAtStop >= maxTravelTimeSeconds || timeAtStop >= perIterationTravelTimes[iteration]) {
+                    // Skip propagation if all resulting times will be greater than the cutoff and
+                    // cannot improve on the best known time at this iteration. Also avoids overflow.
+                    continue;
                 }
-                if (secondsFromStopToTarget < egressLegTimeLimitSeconds){
-                    for (int iteration = 0; iteration < nIterations; iteration++) {
-                        int timeAtStop = travelTimesToStop[stop][iteration];
-                        if (timeAtStop >= maxTravelTimeSeconds || timeAtStop >= perIterationTravelTimes[iteration]) {
-                            // Skip propagation if all resulting times will be greater than the cutoff and
-                            // cannot improve on the best known time at this iteration. Also avoids overflow.
-                            continue;
-                        }
-
-                        // TODO shouldn't all the below egress delays be baked into linkedTargets.getEgressCostTable()
-                        //  .getCostTableForPoint(targetIndex)? At the end of the EgressCostTable constructor, we can
-                        //  see via linkedPointSet.streetLayer.waitTimePolygons (or a new wrapper class
-                        //  AccessEgressWaitTimes) whether each stop has an egress delay and add it in to all stops.
-                        //  Applying the pickup delay modification creates a new street layer, so a new linkage.
-
-                        // Account for any additional delay waiting for pickup at the egress stop.
-                        // FIXME This adds delays to regular BICYCLE egress if BICYCLE_RENT egress has previously been
-                        //  requested (triggering the building of egressStopDelayTables above, which leads to
-                        //  non-null egressStopDelaysSeconds). Maybe this is fine -- as with CAR, the delays should
-                        //  be ignored when running a scenario without pickup delay modifications.
-                        if ((linkedTargets.streetMode == StreetMode.CAR || linkedTargets.streetMode == StreetMode.BICYCLE)
-                                && linkedTargets.egressStopDelaysSeconds != null) {
-                                    int delayAtEgress = linkedTargets.egressStopDelaysSeconds[stop];
-                                    if (delayAtEgress < 0) {
-                                        // Pickup for this mode not allowed at this stop, so trove iteration should
-                                        // continue
-                                        return true;
-                                    } else {
-                                        secondsFromStopToTarget += delayAtEgress;
-                                    }
-                        }
-
-                        int timeAtTarget = timeAtStop + secondsFromStopToTarget;
-                        if (timeAtTarget < maxTravelTimeSeconds && timeAtTarget < perIterationTravelTimes[iteration]) {
-                            // To reach this target, alighting at this stop is faster than any previously checked stop.
-                            perIterationTravelTimes[iteration] = timeAtTarget;
-                            if (calculateComponents) {
-                                Path[] pathsToStops = pathsToStopsForIteration.get(iteration);
-                                perIterationPaths[iteration] = pathsToStops[stop];
-                            }
-                        }
-                    }
+                int timeAtTarget = timeAtStop + secondsFromStopToTarget;
+                if (timeAtTarget < maxTravelTimeSeconds && timeAtTarget < perIterationTravelTimes[iteration]) {
+                    // To reach this target, alighting at this stop is faster than any previously checked stop.
+                    perIterationTravelTimes[iteration] = timeAtTarget;
+                    Path[] pathsToStops = pathsToStopsForIteration.get(iteration);
+                    perIterationPaths[iteration] = pathsToStops[stop];
                 }
-                return true; // Trove "continue iteration" signal.
-            });
+            }
         }
     }
 
 
+    /**
+     * Propagate all iterations from one stop to the current target, updating the best known time at each iteration.
+     * This is the conventional form of the inner loop, with early exits at each iteration. The branches prevent the
+     * JIT from vectorizing the loop, but they skip the addition for iterations that cannot be improved.
+     *
+     * @param travelTimesToStops flattened stop-major travel times to all stops at all iterations.
+     * @param firstIndexForStop the index of the travel time to this stop at iteration zero.
+     * @param secondsFromStopToTarget egress time from this stop to the target, including any pickup delay.
+     * @param maxTravelTimeSeconds travel times of this value or higher are considered unreachable.
+     * @param perIterationTravelTimes the best known travel times to the target at each iteration, updated in place.
+     */
+    static void propagateStop (
+            int[] travelTimesToStops,
+            int firstIndexForStop,
+            int secondsFromStopToTarget,
+            int maxTravelTimeSeconds,
+            int[] perIterationTravelTimes
+    ) {
+        final int nIterations = perIterationTravelTimes.length;
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int timeAtStop = travelTimesToStops[firstIndexForStop + iteration];
+            if (timeAtStop >= maxTravelTimeSeconds || timeAtStop >= perIterationTravelTimes[iteration]) {
+                continue;
+            }
+            int timeAtTarget = timeAtStop + secondsFromStopToTarget;
+            if (timeAtTarget < maxTravelTimeSeconds && timeAtTarget < perIterationTravelTimes[iteration]) {
+                perIterationTravelTimes[iteration] = timeAtTarget;
+            }
+        }
+    }
+
+    /**
+     * A branch-free equivalent of propagateStop. Every iteration performs the same sequence of subtract, shift, add,
+     * mask and min operations with no conditional jumps, which allows the JIT's superword optimization to compile the
+     * loop to SIMD instructions handling several iterations at once.
+     *
+     * Times at the stop that would reach the target at or after maxTravelTimeSeconds (including UNREACHED) are
+     * replaced with UNREACHED before taking the minimum, which leaves the best known time unchanged. The comparison is
+     * made on the time at the stop rather than the time at the target, so a sum that overflows when adding the egress
+     * time to UNREACHED is always masked out. Travel times are never negative, so the comparison itself cannot overflow.
+     */
+    static void propagateStopBranchFree (
+            int[] travelTimesToStops,
+            int firstIndexForStop,
+            int secondsFromStopToTarget,
+            int maxTravelTimeSeconds,
+            int[] perIterationTravelTimes
+    ) {
+        // Only times at the stop strictly below this limit reach the target before maxTravelTimeSeconds.
+        final int limitAtStop = maxTravelTimeSeconds - secondsFromStopToTarget;
+        if (limitAtStop <= 0) return;
+        final int nIterations = perIterationTravelTimes.length;
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int timeAtStop = travelTimesToStops[firstIndexForStop + iteration];
+            // All ones if timeAtStop < limitAtStop, otherwise all zeros.
+            int reachable = (timeAtStop - limitAtStop) >> 31;
+            int timeAtTarget = ((timeAtStop + secondsFromStopToTarget) & reachable) | (UNREACHED & ~reachable);
+            perIterationTravelTimes[iteration] = Math.min(perIterationTravelTimes[iteration], timeAtTarget);
+        }
+    }
+
 }
@@ -13,7 +13,7 @@ public class PropagationTimer {
 
     public final ExecutionTimer fullPropagation = new ExecutionTimer("Full travel time propagation");
 
-    public final ExecutionTimer transposition = new ExecutionTimer(fullPropagation, "Travel time matrix transposition");
+    public final ExecutionTimer linkage = new ExecutionTimer(fullPropagation, "Target linkage and egress cost tables");
 
     public final ExecutionTimer propagation = new ExecutionTimer(fullPropagation, "Propagation");
 
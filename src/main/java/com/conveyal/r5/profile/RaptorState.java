@@ -174,6 +174,66 @@ public class RaptorState {
         return new RaptorState(this);
     }
 
+    /**
+     * Return this state to the condition of a freshly constructed one, reusing its arrays instead of allocating new
+     * ones. The reference to the previous round's state is not changed and should be set as needed by the caller.
+     */
+    public void reset (int maxDurationSeconds) {
+        this.maxDurationSeconds = maxDurationSeconds;
+        this.departureTime = 0;
+        Arrays.fill(bestTimes, UNREACHED);
+        Arrays.fill(bestNonTransferTimes, UNREACHED);
+        Arrays.fill(previousPatterns, -1);
+        Arrays.fill(previousStop, -1);
+        Arrays.fill(transferStop, -1);
+        Arrays.fill(nonTransferWaitTime, 0);
+        Arrays.fill(nonTransferInVehicleTravelTime, 0);
+        stopsUpdated.clear();
+        nonTransferStopsUpdated.clear();
+    }
+
+    /**
+     * Overwrite this state with the contents of another state for the same number of stops, reusing this state's
+     * arrays. Like copy(), this clears the sets of stops updated and does not touch the reference to the previous round.
+     */
+    public void copyFrom (RaptorState other) {
+        int nStops = bestTimes.length;
+        checkArgument(other.bestTimes.length == nStops, "States must be for the same number of stops.");
+        System.arraycopy(other.bestTimes, 0, bestTimes, 0, nStops);
+        System.arraycopy(other.bestNonTransferTimes, 0, bestNonTransferTimes, 0, nStops);
+        System.arraycopy(other.previousPatterns, 0, previousPatterns, 0, nStops);
+        System.arraycopy(other.previousStop, 0, previousStop, 0, nStops);
+        System.arraycopy(other.transferStop, 0, transferStop, 0, nStops);
+        System.arraycopy(other.nonTransferWaitTime, 0, nonTransferWaitTime, 0, nStops);
+        System.arraycopy(other.nonTransferInVehicleTravelTime, 0, nonTransferInVehicleTravelTime, 0, nStops);
+        this.departureTime = other.departureTime;
+        this.maxDurationSeconds = other.maxDurationSeconds;
+        stopsUpdated.clear();
+        nonTransferStopsUpdated.clear();
+    }
+
+    /**
+     * Like copyFrom(RaptorState), but only copies the values at the given stops. If this state was previously copied
+     * from the other state, and the given set contains every stop updated since then in this round and all earlier
+     * rounds of the same chain, this makes it identical to the other state again. Monte Carlo draws only update a
+     * small fraction of the stops, so this is much cheaper than copying every stop again for each draw.
+     */
+    public void copyFrom (RaptorState other, BitSet stops) {
+        for (int stop = stops.nextSetBit(0); stop >= 0; stop = stops.nextSetBit(stop + 1)) {
+            bestTimes[stop] = other.bestTimes[stop];
+            bestNonTransferTimes[stop] = other.bestNonTransferTimes[stop];
+            previousPatterns[stop] = other.previousPatterns[stop];
+            previousStop[stop] = other.previousStop[stop];
+            transferStop[stop] = other.transferStop[stop];
+            nonTransferWaitTime[stop] = other.nonTransferWaitTime[stop];
+            nonTransferInVehicleTravelTime[stop] = other.nonTransferInVehicleTravelTime[stop];
+        }
+        this.departureTime = other.departureTime;
+        this.maxDurationSeconds = other.maxDurationSeconds;
+        stopsUpdated.clear();
+        nonTransferStopsUpdated.clear();
+    }
+
     /**
      * Merge the other state into this one, keeping the element-wise minimum travel times. Travel time components and
      * path information associated with these minimum elements is retained. This is useful for the range-raptor
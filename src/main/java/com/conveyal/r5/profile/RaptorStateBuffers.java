@@ -0,0 +1,86 @@
+package com.conveyal.r5.profile;
+
+import java.util.BitSet;
+
+/**
+ * Arrays of RaptorState (one per round) that are kept from one search to the next, so that each FastRaptorWorker does
+ * not need to allocate a fresh set of states for every origin, then another one for every Monte Carlo draw. On large
+ * networks these states add up to tens of megabytes per search, which all becomes garbage at once.
+ *
+ * An instance is sized for the number of stops and rounds of the last search that used it, and the states are
+ * reallocated (releasing the old ones) when those dimensions change, e.g. when switching to a different network.
+ * Instances are not threadsafe. Each one is owned by the caller of the routing, which passes it to one search at a
+ * time (see FastRaptorWorker.reusedStateBuffers). The regional compute threads of the worker each keep one for all
+ * the origins they route. Other searches use a fresh instance that becomes garbage along with the FastRaptorWorker,
+ * so threads that only occasionally route (HTTP or fork-join pool threads) never hold on to any states.
+ */
+public class RaptorStateBuffers {
+
+    /** States for the scheduled range-raptor search, reused at each departure minute. */
+    private RaptorState[] scheduleState;
+
+    /** States for the randomized schedules, which are repeatedly reset to copies of the scheduled states. */
+    private RaptorState[] frequencyState;
+
+    /** Stops at which the frequency states may differ from the schedule states, accumulated over rounds. */
+    private final BitSet stopsToRestore = new BitSet();
+
+    /**
+     * @return one state for each round, chained together through their previous fields, with all stops unreached as
+     *         in newly constructed RaptorStates.
+     */
+    RaptorState[] getScheduleState (int nStops, int nRounds, int maxDurationSeconds) {
+        if (fits(scheduleState, nStops, nRounds)) {
+            for (RaptorState state : scheduleState) {
+                state.reset(maxDurationSeconds);
+            }
+        } else {
+            scheduleState = new RaptorState[nRounds];
+            for (int r = 0; r < nRounds; r++) {
+                scheduleState[r] = new RaptorState(nStops, maxDurationSeconds);
+                scheduleState[r].previous = (r == 0) ? null : scheduleState[r - 1];
+            }
+        }
+        return scheduleState;
+    }
+
+    /**
+     * Make the frequency states a copy of the schedule states, as a starting point for one randomized schedule. The
+     * first time this is called after the schedule states change, fullCopy must be true. On subsequent calls only the
+     * stops updated by the previous randomized schedule are copied over again. This is equivalent to a full copy
+     * because every change to the values at a stop in a given round, whether a direct update or one carried over from
+     * the previous round by RaptorState.minMergePrevious(), is reflected in the updated stop sets of that round or an
+     * earlier one.
+     *
+     * @return one state for each round, chained together through their previous fields.
+     */
+    RaptorState[] getCopyOfScheduleState (boolean fullCopy) {
+        int nStops = scheduleState[0].bestTimes.length;
+        if (!fits(frequencyState, nStops, scheduleState.length)) {
+            frequencyState = new RaptorState[scheduleState.length];
+            for (int r = 0; r < frequencyState.length; r++) {
+                frequencyState[r] = scheduleState[r].copy();
+                frequencyState[r].previous = (r == 0) ? null : frequencyState[r - 1];
+            }
+            return frequencyState;
+        }
+        if (fullCopy) {
+            for (int r = 0; r < frequencyState.length; r++) {
+                frequencyState[r].copyFrom(scheduleState[r]);
+            }
+        } else {
+            stopsToRestore.clear();
+            for (int r = 0; r < frequencyState.length; r++) {
+                stopsToRestore.or(frequencyState[r].stopsUpdated);
+                stopsToRestore.or(frequencyState[r].nonTransferStopsUpdated);
+                frequencyState[r].copyFrom(scheduleState[r], stopsToRestore);
+            }
+        }
+        return frequencyState;
+    }
+
+    private static boolean fits (RaptorState[] states, int nStops, int nRounds) {
+        return states != null && states.length == nRounds && states[0].bestTimes.length == nStops;
+    }
+
+}
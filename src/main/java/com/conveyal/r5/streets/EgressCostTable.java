@@ -7,10 +7,10 @@ import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.util.LambdaCounter;
+import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Point;
@@ -21,8 +21,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static com.conveyal.r5.transit.TransitLayer.WALK_DISTANCE_LIMIT_METERS;
 
@@ -59,6 +59,13 @@ public class EgressCostTable implements Serializable {
 
     public static final int MAX_CAR_SPEED_METERS_PER_SECOND = 22; // ~80 kilometers per hour
 
+    /**
+     * Building egress cost tables is the slowest step in preparing a new scenario. It is done on this dedicated,
+     * bounded pool rather than the common pool, which is shared with the travel time computations of any other tasks.
+     */
+    private static final ForkJoinPool EGRESS_COST_TABLE_POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     // FIELDS
 
     /**
@@ -82,8 +89,13 @@ public class EgressCostTable implements Serializable {
     public List<int[]> stopToPointLinkageCostTables;
 
     /**
-     * For each PointSet point, the transit stops from which it can be reached as a map from StopID to distance or time
-     * (i.e. "cost"). For walk and bike, distance is in millimeters; for car, distance is actually time in seconds.
+     * For each PointSet point, the transit stops from which it can be reached, with the distance or time (i.e. "cost")
+     * from each stop. For walk and bike, distance is in millimeters; for car, distance is actually time in seconds.
+     *
+     * This is stored in compressed sparse row form: the entries for point p are at indexes pointToStopOffsets[p]
+     * (inclusive) through pointToStopOffsets[p + 1] (exclusive) of the parallel arrays pointToStopStops and
+     * pointToStopCosts, in increasing order of stop index. This replaces one hash map per point with three arrays,
+     * which is much more compact for large grids and is read sequentially during propagation.
      *
      * This is a transposed version of stopToPointLinkageCostTables for direct use in propagation. This is used in
      * PerTargetPropagator to find all the stops near a particular point (grid cell) so we can perform propagation to
@@ -97,7 +109,13 @@ public class EgressCostTable implements Serializable {
      * However, keeping both of these in memory is a huge waste of space. The cost tables are one of the largest and
      * most problematic objects in our application from a memory consumption (and S3 data transfer) point of view.
      */
-    private transient List<TIntIntMap> pointToStopLinkageCostTables;
+    private transient int[] pointToStopOffsets;
+
+    /** The stop index of each entry in the compressed sparse row point-to-stop table. See pointToStopOffsets. */
+    private transient int[] pointToStopStops;
+
+    /** The cost of each entry in the compressed sparse row point-to-stop table. See pointToStopOffsets. */
+    private transient int[] pointToStopCosts;
 
     /**
      * Build an EgressCostTable for the given LinkedPointSet.
@@ -196,6 +214,17 @@ public class EgressCostTable implements Serializable {
         TransitLayer transitLayer = linkedPointSet.streetLayer.parentNetwork.transitLayer;
         int nStops = transitLayer.getStopCount();
 
+        // If on-demand egress service is defined for this mode, tables are filtered and transformed to reflect that
+        // service as soon as they are built or copied. Tables are never built for stops that have no such service.
+        StreetLayer streetLayer = transitLayer.parentNetwork.streetLayer;
+        final PickupWaitTimes pickupWaitTimes =
+                (streetLayer.pickupWaitTimes != null && streetLayer.pickupWaitTimes.streetMode == streetMode)
+                        ? streetLayer.pickupWaitTimes : null;
+        if (pickupWaitTimes != null && streetMode != StreetMode.CAR) {
+            // FIXME only cars have egress cost tables in seconds. Others will need a constant time offset field.
+            throw new RuntimeException("Only car egress tables can have a baked in time delay.");
+        }
+
         // TODO create a multi-counter that can track two different numbers and include them in a single "Done" message.
         // Maybe we should just make a custom ProgressCounter static inner class everywhere one is needed.
         int copyLogFrequency = 5000;
@@ -205,151 +234,185 @@ public class EgressCostTable implements Serializable {
             computeLogFrequency = 100;
         }
 
-        // TODO only report progress on slow operations (building new tables), not copying existing ones?
-        // Precomputing which stops should be rebuilt would allow for nicer progress reporting.
+        // Decide up front which stops need new tables, which can reuse the baseline table, and which have no table.
+        // This allows progress to be reported only for the slow operation (building new tables).
+        // All stops created by the scenario should by definition be inside the rebuild zone. Stops outside the
+        // rebuild zone should always have existed before scenario application, so they should be present in the base
+        // linkage cost tables.
+        final Point[] stopPoints = new Point[nStops];
+        TIntList stopsToCompute = new TIntArrayList();
+        TIntList stopsToCopy = new TIntArrayList();
+        for (int stopIndex = 0; stopIndex < nStops; stopIndex++) {
+            // If the stop is not linked to the street network, it should have no distance table.
+            // If the stop is not served by the on-demand egress service, its table would be filtered out entirely.
+            Point stopPoint = transitLayer.getJTSPointForStopFixed(stopIndex);
+            if (stopPoint == null || (pickupWaitTimes != null && egressServiceForStop(pickupWaitTimes, stopIndex) == null)) {
+                continue;
+            }
+            stopPoints[stopIndex] = stopPoint;
+            if (rebuildZone != null && !rebuildZone.contains(stopPoint)) {
+                stopsToCopy.add(stopIndex);
+            } else {
+                stopsToCompute.add(stopIndex);
+            }
+        }
+
         String taskDescription = String.format("Building %s egress tables for %s",
                 linkedPointSet.streetLayer.isScenarioCopy() ? "scenario" : "baseline",
                 streetMode.toString().toLowerCase()
         );
-        progressListener.beginTask(taskDescription, nStops);
+        progressListener.beginTask(taskDescription, stopsToCompute.size());
 
-        final LambdaCounter computeCounter = new LambdaCounter(LOG, nStops, computeLogFrequency,
+        final LambdaCounter computeCounter = new LambdaCounter(LOG, stopsToCompute.size(), computeLogFrequency,
                 "Computed new stop -> point tables for {} of {} transit stops.");
-        final LambdaCounter copyCounter = new LambdaCounter(LOG, nStops, copyLogFrequency,
+        final LambdaCounter copyCounter = new LambdaCounter(LOG, stopsToCopy.size(), copyLogFrequency,
                 "Copied unchanged stop -> point tables for {} of {} transit stops.");
-        // Create a distance table from each transit stop to the points in this PointSet in parallel.
-        // Each table is a flattened 2D array. Two values for each point reachable from this stop: (pointIndex, cost)
-        // When applying a scenario, keep the existing distance table for those stops that could not be affected.
-        // TODO factor out the function that computes a cost table for one stop.
-        stopToPointLinkageCostTables = IntStream.range(0, nStops).parallel().mapToObj(stopIndex -> {
-            progressListener.increment(); // TODO pre-count points inside rebuild zone, and only show progress for those
-            Point stopPoint = transitLayer.getJTSPointForStopFixed(stopIndex);
-            // If the stop is not linked to the street network, it should have no distance table.
-            if (stopPoint == null) return null;
-            if (rebuildZone != null && !rebuildZone.contains(stopPoint)) {
-                // This cannot be affected by the scenario. Return the existing distance table.
-                // All new stops created by a scenario should be inside the relink zone, so
-                // all stops outside the relink zone should already have a distance table entry.
-                // TODO having a rebuild zone always implies there is a baseLinkage? If it's possible to not have a base
-                //      linkage, this should return null.
-                // All stops created by the scenario should by definition be inside the relink zone.
-                // This conditional is handling stops outside the relink zone, which should always have existed before
-                // scenario application. Therefore they should be present in the base linkage cost tables.
-                copyCounter.increment();
-                return baseEgressCostTable.stopToPointLinkageCostTables.get(stopIndex);
-            }
 
+        // Each table is a flattened 2D array. Two values for each point reachable from this stop: (pointIndex, cost)
+        // Every stop's table is completed independently (including any on-demand egress filtering) and written to its
+        // own slot in this array, so each one is finished as soon as possible rather than in a second pass.
+        final int[][] tables = new int[nStops][];
+        for (TIntIterator it = stopsToCopy.iterator(); it.hasNext(); ) {
+            int stopIndex = it.next();
+            // This cannot be affected by the scenario. Reuse the existing distance table.
+            tables[stopIndex] = filterForEgressService(pickupWaitTimes, stopIndex,
+                    baseEgressCostTable.stopToPointLinkageCostTables.get(stopIndex));
+            copyCounter.increment();
+        }
+        // Create a distance table from each remaining transit stop to the points in this PointSet in parallel, on a
+        // dedicated pool so a cold start after a scenario change neither starves nor is starved by other parallel
+        // work on the worker. Each stop is a separate work unit: stops in dense areas have much bigger tables and
+        // slower searches than others, and work stealing balances these uneven units across threads.
+        EGRESS_COST_TABLE_POOL.submit(() -> Arrays.stream(stopsToCompute.toArray()).parallel().forEach(stopIndex -> {
+            int[] table = computeStopToPointTable(stopIndex, stopPoints[stopIndex], linkingDistanceLimitMeters);
+            tables[stopIndex] = filterForEgressService(pickupWaitTimes, stopIndex, table);
             computeCounter.increment();
-            Envelope envelopeAroundStop = stopPoint.getEnvelopeInternal();
-            GeometryUtils.expandEnvelopeFixed(envelopeAroundStop, linkingDistanceLimitMeters);
-
-            if (streetMode == StreetMode.WALK) {
-                // Walking distances from stops to street vertices are saved in the TransitLayer.
-                // Get the pre-computed walking distance table from the stop to the street vertices,
-                // then extend that table out from the street vertices to the points in this PointSet.
-                // TODO reuse the code that computes the walk tables at TransitLayer.buildOneDistanceTable() rather than
-                //      duplicating it below for other modes.
-                TIntIntMap distanceTableToVertices = transitLayer.stopToVertexDistanceTables.get(stopIndex);
-                return distanceTableToVertices == null ? null :
-                        linkedPointSet.extendDistanceTableToPoints(distanceTableToVertices, envelopeAroundStop);
-            } else {
-                StreetRouter sr = new StreetRouter(transitLayer.parentNetwork.streetLayer);
-                sr.streetMode = streetMode;
-                int vertexId = transitLayer.streetVertexForStop.get(stopIndex);
-                if (vertexId < 0) {
-                    LOG.warn("Stop unlinked, cannot build distance table: {}", stopIndex);
-                    return null;
-                }
-                // TODO setting the origin point of the router to the stop vertex does not work.
-                // This is probably because link edges do not allow car traversal. We could traverse them.
-                // As a stopgap we perform car linking at the geographic coordinate of the stop.
-                // sr.setOrigin(vertexId);
-                VertexStore.Vertex vertex = linkedPointSet.streetLayer.vertexStore.getCursor(vertexId);
-                sr.setOrigin(vertex.getLat(), vertex.getLon());
-
-                if (streetMode == StreetMode.BICYCLE) {
-                    sr.distanceLimitMeters = linkingDistanceLimitMeters;
-                    sr.quantityToMinimize = linkageCostUnit;
-                    sr.route();
-                    return linkedPointSet.extendDistanceTableToPoints(sr.getReachedVertices(), envelopeAroundStop);
-                } else if (streetMode == StreetMode.CAR) {
-                    // The speeds for Walk and Bicycle can be specified in an analysis request, so it makes sense above to
-                    // store distances and apply the requested speed. In contrast, car speeds vary by link and cannot be
-                    // set in analysis requests, so it makes sense to use seconds directly as the linkage cost.
-                    // TODO confirm this works as expected when modifications can affect street layer.
-                    sr.timeLimitSeconds = CAR_TIME_LINKING_LIMIT_SECONDS;
-                    sr.quantityToMinimize = linkageCostUnit;
-                    sr.route();
-                    // TODO optimization: We probably shouldn't evaluate at every point in this LinkedPointSet in case
-                    //      it's much bigger than the driving radius.
-                    PointSetTimes driveTimesToAllPoints = linkedPointSet.eval(
-                            sr::getTravelTimeToVertex,
-                            null,
-                            LinkedPointSet.OFF_STREET_SPEED_MILLIMETERS_PER_SECOND,
-                            null
-                    );
-                    // TODO optimization: should we make spatial index visit() method public to avoid copying results?
-                    TIntList packedDriveTimes = new TIntArrayList();
-                    for (int p = 0; p < driveTimesToAllPoints.size(); p++) {
-                        int driveTimeToPoint = driveTimesToAllPoints.getTravelTimeToPoint(p);
-                        if (driveTimeToPoint != Integer.MAX_VALUE) {
-                            packedDriveTimes.add(p);
-                            packedDriveTimes.add(driveTimeToPoint);
-                        }
-                    }
-                    if (packedDriveTimes.isEmpty()) {
-                        return null;
-                    } else {
-                        return packedDriveTimes.toArray();
-                    }
-                } else {
-                    throw new UnsupportedOperationException("Tried to link a pointset with an unsupported street mode");
-                }
-            }
-        }).collect(Collectors.toList());
+            progressListener.increment();
+        })).join();
         computeCounter.done();
         copyCounter.done();
+        // Copy into an ArrayList, which unlike the fixed-size Arrays.asList view is readily serialized by Kryo.
+        stopToPointLinkageCostTables = new ArrayList<>(Arrays.asList(tables));
+    }
 
-        // Now that we have a full set of tables, filter and transform them to reflect on-demand egress service.
-        // TODO optimization: we could return null immediately above for all stops not served by the on-demand egress:
-        // if (onDemandEgressService != null && ! onDemandEgressService.allows(stopIndex)) return null;
-        // We could also integrate the geographic filtering into that same loop and extendDistanceTableToPoints.
-        // In fact this is a major optimization since building car tables is very slow, and we might only need a few.
-        StreetLayer streetLayer = transitLayer.parentNetwork.streetLayer;
-        PickupWaitTimes pickupWaitTimes = streetLayer.pickupWaitTimes;
-        if (pickupWaitTimes != null && pickupWaitTimes.streetMode == streetMode) {
-            if (streetMode != StreetMode.CAR) {
-                // FIXME only cars have egress cost tables in seconds. Others will need a constant time offset field.
-                throw new RuntimeException("Only car egress tables can have a baked in time delay.");
+    /**
+     * Build the table of costs from one transit stop to the points in the linkedPointSet, using a search appropriate
+     * to the street mode of the linkage.
+     * @return a flattened array of (pointIndex, cost) pairs, or null if no points are reachable.
+     */
+    private int[] computeStopToPointTable (int stopIndex, Point stopPoint, int linkingDistanceLimitMeters) {
+        final StreetMode streetMode = linkedPointSet.streetMode;
+        final TransitLayer transitLayer = linkedPointSet.streetLayer.parentNetwork.transitLayer;
+        Envelope envelopeAroundStop = stopPoint.getEnvelopeInternal();
+        GeometryUtils.expandEnvelopeFixed(envelopeAroundStop, linkingDistanceLimitMeters);
+
+        if (streetMode == StreetMode.WALK) {
+            // Walking distances from stops to street vertices are saved in the TransitLayer.
+            // Get the pre-computed walking distance table from the stop to the street vertices,
+            // then extend that table out from the street vertices to the points in this PointSet.
+            // TODO reuse the code that computes the walk tables at TransitLayer.buildOneDistanceTable() rather than
+            //      duplicating it below for other modes.
+            TIntIntMap distanceTableToVertices = transitLayer.stopToVertexDistanceTables.get(stopIndex);
+            return distanceTableToVertices == null ? null :
+                    linkedPointSet.extendDistanceTableToPoints(distanceTableToVertices, envelopeAroundStop);
+        } else {
+            StreetRouter sr = new StreetRouter(transitLayer.parentNetwork.streetLayer);
+            sr.streetMode = streetMode;
+            int vertexId = transitLayer.streetVertexForStop.get(stopIndex);
+            if (vertexId < 0) {
+                LOG.warn("Stop unlinked, cannot build distance table: {}", stopIndex);
+                return null;
             }
-            for (int s = 0; s < stopToPointLinkageCostTables.size(); s++) {
-                PickupWaitTimes.EgressService egressService = pickupWaitTimes.getEgressService(s);
-                if (egressService == null || egressService.waitTimeSeconds < 0) {
-                    stopToPointLinkageCostTables.set(s, null);
-                    continue;
-                }
-                int[] costs = stopToPointLinkageCostTables.get(s);
-                TIntList filteredCosts = new TIntArrayList();
-                for (int i = 0; i < costs.length; i += 2) {
-                    int point = costs[i];
-                    int cost = costs[i + 1];
-                    // TODO normalize variable names (to costs?), these are not just times they may be distances.
-                    // TODO linkedPointSet.pointSet.getPointsInGeometry(), and pointInsideGeometry? default defs.
-                    double lat = linkedPointSet.pointSet.getLat(point);
-                    double lon = linkedPointSet.pointSet.getLon(point);
-                    if (GeometryUtils.containsPoint(egressService.serviceArea, lon, lat)) {
-                        filteredCosts.add(point);
-                        filteredCosts.add(cost + egressService.waitTimeSeconds);
+            // TODO setting the origin point of the router to the stop vertex does not work.
+            // This is probably because link edges do not allow car traversal. We could traverse them.
+            // As a stopgap we perform car linking at the geographic coordinate of the stop.
+            // sr.setOrigin(vertexId);
+            VertexStore.Vertex vertex = linkedPointSet.streetLayer.vertexStore.getCursor(vertexId);
+            sr.setOrigin(vertex.getLat(), vertex.getLon());
+
+            if (streetMode == StreetMode.BICYCLE) {
+                sr.distanceLimitMeters = linkingDistanceLimitMeters;
+                sr.quantityToMinimize = linkageCostUnit;
+                sr.route();
+                return linkedPointSet.extendDistanceTableToPoints(sr.getReachedVertices(), envelopeAroundStop);
+            } else if (streetMode == StreetMode.CAR) {
+                // The speeds for Walk and Bicycle can be specified in an analysis request, so it makes sense above to
+                // store distances and apply the requested speed. In contrast, car speeds vary by link and cannot be
+                // set in analysis requests, so it makes sense to use seconds directly as the linkage cost.
+                // TODO confirm this works as expected when modifications can affect street layer.
+                sr.timeLimitSeconds = CAR_TIME_LINKING_LIMIT_SECONDS;
+                sr.quantityToMinimize = linkageCostUnit;
+                sr.route();
+                // Only evaluate the points near the area reached, as this LinkedPointSet may be much bigger than the
+                // driving radius.
+                PointSetTimes driveTimesToAllPoints = linkedPointSet.eval(
+                        sr::getTravelTimeToVertex,
+                        null,
+                        LinkedPointSet.OFF_STREET_SPEED_MILLIMETERS_PER_SECOND,
+                        null,
+                        sr.getReachedEnvelopeFixed()
+                );
+                // TODO optimization: should we make spatial index visit() method public to avoid copying results?
+                TIntList packedDriveTimes = new TIntArrayList();
+                for (int p = 0; p < driveTimesToAllPoints.size(); p++) {
+                    int driveTimeToPoint = driveTimesToAllPoints.getTravelTimeToPoint(p);
+                    if (driveTimeToPoint != Integer.MAX_VALUE) {
+                        packedDriveTimes.add(p);
+                        packedDriveTimes.add(driveTimeToPoint);
                     }
                 }
-                // null represents an empty array, which we presume may be more efficiently serializable than lots of
-                // references to a single empty array instance.
-                int[] filteredCostsArray = filteredCosts.isEmpty() ? null : filteredCosts.toArray();
-                stopToPointLinkageCostTables.set(s, filteredCostsArray);
+                if (packedDriveTimes.isEmpty()) {
+                    return null;
+                } else {
+                    return packedDriveTimes.toArray();
+                }
+            } else {
+                throw new UnsupportedOperationException("Tried to link a pointset with an unsupported street mode");
             }
         }
     }
 
+    /**
+     * @return the on-demand egress service usable at the given stop, or null if there is no usable service.
+     */
+    private static PickupWaitTimes.EgressService egressServiceForStop (PickupWaitTimes pickupWaitTimes, int stopIndex) {
+        PickupWaitTimes.EgressService egressService = pickupWaitTimes.getEgressService(stopIndex);
+        if (egressService == null || egressService.waitTimeSeconds < 0) {
+            return null;
+        }
+        return egressService;
+    }
+
+    /**
+     * Filter and transform one stop's cost table to reflect on-demand egress service, retaining only points inside
+     * the service area and adding the wait time to their costs. If pickupWaitTimes is null the table is returned as-is.
+     */
+    private int[] filterForEgressService (PickupWaitTimes pickupWaitTimes, int stopIndex, int[] costs) {
+        if (pickupWaitTimes == null || costs == null) {
+            return costs;
+        }
+        PickupWaitTimes.EgressService egressService = egressServiceForStop(pickupWaitTimes, stopIndex);
+        if (egressService == null) {
+            return null;
+        }
+        TIntList filteredCosts = new TIntArrayList();
+        for (int i = 0; i < costs.length; i += 2) {
+            int point = costs[i];
+            int cost = costs[i + 1];
+            // TODO normalize variable names (to costs?), these are not just times they may be distances.
+            // TODO linkedPointSet.pointSet.getPointsInGeometry(), and pointInsideGeometry? default defs.
+            double lat = linkedPointSet.pointSet.getLat(point);
+            double lon = linkedPointSet.pointSet.getLon(point);
+            if (GeometryUtils.containsPoint(egressService.serviceArea, lon, lat)) {
+                filteredCosts.add(point);
+                filteredCosts.add(cost + egressService.waitTimeSeconds);
+            }
+        }
+        // null represents an empty array, which we presume may be more efficiently serializable than lots of
+        // references to a single empty array instance.
+        return filteredCosts.isEmpty() ? null : filteredCosts.toArray();
+    }
+
     /**
      * Private constructor used by factory methods or other constructors to allow fields to be immutable.
      */
@@ -436,12 +499,31 @@ public class EgressCostTable implements Serializable {
      * One should represent the region, or read-through crops of the whole region, and the other should be per-scenario.
      */
     public synchronized void destructivelyTransposeForPropagationAsNeeded() {
-        if (pointToStopLinkageCostTables == null) {
+        if (pointToStopOffsets == null) {
             // Release reference to the source table, in order to fail fast if any other thread tries to read them.
             // We make a local copy so we can release each reference while copying.
             List<int[]> stopToPointTables = new ArrayList<>(this.stopToPointLinkageCostTables);
             this.stopToPointLinkageCostTables = null;
-            TIntIntMap[] result = new TIntIntMap[linkedPointSet.size()];
+            // First pass: count the entries for each point. The counts are stored one slot to the right, so that a
+            // running sum turns them into the offset of the first entry for each point.
+            int nPoints = linkedPointSet.size();
+            int[] offsets = new int[nPoints + 1];
+            for (int[] stopToPointTable : stopToPointTables) {
+                if (stopToPointTable == null) {
+                    continue;
+                }
+                for (int idx = 0; idx < stopToPointTable.length; idx += 2) {
+                    offsets[stopToPointTable[idx] + 1] += 1;
+                }
+            }
+            for (int p = 0; p < nPoints; p++) {
+                offsets[p + 1] += offsets[p];
+            }
+            // Second pass: fill in the entries. Iterating over stops in order leaves each point's entries sorted by stop.
+            int nEntries = offsets[nPoints];
+            int[] stops = new int[nEntries];
+            int[] costs = new int[nEntries];
+            int[] nextEntryForPoint = Arrays.copyOf(offsets, nPoints);
             for (int stop = 0; stop < stopToPointTables.size(); stop++) {
                 int[] stopToPointTable = stopToPointTables.get(stop);
                 if (stopToPointTable == null) {
@@ -449,26 +531,60 @@ public class EgressCostTable implements Serializable {
                 }
                 for (int idx = 0; idx < stopToPointTable.length; idx += 2) {
                     int point = stopToPointTable[idx];
-                    int distance = stopToPointTable[idx + 1];
-                    if (result[point] == null) {
-                        result[point] = new TIntIntHashMap();
-                    }
-                    result[point].put(stop, distance);
+                    int entry = nextEntryForPoint[point]++;
+                    stops[entry] = stop;
+                    costs[entry] = stopToPointTable[idx + 1];
                 }
                 // Release the reference to this stop's table for garbage collection.
                 stopToPointTables.set(stop, null);
             }
             // Make the transposed table available to propagation.
-            this.pointToStopLinkageCostTables = Arrays.asList(result);
+            this.pointToStopStops = stops;
+            this.pointToStopCosts = costs;
+            this.pointToStopOffsets = offsets;
         }
     }
 
     /**
      * You should first call destructivelyTransposeForPropagationAsNeeded before calling this method.
-     * @return for the given destination point index, a map from stop_index -> cost_to_reach_point for all nearby stops
+     * @return a cursor over all the stops near the given destination point and the cost to reach the point from each
+     *         of them. Call advance() before reading the first stop.
      */
-    public TIntIntMap getCostTableForPoint (int pointIndex) {
-        return pointToStopLinkageCostTables.get(pointIndex);
+    public StopCostCursor stopsNearPoint (int pointIndex) {
+        return new StopCostCursor(pointToStopOffsets[pointIndex], pointToStopOffsets[pointIndex + 1]);
+    }
+
+    /**
+     * Iterates over the entries for one point in the transposed (point-to-stop) table without boxing or hash lookups,
+     * in increasing order of stop index. A new cursor is created for each point, which is cheap compared to iterating.
+     */
+    public class StopCostCursor {
+
+        private int entry;
+
+        private final int end;
+
+        private StopCostCursor (int begin, int end) {
+            this.entry = begin - 1;
+            this.end = end;
+        }
+
+        /** Move to the next stop near the point. @return false if there are no more stops. */
+        public boolean advance () {
+            entry += 1;
+            return entry < end;
+        }
+
+        /** @return the index of the current stop. */
+        public int stop () {
+            return pointToStopStops[entry];
+        }
+
+        /** @return the distance or time (depending on linkageCostUnit) from the current stop to the point. */
+        public int cost () {
+            return pointToStopCosts[entry];
+        }
+
     }
 
 }
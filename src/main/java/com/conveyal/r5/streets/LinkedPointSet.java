@@ -118,9 +118,10 @@ public class LinkedPointSet implements Serializable {
 
     /**
      * The egress cost tables used to be included directly in LinkedPointSets, but are now factored out into a class.
-     * This field is not final because it's only built when needed.
+     * This field is not final because it's only built when needed. It is volatile so that once built, it can be read
+     * without locking.
      */
-    private EgressCostTable egressCostTable;
+    private volatile EgressCostTable egressCostTable;
 
     /**
      * A LinkedPointSet is a PointSet that has been pre-connected to a StreetLayer in a non-destructive, reversible way.
@@ -256,8 +257,8 @@ public class LinkedPointSet implements Serializable {
      * The synchronization is rather crude, but should do the job as long as all outside multi-threaded access to the
      * cost table is via this method. Note that this will recursively lock the chain of base linkages on which this
      * linkage is built, but if this is the only synchronized method then the linkage is still usable by non-egress
-     * searches simultaneously. This is being pretty heavily called though, maybe locking should only happen once we
-     * see that the table is null.
+     * searches simultaneously. This is called heavily during propagation, so we only lock when we see that the table
+     * has not yet been built.
      *
      * Rather than making these a property of LinkedPointSets, we may want to define them as a standalone entity that
      * has its own factory class and loader/cache class keyed on LinkedPointSets.
@@ -267,17 +268,23 @@ public class LinkedPointSet implements Serializable {
      * is now available as a field on the current linkage, so it does not need to be passed as a parameter. So a
      * factory class could depend on only a progressListener and the current LinkedPointSet.
      */
-    public synchronized EgressCostTable getEgressCostTable (ProgressListener progressListener) {
-        if (this.egressCostTable == null) {
-            if (this.cropped) {
-                // This LinkedPointSet was simply cropped out of a larger existing one.
-                this.egressCostTable = EgressCostTable.geographicallyCroppedCopy(this, progressListener);
-            } else {
-                // This is a rebuild for a diff between a scenario and a baseline.
-                this.egressCostTable = new EgressCostTable(this, progressListener);
+    public EgressCostTable getEgressCostTable (ProgressListener progressListener) {
+        EgressCostTable table = this.egressCostTable;
+        if (table != null) {
+            return table;
+        }
+        synchronized (this) {
+            if (this.egressCostTable == null) {
+                if (this.cropped) {
+                    // This LinkedPointSet was simply cropped out of a larger existing one.
+                    this.egressCostTable = EgressCostTable.geographicallyCroppedCopy(this, progressListener);
+                } else {
+                    // This is a rebuild for a diff between a scenario and a baseline.
+                    this.egressCostTable = new EgressCostTable(this, progressListener);
+                }
             }
+            return this.egressCostTable;
         }
-        return this.egressCostTable;
     }
 
     /**
@@ -290,7 +297,7 @@ public class LinkedPointSet implements Serializable {
      * single "holder" object along with the network, linkages etc. and those pre-loaded references should be used
      * throughout the rest of the task's processing.
      */
-    public synchronized EgressCostTable getEgressCostTable () {
+    public EgressCostTable getEgressCostTable () {
         return getEgressCostTable(new NoopProgressListener());
     }
 
@@ -424,10 +431,40 @@ public class LinkedPointSet implements Serializable {
                 int offStreetSpeed,
                 Split origin
             ) {
+        return eval(travelTimeForVertex, onStreetSpeed, offStreetSpeed, origin, null);
+    }
+
+    /**
+     * Like the method above, but only evaluates the points inside the given envelope, leaving all other points
+     * unreached. This avoids scanning every point of a (possibly huge) destination grid when the street search only
+     * covered a small area around the origin. The caller must ensure the envelope contains every point that could be
+     * reached, e.g. using StreetRouter.getReachedEnvelopeFixed(), or results will differ from the uncropped method.
+     * Cropping is only applied to gridded point sets, where finding the points in an envelope does not itself require
+     * a scan over all points.
+     *
+     * @param envelopeFixed the area to evaluate in fixed-point degrees, or null to evaluate all points.
+     */
+    public PointSetTimes eval (
+                TravelTimeFunction travelTimeForVertex,
+                Integer onStreetSpeed,
+                int offStreetSpeed,
+                Split origin,
+                Envelope envelopeFixed
+            ) {
         int[] travelTimes = new int[edges.length];
+        int[] pointsToEvaluate = null;
+        if (envelopeFixed != null && pointSet instanceof WebMercatorGridPointSet) {
+            Arrays.fill(travelTimes, Integer.MAX_VALUE);
+            // Points must be visited in ascending order, as the speed for a null onStreetSpeed is taken from the
+            // first point reached (see below) and this must give the same result as evaluating all points.
+            pointsToEvaluate = pointSet.getPointsInEnvelope(envelopeFixed).toArray();
+            Arrays.sort(pointsToEvaluate);
+        }
+        int nPointsToEvaluate = pointsToEvaluate == null ? edges.length : pointsToEvaluate.length;
         // Iterate over all locations in this temporary vertex list.
         EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
-        for (int i = 0; i < edges.length; i++) {
+        for (int p = 0; p < nPointsToEvaluate; p++) {
+            int i = pointsToEvaluate == null ? p : pointsToEvaluate[p];
             if (edges[i] < 0) {
                 // Target point is unlinked.
                 travelTimes[i] = Integer.MAX_VALUE;
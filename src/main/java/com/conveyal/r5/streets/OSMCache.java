@@ -53,6 +53,7 @@ public class OSMCache {
                 File osmFile = fileStorage.getFile(getKey(id));
                 OSM ret = new OSM(null);
                 ret.intersectionDetection = true;
+                ret.compactNodeStorage = true;
                 ret.readFromFile(osmFile.getAbsolutePath());
                 return ret;
             });
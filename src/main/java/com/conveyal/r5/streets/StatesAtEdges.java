@@ -0,0 +1,128 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.streets.StreetRouter.State;
+import com.conveyal.r5.util.TIntObjectHashMultimap;
+import com.conveyal.r5.util.TIntObjectMultimap;
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TIntObjectProcedure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The best states found by a StreetRouter at the end of each edge (see the Javadoc on StreetRouter.bestStatesAtEdge).
+ *
+ * States that are not partway through a turn restriction dominate one another, so there is at most one such state
+ * per edge. States inside turn restrictions are incomparable with states outside them, and can accumulate at a single
+ * edge. Rather than keeping a list for every edge in a multimap, we take advantage of the fact that we almost always
+ * have a single state per edge: unrestricted states are kept directly in a primitive-keyed map, and only the rare
+ * turn-restricted states go into a multimap.
+ */
+public class StatesAtEdges {
+
+    /** The single best state at the end of each edge, for states that are not inside a turn restriction. */
+    private final TIntObjectMap<State> unrestrictedStates = new TIntObjectHashMap<>();
+
+    /** All non-dominated states at the end of each edge that are inside one or more turn restrictions. */
+    private final TIntObjectMultimap<State> turnRestrictedStates = new TIntObjectHashMultimap<>();
+
+    /**
+     * Record a state at the end of its back edge. An unrestricted state replaces any unrestricted state already
+     * present at the same edge, so callers must check dominance before calling this method.
+     */
+    public void put (State state) {
+        if (state.turnRestrictions == null) {
+            unrestrictedStates.put(state.backEdge, state);
+        } else {
+            turnRestrictedStates.put(state.backEdge, state);
+        }
+    }
+
+    /** @return the single state at the end of the given edge that is not inside a turn restriction, or null. */
+    public State getUnrestricted (int edge) {
+        return unrestrictedStates.get(edge);
+    }
+
+    /**
+     * @return the states at the end of the given edge that are inside turn restrictions. Elements may be removed from
+     * the returned collection through its iterator. It is empty if there are no such states.
+     */
+    public Collection<State> getTurnRestricted (int edge) {
+        return turnRestrictedStates.get(edge);
+    }
+
+    /** @return all states at the end of the given edge, whether or not they are inside turn restrictions. */
+    public Collection<State> get (int edge) {
+        State unrestricted = unrestrictedStates.get(edge);
+        if (!turnRestrictedStates.containsKey(edge)) {
+            return unrestricted == null ? Collections.emptyList() : Collections.singletonList(unrestricted);
+        }
+        List<State> states = new ArrayList<>(turnRestrictedStates.get(edge));
+        if (unrestricted != null) states.add(unrestricted);
+        return states;
+    }
+
+    /** @return true if the given state is still one of the best states at the end of its back edge. */
+    public boolean contains (State state) {
+        if (state.turnRestrictions == null) {
+            return unrestrictedStates.get(state.backEdge) == state;
+        } else {
+            return turnRestrictedStates.get(state.backEdge).contains(state);
+        }
+    }
+
+    /**
+     * @return the state at the end of the given edge with the lowest value of the given routing variable, even if it
+     * is in the middle of a turn restriction. Returns null if the edge was not reached.
+     */
+    public State getBest (int edge, State.RoutingVariable variable) {
+        State best = unrestrictedStates.get(edge);
+        if (turnRestrictedStates.containsKey(edge)) {
+            for (State state : turnRestrictedStates.get(edge)) {
+                if (best == null || state.getRoutingVariable(variable) < best.getRoutingVariable(variable)) {
+                    best = state;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Call the supplied procedure once for each reached edge, with the best state at the end of that edge according
+     * to the given routing variable. Iteration stops if the procedure returns false.
+     */
+    public void forEachBestState (State.RoutingVariable variable, TIntObjectProcedure<State> procedure) {
+        for (TIntObjectIterator<State> it = unrestrictedStates.iterator(); it.hasNext(); ) {
+            it.advance();
+            if (!procedure.execute(it.key(), getBest(it.key(), variable))) return;
+        }
+        // Also visit edges that were reached only by states inside turn restrictions.
+        turnRestrictedStates.forEachEntry((edge, states) -> {
+            if (unrestrictedStates.containsKey(edge) || states.isEmpty()) return true;
+            return procedure.execute(edge, getBest(edge, variable));
+        });
+    }
+
+    /** Call the supplied consumer on every state at every edge. */
+    public void forEachState (Consumer<State> consumer) {
+        unrestrictedStates.forEachValue(state -> {
+            consumer.accept(state);
+            return true;
+        });
+        turnRestrictedStates.forEachEntry((edge, states) -> {
+            states.forEach(consumer);
+            return true;
+        });
+    }
+
+    public void clear () {
+        unrestrictedStates.clear();
+        turnRestrictedStates.clear();
+    }
+
+}
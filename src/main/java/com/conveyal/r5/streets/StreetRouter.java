@@ -1,14 +1,14 @@
 package com.conveyal.r5.streets;
 
 import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.common.SphericalDistanceLibrary;
 import com.conveyal.r5.point_to_point.builder.PointToPointQuery;
 import com.conveyal.r5.profile.ProfileRequest;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.transit.TransportNetwork;
-import com.conveyal.r5.util.TIntObjectHashMultimap;
-import com.conveyal.r5.util.TIntObjectMultimap;
+import com.conveyal.r5.util.IntKeyedMinHeap;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.map.TIntIntMap;
@@ -18,6 +18,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.apache.commons.math3.util.FastMath;
+import org.locationtech.jts.geom.Envelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,10 +31,8 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import static com.conveyal.r5.streets.LinkedPointSet.OFF_STREET_SPEED_MILLIMETERS_PER_SECOND;
 
@@ -143,15 +142,16 @@ public class StreetRouter {
      * apply that left turn cost. Even more important is to make sure that the destination edge is not the end of a
      * restricted turn; if it is, one must reach the destination via an alternate state.
      *
-     * TODO we might be able to make this more efficient (not using a multimap)
-     * by taking advantage of the fact that we almost always have a single state per edge
-     * (the only time we don't is when we're in the middle of a turn restriction).
+     * Rather than a multimap, this takes advantage of the fact that we almost always have a single state per edge
+     * (the only time we don't is when we're in the middle of a turn restriction), see StatesAtEdges.
      */
-    TIntObjectMultimap<State> bestStatesAtEdge = new TIntObjectHashMultimap<>();
+    StatesAtEdges bestStatesAtEdge = new StatesAtEdges();
 
-    // The queue is prioritized by the specified optimization objective variable.
-    PriorityQueue<State> queue = new PriorityQueue<>(
-            Comparator.comparingInt(s0 -> (s0.getRoutingVariable(quantityToMinimize) + s0.heuristic)));
+    /**
+     * The queue is prioritized by the specified optimization objective variable plus the A* heuristic. The priority
+     * of each state is computed once when it's enqueued (see enqueue()) rather than on every comparison.
+     */
+    IntKeyedMinHeap<State> queue = new IntKeyedMinHeap<>();
 
     /**
      * If you set this to a non-negative number, the search will end at the vertex with the given index,
@@ -231,12 +231,8 @@ public class StreetRouter {
     public TIntIntMap getReachedVertices () {
         TIntIntMap result = new TIntIntHashMap();
         EdgeStore.Edge e = streetLayer.edgeStore.getCursor();
-        bestStatesAtEdge.forEachEntry((eidx, states) -> {
+        bestStatesAtEdge.forEachBestState(quantityToMinimize, (eidx, state) -> {
             if (eidx < 0) return true;
-            // Iterating over a little list and reducing the values with a stream might be slow.
-            // TODO We should try replacing this with states.get(0) and see if it makes building distance tables faster.
-            State state = states.stream()
-                    .reduce((s0, s1) -> s0.getRoutingVariable(quantityToMinimize) < s1.getRoutingVariable(quantityToMinimize) ? s0 : s1).get();
             e.seek(eidx);
             int vidx = e.getToVertex();
 
@@ -248,6 +244,45 @@ public class StreetRouter {
         return result;
     }
 
+    /**
+     * After a search has been run, return an envelope in fixed-point degrees that contains every point that could
+     * have been linked to an edge with at least one reached vertex, and therefore every point that could receive a
+     * travel time from LinkedPointSet.eval(). Every point linked to an edge lies within the linking radius of that
+     * edge's geometry, and every part of that geometry lies within the edge's length of both its vertices. So it is
+     * sufficient to buffer the reached vertices by the longest edge touching any of them plus the linking radius.
+     * This overselects (especially when long edges such as ferries are reached) but never misses a reachable point.
+     *
+     * @return the envelope, or null if nothing was reached.
+     */
+    public Envelope getReachedEnvelopeFixed () {
+        Envelope envelope = new Envelope();
+        EdgeStore.Edge e = streetLayer.edgeStore.getCursor();
+        VertexStore.Vertex v = streetLayer.vertexStore.getCursor();
+        int[] maxEdgeLengthMm = new int[1];
+        TIntSet seenVertices = new TIntHashSet();
+        bestStatesAtEdge.forEachBestState(quantityToMinimize, (eidx, state) -> {
+            if (eidx < 0) return true;
+            e.seek(eidx);
+            // Include both ends of the edge. This is a superset of the reached vertices in either search direction.
+            for (int vidx : new int[] {e.getFromVertex(), e.getToVertex()}) {
+                if (!seenVertices.add(vidx)) continue;
+                v.seek(vidx);
+                envelope.expandToInclude(v.getFixedLon(), v.getFixedLat());
+                for (TIntList edgeList : new TIntList[] {
+                        streetLayer.incomingEdges.get(vidx), streetLayer.outgoingEdges.get(vidx)}) {
+                    for (TIntIterator it = edgeList.iterator(); it.hasNext(); ) {
+                        e.seek(it.next());
+                        maxEdgeLengthMm[0] = Math.max(maxEdgeLengthMm[0], e.getLengthMm());
+                    }
+                }
+            }
+            return true; // continue iteration
+        });
+        if (envelope.isNull()) return null;
+        GeometryUtils.expandEnvelopeFixed(envelope, maxEdgeLengthMm[0] / 1000.0 + StreetLayer.LINK_RADIUS_METERS);
+        return envelope;
+    }
+
     /**
      * After a search has been run, calling this method will returns a map from vertex indexes to the value of
      * the objective variable for the optimal path to that vertex, but only for vertices with a certain flag set.
@@ -265,11 +300,8 @@ public class StreetRouter {
         TIntObjectMap<State> result = new TIntObjectHashMap<>();
         EdgeStore.Edge e = streetLayer.edgeStore.getCursor();
         VertexStore.Vertex v = streetLayer.vertexStore.getCursor();
-        bestStatesAtEdge.forEachEntry((eidx, states) -> {
+        bestStatesAtEdge.forEachBestState(quantityToMinimize, (eidx, state) -> {
             if (eidx < 0) return true;
-
-            State state = states.stream().reduce((s0, s1) ->
-                    s0.getRoutingVariable(quantityToMinimize) < s1.getRoutingVariable(quantityToMinimize) ? s0 : s1).get();
             e.seek(eidx);
             int vidx = e.getToVertex();
             v.seek(vidx);
@@ -352,10 +384,10 @@ public class StreetRouter {
 
         // These initial states are not recorded as bestStates, they will be added when they come out of the queue.
         // FIXME but wait - we are putting them in the bestStates for some reason.
-        queue.add(startState0);
-        queue.add(startState1);
-        bestStatesAtEdge.put(startState0.backEdge, startState0);
-        bestStatesAtEdge.put(startState1.backEdge, startState1);
+        enqueue(startState0);
+        enqueue(startState1);
+        bestStatesAtEdge.put(startState0);
+        bestStatesAtEdge.put(startState1);
 
         maxAbsOriginLat = originSplit.fixedLat;
         return true;
@@ -371,7 +403,7 @@ public class StreetRouter {
 
         // NB backEdge of -1 is no problem as it is a special case that indicates that the origin was a vertex.
         State startState = new State(fromVertex, -1, streetMode);
-        queue.add(startState);
+        enqueue(startState);
     }
 
     /**
@@ -402,8 +434,8 @@ public class StreetRouter {
             }
             state.distance = previousState.distance;
             if (!isDominated(state)) {
-                bestStatesAtEdge.put(state.backEdge, state);
-                queue.add(state);
+                bestStatesAtEdge.put(state);
+                enqueue(state);
                 VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor(state.vertex);
                 int deltaLatFixed = vertex.getFixedLat();
                 maxOriginLatArr[0] = Math.max(maxOriginLatArr[0], Math.abs(deltaLatFixed));
@@ -543,7 +575,7 @@ public class StreetRouter {
             // by traversing the same edge. Check that the state coming off the queue has not been dominated before
             // exploring it. States at the origin may have their backEdge set to a negative number to indicate that
             // they have no backEdge (were not produced by traversing an edge). Skip the check for those states.
-            if (s0.backEdge >= 0 && !bestStatesAtEdge.get(s0.backEdge).contains(s0)) continue;
+            if (s0.backEdge >= 0 && !bestStatesAtEdge.contains(s0)) continue;
 
             // If the search has reached the destination, the state coming off the queue is the best way to get there.
             if (toVertex > 0 && toVertex == s0.vertex) break;
@@ -589,8 +621,8 @@ public class StreetRouter {
                     if (!isDominated(s1)) {
                         // Calculate the heuristic (which involves a square root) only when the state is retained.
                         s1.heuristic = calcHeuristic(s1);
-                        bestStatesAtEdge.put(s1.backEdge, s1);
-                        queue.add(s1);
+                        bestStatesAtEdge.put(s1);
+                        enqueue(s1);
                     }
                 }
                 return true; // Iteration over the edge list should continue.
@@ -603,15 +635,28 @@ public class StreetRouter {
         LOG.debug("Routing took {} msec", routingTimeMsec);
     }
 
+    /**
+     * Add a state to the priority queue, keyed on its objective variable plus the A* heuristic.
+     */
+    private void enqueue (State state) {
+        queue.insert(state, state.getRoutingVariable(quantityToMinimize) + state.heuristic);
+    }
+
     /**
      * Given a new state, check whether it is dominated by any existing state that resulted from traversing the
      * same edge. Side effect: Boot out any existing states that are dominated by the new one.
      */
     private boolean isDominated(State newState) {
         // States in turn restrictions are incomparable (don't dominate and aren't dominated by other states)
-        // If the new state is not in a turn restriction, check whether it dominates any existing states and remove them.
-        // Multimap returns empty list for missing keys.
-        for (Iterator<State> it = bestStatesAtEdge.get(newState.backEdge).iterator(); it.hasNext(); ) {
+        // If the new state is not in a turn restriction, it can only be compared to the single unrestricted state at
+        // the same edge. If it's not dominated, it will replace that state when it's put into bestStatesAtEdge.
+        if (newState.turnRestrictions == null) {
+            State existingState = bestStatesAtEdge.getUnrestricted(newState.backEdge);
+            return existingState != null && dominates(existingState, newState);
+        }
+        // The new state is in a turn restriction, check whether it dominates any existing restricted states and
+        // remove them. This returns an empty collection for edges with no restricted states.
+        for (Iterator<State> it = bestStatesAtEdge.getTurnRestricted(newState.backEdge).iterator(); it.hasNext(); ) {
             State existingState = it.next();
             if (dominates(existingState, newState)) {
                 // If any existing state dominates the new one, bail out early and declare the new state dominated.
@@ -682,13 +727,8 @@ public class StreetRouter {
      * There can be more than one state at the end of an edge due to turn restrictions
      */
     public State getStateAtEdge (int edgeIndex) {
-        Collection<State> states = bestStatesAtEdge.get(edgeIndex);
-        if (states.isEmpty()) {
-            return null; // Unreachable
-        }
-        // Get the lowest weight, even if it's in the middle of a turn restriction.
-        return states.stream().reduce((s0, s1) ->
-                s0.getRoutingVariable(quantityToMinimize) < s1.getRoutingVariable(quantityToMinimize) ? s0 : s1).get();
+        // Get the lowest weight, even if it's in the middle of a turn restriction. Null if the edge is unreachable.
+        return bestStatesAtEdge.getBest(edgeIndex, quantityToMinimize);
     }
 
     /**
@@ -1190,7 +1230,7 @@ public class StreetRouter {
      */
     public void keepRoutingOnFoot() {
         queue.clear();
-        bestStatesAtEdge.forEachEntry((edgeId, states) -> queue.addAll(states));
+        bestStatesAtEdge.forEachState(this::enqueue);
         streetMode = StreetMode.WALK;
         route();
     }
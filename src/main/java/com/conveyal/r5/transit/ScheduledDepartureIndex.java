@@ -0,0 +1,130 @@
+package com.conveyal.r5.transit;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * For a particular set of active services (i.e. a particular day), dense timetables of the scheduled trips on each
+ * pattern, allowing the first boardable trip to be found by binary search rather than scanning through every trip on
+ * the pattern, and allowing trips to be ridden without dereferencing their TripSchedules. Frequency-based trips and
+ * trips on inactive services are left out entirely. The TripSchedules remain the authoritative source for these times,
+ * as they are what is serialized and modified by scenarios.
+ *
+ * Searches for trips rely on the departure times at each stop increasing from one trip to the next in the order the
+ * trips appear in the pattern. Trips are sorted on their departure time from the first stop, so this is usually the
+ * case, but trips can overtake one another. Patterns where this happens are not indexed and must be scanned as before.
+ *
+ * Instances are immutable once built, and are shared between all searches on the same TransitLayer and date.
+ * See TransitLayer.getScheduledDepartureIndex().
+ */
+public class ScheduledDepartureIndex {
+
+    /** For each pattern, its timetable or null if the pattern could not be indexed. */
+    private final PatternTimetable[] timetableForPattern;
+
+    public ScheduledDepartureIndex (List<TripPattern> tripPatterns, BitSet servicesActive) {
+        timetableForPattern = new PatternTimetable[tripPatterns.size()];
+        for (int p = 0; p < timetableForPattern.length; p++) {
+            timetableForPattern[p] = PatternTimetable.build(tripPatterns.get(p), servicesActive);
+        }
+    }
+
+    /**
+     * @return the timetable of the active scheduled trips on the given pattern, or null if the pattern's trips
+     *         overtake one another and it must be scanned trip by trip.
+     */
+    public PatternTimetable forPattern (int patternIndex) {
+        return timetableForPattern[patternIndex];
+    }
+
+    /**
+     * The timetable of the active scheduled trips on one pattern, stored column-wise in two dense arrays rather than
+     * spread across one TripSchedule object per trip. The arrival and departure times for trip t at stop position s
+     * are found at index (t * nStops + s), so reading along a single trip as a vehicle is ridden touches contiguous
+     * memory. Trips are numbered by their position in this timetable, which follows their order in the pattern.
+     */
+    public static class PatternTimetable {
+
+        private final int nStops;
+
+        /** The index within the pattern's tripSchedules of each active scheduled trip, in increasing order. */
+        private final int[] tripIndexes;
+
+        /** Flattened trip-major arrival times. */
+        private final int[] arrivals;
+
+        /** Flattened trip-major departure times. */
+        private final int[] departures;
+
+        private PatternTimetable (int nStops, int[] tripIndexes, int[] arrivals, int[] departures) {
+            this.nStops = nStops;
+            this.tripIndexes = tripIndexes;
+            this.arrivals = arrivals;
+            this.departures = departures;
+        }
+
+        /** @return the timetable, or null if departures do not increase from one trip to the next at every stop. */
+        private static PatternTimetable build (TripPattern pattern, BitSet servicesActive) {
+            TIntList tripIndexes = new TIntArrayList();
+            for (int t = 0; t < pattern.tripSchedules.size(); t++) {
+                TripSchedule schedule = pattern.tripSchedules.get(t);
+                if (schedule.headwaySeconds == null && servicesActive.get(schedule.serviceCode)) {
+                    tripIndexes.add(t);
+                }
+            }
+            final int nStops = pattern.stops.length;
+            int[] arrivals = new int[tripIndexes.size() * nStops];
+            int[] departures = new int[tripIndexes.size() * nStops];
+            for (int i = 0; i < tripIndexes.size(); i++) {
+                TripSchedule schedule = pattern.tripSchedules.get(tripIndexes.get(i));
+                System.arraycopy(schedule.arrivals, 0, arrivals, i * nStops, nStops);
+                System.arraycopy(schedule.departures, 0, departures, i * nStops, nStops);
+                for (int s = 0; i > 0 && s < nStops; s++) {
+                    if (departures[i * nStops + s] < departures[(i - 1) * nStops + s]) {
+                        // This trip overtakes the previous one at this stop.
+                        return null;
+                    }
+                }
+            }
+            return new PatternTimetable(nStops, tripIndexes.toArray(), arrivals, departures);
+        }
+
+        /**
+         * Find the first trip (in the order of the pattern's tripSchedules) departing the given stop position strictly
+         * after the given time. This is the same trip found by scanning forward through all active scheduled trips.
+         *
+         * @return the position of that trip in this timetable, or -1 if no trip departs after that time.
+         */
+        public int firstTripDepartingAfter (int stopPositionInPattern, int time) {
+            int low = 0;
+            int high = tripIndexes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departures[mid * nStops + stopPositionInPattern] > time) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low < tripIndexes.length ? low : -1;
+        }
+
+        /** @return the index within the pattern's tripSchedules of the trip at the given position in this timetable. */
+        public int tripIndex (int trip) {
+            return tripIndexes[trip];
+        }
+
+        public int arrival (int trip, int stopPositionInPattern) {
+            return arrivals[trip * nStops + stopPositionInPattern];
+        }
+
+        public int departure (int trip, int stopPositionInPattern) {
+            return departures[trip * nStops + stopPositionInPattern];
+        }
+
+    }
+
+}
@@ -47,6 +47,7 @@ import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -130,6 +131,16 @@ public class TransitLayer implements Serializable, Cloneable {
     /** If true at index stop allows boarding with wheelchairs **/
     public BitSet stopsWheelchair;
 
+    /**
+     * Indexes of the scheduled departures on each pattern, for the sets of services active on the most recently
+     * searched dates. Regional analyses search the same date from thousands of origins, so these are usually reused.
+     * See getScheduledDepartureIndex().
+     */
+    private transient Map<BitSet, ScheduledDepartureIndex> scheduledDepartureIndexes;
+
+    /** The number of distinct sets of active services for which scheduled departure indexes are retained. */
+    private static final int MAX_SCHEDULED_DEPARTURE_INDEXES = 4;
+
     // TODO there is probably a better way to do this, but for now we need to retain stop object for linking to streets
     public transient List<Stop> stopForIndex = new ArrayList<>();
 
@@ -531,6 +542,10 @@ public class TransitLayer implements Serializable, Cloneable {
             }
         }
 
+        // 5. Departure indexes are built lazily for each date searched, but must not survive changes to the patterns.
+        // Drop the map rather than clearing it, as it may be shared with the layer this one was cloned from.
+        scheduledDepartureIndexes = null;
+
         LOG.info("Done rebuilding transient indices.");
     }
 
@@ -612,6 +627,29 @@ public class TransitLayer implements Serializable, Cloneable {
         return activeServices;
     }
 
+    /**
+     * Get an index of the departures of all scheduled trips on the given set of services (as returned by
+     * getActiveServicesForDate), building it if necessary. The index is retained for reuse by later searches.
+     */
+    public synchronized ScheduledDepartureIndex getScheduledDepartureIndex (BitSet servicesActive) {
+        if (scheduledDepartureIndexes == null) {
+            // Access-ordered, so that the least recently used index is evicted.
+            scheduledDepartureIndexes = new LinkedHashMap<BitSet, ScheduledDepartureIndex>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry (Map.Entry<BitSet, ScheduledDepartureIndex> eldest) {
+                    return size() > MAX_SCHEDULED_DEPARTURE_INDEXES;
+                }
+            };
+        }
+        ScheduledDepartureIndex index = scheduledDepartureIndexes.get(servicesActive);
+        if (index == null) {
+            index = new ScheduledDepartureIndex(tripPatterns, servicesActive);
+            // Protectively copy the key, as BitSets are mutable.
+            scheduledDepartureIndexes.put((BitSet) servicesActive.clone(), index);
+        }
+        return index;
+    }
+
     // TODO setStreetLayer which automatically links and records the streetLayer ID in a field for use elsewhere?
 
 
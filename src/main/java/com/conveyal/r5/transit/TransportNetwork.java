@@ -119,7 +119,8 @@ public class TransportNetwork implements Serializable {
      * It would seem cleaner to just have two versions of this function, one which takes a list of strings and converts
      * it to a list of feeds, and one that just takes a list of feeds directly. However, this would require loading all
      * the feeds into memory simulataneously, which shouldn't be so bad with mapdb-based feeds, but it's still not great
-     * (due to caching etc.)
+     * (due to caching etc.) Note that feeds supplied as files are now all loaded at once anyway, so that large bundles
+     * can be loaded in parallel.
      */
     private static TransportNetwork fromFiles (String osmSourceFile, List<String> gtfsSourceFiles, List<GTFSFeed> feeds,
                                                TNBuilderConfig tnBuilderConfig) throws DuplicateFeedException {
@@ -160,10 +161,14 @@ public class TransportNetwork implements Serializable {
                 transitLayer.loadFromGtfs(feed);
             }
         } else {
-            for (String feedFile: gtfsSourceFiles) {
-                GTFSFeed feed = GTFSFeed.fromFile(feedFile);
-                transitLayer.loadFromGtfs(feed);
-                feed.close();
+            // Feeds are loaded concurrently, but must be added to the transit layer in order.
+            List<GTFSFeed> loadedFeeds = GTFSFeed.fromFiles(gtfsSourceFiles);
+            try {
+                for (GTFSFeed feed : loadedFeeds) {
+                    transitLayer.loadFromGtfs(feed);
+                }
+            } finally {
+                loadedFeeds.forEach(GTFSFeed::close);
             }
         }
         transportNetwork.transitLayer = transitLayer;
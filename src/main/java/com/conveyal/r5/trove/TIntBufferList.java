@@ -0,0 +1,334 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.procedure.TIntProcedure;
+
+import java.nio.IntBuffer;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * A read-only TIntList whose values are held in an IntBuffer rather than on the Java heap. This allows large columns of
+ * a TransportNetwork to be used directly from a memory-mapped file (see KryoNetworkSerializer) without copying them
+ * onto the heap, so several JVMs on the same machine can share the operating system's single cached copy.
+ * Like TIntArrayLists loaded from a network file, instances are treated as immutable: scenarios wrap them in a
+ * TIntAugmentedList to extend them.
+ */
+public class TIntBufferList implements TIntList {
+
+    private final IntBuffer buffer;
+
+    /**
+     * @param buffer the values of the list, from position zero to the buffer's limit. The buffer must not be modified
+     *               after it is wrapped in this list.
+     */
+    public TIntBufferList (IntBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int get (int index) {
+        return buffer.get(index);
+    }
+
+    @Override
+    public int set (int index, int value) {
+        throw new UnsupportedOperationException("Lists backed by a buffer are read-only.");
+    }
+
+    @Override
+    public boolean add (int val) {
+        throw new UnsupportedOperationException("Lists backed by a buffer are read-only.");
+    }
+
+    @Override
+    public int size () {
+        return buffer.limit();
+    }
+
+    @Override
+    public boolean isEmpty () {
+        return buffer.limit() == 0;
+    }
+
+    @Override
+    public int[] toArray () {
+        int[] result = new int[buffer.limit()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+
+    /**
+     *  Nominally implement the (enormous) TIntList interface.
+     *  But all of these remain unimplemented until we need them.
+     */
+
+    @Override
+    public void set(int offset, int[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void set(int offset, int[] values, int valOffset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int replace(int offset, int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Integer> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int removeAt(int offset) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void remove(int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void transformValues(TIntFunction function) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void reverse() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void reverse(int from, int to) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void shuffle(Random rand) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList subList(int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int[] dest) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int[] dest, int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int[] dest, int source_pos, int dest_pos, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEach(TIntProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEachDescending(TIntProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sort() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sort(int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(int fromIndex, int toIndex, int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(int value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntIterator iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList grep(TIntProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList inverseGrep(TIntProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int max() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int min() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int sum() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getNoEntryValue() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(int[] vals) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(int[] vals, int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, int[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, int[] values, int valOffset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+}
\ No newline at end of file
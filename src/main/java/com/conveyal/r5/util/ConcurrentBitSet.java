@@ -0,0 +1,64 @@
+package com.conveyal.r5.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size set of bits that can be read and set by many threads at once without locking. Unlike java.util.BitSet
+ * it never grows, and bits can only be set, never cleared, which is all we need for tracking completion of tasks.
+ */
+public class ConcurrentBitSet {
+
+    private final int size;
+
+    private final AtomicLongArray words;
+
+    public ConcurrentBitSet (int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    public boolean get (int index) {
+        checkIndex(index);
+        return (words.get(index / Long.SIZE) & (1L << index)) != 0;
+    }
+
+    /**
+     * Atomically set the given bit.
+     * @return true if this call changed the bit from clear to set, false if it was already set. When several threads
+     *         set the same bit at once, exactly one of them will see true.
+     */
+    public boolean set (int index) {
+        checkIndex(index);
+        int wordIndex = index / Long.SIZE;
+        long mask = 1L << index;
+        while (true) {
+            long word = words.get(wordIndex);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(wordIndex, word, word | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /** @return the number of bits that are set. This is not an atomic snapshot if other threads are setting bits. */
+    public int cardinality () {
+        int cardinality = 0;
+        for (int i = 0; i < words.length(); i++) {
+            cardinality += Long.bitCount(words.get(i));
+        }
+        return cardinality;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    private void checkIndex (int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Bit index " + index + " outside set of size " + size);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.conveyal.r5.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap whose priorities are primitive ints held in an array parallel to the stored elements.
+ * This is a replacement for java.util.PriorityQueue in tight search loops like the StreetRouter. Priorities are
+ * computed once when an element is inserted rather than through a Comparator on every comparison, no wrapper
+ * objects are created per entry, and clearing the heap retains its backing arrays so it can be refilled without
+ * reallocation.
+ *
+ * Elements with equal priorities are dequeued in no particular order, as with PriorityQueue.
+ */
+public class IntKeyedMinHeap<T> {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /** The priority of each element in the heap, in heap order. Only the first size entries are meaningful. */
+    private int[] keys;
+
+    /** The elements in the heap, in the same order as their keys. */
+    private Object[] elements;
+
+    private int size = 0;
+
+    public IntKeyedMinHeap () {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntKeyedMinHeap (int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 2);
+        keys = new int[capacity];
+        elements = new Object[capacity];
+    }
+
+    /** Insert an element with the given priority. Lower values are dequeued first. */
+    public void insert (T element, int key) {
+        if (size == keys.length) {
+            int newCapacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, newCapacity);
+            elements = Arrays.copyOf(elements, newCapacity);
+        }
+        // Sift up: move parents down into the hole until the new key's position is found.
+        int hole = size++;
+        while (hole > 0) {
+            int parent = (hole - 1) >>> 1;
+            if (keys[parent] <= key) break;
+            keys[hole] = keys[parent];
+            elements[hole] = elements[parent];
+            hole = parent;
+        }
+        keys[hole] = key;
+        elements[hole] = element;
+    }
+
+    /** @return the priority of the element that would be returned by the next call to poll(). */
+    public int peekKey () {
+        if (size == 0) throw new NoSuchElementException("Heap is empty.");
+        return keys[0];
+    }
+
+    /** Remove and return the element with the lowest priority. */
+    @SuppressWarnings("unchecked")
+    public T poll () {
+        if (size == 0) throw new NoSuchElementException("Heap is empty.");
+        T result = (T) elements[0];
+        size--;
+        int lastKey = keys[size];
+        Object lastElement = elements[size];
+        elements[size] = null; // Allow garbage collection of the removed element.
+        // Sift down: move the smaller child up into the hole until the last element's position is found.
+        int hole = 0;
+        while (true) {
+            int child = 2 * hole + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (lastKey <= keys[child]) break;
+            keys[hole] = keys[child];
+            elements[hole] = elements[child];
+            hole = child;
+        }
+        if (size > 0) {
+            keys[hole] = lastKey;
+            elements[hole] = lastElement;
+        }
+        return result;
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    /** Remove all elements, retaining the backing arrays for reuse. */
+    public void clear () {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.conveyal.analysis.components.broker;
+
+import com.conveyal.analysis.components.eventbus.EventBus;
+import com.conveyal.r5.analyst.WorkerCategory;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check how many tasks the broker delivers to workers polling for work, and that it keeps delivering tasks for jobs
+ * that are enqueued while other jobs are being completed.
+ */
+public class BrokerTest {
+
+    /**
+     * Each round lines up a job completion and an enqueue on two threads, which is enough to exercise the interleaving
+     * without making this a slow test.
+     */
+    private static final int N_ROUNDS = 5_000;
+
+    private static class TestConfig implements Broker.Config {
+        @Override public boolean offline () { return false; }
+        @Override public int maxWorkers () { return 0; }
+        @Override public String resultsBucket () { return null; }
+        @Override public String bundleBucket () { return null; }
+        @Override public boolean testTaskRedelivery () { return true; }
+    }
+
+    /** Workers computing blocks of origins receive the same number of blocks, within the limit they request. */
+    @Test
+    public void maxTasksScaledByOriginsPerBlock () {
+        Broker broker = new Broker(new TestConfig(), null, new EventBus(null), null);
+        int maxTasks = broker.MAX_TASKS_PER_WORKER;
+        // Older workers do not report a block size.
+        assertEquals(maxTasks, broker.maxTasksToDeliver(null, null));
+        assertEquals(maxTasks, broker.maxTasksToDeliver(null, 1));
+        assertEquals(maxTasks * 8, broker.maxTasksToDeliver(null, 8));
+        assertEquals(20, broker.maxTasksToDeliver(20, 8));
+        assertEquals(maxTasks, broker.maxTasksToDeliver(1000, null));
+        assertEquals(0, broker.maxTasksToDeliver(0, 8));
+    }
+
+    private static Job makeJob (String jobId) {
+        RegionalTask templateTask = new RegionalTask();
+        templateTask.jobId = jobId;
+        templateTask.graphId = "GRAPH";
+        templateTask.workerVersion = "VERSION";
+        templateTask.zoom = 9;
+        templateTask.width = 1;
+        templateTask.height = 1;
+        return new Job(templateTask, new WorkerTags("group", "user", "project", "region"));
+    }
+
+    /**
+     * In each round, the only job in a worker category is completed (removing the category's job list) on one thread
+     * while another job in the same category is enqueued on another thread. The new job must always be found by
+     * workers polling for tasks in that category.
+     */
+    @Test
+    public void concurrentEnqueueAndComplete () throws Exception {
+        Broker broker = new Broker(new TestConfig(), null, new EventBus(null), null);
+        WorkerCategory category = new WorkerCategory("GRAPH", "VERSION");
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Job previousJob = makeJob("JOB-0");
+            broker.addJob(previousJob);
+            assertEquals(1, broker.getSomeWork(category, null, null).size());
+            for (int round = 1; round <= N_ROUNDS; round++) {
+                final String previousJobId = previousJob.jobId;
+                final Job job = makeJob("JOB-" + round);
+                Future<?> completion = executor.submit(() -> {
+                    barrier.await();
+                    broker.markTaskCompleted(previousJobId, 0);
+                    return null;
+                });
+                Future<?> enqueue = executor.submit(() -> {
+                    barrier.await();
+                    broker.addJob(job);
+                    return null;
+                });
+                completion.get();
+                enqueue.get();
+                List<RegionalTask> tasks = broker.getSomeWork(category, null, null);
+                assertEquals("Job enqueued in round " + round + " was lost.", 1, tasks.size());
+                assertEquals(job.jobId, tasks.get(0).jobId);
+                previousJob = job;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.conveyal.analysis.components.broker;
+
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that task delivery and completion tracking in Job behave correctly when many threads use the same Job.
+ */
+public class JobTest {
+
+    private static Job makeJob (int width, int height) {
+        RegionalTask templateTask = new RegionalTask();
+        templateTask.jobId = "JOB";
+        templateTask.graphId = "GRAPH";
+        templateTask.workerVersion = "VERSION";
+        templateTask.zoom = 9;
+        templateTask.west = 100;
+        templateTask.north = 100;
+        templateTask.width = width;
+        templateTask.height = height;
+        return new Job(templateTask, null);
+    }
+
+    @Test
+    public void concurrentDeliveryAndCompletion () {
+        Job job = makeJob(100, 100);
+        AtomicIntegerArray deliveryCounts = new AtomicIntegerArray(job.nTasksTotal);
+        // Workers poll concurrently until the first delivery pass is exhausted.
+        IntStream.range(0, 64).parallel().forEach(worker -> {
+            while (true) {
+                List<RegionalTask> tasks = job.generateSomeTasksToDeliver(16);
+                if (tasks.isEmpty()) break;
+                for (RegionalTask task : tasks) {
+                    deliveryCounts.incrementAndGet(task.taskId);
+                    // Report every task twice, as happens when results are redelivered.
+                    job.markTaskCompleted(task.taskId);
+                    job.markTaskCompleted(task.taskId);
+                }
+            }
+        });
+        for (int t = 0; t < job.nTasksTotal; t++) {
+            assertEquals("Each task should be delivered exactly once in one pass.", 1, deliveryCounts.get(t));
+        }
+        assertTrue(job.isComplete());
+        assertEquals(job.nTasksTotal, job.nTasksCompleted.get());
+        assertEquals(job.nTasksTotal, job.nTasksDelivered.get());
+        assertFalse(job.hasTasksToDeliver());
+    }
+
+    @Test
+    public void completedTasksAreSkipped () {
+        Job job = makeJob(10, 10);
+        for (int t = 0; t < job.nTasksTotal; t++) {
+            if (t % 3 != 0) job.markTaskCompleted(t);
+        }
+        assertFalse(job.markTaskCompleted(job.nTasksTotal));
+        assertFalse(job.markTaskCompleted(-1));
+        int nDelivered = 0;
+        List<RegionalTask> tasks;
+        while (!(tasks = job.generateSomeTasksToDeliver(7)).isEmpty()) {
+            for (RegionalTask task : tasks) {
+                assertEquals(0, task.taskId % 3);
+                nDelivered += 1;
+            }
+        }
+        assertEquals(34, nDelivered);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.conveyal.analysis.controllers;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Check that single point worker responses are passed through the broker to the client without being altered.
+ */
+public class BrokerControllerTest {
+
+    /** Enough bytes to need several passes through the proxy buffer. */
+    private static final int BODY_SIZE_BYTES = 300 * 1024;
+
+    /**
+     * Records what the proxy sets on a servlet response. Only the methods used by the proxy are implemented, through
+     * a dynamic proxy so this does not need to spell out the whole servlet API.
+     */
+    private static class RecordedResponse {
+        int status;
+        Long contentLength;
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        HttpServletResponse servletResponse () {
+            ServletOutputStream outputStream = new ServletOutputStream() {
+                @Override public boolean isReady () { return true; }
+                @Override public void setWriteListener (WriteListener writeListener) { }
+                @Override public void write (int b) { body.write(b); }
+            };
+            return (HttpServletResponse) Proxy.newProxyInstance(
+                    HttpServletResponse.class.getClassLoader(),
+                    new Class[] { HttpServletResponse.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setStatus": status = (Integer) args[0]; return null;
+                            case "setHeader": headers.put((String) args[0], (String) args[1]); return null;
+                            case "setContentLengthLong": contentLength = (Long) args[0]; return null;
+                            case "getOutputStream": return outputStream;
+                            default: throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+            );
+        }
+    }
+
+    private static byte[] randomBody () {
+        byte[] body = new byte[BODY_SIZE_BYTES];
+        new Random(42).nextBytes(body);
+        return body;
+    }
+
+    private static byte[] gzip (byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static HttpResponse workerResponse (int status, byte[] body, boolean gzipped) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "STATUS");
+        response.setHeader("Content-Type", "application/octet-stream");
+        ByteArrayEntity entity = new ByteArrayEntity(body);
+        if (gzipped) entity.setContentEncoding("gzip");
+        response.setEntity(entity);
+        return response;
+    }
+
+    @Test
+    public void plainBodyPassesThrough () throws IOException {
+        byte[] body = randomBody();
+        RecordedResponse client = new RecordedResponse();
+        BrokerController.proxyWorkerResponse(workerResponse(400, body, false), "gzip", client.servletResponse());
+        assertEquals(400, client.status);
+        assertEquals("application/octet-stream", client.headers.get("Content-Type"));
+        assertNull(client.headers.get("Content-Encoding"));
+        assertEquals(Long.valueOf(body.length), client.contentLength);
+        assertArrayEquals(body, client.body.toByteArray());
+    }
+
+    /** A gzipped worker response is passed through still compressed when the client accepts gzip. */
+    @Test
+    public void gzippedBodyPassesThrough () throws IOException {
+        byte[] gzippedBody = gzip(randomBody());
+        RecordedResponse client = new RecordedResponse();
+        BrokerController.proxyWorkerResponse(workerResponse(200, gzippedBody, true), "gzip, deflate",
+                client.servletResponse());
+        assertEquals(200, client.status);
+        assertEquals("application/octet-stream", client.headers.get("Content-Type"));
+        assertEquals("gzip", client.headers.get("Content-Encoding"));
+        assertEquals(Long.valueOf(gzippedBody.length), client.contentLength);
+        assertArrayEquals(gzippedBody, client.body.toByteArray());
+    }
+
+    /** A gzipped worker response is decompressed for a client that does not accept gzip. */
+    @Test
+    public void gzippedBodyDecompressed () throws IOException {
+        byte[] body = randomBody();
+        RecordedResponse client = new RecordedResponse();
+        BrokerController.proxyWorkerResponse(workerResponse(200, gzip(body), true), null, client.servletResponse());
+        assertEquals(200, client.status);
+        assertNull(client.headers.get("Content-Encoding"));
+        assertNull(client.contentLength);
+        assertArrayEquals(body, client.body.toByteArray());
+    }
+
+}
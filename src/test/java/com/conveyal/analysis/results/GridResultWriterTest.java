@@ -0,0 +1,67 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that results for many origins written concurrently all land at the right place in the grid buffer file.
+ */
+public class GridResultWriterTest {
+
+    private static final int HEADER_INTS = 9;
+
+    @Test
+    public void concurrentWrites () throws IOException {
+        RegionalTask task = new RegionalTask();
+        task.jobId = "JOB";
+        task.zoom = 9;
+        task.west = 100;
+        task.north = 200;
+        task.width = 150;
+        task.height = 120;
+        task.cutoffsMinutes = new int[] {15, 30, 45, 60};
+        int channels = task.cutoffsMinutes.length;
+        int nOrigins = task.width * task.height;
+        GridResultWriter writer = new GridResultWriter(task, "bucket", null);
+        // Write origins in parallel, in an order unrelated to their position in the file.
+        IntStream.range(0, nOrigins).parallel().map(i -> (i * 7919) % nOrigins).forEach(origin -> {
+            try {
+                writer.writeOneOrigin(origin, valuesForOrigin(origin, channels));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(writer.bufferFile.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals((HEADER_INTS + nOrigins * channels) * Integer.BYTES, buffer.limit());
+        assertEquals(task.width, buffer.getInt(6 * Integer.BYTES));
+        buffer.position(HEADER_INTS * Integer.BYTES);
+        for (int origin = 0; origin < nOrigins; origin++) {
+            int value = 0;
+            for (int expected : valuesForOrigin(origin, channels)) {
+                // Values are delta-coded within each origin.
+                value += buffer.getInt();
+                assertEquals(expected, value);
+            }
+        }
+        writer.terminate();
+    }
+
+    private static int[] valuesForOrigin (int origin, int channels) {
+        int[] values = new int[channels];
+        for (int c = 0; c < channels; c++) {
+            values[c] = origin * 10 + c * c;
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.file.FileStorageFormat;
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.FileUtils;
+import com.conveyal.file.LocalFileStorage;
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.cluster.AccessGridValueWriter;
+import com.google.common.io.LittleEndianDataOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.conveyal.analysis.results.RegionalResultsCache.TILE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that single-cutoff results and map tiles derived from a synthetic multi-cutoff regional results file have the
+ * expected values, and are only derived once.
+ */
+public class RegionalResultsCacheTest {
+
+    private static final String BUCKET = "results";
+    private static final int ZOOM = 9;
+    // The grid starts partway through a tile and spans several tiles at its own zoom level.
+    private static final int WEST = 10 * TILE_SIZE + 100;
+    private static final int NORTH = 20 * TILE_SIZE + 50;
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    private File directory;
+    private LocalFileStorage fileStorage;
+    private RegionalResultsCache cache;
+    private RegionalResultsCache.Result result;
+
+    @Before
+    public void setUp () throws IOException {
+        directory = FileUtils.createScratchDirectory();
+        fileStorage = new LocalFileStorage(directory.getPath());
+        File multiCutoffFile = fileStorage.getFile(new FileStorageKey(BUCKET, "analysis_P50.access"));
+        multiCutoffFile.getParentFile().mkdirs();
+        try (LittleEndianDataOutputStream output =
+                     new LittleEndianDataOutputStream(new GZIPOutputStream(new FileOutputStream(multiCutoffFile)))) {
+            output.writeBytes("ACCESSGR");
+            output.writeInt(AccessGridValueWriter.FIXED_WIDTH_VERSION);
+            output.writeInt(ZOOM);
+            output.writeInt(WEST);
+            output.writeInt(NORTH);
+            output.writeInt(WIDTH);
+            output.writeInt(HEIGHT);
+            output.writeInt(2);
+            AccessGridValueWriter valueWriter = new AccessGridValueWriter(output, AccessGridValueWriter.FIXED_WIDTH_VERSION);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    valueWriter.restartDeltas();
+                    valueWriter.write(x);
+                    valueWriter.write(value(x, y));
+                }
+            }
+        }
+        cache = new RegionalResultsCache(fileStorage, BUCKET, new File(directory, "tiles"));
+        result = new RegionalResultsCache.Result("analysis_grid_P50_C30", "analysis_P50.access", 1);
+    }
+
+    /** The value in the second channel of the synthetic results, which is selected by the result under test. */
+    private static int value (int x, int y) {
+        return x * 3 + y * 2;
+    }
+
+    @Test
+    public void storedFiles () throws IOException {
+        FileStorageKey gridKey = cache.getStoredFile(result, FileStorageFormat.GRID, "grid");
+        assertEquals("analysis_grid_P50_C30.grid", gridKey.path);
+        Grid grid = Grid.read(new GZIPInputStream(new FileInputStream(fileStorage.getFile(gridKey))));
+        assertEquals(WEST, grid.west);
+        assertEquals(HEIGHT, grid.height);
+        assertEquals(value(123, 45), grid.grid[123][45], 0);
+
+        // Other formats are derived from the grid held in memory, without reading the multi-cutoff file again.
+        fileStorage.delete(new FileStorageKey(BUCKET, "analysis_P50.access"));
+        FileStorageKey pngKey = cache.getStoredFile(result, FileStorageFormat.PNG, "png");
+        assertTrue(fileStorage.exists(pngKey));
+
+        // Files already known to be stored are not derived again.
+        long lastModified = fileStorage.getFile(gridKey).lastModified();
+        assertEquals(gridKey, cache.getStoredFile(result, FileStorageFormat.GRID, "grid"));
+        assertEquals(lastModified, fileStorage.getFile(gridKey).lastModified());
+    }
+
+    @Test
+    public void tiles () throws IOException {
+        double maxValue = value(WIDTH - 1, HEIGHT - 1);
+
+        // At the zoom level of the grid, tile pixels are grid cells.
+        BufferedImage tile = readTile(ZOOM, 10, 20);
+        assertEquals(0, tile.getRGB(99, 49) >>> 24);
+        assertEquals(grey(value(0, 0), maxValue), tile.getRGB(100, 50));
+        assertEquals(grey(value(166, 150), maxValue), readTile(ZOOM, 11, 20).getRGB(10, 200));
+
+        // At coarser zoom levels, each pixel is the mean of the cells it covers.
+        BufferedImage coarseTile = readTile(ZOOM - 1, 5, 10);
+        double mean = (value(0, 0) + value(1, 0) + value(0, 1) + value(1, 1)) / 4.0;
+        assertEquals(grey(mean, maxValue), coarseTile.getRGB(50, 25));
+        mean = (value(2, 2) + value(3, 2) + value(2, 3) + value(3, 3)) / 4.0;
+        assertEquals(grey(mean, maxValue), coarseTile.getRGB(51, 26));
+
+        // The pyramid of coarser tiles was rendered in full on the first request, but finer tiles were not.
+        File tileDirectory = new File(directory, "tiles/" + result.name);
+        assertTrue(new File(tileDirectory, "complete").exists());
+        assertTrue(new File(tileDirectory, (ZOOM - RegionalResultsCache.PRE_RENDERED_ZOOM_LEVELS) + "/0/1.png").exists());
+        assertFalse(new File(tileDirectory, Integer.toString(ZOOM + 1)).exists());
+
+        // At finer zoom levels, cells are enlarged, and the tiles are saved once rendered.
+        BufferedImage fineTile = readTile(ZOOM + 1, 21, 41);
+        assertEquals(grey(value(28, 78), maxValue), fineTile.getRGB(1, 1));
+        assertEquals(grey(value(29, 78), maxValue), fineTile.getRGB(2, 1));
+        assertTrue(new File(tileDirectory, (ZOOM + 1) + "/21/41.png").exists());
+
+        // Tiles outside the grid are empty.
+        BufferedImage empty = readTile(ZOOM, 9, 20);
+        assertEquals(0, empty.getRGB(128, 128) >>> 24);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zoomOutOfRange () throws IOException {
+        cache.getTile(result, ZOOM + RegionalResultsCache.MAX_OVERZOOM + 1, 0, 0);
+    }
+
+    private BufferedImage readTile (int zoom, int x, int y) throws IOException {
+        BufferedImage tile = ImageIO.read(new ByteArrayInputStream(cache.getTile(result, zoom, x, y)));
+        assertEquals(TILE_SIZE, tile.getWidth());
+        assertEquals(TILE_SIZE, tile.getHeight());
+        return tile;
+    }
+
+    private static int grey (double value, double maxValue) {
+        int grey = (int) (value * 255 / maxValue);
+        return 0xFF000000 | grey << 16 | grey << 8 | grey;
+    }
+
+}
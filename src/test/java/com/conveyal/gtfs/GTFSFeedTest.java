@@ -1,5 +1,7 @@
 package com.conveyal.gtfs;
 
+import com.conveyal.gtfs.error.DuplicateKeyError;
+import com.conveyal.gtfs.model.StopTime;
 import com.csvreader.CsvReader;
 import org.apache.commons.io.input.BOMInputStream;
 import org.junit.Test;
@@ -7,16 +9,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static com.conveyal.gtfs.TestUtils.getResourceFileName;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * Test suite for the GTFSFeed class.
@@ -152,4 +163,100 @@ public class GTFSFeedTest {
             );
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Make sure large tables that are sorted and bulk loaded end up with every row under the right key, in order, and
+     * that the last of several rows with the same key is the one retained, as when rows were inserted one by one.
+     */
+    @Test
+    public void sortedLoaderRetainsAllRowsInKeyOrder() throws Exception {
+        final int stopsPerTrip = 15_000;
+        List<String> rows = new ArrayList<>();
+        for (String trip : new String[] {"out", "back"}) {
+            for (int sequence = 1; sequence <= stopsPerTrip; sequence++) {
+                rows.add(String.format("%s,10:00:00,10:00:00,%d,%d", trip, sequence % 2, sequence));
+            }
+        }
+        Collections.shuffle(rows, new Random(42));
+        // Repeat one of the rows with a different stop. This later row should replace the earlier one.
+        rows.add("out,11:00:00,11:00:00,1,42");
+
+        File feedFile = File.createTempFile("sorted-loader", ".zip");
+        File directory = new File(getResourceFileName("com/conveyal/gtfs/null-island-ferry"));
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(feedFile))) {
+            for (File file : directory.listFiles()) {
+                if (file.getName().equals("stop_times.txt")) continue;
+                zip.putNextEntry(new ZipEntry(file.getName()));
+                zip.write(Files.readAllBytes(file.toPath()));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("stop_times.txt"));
+            zip.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n".getBytes());
+            zip.write(String.join("\n", rows).getBytes());
+            zip.closeEntry();
+        }
+
+        GTFSFeed feed = GTFSFeed.fromFile(feedFile.getAbsolutePath());
+        assertThat(feed.stop_times.size(), is(2 * stopsPerTrip));
+        int sequence = 0;
+        for (StopTime stopTime : feed.getOrderedStopTimesForTrip("out")) {
+            sequence += 1;
+            assertThat(stopTime.stop_sequence, is(sequence));
+            if (sequence == 42) {
+                assertThat(stopTime.stop_id, is("1"));
+                assertThat(stopTime.arrival_time, is(11 * 60 * 60));
+                assertThat(stopTime.sourceFileLine, is(rows.size() + 1));
+            } else {
+                assertThat(stopTime.stop_id, is(Integer.toString(sequence % 2)));
+            }
+        }
+        assertThat(sequence, is(stopsPerTrip));
+        assertThat(feed.errors.stream().filter(e -> e instanceof DuplicateKeyError).count(), is(1L));
+        feed.close();
+        feedFile.delete();
+    }
+
+    /**
+     * A row that cannot be parsed part way through a large table must fail the load with the parsing error, after
+     * stopping the thread that sorts and writes the rows already parsed rather than leaving it to build a partial table.
+     */
+    @Test
+    public void sortedLoaderFailsCleanlyOnMalformedRow() throws Exception {
+        StringBuilder stopTimes = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        for (int sequence = 1; sequence <= 50_000; sequence++) {
+            stopTimes.append(String.format("out,10:00:00,10:00:00,%d,%d\n", sequence % 2, sequence));
+        }
+        // An unterminated quote makes the rest of the file one field, longer than the CSV reader accepts.
+        stopTimes.append("out,\"10:00:00");
+        for (int i = 0; i < 20_000; i++) {
+            stopTimes.append("\nout,10:00:00");
+        }
+
+        File feedFile = File.createTempFile("malformed-row", ".zip");
+        File directory = new File(getResourceFileName("com/conveyal/gtfs/null-island-ferry"));
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(feedFile))) {
+            for (File file : directory.listFiles()) {
+                if (file.getName().equals("stop_times.txt")) continue;
+                zip.putNextEntry(new ZipEntry(file.getName()));
+                zip.write(Files.readAllBytes(file.toPath()));
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("stop_times.txt"));
+            zip.write(stopTimes.toString().getBytes());
+            zip.closeEntry();
+        }
+
+        GTFSFeed feed = new GTFSFeed();
+        try (ZipFile zip = new ZipFile(feedFile)) {
+            feed.loadFromFile(zip);
+            fail("Loading a feed with a malformed row should fail.");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Maximum column length"));
+        }
+        boolean pumpThreadAlive = Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith("gtfs-pump-"));
+        assertThat(pumpThreadAlive, is(false));
+        feed.close();
+        feedFile.delete();
+    }
+}
@@ -0,0 +1,80 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Check that storing untagged nodes in a CompactNodeMap gives the same results as storing all nodes in MapDB.
+ */
+public class CompactNodeMapTest extends TestCase {
+
+	public void testLoadMatchesMapDB () {
+		OSM expected = new OSM(null);
+		expected.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+		OSM compact = new OSM(null);
+		compact.compactNodeStorage = true;
+		compact.readFromFile("./src/test/resources/bangor_maine.osm.pbf");
+		assertTrue(compact.nodes instanceof CompactNodeMap);
+		assertEquals(12030, compact.nodes.size());
+
+		// Iteration must produce the same nodes in the same order, mixing tagged and untagged nodes.
+		Iterator<Map.Entry<Long, Node>> expectedEntries = expected.nodes.entrySet().iterator();
+		for (Map.Entry<Long, Node> entry : compact.nodes.entrySet()) {
+			Map.Entry<Long, Node> expectedEntry = expectedEntries.next();
+			assertEquals(expectedEntry.getKey(), entry.getKey());
+			assertEquals(expectedEntry.getValue(), entry.getValue());
+			assertEquals(expectedEntry.getValue(), compact.nodes.get(entry.getKey()));
+			assertTrue(compact.nodes.containsKey(entry.getKey()));
+		}
+		assertFalse(expectedEntries.hasNext());
+		assertNull(compact.nodes.get(-1L));
+		assertFalse(compact.nodes.containsKey(Long.MAX_VALUE));
+		expected.close();
+		compact.close();
+	}
+
+	public void testUpdates () {
+		OSM osm = new OSM(null);
+		osm.compactNodeStorage = true;
+		try {
+			osm.writeBegin();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		Node tagged = new Node(44.8, -68.7);
+		tagged.addTag("highway", "traffic_signals");
+		for (long id = 10; id < 100; id += 10) {
+			osm.writeNode(id, id == 50 ? tagged : new Node(44.8, -68.7 + id / 1000.0));
+		}
+		assertEquals(9, osm.nodes.size());
+		assertEquals(tagged, osm.nodes.get(50L));
+
+		// Out-of-order, overwritten, and removed nodes
+		osm.writeNode(15, new Node(45, -69));
+		assertEquals(new Node(45, -69), osm.nodes.get(15L));
+		assertEquals(new Node(44.8, -68.68), osm.nodes.put(20L, new Node(45.1, -69.1)));
+		assertEquals(new Node(45.1, -69.1), osm.nodes.get(20L));
+		Node taggedReplacement = new Node(45.2, -69.2);
+		taggedReplacement.addTag("barrier", "gate");
+		osm.nodes.put(30L, taggedReplacement);
+		assertEquals(taggedReplacement, osm.nodes.get(30L));
+		assertNotNull(osm.nodes.remove(40L));
+		assertNull(osm.nodes.get(40L));
+		assertFalse(osm.nodes.containsKey(40L));
+		assertNotNull(osm.nodes.remove(50L));
+		assertEquals(8, osm.nodes.size());
+
+		long previousId = -1;
+		int count = 0;
+		for (long id : osm.nodes.keySet()) {
+			assertTrue(id > previousId);
+			previousId = id;
+			count++;
+		}
+		assertEquals(8, count);
+		osm.close();
+	}
+
+}
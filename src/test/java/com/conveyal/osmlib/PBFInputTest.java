@@ -0,0 +1,99 @@
+package com.conveyal.osmlib;
+
+import junit.framework.TestCase;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that decoding PBF blocks on several threads passes exactly the same entities to the sink, in exactly the same
+ * order, as decoding them one after another on the calling thread.
+ */
+public class PBFInputTest extends TestCase {
+
+    static final String[] TEST_FILES = {
+        "./src/test/resources/porto_portugal.osm.pbf",
+        "./src/test/resources/bangor_maine.osm.pbf",
+        "./src/test/resources/felton.pbf"
+    };
+
+    public void testParallelMatchesSequential() throws Exception {
+        for (String file : TEST_FILES) {
+            RecordingSink sequential = read(file, 1);
+            assertTrue(sequential.nodeCount > 1);
+            assertTrue(sequential.wayCount > 1);
+            assertTrue(sequential.relationCount > 1);
+            // Few threads with many blocks in the file, so the limit on blocks decoded ahead of the sink is reached.
+            for (int nThreads : new int[] {2, 4}) {
+                RecordingSink parallel = read(file, nThreads);
+                assertEquals(sequential.entities.size(), parallel.entities.size());
+                for (int i = 0; i < sequential.entities.size(); i++) {
+                    assertEquals(file + " entity " + i, sequential.ids.get(i), parallel.ids.get(i));
+                    assertEquals(file + " entity " + i, sequential.entities.get(i), parallel.entities.get(i));
+                }
+                assertEquals(sequential.replicationTimestamp, parallel.replicationTimestamp);
+            }
+        }
+    }
+
+    private static RecordingSink read (String file, int nThreads) throws IOException {
+        RecordingSink sink = new RecordingSink();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            new PBFInput(inputStream, nThreads).copyTo(sink);
+        }
+        assertTrue(sink.begun && sink.ended);
+        return sink;
+    }
+
+    /** Records every entity written by the entity source, in order. */
+    private static class RecordingSink implements OSMEntitySink {
+
+        final List<Long> ids = new ArrayList<>();
+        final List<OSMEntity> entities = new ArrayList<>();
+        long replicationTimestamp = -1;
+        int nodeCount, wayCount, relationCount;
+        boolean begun = false;
+        boolean ended = false;
+
+        @Override
+        public void writeBegin() {
+            assertTrue(entities.isEmpty());
+            begun = true;
+        }
+
+        @Override
+        public void setReplicationTimestamp(long secondsSinceEpoch) {
+            replicationTimestamp = secondsSinceEpoch;
+        }
+
+        @Override
+        public void writeNode(long id, Node node) {
+            nodeCount++;
+            ids.add(id);
+            entities.add(node);
+        }
+
+        @Override
+        public void writeWay(long id, Way way) {
+            wayCount++;
+            ids.add(id);
+            entities.add(way);
+        }
+
+        @Override
+        public void writeRelation(long id, Relation relation) {
+            relationCount++;
+            ids.add(id);
+            entities.add(relation);
+        }
+
+        @Override
+        public void writeEnd() {
+            ended = true;
+        }
+    }
+
+}
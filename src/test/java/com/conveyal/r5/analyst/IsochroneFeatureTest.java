@@ -0,0 +1,81 @@
+package com.conveyal.r5.analyst;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.List;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the shape of isochrones produced from synthetic travel time grids.
+ */
+public class IsochroneFeatureTest {
+
+    private static final int SIZE = 200;
+
+    /** Travel times increasing with distance from the center of the grid, one minute per pixel. */
+    private static int[] radialTimes (WebMercatorGridPointSet points) {
+        int[] times = new int[points.width * points.height];
+        for (int y = 0; y < points.height; y++) {
+            for (int x = 0; x < points.width; x++) {
+                double pixels = Math.hypot(x - points.width / 2, y - points.height / 2);
+                times[y * points.width + x] = pixels > 90 ? UNREACHED : (int) (pixels * 60);
+            }
+        }
+        return times;
+    }
+
+    @Test
+    public void nestedIsochrones () {
+        WebMercatorGridPointSet points = new WebMercatorGridPointSet(9, 65536, 46000, SIZE, SIZE, null);
+        int[] times = radialTimes(points);
+        int[] cutoffs = new int[12];
+        for (int c = 0; c < cutoffs.length; c++) {
+            cutoffs[c] = (c + 1) * 5 * 60;
+        }
+        List<IsochroneFeature> isochrones = IsochroneFeature.createIsochrones(cutoffs, points, times, false);
+        assertEquals(cutoffs.length, isochrones.size());
+        double thirtyMinuteArea = isochrones.get(5).geometry.getArea();
+        for (int c = 0; c < cutoffs.length; c++) {
+            IsochroneFeature isochrone = isochrones.get(c);
+            assertEquals(cutoffs[c], isochrone.cutoffSec);
+            assertEquals(1, isochrone.geometry.getNumGeometries());
+            // The areas of the disks should grow with the square of the cutoff, thanks to interpolation.
+            double expectedRatio = Math.pow((c + 1) / 6.0, 2);
+            assertEquals(expectedRatio, isochrone.geometry.getArea() / thirtyMinuteArea, expectedRatio * 0.1);
+            if (c > 0) {
+                assertTrue(isochrone.geometry.contains(isochrones.get(c - 1).geometry.getInteriorPoint()));
+            }
+        }
+
+        // The cutoffs need not be sorted, and the results should not depend on parallelism.
+        int[] reversed = new int[] {cutoffs[11], cutoffs[3], cutoffs[0]};
+        List<IsochroneFeature> parallel = IsochroneFeature.createIsochrones(reversed, points, times, true);
+        assertTrue(parallel.get(0).geometry.equalsExact(isochrones.get(11).geometry));
+        assertTrue(parallel.get(1).geometry.equalsExact(isochrones.get(3).geometry));
+        assertTrue(parallel.get(2).geometry.equalsExact(new IsochroneFeature(cutoffs[0], points, times).geometry));
+    }
+
+    @Test
+    public void holesAndGridEdges () {
+        WebMercatorGridPointSet points = new WebMercatorGridPointSet(9, 65536, 46000, SIZE, SIZE, null);
+        int[] times = new int[SIZE * SIZE];
+        // Everything is reached quickly, including the edges of the grid, except an unreached square in the middle.
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean hole = x >= 80 && x < 120 && y >= 80 && y < 120;
+                times[y * SIZE + x] = hole ? UNREACHED : 600;
+            }
+        }
+        IsochroneFeature isochrone = IsochroneFeature.createIsochrones(new int[] {1800}, points, times, false).get(0);
+        assertEquals(1, isochrone.geometry.getNumGeometries());
+        assertEquals(1, ((Polygon) isochrone.geometry.getGeometryN(0)).getNumInteriorRing());
+        // Nothing is reached below the travel time of every point.
+        IsochroneFeature empty = IsochroneFeature.createIsochrones(new int[] {600}, points, times, false).get(0);
+        assertTrue(empty.geometry.isEmpty());
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Check that per-iteration travel times are retained exactly, and that reducing them again gives the same result as
+ * reducing them as they are produced.
+ */
+public class IterationTravelTimesTest extends TestCase {
+
+    private static final int N_ITERATIONS = 60;
+
+    @Test
+    public void testRoundTrip () {
+        Random random = new Random(42);
+        int nTargets = 1000;
+        int[][] expected = new int[nTargets][];
+        IterationTravelTimes iterationTravelTimes = new IterationTravelTimes(nTargets, N_ITERATIONS);
+        for (int target = 0; target < nTargets; target++) {
+            expected[target] = randomSortedTimes(random);
+            iterationTravelTimes.recordSortedTimes(target, expected[target]);
+        }
+        int[] times = new int[N_ITERATIONS];
+        for (int target = 0; target < nTargets; target++) {
+            iterationTravelTimes.getSortedTimes(target, times);
+            assertTrue(Arrays.equals(expected[target], times));
+        }
+        // Mostly single-byte deltas, well under the four bytes per time of an uncompressed array.
+        assertTrue(iterationTravelTimes.sizeBytes() < nTargets * N_ITERATIONS * 2);
+    }
+
+    /** Travel times taking up to half the cache are retained, not evicted as soon as they are inserted. */
+    @Test
+    public void testCacheRetainsLargeEntries () {
+        // No times recorded, so the size is that of the array of references to each target's times.
+        IterationTravelTimes iterationTravelTimes = new IterationTravelTimes(100_000, N_ITERATIONS);
+        long sizeBytes = iterationTravelTimes.sizeBytes();
+        IterationTravelTimesCache cache = new IterationTravelTimesCache(sizeBytes * 5 / 2);
+        cache.put("key", iterationTravelTimes);
+        assertSame(iterationTravelTimes, cache.get("key"));
+        // Entries over half the cache size are not retained.
+        IterationTravelTimesCache smallCache = new IterationTravelTimesCache(sizeBytes * 3 / 2);
+        smallCache.put("key", iterationTravelTimes);
+        assertNull(smallCache.get("key"));
+    }
+
+    @Test
+    public void testReduceMatchesDirectReduction () {
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = 9;
+        task.width = 50;
+        task.height = 40;
+        task.fromTime = 7 * 60 * 60;
+        task.toTime = task.fromTime + N_ITERATIONS * 60;
+        task.monteCarloDraws = 0;
+        task.percentiles = new int[] {5, 25, 50, 75, 95};
+        int nTargets = task.width * task.height;
+
+        Random random = new Random(1);
+        TravelTimeReducer directReducer = new TravelTimeReducer(task);
+        IterationTravelTimes iterationTravelTimes = new IterationTravelTimes(nTargets, N_ITERATIONS);
+        for (int target = 0; target < nTargets; target++) {
+            int[] times = randomSortedTimes(random);
+            // Supply the times unsorted to the reducer, as the propagator would.
+            int[] shuffled = times.clone();
+            for (int i = shuffled.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = shuffled[i];
+                shuffled[i] = shuffled[j];
+                shuffled[j] = tmp;
+            }
+            directReducer.extractTravelTimePercentilesAndRecord(target, shuffled);
+            iterationTravelTimes.recordSortedTimes(target, shuffled);
+        }
+        OneOriginResult direct = directReducer.finish();
+        OneOriginResult reduced = iterationTravelTimes.reduce(new TravelTimeReducer(task));
+        assertTrue(Arrays.deepEquals(direct.travelTimes.getValues(), reduced.travelTimes.getValues()));
+    }
+
+    @Test
+    public void testCacheKey () {
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.graphId = "network";
+        task.fromLat = 44.8;
+        task.fromLon = -68.7;
+        task.percentiles = new int[] {50};
+        String key = IterationTravelTimesCache.key(task);
+        assertNotNull(key);
+
+        // Parameters that only affect the reducer do not change the key.
+        task.percentiles = new int[] {5, 50, 95};
+        task.cutoffsMinutes = new int[] {30, 60};
+        assertEquals(key, IterationTravelTimesCache.key(task));
+
+        // Routing parameters do.
+        task.fromLat = 44.9;
+        assertFalse(key.equals(IterationTravelTimesCache.key(task)));
+
+        task.computePaths = true;
+        assertNull(IterationTravelTimesCache.key(task));
+    }
+
+    /** @return sorted travel times, a quarter of which are unreached, and some of which are entirely unreached. */
+    private static int[] randomSortedTimes (Random random) {
+        int[] times = new int[N_ITERATIONS];
+        boolean reached = random.nextInt(10) > 0;
+        int base = random.nextInt(3600);
+        for (int i = 0; i < N_ITERATIONS; i++) {
+            times[i] = (reached && random.nextInt(4) > 0) ? base + random.nextInt(1200) : UNREACHED;
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.analyst.decay.StepDecayFunction;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check that accessibility accumulated by tile reducers is merged deterministically.
+ */
+public class TravelTimeReducerTest {
+
+    private static final int N_ITERATIONS = 60;
+
+    /**
+     * Tile reducers are filled in parallel, as in PerTargetPropagater, then merged. The accessibility must be identical
+     * to that recorded by a single reducer visiting the targets in order, whatever order the tiles complete in.
+     */
+    @Test
+    public void mergeTilesInOrder () {
+        // One reached target at the start of each tile, with fractional opportunity counts whose floating point sum
+        // depends on the order in which they are added.
+        int tileSize = 4096;
+        int nTiles = 8;
+        Grid grid = new Grid(9, tileSize, nTiles, 0, 0);
+        for (int tile = 0; tile < nTiles; tile++) {
+            grid.grid[0][tile] = 0.1 * (tile + 1);
+        }
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = grid.zoom;
+        task.width = grid.width;
+        task.height = grid.height;
+        task.fromTime = 7 * 60 * 60;
+        task.toTime = task.fromTime + N_ITERATIONS * 60;
+        task.monteCarloDraws = 0;
+        task.percentiles = new int[] {50};
+        task.cutoffsMinutes = new int[AnalysisWorkerTask.N_SINGLE_POINT_CUTOFFS];
+        for (int c = 0; c < task.cutoffsMinutes.length; c++) {
+            task.cutoffsMinutes[c] = c;
+        }
+        task.decayFunction = new StepDecayFunction();
+        task.destinationPointSetKeys = new String[] {"grid"};
+        task.destinationPointSets = new PointSet[] {grid};
+
+        int[] times = new int[N_ITERATIONS];
+        Arrays.fill(times, 600);
+        TravelTimeReducer directReducer = new TravelTimeReducer(task);
+        for (int tile = 0; tile < nTiles; tile++) {
+            directReducer.extractTravelTimePercentilesAndRecord(tile * tileSize, times.clone());
+        }
+        // With one target per tile, adding the tiles in order is the same as adding the targets in order.
+        double expected = directReducer.finish().accessibility.getValue(0, 0, 60);
+        for (int i = 0; i < 20; i++) {
+            TravelTimeReducer reducer = new TravelTimeReducer(task);
+            List<TravelTimeReducer> tileReducers = IntStream.range(0, nTiles).parallel().mapToObj(tile -> {
+                TravelTimeReducer tileReducer = reducer.createTileReducer();
+                tileReducer.extractTravelTimePercentilesAndRecord(tile * tileSize, times.clone());
+                return tileReducer;
+            }).collect(Collectors.toList());
+            reducer.mergeTileReducers(tileReducers);
+            assertEquals(expected, reducer.finish().accessibility.getValue(0, 0, 60), 0);
+        }
+    }
+
+}
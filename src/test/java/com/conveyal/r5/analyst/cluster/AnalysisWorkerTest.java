@@ -0,0 +1,150 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.transit.TransportNetworkCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.conveyal.r5.analyst.cluster.AnalysisWorker.ORIGINS_PER_BLOCK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the regional pipeline between the polling thread and the compute threads of a worker: tasks are requested to
+ * fill the bounded queue of blocks, and all completed results are returned to the broker exactly once.
+ */
+public class AnalysisWorkerTest {
+
+    private static final int N_RESULTS = 10_000;
+
+    private static List<RegionalTask> makeTasks (String jobId, int firstTaskId, int nTasks) {
+        List<RegionalTask> tasks = new ArrayList<>();
+        for (int i = 0; i < nTasks; i++) {
+            RegionalTask task = new RegionalTask();
+            task.jobId = jobId;
+            task.taskId = firstTaskId + i;
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /** The tasks requested to refill a partly full queue form exactly enough blocks to fill it. */
+    @Test
+    public void requestedTasksFillQueue () {
+        BlockingQueue<List<RegionalTask>> taskQueue = new LinkedBlockingQueue<>(6);
+        taskQueue.add(makeTasks("JOB", 0, ORIGINS_PER_BLOCK));
+        taskQueue.add(makeTasks("JOB", ORIGINS_PER_BLOCK, 3));
+        int maxTasks = AnalysisWorker.maxTasksToRequest(taskQueue);
+        assertEquals(4 * ORIGINS_PER_BLOCK, maxTasks);
+
+        List<RegionalTask> tasks = makeTasks("JOB", 100, maxTasks);
+        List<List<RegionalTask>> blocks = AnalysisWorker.groupIntoBlocks(tasks);
+        assertEquals(4, blocks.size());
+        int t = 0;
+        for (List<RegionalTask> block : blocks) {
+            assertEquals(ORIGINS_PER_BLOCK, block.size());
+            for (RegionalTask task : block) assertSame(tasks.get(t++), task);
+            assertTrue("Blocks should never overfill the queue.", taskQueue.offer(block));
+        }
+        assertEquals(0, AnalysisWorker.maxTasksToRequest(taskQueue));
+    }
+
+    /** Blocks never mix tasks from different jobs, and keep the tasks in the order the broker delivered them. */
+    @Test
+    public void blocksSplitAtJobBoundaries () {
+        List<RegionalTask> tasks = makeTasks("A", 0, ORIGINS_PER_BLOCK + 2);
+        tasks.addAll(makeTasks("B", 0, 3));
+        List<List<RegionalTask>> blocks = AnalysisWorker.groupIntoBlocks(tasks);
+        assertEquals(3, blocks.size());
+        assertEquals(ORIGINS_PER_BLOCK, blocks.get(0).size());
+        assertEquals(2, blocks.get(1).size());
+        assertEquals(3, blocks.get(2).size());
+        assertEquals("A", blocks.get(1).get(1).jobId);
+        assertEquals(ORIGINS_PER_BLOCK + 1, blocks.get(1).get(1).taskId);
+        assertEquals("B", blocks.get(2).get(0).jobId);
+    }
+
+    /**
+     * Results added by compute threads while the polling thread is draining them are each delivered exactly once, and
+     * a broker with no work is distinguished from a failed poll.
+     */
+    @Test
+    public void pollDeliversEveryResultOnce () throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        AtomicInteger nDelivered = new AtomicInteger();
+        AtomicInteger maxTasksRequested = new AtomicInteger(-1);
+        HttpServer broker = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        broker.createContext("/internal/poll", exchange -> {
+            JsonNode workerStatus = objectMapper.readTree(exchange.getRequestBody());
+            nDelivered.addAndGet(workerStatus.get("results").size());
+            maxTasksRequested.set(workerStatus.get("maxTasksRequested").asInt());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        broker.start();
+        try {
+            AnalysisWorker worker = makeWorker(broker.getAddress().getPort());
+            Thread computeThread = new Thread(() -> {
+                for (int i = 0; i < N_RESULTS; i++) {
+                    worker.workResults.add(makeResult(i));
+                }
+            });
+            computeThread.start();
+            while (computeThread.isAlive() || !worker.workResults.isEmpty()) {
+                List<RegionalTask> tasks = worker.getSomeWork(0);
+                assertTrue(tasks != null && tasks.isEmpty());
+            }
+            assertEquals(N_RESULTS, nDelivered.get());
+            assertEquals(0, maxTasksRequested.get());
+        } finally {
+            broker.stop(0);
+        }
+    }
+
+    /** When the broker cannot be reached, polling fails and the results are kept to be sent again later. */
+    @Test
+    public void failedPollKeepsResults () throws Exception {
+        int unusedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            unusedPort = socket.getLocalPort();
+        }
+        AnalysisWorker worker = makeWorker(unusedPort);
+        for (int i = 0; i < 100; i++) {
+            worker.workResults.add(makeResult(i));
+        }
+        assertNull(worker.getSomeWork(ORIGINS_PER_BLOCK));
+        assertEquals(100, worker.workResults.size());
+    }
+
+    private static AnalysisWorker makeWorker (int brokerPort) {
+        Properties config = new Properties();
+        config.setProperty("work-offline", "true");
+        config.setProperty("aws-region", "eu-west-1");
+        config.setProperty("listen-for-single-point", "false");
+        config.setProperty("broker-address", "localhost");
+        config.setProperty("broker-port", Integer.toString(brokerPort));
+        return new AnalysisWorker(config, null, new TransportNetworkCache(null, null, null, null));
+    }
+
+    private static RegionalWorkResult makeResult (int taskId) {
+        RegionalTask task = new RegionalTask();
+        task.jobId = "JOB";
+        task.taskId = taskId;
+        return new RegionalWorkResult(new OneOriginResult(null, null), task);
+    }
+
+}
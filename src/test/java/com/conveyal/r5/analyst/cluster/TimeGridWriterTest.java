@@ -0,0 +1,120 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.google.common.io.LittleEndianDataInputStream;
+import com.google.common.io.LittleEndianDataOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that travel time grids written in both versions of the access grid format can be read back exactly.
+ */
+public class TimeGridWriterTest {
+
+    @Test
+    public void bothVersionsRoundTrip () throws IOException {
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = 9;
+        task.west = 100;
+        task.north = 200;
+        task.width = 120;
+        task.height = 100;
+        task.percentiles = new int[] {5, 50, 95};
+        TravelTimeResult result = new TravelTimeResult(task);
+        // Reach a disk of cells around (40, 30), with times increasing away from the center.
+        Random random = new Random(3);
+        for (int y = 0; y < task.height; y++) {
+            for (int x = 0; x < task.width; x++) {
+                int distance = (int) Math.hypot(x - 40, y - 30);
+                if (distance < 25) {
+                    int median = distance * 2 + random.nextInt(5);
+                    result.setTarget(y * task.width + x, new int[] {median - 2, median, median + random.nextInt(30)});
+                }
+            }
+        }
+        TimeGridWriter writer = new TimeGridWriter(result, task);
+
+        byte[] fixedWidth = write(writer, AccessGridValueWriter.FIXED_WIDTH_VERSION);
+        assertEquals(TimeGridWriter.HEADER_SIZE + task.width * task.height * 3 * Integer.BYTES, fixedWidth.length);
+        checkGrid(fixedWidth, result, task, 0, 0, task.width, task.height);
+
+        byte[] cropped = write(writer, AccessGridValueWriter.VARINT_VERSION);
+        checkGrid(cropped, result, task, 16, 6, 49, 49);
+        assertTrue(cropped.length * 10 < fixedWidth.length);
+    }
+
+    @Test
+    public void emptyGrid () throws IOException {
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = 9;
+        task.width = 10;
+        task.height = 10;
+        task.percentiles = new int[] {50};
+        TravelTimeResult result = new TravelTimeResult(task);
+        byte[] cropped = write(new TimeGridWriter(result, task), AccessGridValueWriter.VARINT_VERSION);
+        assertEquals(TimeGridWriter.HEADER_SIZE, cropped.length);
+    }
+
+    @Test
+    public void extremeValues () throws IOException {
+        int[] values = new int[] {0, UNREACHED, UNREACHED, Integer.MIN_VALUE, 5, UNREACHED, Integer.MAX_VALUE - 1, -7, 0};
+        for (int version : new int[] {AccessGridValueWriter.FIXED_WIDTH_VERSION, AccessGridValueWriter.VARINT_VERSION}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            AccessGridValueWriter valueWriter = new AccessGridValueWriter(new LittleEndianDataOutputStream(bytes), version);
+            for (int value : values) valueWriter.write(value);
+            valueWriter.finish();
+            AccessGridValueReader valueReader = new AccessGridValueReader(
+                    new LittleEndianDataInputStream(new ByteArrayInputStream(bytes.toByteArray())), version);
+            int[] decoded = new int[values.length];
+            for (int i = 0; i < values.length; i++) decoded[i] = valueReader.read();
+            assertArrayEquals(values, decoded);
+        }
+    }
+
+    private static byte[] write (TimeGridWriter writer, int version) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeToDataOutput(new LittleEndianDataOutputStream(bytes), version);
+        return bytes.toByteArray();
+    }
+
+    /** Read a grid and check that it has the expected extents within the task, and the same values as the result. */
+    private static void checkGrid (byte[] bytes, TravelTimeResult expected, TravelTimeSurfaceTask task,
+                                   int minX, int minY, int width, int height) throws IOException {
+        LittleEndianDataInputStream input = new LittleEndianDataInputStream(new ByteArrayInputStream(bytes));
+        byte[] header = new byte[8];
+        input.readFully(header);
+        assertEquals("ACCESSGR", new String(header));
+        int version = input.readInt();
+        assertEquals(task.zoom, input.readInt());
+        assertEquals(task.west + minX, input.readInt());
+        assertEquals(task.north + minY, input.readInt());
+        assertEquals(width, input.readInt());
+        assertEquals(height, input.readInt());
+        int nChannels = input.readInt();
+        assertEquals(expected.nSamplesPerPoint, nChannels);
+        AccessGridValueReader valueReader = new AccessGridValueReader(input, version);
+        for (int c = 0; c < nChannels; c++) {
+            valueReader.restartDeltas();
+            for (int y = 0; y < task.height; y++) {
+                for (int x = 0; x < task.width; x++) {
+                    int expectedValue = expected.getValues()[c][y * task.width + x];
+                    if (x >= minX && x < minX + width && y >= minY && y < minY + height) {
+                        assertEquals(expectedValue, valueReader.read());
+                    } else {
+                        assertEquals(UNREACHED, expectedValue);
+                    }
+                }
+            }
+        }
+        assertEquals(-1, input.read());
+    }
+
+}
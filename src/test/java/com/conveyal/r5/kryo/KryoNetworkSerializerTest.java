@@ -4,15 +4,21 @@ import ch.qos.logback.classic.Logger;
 import com.conveyal.object_differ.ObjectDiffer;
 import com.conveyal.r5.analyst.scenario.FakeGraph;
 import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.EdgeStore;
 import com.conveyal.r5.streets.IntHashGrid;
+import com.conveyal.r5.streets.VertexStore;
 import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.trove.TIntBufferList;
+import gnu.trove.list.TIntList;
 import org.junit.Test;
 
 import java.io.File;
 import java.util.BitSet;
 
 import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests that serialization and deserialization of TransportNetworks functions as expected and does not corrupt objects.
@@ -37,7 +43,7 @@ public class KryoNetworkSerializerTest {
         // Save the network to a temporary file on disk.
         File tempFile = File.createTempFile("r5-serialization-test-", ".dat");
         tempFile.deleteOnExit();
-        KryoNetworkSerializer.write(originalNetwork, tempFile);
+        KryoNetworkSerializer.write(originalNetwork, tempFile, false);
 
         // Re-load the saved network, and confirm that the re-loaded graph is identical to the built one.
         // Reading the file also rebuilds transient indexes and primes the linkage cache with any saved linkage.
@@ -50,13 +56,63 @@ public class KryoNetworkSerializerTest {
         assertNoDifferences(copiedNetwork1, copiedNetwork2);
     }
 
+    /**
+     * In the memory-mapped format, some street layer columns are loaded as a different class, so cannot be compared
+     * by the ObjectDiffer. Check that those columns are mapped and contain the original values, and that everything
+     * else is identical.
+     */
+    @Test
+    public void testMappedRoundTrip () throws Exception {
+        TransportNetwork originalNetwork = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        originalNetwork.rebuildLinkedGridPointSet(StreetMode.WALK);
+
+        File tempFile = File.createTempFile("r5-serialization-test-", ".dat");
+        tempFile.deleteOnExit();
+        KryoNetworkSerializer.write(originalNetwork, tempFile, true);
+
+        TransportNetwork copiedNetwork = KryoNetworkSerializer.read(tempFile);
+        assertMappedColumnsEqual(originalNetwork, copiedNetwork);
+        assertNoDifferences(originalNetwork, copiedNetwork, MAPPED_COLUMN_FIELDS);
+
+        // Writing a network that was loaded from the memory-mapped format must reproduce the same network.
+        File tempFile2 = File.createTempFile("r5-serialization-test-", ".dat");
+        tempFile2.deleteOnExit();
+        KryoNetworkSerializer.write(copiedNetwork, tempFile2, true);
+        TransportNetwork recopiedNetwork = KryoNetworkSerializer.read(tempFile2);
+        assertMappedColumnsEqual(originalNetwork, recopiedNetwork);
+        assertNoDifferences(originalNetwork, recopiedNetwork, MAPPED_COLUMN_FIELDS);
+    }
+
+    private static final String[] MAPPED_COLUMN_FIELDS = new String[] {
+            "fixedLats", "fixedLons", "flags", "fromVertices", "toVertices", "lengths_mm"
+    };
+
+    private static void assertMappedColumnsEqual (TransportNetwork original, TransportNetwork copy) {
+        VertexStore originalVertices = original.streetLayer.vertexStore;
+        VertexStore copiedVertices = copy.streetLayer.vertexStore;
+        assertColumnMapped(originalVertices.fixedLats, copiedVertices.fixedLats);
+        assertColumnMapped(originalVertices.fixedLons, copiedVertices.fixedLons);
+        EdgeStore originalEdges = original.streetLayer.edgeStore;
+        EdgeStore copiedEdges = copy.streetLayer.edgeStore;
+        assertColumnMapped(originalEdges.flags, copiedEdges.flags);
+        assertColumnMapped(originalEdges.fromVertices, copiedEdges.fromVertices);
+        assertColumnMapped(originalEdges.toVertices, copiedEdges.toVertices);
+        assertColumnMapped(originalEdges.lengths_mm, copiedEdges.lengths_mm);
+    }
+
+    private static void assertColumnMapped (TIntList original, TIntList copy) {
+        assertTrue(copy instanceof TIntBufferList);
+        assertArrayEquals(original.toArray(), copy.toArray());
+    }
+
     /**
      * Create an ObjectDiffer configured to work on R5 TransportNetworks.
      * Make some exclusions for classes that are inherently transient or contain unordered lists we can't yet compare.
      * Apply the ObjectDiffer to two TransportNetworks and assert that there are no differences between them.
      */
-    private static void assertNoDifferences(TransportNetwork a, TransportNetwork b) {
+    private static void assertNoDifferences(TransportNetwork a, TransportNetwork b, String... extraIgnoredFields) {
         ObjectDiffer objectDiffer = new ObjectDiffer();
+        objectDiffer.ignoreFields(extraIgnoredFields);
         // Skip some transient fields on StreetLayer and TransitLayer.
         // FIXME these should not be fields on the resultant objects, they are only used when building the layer.
         objectDiffer.ignoreFields("permissionLabeler", "stressLabeler", "typeOfEdgeLabeler", "speedLabeler", "osm", "stopForIndex");
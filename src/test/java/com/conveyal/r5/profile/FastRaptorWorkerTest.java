@@ -0,0 +1,189 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.gtfs.model.CalendarDate;
+import com.conveyal.gtfs.model.Frequency;
+import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.model.Trip;
+import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.transit.RouteInfo;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TripPattern;
+import com.conveyal.r5.transit.TripSchedule;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.stream.IntStream;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check travel times found by FastRaptorWorker on small hand-built transit networks.
+ */
+public class FastRaptorWorkerTest {
+
+    private static final LocalDate DATE = LocalDate.of(2020, 1, 15);
+
+    /**
+     * Stop 3 can only be reached by riding to stop 0, then walking to stop 2 and riding on from there. Transfers out of
+     * stop 0 were once skipped, because the loop over updated stops stopped at index zero.
+     */
+    @Test
+    public void transferFromFirstStop () {
+        TransitLayer transit = new TransitLayer();
+        for (int s = 0; s < 4; s++) {
+            transit.stopIdForIndex.add("STOP_" + s);
+            transit.transfersForStop.add(new TIntArrayList());
+        }
+        // 65 meters, or 50 seconds at 1.3 meters per second.
+        transit.transfersForStop.get(0).add(new int[] { 2, 65_000 });
+        RouteInfo route = new RouteInfo();
+        route.route_type = 3;
+        transit.routes.add(route);
+        Service service = new Service("SERVICE");
+        CalendarDate calendarDate = new CalendarDate();
+        calendarDate.date = DATE;
+        calendarDate.exception_type = 1;
+        service.calendar_dates.put(DATE, calendarDate);
+        transit.services.add(service);
+
+        // One trip from stop 1 to stop 0 leaving at 8:00, and trips from stop 2 to stop 3 every ten minutes.
+        TripPattern first = new TripPattern(new TIntArrayList(new int[] { 1, 0 }));
+        first.routeIndex = 0;
+        first.addTrip(makeTrip("FIRST", 8 * 60 * 60, 5 * 60));
+        transit.tripPatterns.add(first);
+        TripPattern second = new TripPattern(new TIntArrayList(new int[] { 2, 3 }));
+        second.routeIndex = 0;
+        for (int t = 0; t < 18; t++) {
+            second.addTrip(makeTrip("SECOND_" + t, 7 * 60 * 60 + t * 10 * 60, 5 * 60));
+        }
+        transit.tripPatterns.add(second);
+        transit.hasSchedules = true;
+        transit.rebuildTransientIndexes();
+
+        ProfileRequest request = new ProfileRequest();
+        request.date = DATE;
+        request.fromTime = 7 * 60 * 60 + 50 * 60;
+        request.toTime = 8 * 60 * 60;
+        request.monteCarloDraws = 0;
+        request.transitModes = EnumSet.allOf(TransitModes.class);
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        accessTimes.put(1, 60);
+        int[] travelTimes = new FastRaptorWorker(transit, request, accessTimes).route();
+
+        // Iterations run backward from the end of the departure window. Leaving at 7:59 or 7:58 misses the 8:00 trip,
+        // which must leave more than a minute after reaching its stop. Otherwise stop 0 is reached at 8:05, stop 2 at
+        // 8:05:50, and the trip leaving stop 2 at 8:10 reaches stop 3 at 8:15.
+        final int nIterations = 10;
+        final int stop = 3;
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int departureTime = request.toTime - (iteration + 1) * 60;
+            int expected = (iteration < 2) ? UNREACHED : 8 * 60 * 60 + 15 * 60 - departureTime;
+            assertEquals(expected, travelTimes[stop * nIterations + iteration]);
+        }
+    }
+
+    /**
+     * Routing slices of the departure window in parallel must give exactly the same travel times in every iteration as
+     * routing the whole window on one thread, on a network mixing scheduled and frequency routes with Monte Carlo draws.
+     */
+    @Test
+    public void parallelSlicesMatchSequential () {
+        TransitLayer transit = new TransitLayer();
+        for (int s = 0; s < 5; s++) {
+            transit.stopIdForIndex.add("STOP_" + s);
+            transit.transfersForStop.add(new TIntArrayList());
+        }
+        // 130 meters, or 100 seconds at 1.3 meters per second.
+        transit.transfersForStop.get(2).add(new int[] { 3, 130_000 });
+        RouteInfo route = new RouteInfo();
+        route.route_type = 3;
+        transit.routes.add(route);
+        Service service = new Service("SERVICE");
+        CalendarDate calendarDate = new CalendarDate();
+        calendarDate.date = DATE;
+        calendarDate.exception_type = 1;
+        service.calendar_dates.put(DATE, calendarDate);
+        transit.services.add(service);
+
+        // Scheduled trips from stop 0 to stop 1 every ten minutes, then a frequency route from stop 1 to stop 2 and,
+        // after a transfer, another from stop 3 to stop 4.
+        TripPattern scheduled = new TripPattern(new TIntArrayList(new int[] { 0, 1 }));
+        scheduled.routeIndex = 0;
+        for (int t = 0; t < 15; t++) {
+            scheduled.addTrip(makeTrip("SCHEDULED_" + t, 7 * 60 * 60 + t * 10 * 60, 7 * 60));
+        }
+        transit.tripPatterns.add(scheduled);
+        TripPattern firstFrequency = new TripPattern(new TIntArrayList(new int[] { 1, 2 }));
+        firstFrequency.routeIndex = 0;
+        firstFrequency.addTrip(makeFrequencyTrip("FREQUENCY_1", 12 * 60, 9 * 60));
+        transit.tripPatterns.add(firstFrequency);
+        TripPattern secondFrequency = new TripPattern(new TIntArrayList(new int[] { 3, 4 }));
+        secondFrequency.routeIndex = 0;
+        secondFrequency.addTrip(makeFrequencyTrip("FREQUENCY_2", 15 * 60, 6 * 60));
+        transit.tripPatterns.add(secondFrequency);
+        transit.hasSchedules = true;
+        transit.hasFrequencies = true;
+        transit.rebuildTransientIndexes();
+
+        ProfileRequest request = new ProfileRequest();
+        request.date = DATE;
+        request.fromTime = 7 * 60 * 60 + 30 * 60;
+        request.toTime = 8 * 60 * 60 + 30 * 60;
+        request.monteCarloDraws = 300;
+        request.transitModes = EnumSet.allOf(TransitModes.class);
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        accessTimes.put(0, 60);
+        accessTimes.put(3, 20 * 60);
+
+        FastRaptorWorker sequentialWorker = new FastRaptorWorker(transit, request, accessTimes);
+        sequentialWorker.randomSeed = 42;
+        int[] sequential = sequentialWorker.route();
+        FastRaptorWorker slicedWorker = new FastRaptorWorker(transit, request, accessTimes);
+        slicedWorker.randomSeed = 42;
+        slicedWorker.parallelSlices = 7;
+        int[] sliced = slicedWorker.route();
+
+        // Stop 2 is reached by transit in every iteration, and the random schedules make its travel time vary.
+        final int nIterations = 300;
+        assertEquals(5 * nIterations, sequential.length);
+        assertTrue(IntStream.range(2 * nIterations, 3 * nIterations).noneMatch(i -> sequential[i] == UNREACHED));
+        assertTrue(IntStream.range(2 * nIterations, 3 * nIterations).map(i -> sequential[i]).distinct().count() > 1);
+        for (int stop = 0; stop < 5; stop++) {
+            for (int iteration = 0; iteration < nIterations; iteration++) {
+                int index = stop * nIterations + iteration;
+                assertEquals("Stop " + stop + ", iteration " + iteration, sequential[index], sliced[index]);
+            }
+        }
+    }
+
+    /** Make a scheduled trip between two stops. */
+    private static TripSchedule makeTrip (String tripId, int departure, int rideSeconds) {
+        Trip trip = new Trip();
+        trip.feed_id = "FEED";
+        trip.trip_id = tripId;
+        int[] times = new int[] { departure, departure + rideSeconds };
+        return TripSchedule.create(trip, times, times.clone(), null, new int[] { 1, 2 }, 0);
+    }
+
+    /** Make a trip between two stops, running at the given headway from 7:00 to 9:00. */
+    private static TripSchedule makeFrequencyTrip (String tripId, int headwaySeconds, int rideSeconds) {
+        Trip trip = new Trip();
+        trip.feed_id = "FEED";
+        trip.trip_id = tripId;
+        Frequency frequency = new Frequency();
+        frequency.trip_id = tripId;
+        frequency.start_time = 7 * 60 * 60;
+        frequency.end_time = 9 * 60 * 60;
+        frequency.headway_secs = headwaySeconds;
+        int[] times = new int[] { 0, rideSeconds };
+        return TripSchedule.create(trip, times, times.clone(), Arrays.asList(frequency), new int[] { 1, 2 }, 0);
+    }
+
+}
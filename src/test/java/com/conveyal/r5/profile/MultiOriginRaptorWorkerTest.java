@@ -0,0 +1,226 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.gtfs.model.CalendarDate;
+import com.conveyal.gtfs.model.Frequency;
+import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.model.Trip;
+import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.transit.PickDropType;
+import com.conveyal.r5.transit.RouteInfo;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TripPattern;
+import com.conveyal.r5.transit.TripSchedule;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check that routing several origins at once with MultiOriginRaptorWorker gives each origin exactly the travel times
+ * FastRaptorWorker finds when routing that origin alone.
+ */
+public class MultiOriginRaptorWorkerTest {
+
+    private static final LocalDate DATE = LocalDate.of(2020, 1, 15);
+
+    private static final int N_STOPS = 40;
+
+    private static final int N_PATTERNS = 15;
+
+    private static final int N_ORIGINS = 6;
+
+    /** Service 0 runs on the search date, service 1 does not. */
+    private static final int N_SERVICES = 2;
+
+    /** Route types for bus, rail and subway. Subway is not among the requested modes. */
+    private static final int[] ROUTE_TYPES = { 3, 2, 1 };
+
+    @Test
+    public void scheduledHalfHeadway () {
+        checkSameAsSingleOrigin(0);
+    }
+
+    @Test
+    public void scheduledMonteCarlo () {
+        // Without frequency routes, each departure minute's result is repeated once per draw.
+        checkSameAsSingleOrigin(200);
+    }
+
+    /**
+     * Frequency-based routes are not handled by the multi-origin worker, because their randomized schedules must be
+     * drawn independently for each origin. Such networks are routed one origin at a time by TravelTimeComputer.
+     */
+    @Test
+    public void frequencyNetworkRejected () {
+        TransitLayer transit = makeNetwork(new Random(42), true);
+        assertFalse(MultiOriginRaptorWorker.supports(transit));
+        for (int monteCarloDraws : new int[] { 0, 200 }) {
+            try {
+                new MultiOriginRaptorWorker(transit, makeRequest(monteCarloDraws), makeAccessTimes(new Random(42)));
+                fail("Frequency networks should be rejected.");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    /** The number of origins routed at once is limited so that their travel times fit in the memory budget. */
+    @Test
+    public void originsLimitedByMemory () {
+        TransitLayer transit = makeNetwork(new Random(42), false);
+        assertTrue(MultiOriginRaptorWorker.maxOrigins(transit, makeRequest(200)) >= N_ORIGINS);
+        // So many iterations that the travel times for a single origin exceed the budget.
+        ProfileRequest request = makeRequest(Integer.MAX_VALUE);
+        assertEquals(0, MultiOriginRaptorWorker.maxOrigins(transit, request));
+        try {
+            new MultiOriginRaptorWorker(transit, request, makeAccessTimes(new Random(42)));
+            fail("Origins whose travel times exceed the memory budget should be rejected.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static void checkSameAsSingleOrigin (int monteCarloDraws) {
+        for (int seed = 0; seed < 5; seed++) {
+            Random random = new Random(seed);
+            TransitLayer transit = makeNetwork(random, false);
+            assertTrue(MultiOriginRaptorWorker.supports(transit));
+            ProfileRequest request = makeRequest(monteCarloDraws);
+            List<TIntIntMap> accessTimes = makeAccessTimes(random);
+            MultiOriginRaptorWorker multiOriginWorker = new MultiOriginRaptorWorker(transit, request, accessTimes);
+            int[][] travelTimes = multiOriginWorker.route();
+            assertEquals(N_ORIGINS, travelTimes.length);
+            for (int origin = 0; origin < N_ORIGINS; origin++) {
+                FastRaptorWorker worker = new FastRaptorWorker(transit, request, accessTimes.get(origin));
+                assertEquals(worker.nIterations, multiOriginWorker.nIterations);
+                assertArrayEquals("Seed " + seed + ", origin " + origin, worker.route(), travelTimes[origin]);
+            }
+        }
+    }
+
+    private static ProfileRequest makeRequest (int monteCarloDraws) {
+        ProfileRequest request = new ProfileRequest();
+        request.date = DATE;
+        request.fromTime = 7 * 60 * 60;
+        request.toTime = 8 * 60 * 60;
+        request.maxRides = 4;
+        request.monteCarloDraws = monteCarloDraws;
+        request.transitModes = EnumSet.of(TransitModes.BUS, TransitModes.RAIL);
+        return request;
+    }
+
+    /** Each origin reaches a few random stops, some of them shared with other origins at the same access time. */
+    private static List<TIntIntMap> makeAccessTimes (Random random) {
+        List<TIntIntMap> accessTimes = new ArrayList<>();
+        for (int origin = 0; origin < N_ORIGINS; origin++) {
+            TIntIntMap accessTimesForOrigin = new TIntIntHashMap();
+            int nAccessStops = 1 + random.nextInt(3);
+            for (int i = 0; i < nAccessStops; i++) {
+                accessTimesForOrigin.put(random.nextInt(N_STOPS), 60 * random.nextInt(10));
+            }
+            accessTimesForOrigin.put(0, 300);
+            accessTimes.add(accessTimesForOrigin);
+        }
+        return accessTimes;
+    }
+
+    /**
+     * Make a network of random patterns over a shared set of stops, with transfers between random stops. Some trips
+     * run on a service that is inactive on the search date, some stops do not allow pickup or drop off, and one
+     * pattern has overtaking trips so it is routed without a departure index.
+     * @param frequencies whether to add frequency-based trips to some patterns.
+     */
+    private static TransitLayer makeNetwork (Random random, boolean frequencies) {
+        TransitLayer transit = new TransitLayer();
+        for (int s = 0; s < N_STOPS; s++) {
+            transit.stopIdForIndex.add("STOP_" + s);
+            TIntArrayList transfers = new TIntArrayList();
+            int nTransfers = random.nextInt(3);
+            for (int t = 0; t < nTransfers; t++) {
+                int targetStop = random.nextInt(N_STOPS);
+                if (targetStop == s) continue;
+                transfers.add(targetStop);
+                transfers.add(random.nextInt(1_000_000));
+            }
+            transit.transfersForStop.add(transfers);
+        }
+        for (int routeType : ROUTE_TYPES) {
+            RouteInfo route = new RouteInfo();
+            route.route_type = routeType;
+            transit.routes.add(route);
+        }
+        for (int s = 0; s < N_SERVICES; s++) {
+            Service service = new Service("SERVICE_" + s);
+            CalendarDate calendarDate = new CalendarDate();
+            calendarDate.date = DATE;
+            calendarDate.exception_type = (s == 0) ? 1 : 2;
+            service.calendar_dates.put(DATE, calendarDate);
+            transit.services.add(service);
+        }
+        for (int p = 0; p < N_PATTERNS; p++) {
+            transit.tripPatterns.add(makePattern(random, p, p == 0, frequencies && p % 3 == 0));
+        }
+        for (TripPattern pattern : transit.tripPatterns) {
+            transit.hasSchedules |= pattern.hasSchedules;
+            transit.hasFrequencies |= pattern.hasFrequencies;
+        }
+        transit.rebuildTransientIndexes();
+        return transit;
+    }
+
+    private static TripPattern makePattern (Random random, int patternIndex, boolean overtaking, boolean frequencies) {
+        // Every pattern passes through stop 0 so that all origins can reach the whole network.
+        TIntArrayList stops = new TIntArrayList();
+        stops.add(0);
+        int nStops = 4 + random.nextInt(8);
+        while (stops.size() < nStops) {
+            int stop = random.nextInt(N_STOPS);
+            if (!stops.contains(stop)) stops.add(stop);
+        }
+        stops.shuffle(random);
+        TripPattern pattern = new TripPattern(stops);
+        pattern.routeIndex = patternIndex % ROUTE_TYPES.length;
+        pattern.pickups[1 + random.nextInt(nStops - 1)] = PickDropType.NONE;
+        pattern.dropoffs[random.nextInt(nStops - 1)] = PickDropType.NONE;
+        int firstDeparture = 6 * 60 * 60 + 45 * 60 + random.nextInt(10 * 60);
+        int nTrips = 5 + random.nextInt(20);
+        for (int t = 0; t < nTrips; t++) {
+            firstDeparture += 60 + random.nextInt(8 * 60);
+            int secondsBetweenStops = overtaking ? 60 + random.nextInt(10 * 60) : 3 * 60;
+            int[] arrivals = new int[nStops];
+            int[] departures = new int[nStops];
+            for (int s = 0; s < nStops; s++) {
+                arrivals[s] = firstDeparture + s * secondsBetweenStops;
+                departures[s] = arrivals[s] + random.nextInt(2) * 30;
+            }
+            Trip trip = new Trip();
+            trip.feed_id = "FEED";
+            trip.trip_id = patternIndex + "_" + t;
+            List<Frequency> frequencyEntries = null;
+            if (frequencies && t % 2 == 0) {
+                Frequency frequency = new Frequency();
+                frequency.start_time = firstDeparture;
+                frequency.end_time = firstDeparture + 30 * 60;
+                frequency.headway_secs = 5 * 60 + random.nextInt(10 * 60);
+                frequencyEntries = Collections.singletonList(frequency);
+            }
+            int serviceCode = (random.nextInt(4) == 0) ? 1 : 0;
+            pattern.addTrip(TripSchedule.create(trip, arrivals, departures, frequencyEntries, new int[nStops], serviceCode));
+        }
+        return pattern;
+    }
+
+}
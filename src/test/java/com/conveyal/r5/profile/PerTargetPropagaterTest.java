@@ -0,0 +1,89 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.TravelTimeReducer;
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that propagating to tiles of destinations in parallel gives the same travel times as propagating to every
+ * destination in order.
+ */
+public class PerTargetPropagaterTest {
+
+    private static final int N_ITERATIONS = 30;
+
+    @Test
+    public void tiledMatchesSequential () {
+        TransportNetwork network = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        // A grid over the whole network at two zoom levels above the default, spanning several tiles in each dimension.
+        WebMercatorGridPointSet baseGrid = new WebMercatorGridPointSet(network);
+        WebMercatorGridPointSet targets = new WebMercatorGridPointSet(baseGrid.zoom + 2, baseGrid.west * 4,
+                baseGrid.north * 4, baseGrid.width * 4, baseGrid.height * 4, null);
+        assertTrue(targets.width > 64 && targets.height > 64);
+
+        TravelTimeSurfaceTask task = new TravelTimeSurfaceTask();
+        task.zoom = targets.zoom;
+        task.west = targets.west;
+        task.north = targets.north;
+        task.width = targets.width;
+        task.height = targets.height;
+        task.fromTime = 7 * 60 * 60;
+        task.toTime = task.fromTime + N_ITERATIONS * 60;
+        task.monteCarloDraws = 0;
+        task.percentiles = new int[] {5, 50, 95};
+
+        Random random = new Random(42);
+        int nStops = network.transitLayer.getStopCount();
+        int[] travelTimesToStops = new int[nStops * N_ITERATIONS];
+        for (int i = 0; i < travelTimesToStops.length; i++) {
+            travelTimesToStops[i] = random.nextInt(4) == 0 ? UNREACHED : random.nextInt(90 * 60);
+        }
+        int[] nonTransitTravelTimes = new int[targets.featureCount()];
+        for (int i = 0; i < nonTransitTravelTimes.length; i++) {
+            nonTransitTravelTimes[i] = random.nextInt(2) == 0 ? UNREACHED : random.nextInt(120 * 60);
+        }
+
+        OneOriginResult sequential = propagate(network, targets, task, travelTimesToStops, nonTransitTravelTimes, false);
+        OneOriginResult tiled = propagate(network, targets, task, travelTimesToStops, nonTransitTravelTimes, true);
+        int[][] expected = sequential.travelTimes.getValues();
+        int[][] actual = tiled.travelTimes.getValues();
+        for (int p = 0; p < expected.length; p++) {
+            assertArrayEquals(expected[p], actual[p]);
+        }
+    }
+
+    private static OneOriginResult propagate (
+            TransportNetwork network,
+            WebMercatorGridPointSet targets,
+            TravelTimeSurfaceTask task,
+            int[] travelTimesToStops,
+            int[] nonTransitTravelTimes,
+            boolean parallelTiles
+    ) {
+        PerTargetPropagater propagater = new PerTargetPropagater(
+                targets,
+                network.streetLayer,
+                EnumSet.of(StreetMode.WALK),
+                task,
+                travelTimesToStops,
+                N_ITERATIONS,
+                nonTransitTravelTimes
+        );
+        propagater.travelTimeReducer = new TravelTimeReducer(task);
+        propagater.parallelTiles = parallelTiles;
+        return propagater.propagate();
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.conveyal.r5.profile;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Check that the branch-free propagation kernel in PerTargetPropagater produces exactly the same travel times as the
+ * conventional one, including around the travel time cutoff and with UNREACHED values that must not overflow.
+ */
+public class PropagationKernelTest {
+
+    @Test
+    public void branchFreeMatchesConventional () {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 10_000; trial++) {
+            int nIterations = 1 + random.nextInt(50);
+            int maxTravelTimeSeconds = random.nextInt(2 * 60 * 60);
+            int secondsFromStopToTarget = random.nextInt(2 * 60 * 60);
+            int[] travelTimesToStop = randomTravelTimes(random, nIterations);
+            int[] expected = randomTravelTimes(random, nIterations);
+            int[] actual = expected.clone();
+            PerTargetPropagater.propagateStop(
+                    travelTimesToStop, 0, secondsFromStopToTarget, maxTravelTimeSeconds, expected);
+            PerTargetPropagater.propagateStopBranchFree(
+                    travelTimesToStop, 0, secondsFromStopToTarget, maxTravelTimeSeconds, actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    private static int[] randomTravelTimes (Random random, int nIterations) {
+        int[] travelTimes = new int[nIterations];
+        for (int i = 0; i < nIterations; i++) {
+            travelTimes[i] = random.nextInt(4) == 0 ? UNREACHED : random.nextInt(2 * 60 * 60);
+        }
+        return travelTimes;
+    }
+
+}
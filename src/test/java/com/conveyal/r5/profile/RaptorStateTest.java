@@ -0,0 +1,70 @@
+package com.conveyal.r5.profile;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that RaptorStates reused in place end up identical to freshly constructed or copied ones.
+ */
+public class RaptorStateTest {
+
+    private static final int N_STOPS = 50;
+
+    private static final int MAX_DURATION_SECONDS = 60 * 60;
+
+    @Test
+    public void resetMatchesNewState () {
+        RaptorState state = new RaptorState(N_STOPS, MAX_DURATION_SECONDS);
+        state.departureTime = 1000;
+        update(state, 3, 1200);
+        update(state, 7, 1500);
+        state.reset(MAX_DURATION_SECONDS);
+        assertTrue(state.stopsUpdated.isEmpty());
+        assertTrue(state.nonTransferStopsUpdated.isEmpty());
+        assertStatesEqual(new RaptorState(N_STOPS, MAX_DURATION_SECONDS), state);
+    }
+
+    @Test
+    public void copyUpdatedStopsMatchesFullCopy () {
+        RaptorState original = new RaptorState(N_STOPS, MAX_DURATION_SECONDS);
+        original.departureTime = 1000;
+        update(original, 3, 1200);
+        update(original, 4, 1300);
+
+        RaptorState copy = original.copy();
+        update(copy, 4, 1250);
+        update(copy, 9, 1400);
+        BitSet stops = new BitSet();
+        stops.or(copy.stopsUpdated);
+        stops.or(copy.nonTransferStopsUpdated);
+        copy.copyFrom(original, stops);
+        assertTrue(copy.stopsUpdated.isEmpty());
+        assertStatesEqual(original, copy);
+
+        RaptorState other = new RaptorState(N_STOPS, MAX_DURATION_SECONDS);
+        other.copyFrom(original);
+        assertStatesEqual(original, other);
+    }
+
+    private static void update (RaptorState state, int stop, int time) {
+        state.setTimeAtStop(stop, time, 1, 0, 10, time - state.departureTime - 10, false);
+    }
+
+    private static void assertStatesEqual (RaptorState expected, RaptorState actual) {
+        assertEquals(expected.departureTime, actual.departureTime);
+        assertEquals(expected.maxDurationSeconds, actual.maxDurationSeconds);
+        assertArrayEquals(expected.bestTimes, actual.bestTimes);
+        assertArrayEquals(expected.bestNonTransferTimes, actual.bestNonTransferTimes);
+        assertArrayEquals(expected.previousPatterns, actual.previousPatterns);
+        assertArrayEquals(expected.previousStop, actual.previousStop);
+        assertArrayEquals(expected.transferStop, actual.transferStop);
+        assertArrayEquals(expected.nonTransferWaitTime, actual.nonTransferWaitTime);
+        assertArrayEquals(expected.nonTransferInVehicleTravelTime, actual.nonTransferInVehicleTravelTime);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.point_to_point.builder.TNBuilderConfig;
+import com.conveyal.r5.profile.StreetMode;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import static com.conveyal.r5.streets.VertexStore.floatingDegreesToFixed;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that evaluating travel times only at the points near the area reached by a street search gives exactly the
+ * same result as evaluating them at every point in a gridded point set.
+ */
+public class CroppedEvaluationTest {
+
+    /** Number of vertices along each side of a square street grid. */
+    private static final int GRID_SIZE = 60;
+
+    /** Spacing between streets in degrees, about 100 meters. */
+    private static final double SPACING_DEGREES = 0.001;
+
+    @Test
+    public void croppedMatchesUncropped () {
+        StreetLayer streetLayer = new StreetLayer(new TNBuilderConfig());
+        int[][] vertices = new int[GRID_SIZE][GRID_SIZE];
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+                vertices[y][x] = streetLayer.vertexStore.addVertex(
+                        37.3 + y * SPACING_DEGREES, -122.1 + x * SPACING_DEGREES);
+                if (x > 0) streetLayer.edgeStore.addStreetPair(vertices[y][x - 1], vertices[y][x], 90_000, 1);
+                if (y > 0) streetLayer.edgeStore.addStreetPair(vertices[y - 1][x], vertices[y][x], 110_000, 1);
+            }
+        }
+        EdgeStore.Edge e = streetLayer.edgeStore.getCursor(0);
+        do {
+            e.setFlag(EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN);
+            e.setFlag(EdgeStore.EdgeFlag.ALLOWS_CAR);
+            e.setFlag(EdgeStore.EdgeFlag.LINKABLE);
+        } while (e.advance());
+        streetLayer.indexStreets();
+        streetLayer.buildEdgeLists();
+
+        WebMercatorGridPointSet grid = new WebMercatorGridPointSet(new Envelope(
+                -122.1, -122.1 + GRID_SIZE * SPACING_DEGREES, 37.3, 37.3 + GRID_SIZE * SPACING_DEGREES));
+        LinkedPointSet linkage = new LinkedPointSet(grid, streetLayer, StreetMode.WALK, null);
+
+        for (int timeLimitSeconds : new int[] {60, 300, 900}) {
+            StreetRouter router = new StreetRouter(streetLayer);
+            router.streetMode = StreetMode.WALK;
+            router.timeLimitSeconds = timeLimitSeconds;
+            assertTrue(router.setOrigin(37.3 + 22.3 * SPACING_DEGREES, -122.1 + 35.6 * SPACING_DEGREES));
+            router.route();
+
+            Envelope reachedEnvelope = router.getReachedEnvelopeFixed();
+            if (timeLimitSeconds == 60) {
+                // Make sure the test is exercising the cropping.
+                assertTrue(grid.getPointsInEnvelope(reachedEnvelope).size() < grid.featureCount());
+            }
+            PointSetTimes uncropped = linkage.eval(router::getTravelTimeToVertex, 1300, 1300, router.getOriginSplit());
+            PointSetTimes cropped = linkage.eval(router::getTravelTimeToVertex, 1300, 1300, router.getOriginSplit(),
+                    reachedEnvelope);
+            assertArrayEquals(travelTimes(uncropped), travelTimes(cropped));
+
+            // Every point with a travel time must lie within the envelope.
+            for (int p = 0; p < grid.featureCount(); p++) {
+                if (uncropped.getTravelTimeToPoint(p) == Integer.MAX_VALUE) continue;
+                assertTrue(reachedEnvelope.contains(
+                        floatingDegreesToFixed(grid.getLon(p)), floatingDegreesToFixed(grid.getLat(p))));
+            }
+        }
+    }
+
+    private static int[] travelTimes (PointSetTimes pointSetTimes) {
+        int[] travelTimes = new int[pointSetTimes.size()];
+        for (int p = 0; p < travelTimes.length; p++) {
+            travelTimes[p] = pointSetTimes.getTravelTimeToPoint(p);
+        }
+        return travelTimes;
+    }
+
+}
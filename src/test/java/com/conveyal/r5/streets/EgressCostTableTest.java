@@ -0,0 +1,224 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.progress.NoopProgressListener;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.analyst.scenario.PickupWaitTimes;
+import com.conveyal.r5.common.GeometryUtils;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.conveyal.r5.transit.TransitLayer.WALK_DISTANCE_LIMIT_METERS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that building egress cost tables one stop at a time on a dedicated pool, skipping stops without on-demand
+ * egress service and filtering each table as soon as it is built, gives exactly the same tables as building a table
+ * for every stop and then filtering all of them in a second pass.
+ */
+public class EgressCostTableTest {
+
+    private static TransportNetwork network;
+
+    private static WebMercatorGridPointSet grid;
+
+    @BeforeClass
+    public static void setUpNetwork () {
+        network = FakeGraph.buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        grid = new WebMercatorGridPointSet(network);
+    }
+
+    @Test
+    public void walkTablesMatchAllStops () {
+        LinkedPointSet linkage = new LinkedPointSet(grid, network.streetLayer, StreetMode.WALK, null);
+        EgressCostTable egressCostTable = new EgressCostTable(linkage, new NoopProgressListener());
+        List<int[]> expected = computeAllTables(linkage);
+        assertTablesEqual(expected, egressCostTable.stopToPointLinkageCostTables);
+    }
+
+    /**
+     * On-demand egress service is only available from some stops and only reaches points inside its service area.
+     * The car tables also exercise cropping the evaluation to the area reached from each stop.
+     */
+    @Test
+    public void carTablesMatchFilteredAllStops () {
+        TransitLayer transitLayer = network.transitLayer;
+        TIntList linkedStops = new TIntArrayList();
+        for (int s = 0; s < transitLayer.getStopCount(); s++) {
+            if (transitLayer.getJTSPointForStopFixed(s) != null) linkedStops.add(s);
+        }
+        assertTrue(linkedStops.size() > 1);
+        int servedStop = linkedStops.get(0);
+        int unservedStop = linkedStops.get(1);
+        // A service area around the first stop, much smaller than the area reachable by car in the linking time limit.
+        Point servedStopPoint = transitLayer.getJTSPointForStopFixed(servedStop);
+        double lat = VertexStore.fixedDegreesToFloating(servedStopPoint.getY());
+        double lon = VertexStore.fixedDegreesToFloating(servedStopPoint.getX());
+        Envelope serviceEnvelope = new Envelope(lon - 0.02, lon + 0.02, lat - 0.02, lat + 0.02);
+        PickupWaitTimes.EgressService egressService = new PickupWaitTimes.EgressService(300,
+                new TIntHashSet(new int[] {servedStop}), GeometryUtils.geometryFactory.toGeometry(serviceEnvelope));
+        network.streetLayer.pickupWaitTimes =
+                new PickupWaitTimes(null, null, Arrays.asList(egressService), StreetMode.CAR);
+        try {
+            LinkedPointSet linkage = new LinkedPointSet(grid, network.streetLayer, StreetMode.CAR, null);
+            EgressCostTable egressCostTable = new EgressCostTable(linkage, new NoopProgressListener());
+            List<int[]> unfiltered = computeAllTables(linkage);
+            List<int[]> expected = filterAllTables(linkage, unfiltered, network.streetLayer.pickupWaitTimes);
+            assertTablesEqual(expected, egressCostTable.stopToPointLinkageCostTables);
+
+            // Make sure the test is exercising the filtering.
+            assertNotNull(unfiltered.get(unservedStop));
+            assertNull(egressCostTable.stopToPointLinkageCostTables.get(unservedStop));
+            assertNotNull(expected.get(servedStop));
+            assertTrue(expected.get(servedStop).length < unfiltered.get(servedStop).length);
+
+            // Stops that reach no points must be skipped when transposing.
+            assertCursorsMatchMaps(egressCostTable);
+        } finally {
+            network.streetLayer.pickupWaitTimes = null;
+        }
+    }
+
+    @Test
+    public void cursorsMatchPointToStopMaps () {
+        LinkedPointSet linkage = new LinkedPointSet(grid, network.streetLayer, StreetMode.WALK, null);
+        assertCursorsMatchMaps(new EgressCostTable(linkage, new NoopProgressListener()));
+    }
+
+    /**
+     * Transpose the table and check that iterating over the stops near each point gives exactly the same (stop, point,
+     * cost) triples as one map per point from stop index to cost, in increasing order of stop index.
+     */
+    private static void assertCursorsMatchMaps (EgressCostTable egressCostTable) {
+        List<int[]> stopToPointTables = new ArrayList<>(egressCostTable.stopToPointLinkageCostTables);
+        TIntIntMap[] pointToStopMaps = new TIntIntMap[egressCostTable.linkedPointSet.size()];
+        for (int stop = 0; stop < stopToPointTables.size(); stop++) {
+            int[] stopToPointTable = stopToPointTables.get(stop);
+            if (stopToPointTable == null) continue;
+            for (int i = 0; i < stopToPointTable.length; i += 2) {
+                int point = stopToPointTable[i];
+                if (pointToStopMaps[point] == null) pointToStopMaps[point] = new TIntIntHashMap();
+                pointToStopMaps[point].put(stop, stopToPointTable[i + 1]);
+            }
+        }
+        egressCostTable.destructivelyTransposeForPropagationAsNeeded();
+        assertNull(egressCostTable.stopToPointLinkageCostTables);
+        int pointsWithStops = 0;
+        for (int point = 0; point < pointToStopMaps.length; point++) {
+            TIntIntMap expected = pointToStopMaps[point];
+            EgressCostTable.StopCostCursor cursor = egressCostTable.stopsNearPoint(point);
+            int nStops = 0;
+            int previousStop = -1;
+            while (cursor.advance()) {
+                assertNotNull("point " + point, expected);
+                assertTrue("point " + point, cursor.stop() > previousStop);
+                assertTrue("point " + point, expected.containsKey(cursor.stop()));
+                assertEquals("point " + point, expected.get(cursor.stop()), cursor.cost());
+                previousStop = cursor.stop();
+                nStops += 1;
+            }
+            assertEquals("point " + point, expected == null ? 0 : expected.size(), nStops);
+            if (nStops > 0) pointsWithStops += 1;
+        }
+        // Make sure the test covers points both near to and far from stops.
+        assertTrue(pointsWithStops > 0);
+        assertTrue(pointsWithStops < pointToStopMaps.length);
+    }
+
+    private static void assertTablesEqual (List<int[]> expected, List<int[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        int nonEmptyTables = 0;
+        for (int s = 0; s < expected.size(); s++) {
+            assertArrayEquals("stop " + s, expected.get(s), actual.get(s));
+            if (expected.get(s) != null) nonEmptyTables += 1;
+        }
+        assertTrue(nonEmptyTables > 0);
+    }
+
+    /** Build an unfiltered table for every stop in the network, evaluating car tables at every point. */
+    private static List<int[]> computeAllTables (LinkedPointSet linkage) {
+        TransitLayer transitLayer = network.transitLayer;
+        List<int[]> tables = new ArrayList<>();
+        for (int s = 0; s < transitLayer.getStopCount(); s++) {
+            Point stopPoint = transitLayer.getJTSPointForStopFixed(s);
+            if (stopPoint == null) {
+                tables.add(null);
+            } else if (linkage.streetMode == StreetMode.WALK) {
+                Envelope envelopeAroundStop = stopPoint.getEnvelopeInternal();
+                GeometryUtils.expandEnvelopeFixed(envelopeAroundStop, WALK_DISTANCE_LIMIT_METERS);
+                TIntIntMap distanceTableToVertices = transitLayer.stopToVertexDistanceTables.get(s);
+                tables.add(distanceTableToVertices == null ? null :
+                        linkage.extendDistanceTableToPoints(distanceTableToVertices, envelopeAroundStop));
+            } else {
+                int vertexId = transitLayer.streetVertexForStop.get(s);
+                if (vertexId < 0) {
+                    tables.add(null);
+                    continue;
+                }
+                VertexStore.Vertex vertex = network.streetLayer.vertexStore.getCursor(vertexId);
+                StreetRouter sr = new StreetRouter(network.streetLayer);
+                sr.streetMode = StreetMode.CAR;
+                sr.setOrigin(vertex.getLat(), vertex.getLon());
+                sr.timeLimitSeconds = EgressCostTable.CAR_TIME_LINKING_LIMIT_SECONDS;
+                sr.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+                sr.route();
+                PointSetTimes driveTimes = linkage.eval(sr::getTravelTimeToVertex, null,
+                        LinkedPointSet.OFF_STREET_SPEED_MILLIMETERS_PER_SECOND, null);
+                TIntList packedDriveTimes = new TIntArrayList();
+                for (int p = 0; p < driveTimes.size(); p++) {
+                    if (driveTimes.getTravelTimeToPoint(p) != Integer.MAX_VALUE) {
+                        packedDriveTimes.add(p);
+                        packedDriveTimes.add(driveTimes.getTravelTimeToPoint(p));
+                    }
+                }
+                tables.add(packedDriveTimes.isEmpty() ? null : packedDriveTimes.toArray());
+            }
+        }
+        return tables;
+    }
+
+    /** Filter all tables after they are built, retaining only points served by each stop's on-demand service. */
+    private static List<int[]> filterAllTables (LinkedPointSet linkage, List<int[]> tables,
+                                                PickupWaitTimes pickupWaitTimes) {
+        List<int[]> filteredTables = new ArrayList<>();
+        for (int s = 0; s < tables.size(); s++) {
+            PickupWaitTimes.EgressService egressService = pickupWaitTimes.getEgressService(s);
+            int[] costs = tables.get(s);
+            if (egressService == null || costs == null) {
+                filteredTables.add(null);
+                continue;
+            }
+            TIntList filteredCosts = new TIntArrayList();
+            for (int i = 0; i < costs.length; i += 2) {
+                int point = costs[i];
+                double lat = linkage.pointSet.getLat(point);
+                double lon = linkage.pointSet.getLon(point);
+                if (GeometryUtils.containsPoint(egressService.serviceArea, lon, lat)) {
+                    filteredCosts.add(point);
+                    filteredCosts.add(costs[i + 1] + egressService.waitTimeSeconds);
+                }
+            }
+            filteredTables.add(filteredCosts.isEmpty() ? null : filteredCosts.toArray());
+        }
+        return filteredTables;
+    }
+
+}
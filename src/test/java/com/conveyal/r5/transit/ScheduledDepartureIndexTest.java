@@ -0,0 +1,116 @@
+package com.conveyal.r5.transit;
+
+import com.conveyal.gtfs.model.Frequency;
+import com.conveyal.gtfs.model.Trip;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Check that the trips found by binary search in a ScheduledDepartureIndex are the same ones found by scanning through
+ * every trip on a pattern, and that patterns with overtaking trips are not indexed.
+ */
+public class ScheduledDepartureIndexTest {
+
+    private static final int N_STOPS = 12;
+
+    private static final int N_SERVICES = 3;
+
+    @Test
+    public void binarySearchMatchesScan () {
+        Random random = new Random(42);
+        BitSet servicesActive = new BitSet();
+        servicesActive.set(0);
+        servicesActive.set(2);
+        List<TripPattern> patterns = new ArrayList<>();
+        for (int p = 0; p < 20; p++) {
+            patterns.add(makePattern(random, 1 + random.nextInt(50), false));
+        }
+        ScheduledDepartureIndex index = new ScheduledDepartureIndex(patterns, servicesActive);
+        for (int p = 0; p < patterns.size(); p++) {
+            TripPattern pattern = patterns.get(p);
+            ScheduledDepartureIndex.PatternTimetable timetable = index.forPattern(p);
+            assertNotNull(timetable);
+            for (int s = 0; s < N_STOPS; s++) {
+                for (int time = 5 * 60 * 60; time < 24 * 60 * 60; time += 37) {
+                    int expectedTripIndex = scan(pattern, servicesActive, s, time);
+                    int trip = timetable.firstTripDepartingAfter(s, time);
+                    if (expectedTripIndex == -1) {
+                        assertEquals(-1, trip);
+                    } else {
+                        assertEquals(expectedTripIndex, timetable.tripIndex(trip));
+                        TripSchedule schedule = pattern.tripSchedules.get(expectedTripIndex);
+                        assertEquals(schedule.departures[s], timetable.departure(trip, s));
+                        assertEquals(schedule.arrivals[s], timetable.arrival(trip, s));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void overtakingPatternsAreNotIndexed () {
+        Random random = new Random(42);
+        BitSet servicesActive = new BitSet();
+        servicesActive.set(0, N_SERVICES);
+        List<TripPattern> patterns = new ArrayList<>();
+        patterns.add(makePattern(random, 10, false));
+        patterns.add(makePattern(random, 10, true));
+        ScheduledDepartureIndex index = new ScheduledDepartureIndex(patterns, servicesActive);
+        assertNotNull(index.forPattern(0));
+        assertNull(index.forPattern(1));
+    }
+
+    /** The linear scan used before the index was introduced, see FastRaptorWorker.doScheduledSearchForRound(). */
+    private static int scan (TripPattern pattern, BitSet servicesActive, int stopPosition, int time) {
+        for (int t = 0; t < pattern.tripSchedules.size(); t++) {
+            TripSchedule schedule = pattern.tripSchedules.get(t);
+            if (!servicesActive.get(schedule.serviceCode) || schedule.headwaySeconds != null) continue;
+            if (time < schedule.departures[stopPosition]) return t;
+        }
+        return -1;
+    }
+
+    /**
+     * Make a pattern with trips on random services sorted by their first departure, including some frequency trips
+     * and trips that depart at the same time. If overtaking is true, one trip is much slower than the trip after it.
+     */
+    private static TripPattern makePattern (Random random, int nTrips, boolean overtaking) {
+        TIntArrayList stops = new TIntArrayList();
+        for (int s = 0; s < N_STOPS; s++) stops.add(s);
+        TripPattern pattern = new TripPattern(stops);
+        int firstDeparture = 6 * 60 * 60;
+        for (int t = 0; t < nTrips; t++) {
+            firstDeparture += random.nextInt(4) * 5 * 60;
+            int secondsBetweenStops = (overtaking && t == 0) ? 30 * 60 : 2 * 60;
+            int[] times = new int[N_STOPS];
+            for (int s = 0; s < N_STOPS; s++) {
+                times[s] = firstDeparture + s * secondsBetweenStops;
+            }
+            Trip trip = new Trip();
+            trip.feed_id = "feed";
+            trip.trip_id = Integer.toString(t);
+            List<Frequency> frequencies = null;
+            if (!overtaking && random.nextInt(10) == 0) {
+                Frequency frequency = new Frequency();
+                frequency.start_time = firstDeparture;
+                frequency.end_time = firstDeparture + 60 * 60;
+                frequency.headway_secs = 10 * 60;
+                frequencies = Collections.singletonList(frequency);
+            }
+            int serviceCode = random.nextInt(N_SERVICES);
+            pattern.addTrip(TripSchedule.create(trip, times, times.clone(), frequencies, new int[N_STOPS], serviceCode));
+        }
+        return pattern;
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.conveyal.r5.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentBitSetTest {
+
+    @Test
+    public void setAndGet () {
+        ConcurrentBitSet bits = new ConcurrentBitSet(130);
+        assertFalse(bits.get(0));
+        assertTrue(bits.set(0));
+        assertFalse(bits.set(0));
+        assertTrue(bits.set(63));
+        assertTrue(bits.set(64));
+        assertTrue(bits.set(129));
+        assertTrue(bits.get(63));
+        assertTrue(bits.get(64));
+        assertFalse(bits.get(65));
+        assertEquals(4, bits.cardinality());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void outOfBounds () {
+        new ConcurrentBitSet(64).set(64);
+    }
+
+    /** When many threads race to set the same bits, each bit should be reported as newly set exactly once. */
+    @Test
+    public void concurrentSet () {
+        int size = 10_000;
+        ConcurrentBitSet bits = new ConcurrentBitSet(size);
+        AtomicInteger nNewlySet = new AtomicInteger();
+        IntStream.range(0, size * 8).parallel().forEach(i -> {
+            if (bits.set(i % size)) {
+                nNewlySet.incrementAndGet();
+            }
+        });
+        assertEquals(size, nNewlySet.get());
+        assertEquals(size, bits.cardinality());
+    }
+
+}
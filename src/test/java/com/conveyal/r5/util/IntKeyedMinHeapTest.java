@@ -0,0 +1,51 @@
+package com.conveyal.r5.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that the primitive-keyed heap used by the StreetRouter returns elements in priority order.
+ */
+public class IntKeyedMinHeapTest {
+
+    @Test
+    public void testPollOrder () {
+        Random random = new Random(42);
+        // Start with a tiny capacity to exercise growth of the backing arrays.
+        IntKeyedMinHeap<Integer> heap = new IntKeyedMinHeap<>(2);
+        int[] keys = new int[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(500);
+            heap.insert(keys[i], keys[i]);
+        }
+        Arrays.sort(keys);
+        assertEquals(keys.length, heap.size());
+        for (int key : keys) {
+            assertEquals(key, heap.peekKey());
+            assertEquals(key, (int) heap.poll());
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void testInterleavedInsertAndPoll () {
+        IntKeyedMinHeap<String> heap = new IntKeyedMinHeap<>();
+        heap.insert("c", 30);
+        heap.insert("a", 10);
+        assertEquals("a", heap.poll());
+        heap.insert("b", 20);
+        heap.insert("d", 40);
+        assertEquals("b", heap.poll());
+        assertEquals("c", heap.poll());
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        heap.insert("e", 5);
+        assertEquals("e", heap.poll());
+    }
+
+}